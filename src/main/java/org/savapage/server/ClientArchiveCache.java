@@ -0,0 +1,342 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.savapage.core.SpException;
+import org.savapage.core.community.CommunityDictEnum;
+import org.savapage.core.config.ConfigManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of ZIP archives of client directories, so a directory is zipped once
+ * instead of on each download.
+ * <p>
+ * An archive is keyed by directory, and is rebuilt when the fingerprint of the
+ * directory content changes: the SHA-1 of the relative path, size and
+ * modification time of its files. The fingerprint is checked at most once
+ * every {@link #RECHECK_MSEC}. Concurrent downloads of a directory wait for a
+ * single build. Archives are kept in {@link #CACHE_DIR_NAME} of the
+ * application tmp directory.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class ClientArchiveCache {
+
+    /** */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(ClientArchiveCache.class);
+
+    /**
+     * Name of the cache directory.
+     */
+    private static final String CACHE_DIR_NAME = "client-archive-cache";
+
+    /**
+     * Minimal interval between fingerprint checks of a directory.
+     */
+    private static final long RECHECK_MSEC = 10 * 1000L;
+
+    /**
+     * A cached archive.
+     */
+    private static final class Entry {
+
+        /** Fingerprint of directory content. */
+        private String fingerprint;
+
+        /** The archive. */
+        private File archive;
+
+        /** Time of last fingerprint check. */
+        private long checked;
+    }
+
+    /** Entries by canonical directory path. */
+    private final ConcurrentHashMap<String, Entry> entries =
+            new ConcurrentHashMap<>();
+
+    /** */
+    private final Path cacheDir;
+
+    /** */
+    private static class SingletonHolder {
+        /** */
+        public static final ClientArchiveCache INSTANCE =
+                new ClientArchiveCache();
+    }
+
+    /**
+     * Singleton. Archives left over from a previous run are removed.
+     */
+    private ClientArchiveCache() {
+
+        this.cacheDir = Paths.get(ConfigManager.getAppTmpDir(), CACHE_DIR_NAME);
+
+        try {
+            FileUtils.deleteDirectory(this.cacheDir.toFile());
+            Files.createDirectories(this.cacheDir);
+        } catch (IOException e) {
+            throw new SpException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return The singleton instance.
+     */
+    public static ClientArchiveCache instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Gets the up-to-date ZIP archive of a client directory, and builds it
+     * when needed.
+     *
+     * @param clientDir
+     *            The client home directory.
+     * @param dir
+     *            The (sub) directory to archive.
+     * @return The archive file.
+     * @throws IOException
+     *             When IO error.
+     */
+    public File getArchive(final File clientDir, final File dir)
+            throws IOException {
+
+        final String key = dir.getCanonicalPath();
+
+        Entry entry = this.entries.get(key);
+
+        if (entry == null) {
+            final Entry entryNew = new Entry();
+            entry = this.entries.putIfAbsent(key, entryNew);
+            if (entry == null) {
+                entry = entryNew;
+            }
+        }
+
+        synchronized (entry) {
+
+            final long now = System.currentTimeMillis();
+
+            if (entry.archive != null && now - entry.checked < RECHECK_MSEC) {
+                return entry.archive;
+            }
+
+            final String fingerprint = createFingerprint(dir);
+            entry.checked = now;
+
+            if (entry.archive != null && entry.archive.exists()
+                    && fingerprint.equals(entry.fingerprint)) {
+                return entry.archive;
+            }
+
+            final File archive = this.build(clientDir, dir);
+
+            if (entry.archive != null) {
+                /*
+                 * On Unix, a download in progress keeps reading the unlinked
+                 * file.
+                 */
+                if (!entry.archive.delete()) {
+                    entry.archive.deleteOnExit();
+                }
+            }
+
+            entry.archive = archive;
+            entry.fingerprint = fingerprint;
+
+            return archive;
+        }
+    }
+
+    /**
+     * Builds the ZIP archive of a directory.
+     *
+     * @param clientDir
+     *            The client home directory.
+     * @param dir
+     *            The directory to archive.
+     * @return The archive file.
+     * @throws IOException
+     *             When IO error.
+     */
+    private File build(final File clientDir, final File dir)
+            throws IOException {
+
+        final long msecStart = System.currentTimeMillis();
+
+        final Path pathTmp =
+                this.cacheDir.resolve(UUID.randomUUID().toString() + ".tmp");
+        final Path pathZip =
+                this.cacheDir.resolve(UUID.randomUUID().toString() + ".zip");
+
+        try {
+            try (ZipOutputStream zostr = new ZipOutputStream(
+                    new FileOutputStream(pathTmp.toFile()));) {
+                addDir(clientDir, dir, zostr);
+            }
+            Files.move(pathTmp, pathZip, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(pathTmp);
+        }
+
+        LOGGER.debug("Archive of [{}] built in {} msec.", dir,
+                System.currentTimeMillis() - msecStart);
+
+        return pathZip.toFile();
+    }
+
+    /**
+     * Creates the fingerprint of the content of a directory.
+     *
+     * @param dir
+     *            The directory.
+     * @return The SHA-1 hex of the relative path, size and modification time
+     *         of all files in the directory tree.
+     * @throws IOException
+     *             When IO error.
+     */
+    private static String createFingerprint(final File dir)
+            throws IOException {
+
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new SpException(e.getMessage(), e);
+        }
+
+        addFingerprint(dir.getCanonicalPath(), dir, digest);
+
+        return String.format("%040x", new BigInteger(1, digest.digest()));
+    }
+
+    /**
+     * Adds the files of a directory to a fingerprint.
+     *
+     * @param basePath
+     *            Canonical path of the archived directory.
+     * @param dirObj
+     *            The directory to add.
+     * @param digest
+     *            The fingerprint digest.
+     * @throws IOException
+     *             When IO error.
+     */
+    private static void addFingerprint(final String basePath,
+            final File dirObj, final MessageDigest digest)
+            throws IOException {
+
+        final File[] files = dirObj.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        // File order of listFiles() is unspecified.
+        Arrays.sort(files);
+
+        for (final File file : files) {
+
+            if (file.isDirectory()) {
+                addFingerprint(basePath, file, digest); // recurse
+                continue;
+            }
+
+            digest.update(String
+                    .format("%s|%d|%d\n",
+                            StringUtils.removeStart(file.getCanonicalPath(),
+                                    basePath),
+                            file.length(), file.lastModified())
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Adds a directory to {@link ZipOutputStream}.
+     *
+     * @param clientDir
+     *            The client directory.
+     * @param dirObj
+     *            The directory to add to the zip.
+     * @param zostr
+     *            The {@link ZipOutputStream}.
+     * @throws IOException
+     *             When IO error.
+     */
+    private static void addDir(final File clientDir, final File dirObj,
+            final ZipOutputStream zostr) throws IOException {
+
+        final File[] files = dirObj.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (int i = 0; i < files.length; i++) {
+
+            if (files[i].isDirectory()) {
+                addDir(clientDir, files[i], zostr); // recurse
+                continue;
+            }
+
+            final StringBuilder relativePath = new StringBuilder();
+
+            relativePath
+                    .append(CommunityDictEnum.SAVAPAGE.getWord().toLowerCase())
+                    .append("/")
+                    .append(ClientFileDownloadServlet.CLIENT_DIR_NAME);
+
+            relativePath.append(StringUtils.removeStart(
+                    files[i].getCanonicalPath(), clientDir.getCanonicalPath()));
+
+            zostr.putNextEntry(new ZipEntry(relativePath.toString()));
+            Files.copy(files[i].toPath(), zostr);
+            zostr.closeEntry();
+        }
+    }
+}
@@ -25,16 +25,9 @@
 package org.savapage.server;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
-import java.util.UUID;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -46,6 +39,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.wicket.protocol.http.WebApplication;
 import org.savapage.core.community.CommunityDictEnum;
 import org.savapage.core.config.ConfigManager;
+import org.savapage.server.helpers.FileDownloadHelper;
 
 /**
  * Delivers public client files for downloading. Single files are delivered as
@@ -61,7 +55,7 @@ public final class ClientFileDownloadServlet extends HttpServlet {
     /**
      * .
      */
-    private static final String CLIENT_DIR_NAME = "client";
+    static final String CLIENT_DIR_NAME = "client";
 
     /**
      * .
@@ -73,11 +67,6 @@ public final class ClientFileDownloadServlet extends HttpServlet {
      */
     private static final long serialVersionUID = 1L;
 
-    /**
-     * .
-     */
-    private static final int BUFFER_SIZE = 1014;
-
     @Override
     protected void doGet(final HttpServletRequest req,
             final HttpServletResponse resp)
@@ -94,19 +83,9 @@ public final class ClientFileDownloadServlet extends HttpServlet {
             resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
 
         } else if (file.isDirectory()) {
-
-            File tmpFile = null;
-
-            try {
-                tmpFile = onDownloadZippedDir(file, resp);
-            } finally {
-                if (tmpFile != null) {
-                    tmpFile.delete();
-                    tmpFile = null;
-                }
-            }
+            onDownloadZippedDir(file, req, resp);
         } else {
-            onDownloadFile(file, resp, file.getName());
+            onDownloadFile(file, req, resp, file.getName());
         }
     }
 
@@ -121,11 +100,13 @@ public final class ClientFileDownloadServlet extends HttpServlet {
     }
 
     /**
-     * Handles download request of a single file by streaming {@link File} to
-     * {@link HttpServletResponse#getOutputStream()}.
+     * Handles download request of a single file by transferring {@link File}
+     * to {@link HttpServletResponse#getOutputStream()}.
      *
      * @param file
      *            The {@link File}.
+     * @param req
+     *            The {@link HttpServletRequest}.
      * @param resp
      *            The {@link HttpServletResponse}.
      * @param attachmentFilename
@@ -134,62 +115,35 @@ public final class ClientFileDownloadServlet extends HttpServlet {
      *             When IO error.
      */
     private static void onDownloadFile(final File file,
-            final HttpServletResponse resp, final String attachmentFilename)
-            throws IOException {
-
-        /*
-         * Before streaming content, set content characteristics.
-         */
-        resp.setHeader("Content-Disposition", String
-                .format("attachment; filename=\"%s\"", attachmentFilename));
-
-        resp.setContentType(getContentType(file));
-        resp.setContentLength((int) file.length());
-
-        //
-        try (InputStream istr = new FileInputStream(file);) {
-
-            final OutputStream ostr = resp.getOutputStream();
+            final HttpServletRequest req, final HttpServletResponse resp,
+            final String attachmentFilename) throws IOException {
 
-            final byte[] aByte = new byte[BUFFER_SIZE];
-
-            int nBytes = istr.read(aByte);
-
-            while (-1 < nBytes) {
-                ostr.write(aByte, 0, nBytes);
-                nBytes = istr.read(aByte);
-            }
-
-            resp.setStatus(HttpServletResponse.SC_OK);
-        }
+        FileDownloadHelper.sendFile(req, resp, file, getContentType(file),
+                attachmentFilename);
     }
 
     /**
-     * Handles download request of a directory by streaming zip {@link File}
-     * with directory content to {@link HttpServletResponse#getOutputStream()}.
+     * Handles download request of a directory by transferring the cached zip
+     * {@link File} with directory content to
+     * {@link HttpServletResponse#getOutputStream()}.
      *
      * @param dir
      *            The directory {@link File} to download as zip file.
+     * @param req
+     *            The {@link HttpServletRequest}.
      * @param resp
      *            The {@link HttpServletResponse}.
-     * @return The zip {@link File}, fully streamed to the
-     *         {@link HttpServletResponse#getOutputStream()}.
      * @throws IOException
      *             When IO error.
      */
-    private static File onDownloadZippedDir(final File dir,
-            final HttpServletResponse resp) throws IOException {
-
-        final File zipFile =
-                FileSystems.getDefault().getPath(ConfigManager.getAppTmpDir(),
-                        UUID.randomUUID().toString()).toFile();
+    private static void onDownloadZippedDir(final File dir,
+            final HttpServletRequest req, final HttpServletResponse resp)
+            throws IOException {
 
         final File clientDir = new File(ConfigManager.getClientHome());
 
-        try (ZipOutputStream zostr =
-                new ZipOutputStream(new FileOutputStream(zipFile));) {
-            addDir(clientDir, dir, zostr);
-        }
+        final File zipFile =
+                ClientArchiveCache.instance().getArchive(clientDir, dir);
 
         final StringBuilder attachmentFilename = new StringBuilder();
 
@@ -203,65 +157,6 @@ public final class ClientFileDownloadServlet extends HttpServlet {
 
         attachmentFilename.append(".zip");
 
-        onDownloadFile(zipFile, resp, attachmentFilename.toString());
-
-        return zipFile;
-    }
-
-    /**
-     * Adds a directory to {@link ZipOutputStream}.
-     *
-     * @param clientDir
-     *            The client directory.
-     * @param dirObj
-     *            The directory to add to the zip.
-     * @param zostr
-     *            The {@link ZipOutputStream}.
-     * @throws IOException
-     *             When IO error.
-     */
-    private static void addDir(final File clientDir, final File dirObj,
-            final ZipOutputStream zostr) throws IOException {
-
-        final File[] files = dirObj.listFiles();
-
-        if (files == null) {
-            return;
-        }
-
-        byte[] aByte = new byte[BUFFER_SIZE];
-
-        for (int i = 0; i < files.length; i++) {
-
-            if (files[i].isDirectory()) {
-                addDir(clientDir, files[i], zostr); // recurse
-                continue;
-            }
-
-            try (InputStream istr = new FileInputStream(files[i]);) {
-
-                final StringBuilder relativePath = new StringBuilder();
-
-                relativePath
-                        .append(CommunityDictEnum.SAVAPAGE.getWord()
-                                .toLowerCase())
-                        .append("/").append(CLIENT_DIR_NAME);
-
-                relativePath.append(
-                        StringUtils.removeStart(files[i].getCanonicalPath(),
-                                clientDir.getCanonicalPath()));
-
-                zostr.putNextEntry(new ZipEntry(relativePath.toString()));
-
-                int nBytes = istr.read(aByte);
-
-                while (-1 < nBytes) {
-                    zostr.write(aByte, 0, nBytes);
-                    nBytes = istr.read(aByte);
-                }
-
-                zostr.closeEntry();
-            }
-        }
+        onDownloadFile(zipFile, req, resp, attachmentFilename.toString());
     }
 }
@@ -25,10 +25,7 @@
 package org.savapage.server;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -40,7 +37,7 @@ import org.apache.wicket.protocol.http.WebApplication;
 import org.savapage.core.config.ConfigManager;
 import org.savapage.core.config.ServerBasePath;
 import org.savapage.core.config.ServerPathEnum;
-import org.savapage.core.util.IOHelper;
+import org.savapage.server.helpers.FileDownloadHelper;
 
 /**
  * Delivers files for web customization.
@@ -57,11 +54,6 @@ public final class CustomWebServlet extends HttpServlet {
      */
     private static final long serialVersionUID = 1L;
 
-    /**
-     * .
-     */
-    private static final int BUFFER_SIZE = 1014;
-
     /**
      * Base path of custom web files (without leading or trailing '/').
      */
@@ -90,43 +82,24 @@ public final class CustomWebServlet extends HttpServlet {
 
         final String reqURI = req.getRequestURI();
 
-        InputStream istr = null;
-
-        try {
+        final File file = new File(CONTENT_HOME + reqURI);
 
-            final OutputStream ostr = resp.getOutputStream();
+        if (file.isFile()) {
 
-            final File file = new File(CONTENT_HOME + reqURI);
+            FileDownloadHelper.sendFile(req, resp, file,
+                    WebApplication.get().getMimeType(reqURI), null);
 
-            if (file.exists()) {
+        } else {
 
-                resp.setContentType(WebApplication.get().getMimeType(reqURI));
-                resp.setContentLength((int) file.length());
+            final byte[] msg =
+                    String.format("%s: not found", reqURI).getBytes();
 
-                istr = new FileInputStream(file);
-                final byte[] aByte = new byte[BUFFER_SIZE];
+            resp.setContentType(WebApplication.get().getMimeType("x.txt"));
+            resp.setContentLength(msg.length);
 
-                int nBytes = istr.read(aByte);
-                while (-1 < nBytes) {
-                    ostr.write(aByte, 0, nBytes);
-                    nBytes = istr.read(aByte);
-                }
-
-            } else {
-
-                final byte[] msg =
-                        String.format("%s: not found", reqURI).getBytes();
-
-                resp.setContentType(WebApplication.get().getMimeType("x.txt"));
-                resp.setContentLength(msg.length);
-
-                ostr.write(msg);
-            }
+            resp.getOutputStream().write(msg);
 
             resp.setStatus(HttpServletResponse.SC_OK);
-
-        } finally {
-            IOHelper.closeQuietly(istr);
         }
     }
 }
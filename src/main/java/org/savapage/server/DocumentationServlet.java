@@ -25,10 +25,7 @@
 package org.savapage.server;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -38,7 +35,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.wicket.protocol.http.WebApplication;
 import org.savapage.core.config.ConfigManager;
-import org.savapage.core.util.IOHelper;
+import org.savapage.server.helpers.FileDownloadHelper;
 
 /**
  * Delivers static documentation, like the User Manual (DocBook) and the Third
@@ -55,11 +52,6 @@ public final class DocumentationServlet extends HttpServlet {
      */
     private static final long serialVersionUID = 1L;
 
-    /**
-     * .
-     */
-    private static final int BUFFER_SIZE = 1014;
-
     /**
      *
      */
@@ -81,44 +73,25 @@ public final class DocumentationServlet extends HttpServlet {
             reqURI += "index.html";
         }
 
-        InputStream istr = null;
-
-        try {
-
-            final OutputStream ostr = resp.getOutputStream();
+        final File file =
+                new File(String.format("%s/%s", CONTENT_HOME, reqURI));
 
-            final File file =
-                    new File(String.format("%s/%s", CONTENT_HOME, reqURI));
+        if (file.isFile()) {
 
-            if (file.exists()) {
+            FileDownloadHelper.sendFile(req, resp, file,
+                    WebApplication.get().getMimeType(reqURI), null);
 
-                resp.setContentType(WebApplication.get().getMimeType(reqURI));
-                resp.setContentLength((int) file.length());
+        } else {
 
-                istr = new FileInputStream(file);
-                final byte[] aByte = new byte[BUFFER_SIZE];
+            final byte[] msg =
+                    String.format("%s: not found", reqURI).getBytes();
 
-                int nBytes = istr.read(aByte);
+            resp.setContentType(WebApplication.get().getMimeType("x.txt"));
+            resp.setContentLength(msg.length);
 
-                while (-1 < nBytes) {
-                    ostr.write(aByte, 0, nBytes);
-                    nBytes = istr.read(aByte);
-                }
-            } else {
-
-                final byte[] msg =
-                        String.format("%s: not found", reqURI).getBytes();
-
-                resp.setContentType(WebApplication.get().getMimeType("x.txt"));
-                resp.setContentLength(msg.length);
-
-                ostr.write(msg);
-            }
+            resp.getOutputStream().write(msg);
 
             resp.setStatus(HttpServletResponse.SC_OK);
-
-        } finally {
-            IOHelper.closeQuietly(istr);
         }
     }
 }
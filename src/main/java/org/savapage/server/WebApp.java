@@ -27,16 +27,11 @@ package org.savapage.server;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.wicket.Session;
@@ -75,7 +70,6 @@ import org.savapage.core.services.helpers.ThirdPartyEnum;
 import org.savapage.core.services.helpers.UserAuth;
 import org.savapage.core.services.helpers.UserAuthModeEnum;
 import org.savapage.core.util.AppLogHelper;
-import org.savapage.core.util.DateUtil;
 import org.savapage.core.util.LocaleHelper;
 import org.savapage.core.util.Messages;
 import org.savapage.ext.oauth.OAuthProviderEnum;
@@ -84,14 +78,16 @@ import org.savapage.ext.payment.PaymentGatewayException;
 import org.savapage.ext.payment.PaymentMethodEnum;
 import org.savapage.ext.payment.bitcoin.BitcoinGateway;
 import org.savapage.lib.pgp.pdf.PdfPgpVerifyUrl;
-import org.savapage.server.api.JsonApiServer;
+import org.savapage.server.api.JsonApiResourceReference;
 import org.savapage.server.cometd.AbstractEventService;
 import org.savapage.server.dropzone.PdfPgpDropZoneResourceReference;
 import org.savapage.server.dropzone.WebPrintDropZoneResourceReference;
 import org.savapage.server.ext.ServerPluginManager;
 import org.savapage.server.img.ImageServer;
+import org.savapage.server.img.PageImageRenderQueue;
 import org.savapage.server.ios.WebClipServer;
 import org.savapage.server.ipp.IppPrintServer;
+import org.savapage.server.ipp.IppPrintServlet;
 import org.savapage.server.ipp.IppPrintServerHomePage;
 import org.savapage.server.pages.AbstractPage;
 import org.savapage.server.pages.LibreJsLicenseEnum;
@@ -100,6 +96,7 @@ import org.savapage.server.pages.admin.AbstractAdminPage;
 import org.savapage.server.pages.printsite.AbstractPrintSitePage;
 import org.savapage.server.pages.user.AbstractUserPage;
 import org.savapage.server.raw.RawPrintServer;
+import org.savapage.server.session.AuthSessionRegistry;
 import org.savapage.server.session.SpSession;
 import org.savapage.server.webapp.CustomStringResourceLoader;
 import org.savapage.server.webapp.OAuthRedirectPage;
@@ -166,7 +163,7 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
     public static final String PATH_PRINTERS = "printers";
 
     /**
-     * Used in this class to set mountPage() for {@link WebApp#PATH_PRINTERS}.
+     * The context of the IPP Print Server, see {@link IppPrintServlet}.
      */
     public static final String MOUNT_PATH_PRINTERS = "/" + PATH_PRINTERS;
 
@@ -279,79 +276,154 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
      */
     public static final String FILENAME_WEB_PROPERTIES = "web.properties";
 
-    /** */
-    private static Properties theServerProps = new Properties();
-
-    /** */
-    private static Properties theWebProps = new Properties();
-
-    /** */
-    private static final Logger LOGGER = LoggerFactory.getLogger(WebApp.class);
+    /**
+     * Server property key: max number of IP Print (RAW) worker threads.
+     */
+    private static final String PROP_KEY_PRINTER_RAW_THREADS_MAX =
+            "printer.raw.threads.max";
 
-    /** */
-    private static final Object MUTEX_DICT = new Object();
+    /**
+     * Server property key: max number of accepted IP Print (RAW) connections
+     * waiting for a worker thread.
+     */
+    private static final String PROP_KEY_PRINTER_RAW_QUEUE_CAPACITY =
+            "printer.raw.queue.capacity";
 
     /**
-     * Map of IP-address (key) with the most recent User (value) of an active
-     * authenticated WebApp Session.
+     * Server property key: compression level (0-9) of ZIP file exports.
      */
-    private static Map<String, String> theMapIpAddr2RecentUser =
-            new HashMap<>();
+    private static final String PROP_KEY_EXPORT_ZIP_LEVEL = "export.zip.level";
 
     /**
-     * Map of IP-address (key) and active authenticated WebApp Sessions (value).
+     * Server property key: seconds a list pager total count is cached. Zero
+     * (0) for an exact count on each page (default).
      */
-    private static Map<String, Set<String>> theMapIpAddr2Sessions =
-            new HashMap<>();
+    private static final String PROP_KEY_PAGER_COUNT_CACHE_SECS =
+            "pager.count.cache.secs";
 
     /**
-     * Map of SessionId (key) with IP-address (value) of an active authenticated
-     * WebApp Session.
+     * Server property key: {@code true} when list pagers select the next page
+     * with a keyset (seek) predicate instead of an OFFSET. Since seek keys
+     * are only valid as long as the cached count, this is only effective when
+     * {@link #PROP_KEY_PAGER_COUNT_CACHE_SECS} is set.
      */
-    private static Map<String, String> theMapSession2IpAddr = new HashMap<>();
+    private static final String PROP_KEY_PAGER_KEYSET_ENABLE =
+            "pager.keyset.enable";
 
     /**
-     * Map of SessionId (key) with User (value) of an active authenticated User
-     * WebApp Session.
+     * Server property key: hours a Web App authentication token may be idle
+     * before it expires. Zero (0) for no idle expiry.
      */
-    private static Map<String, WebAppTypeEnum> theMapSession2WebAppType =
-            new HashMap<>();
+    private static final String PROP_KEY_AUTHTOKEN_IDLE_HOURS =
+            "webapp.authtoken.idle.hours";
 
     /**
-     * Map of SessionId (key) with User (value) of an active authenticated User
-     * WebApp Session.
+     * Server property key: max hours a Web App authentication token is valid
+     * after creation. Zero (0) for no max.
      */
-    private static Map<String, String> theMapSession2User4WebApp =
-            new HashMap<>();
+    private static final String PROP_KEY_AUTHTOKEN_MAX_AGE_HOURS =
+            "webapp.authtoken.max.age.hours";
 
     /**
-     * Map of active authenticated User (key) Web App session count (value).
+     * Server property key: max number of cached authentication tokens per
+     * Web App type, when tokens are stored (see
+     * {@link #PROP_KEY_AUTHTOKEN_STORE_DIR}). Without a store, tokens are not
+     * evicted, since eviction would revoke them.
      */
-    private static Map<String, Integer> theMapUsers2WebAppUserCount =
-            new HashMap<>();
+    private static final String PROP_KEY_AUTHTOKEN_MAX_ENTRIES =
+            "webapp.authtoken.max.entries";
 
     /**
-     * Map of active authenticated User (key) Mail Tickets Web App session count
-     * (value).
+     * Server property key: directory where authentication tokens are stored,
+     * so they survive a restart and can be shared by server nodes. When
+     * blank, tokens are kept in memory only.
      */
-    private static Map<String, Integer> theMapUsers2WebAppMailTicketsCount =
-            new HashMap<>();
+    private static final String PROP_KEY_AUTHTOKEN_STORE_DIR =
+            "webapp.authtoken.store.dir";
 
     /**
-     * Map of active authenticated User (key) Payment Web App session count
-     * (value).
+     * Server property key: seconds a printer list of the printer quick search
+     * is cached. Zero (0) to disable caching.
      */
-    private static Map<String, Integer> theMapUsers2WebAppPaymentCount =
-            new HashMap<>();
+    private static final String PROP_KEY_PRINTER_QUICKSEARCH_CACHE_SECS =
+            "printer.quicksearch.cache.secs";
 
     /**
-     * Last time the session dictionaries were pruned.
+     * Server property key: minutes after which the user, user group and
+     * shared account search indexes are reloaded. Zero (0) to disable the
+     * indexes.
+     */
+    private static final String PROP_KEY_USER_SEARCH_INDEX_REFRESH_MINS =
+            "user.search.index.refresh.mins";
+
+    /** */
+    private static final int PAGER_COUNT_CACHE_SECS_DEFAULT = 0;
+
+    /** */
+    private static final int USER_SEARCH_INDEX_REFRESH_MINS_DEFAULT = 10;
+
+    /** */
+    private static final int PRINTER_QUICKSEARCH_CACHE_SECS_DEFAULT = 30;
+
+    /** 30 days. */
+    private static final int AUTHTOKEN_IDLE_HOURS_DEFAULT = 720;
+
+    /** */
+    private static final int AUTHTOKEN_MAX_ENTRIES_DEFAULT = 10000;
+
+    /** */
+    private static Properties theServerProps = new Properties();
+
+    /*
+     * Numeric server properties, parsed and validated once by
+     * setServerProps(Properties).
      */
-    private static long theDictLastPruneTime;
 
-    /** 30 minutes. */
-    private static final long DICT_LAST_PRUNE_TIME_PERIOD =
-            30 * DateUtil.DURATION_MSEC_MINUTE;
+    /** */
+    private static int theExportZipLevel = Deflater.BEST_SPEED;
+
+    /** */
+    private static int thePagerCountCacheSecs = PAGER_COUNT_CACHE_SECS_DEFAULT;
+
+    /** */
+    private static boolean thePagerKeysetEnabled = true;
+
+    /** */
+    private static int thePrinterQuickSearchCacheSecs =
+            PRINTER_QUICKSEARCH_CACHE_SECS_DEFAULT;
+
+    /** */
+    private static int theUserSearchIndexRefreshMins =
+            USER_SEARCH_INDEX_REFRESH_MINS_DEFAULT;
+
+    /** */
+    private static int theAuthTokenIdleHours = AUTHTOKEN_IDLE_HOURS_DEFAULT;
+
+    /** */
+    private static int theAuthTokenMaxAgeHours = 0;
+
+    /** */
+    private static int theAuthTokenMaxEntries = AUTHTOKEN_MAX_ENTRIES_DEFAULT;
+
+    /** */
+    private static int theRawPrintThreadsMax =
+            RawPrintServer.DEFAULT_WORKER_THREADS_MAX;
+
+    /** */
+    private static int theRawPrintQueueCapacity =
+            RawPrintServer.DEFAULT_WORKER_QUEUE_CAPACITY;
+
+    /** */
+    private static Properties theWebProps = new Properties();
+
+    /** */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebApp.class);
+
+    /**
+     * The registry of authenticated WebApp sessions.
+     */
+    private static final AuthSessionRegistry AUTH_SESSIONS =
+            AuthSessionRegistry.instance();
 
     /**
      * The RAW Print Server.
@@ -488,73 +560,59 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
      * <b>Note</b>: IP User Session cache is used to retrieve the most recent
      * authenticated user .
      * </p>
+     * <p>
+     * When sessions are kept in an external session store, a session that
+     * was invalidated or expired on another server node is never unbound on
+     * this node. Therefore, the user is only returned when one of its
+     * sessions on the IP address is still present in the store. Sessions
+     * that are no longer present are removed from the cache.
+     * </p>
      *
      * @param ipAddr
      *            The IP address of the remote host.
      * @return {@code null} when user is NOT found.
      */
     public static String getAuthUserByIpAddr(final String ipAddr) {
-        synchronized (MUTEX_DICT) {
-            return theMapIpAddr2RecentUser.get(ipAddr);
-        }
-    }
-
-    /**
-     * Removes IP addresses from the cache that have no authenticated session.
-     * <p>
-     * When DHCP lease expires <i>before</i> the HTTP session expires, the cache
-     * may contain IP addresses with orphaned Session ID, as exemplified in the
-     * following use-case:
-     * <ul>
-     * <li>User does not explicitly logout of the Web App</li>
-     * <li>After device reboot or wake-up from hibernation, a different IP
-     * address is acquired from the renewed DHCP lease.</li>
-     * <li>User open Web App again, and the client side auth token give him an
-     * automatic login, with the newly acquired IP address.</li>
-     * <li>As a result, the session and user related to the old IP address are
-     * orphaned.</li>
-     * </ul>
-     * </p>
-     *
-     * @return Number of IP addresses removed from cache.
-     */
-    private static int pruneOrphanedAuthIpAddr() {
 
-        synchronized (MUTEX_DICT) {
+        final String user = AUTH_SESSIONS.getAuthUserByIpAddr(ipAddr);
 
-            int removed = 0;
+        if (user == null || !WebServer.hasStoredSessions()) {
+            return user;
+        }
 
-            final Iterator<Entry<String, Set<String>>> iter =
-                    theMapIpAddr2Sessions.entrySet().iterator();
+        boolean userPresent = false;
 
-            while (iter.hasNext()) {
+        for (final String sessionId : AUTH_SESSIONS.getSessionIds(ipAddr)) {
 
-                final Entry<String, Set<String>> entry = iter.next();
-                final String ipAddr = entry.getKey();
+            final AuthSessionRegistry.AuthSession authSession =
+                    AUTH_SESSIONS.getAuthSession(sessionId);
 
-                final Iterator<String> iterSession =
-                        entry.getValue().iterator();
+            if (authSession == null) {
+                continue;
+            }
 
-                int nSessions = entry.getValue().size();
+            final boolean present;
+            try {
+                present = WebServer.isStoredSessionPresent(sessionId);
+            } catch (Exception e) {
+                LOGGER.warn("Session [{}] of [{}] not checked: {}", sessionId,
+                        ipAddr, e.getMessage());
+                return null;
+            }
 
-                while (iterSession.hasNext()) {
-                    final String session = iterSession.next();
-                    final String ipAddrSession =
-                            theMapSession2IpAddr.get(session);
-                    if (ipAddrSession == null
-                            || !ipAddrSession.equals(ipAddr)) {
-                        iterSession.remove();
-                        nSessions--;
-                    }
-                }
-                if (nSessions == 0) {
-                    theMapIpAddr2RecentUser.remove(ipAddr);
-                    iter.remove();
-                    removed++;
-                }
+            if (!present) {
+                LOGGER.debug("Session [{}] of [{}] [{}] no longer stored.",
+                        sessionId, authSession.getUser(), ipAddr);
+                AUTH_SESSIONS.onUnbound(sessionId);
+            } else if (user.equals(authSession.getUser())) {
+                userPresent = true;
             }
-            return removed;
         }
+
+        if (userPresent) {
+            return user;
+        }
+        return null;
     }
 
     /**
@@ -575,8 +633,7 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
      * @return the number of sessions.
      */
     public static int getAuthSessionCount() {
-        // no synchronized needed
-        return theMapSession2WebAppType.size();
+        return AUTH_SESSIONS.getAuthSessionCount();
     }
 
     /**
@@ -585,8 +642,7 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
      * @return the number of sessions.
      */
     public static int getAuthIpAddrCount() {
-        // no synchronized needed
-        return theMapIpAddr2Sessions.size();
+        return AUTH_SESSIONS.getAuthIpAddrCount();
     }
 
     /**
@@ -595,13 +651,7 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
      * @return Number of authenticated User Web App sessions.
      */
     public static int getWebAppUserSessions(final String userid) {
-        synchronized (MUTEX_DICT) {
-            final Integer count = theMapUsers2WebAppUserCount.get(userid);
-            if (count == null) {
-                return 0;
-            }
-            return count.intValue();
-        }
+        return AUTH_SESSIONS.getWebAppUserSessions(userid);
     }
 
     /**
@@ -610,14 +660,7 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
      * @return Number of authenticated Mail Tickets Web App sessions.
      */
     public static int getWebAppMailTicketsSessions(final String userid) {
-        synchronized (MUTEX_DICT) {
-            final Integer count =
-                    theMapUsers2WebAppMailTicketsCount.get(userid);
-            if (count == null) {
-                return 0;
-            }
-            return count.intValue();
-        }
+        return AUTH_SESSIONS.getWebAppMailTicketsSessions(userid);
     }
 
     /**
@@ -640,67 +683,7 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
             final UserAuthModeEnum authMode, final String sessionId,
             final String ipAddr, final String user) {
 
-        synchronized (MUTEX_DICT) {
-
-            final boolean newIP =
-                    theMapIpAddr2RecentUser.put(ipAddr, user) == null;
-
-            if (newIP && LOGGER.isDebugEnabled()) {
-
-                LOGGER.debug(
-                        "IP Recent User [{}] [{}] [{}] added." + " Total [{}]",
-                        ipAddr, user, sessionId,
-                        theMapIpAddr2RecentUser.size());
-            }
-
-            theMapSession2IpAddr.put(sessionId, ipAddr);
-
-            // Add session to IP addr sessions.
-            final Set<String> ipAddrSessions;
-            if (theMapIpAddr2Sessions.containsKey(ipAddr)) {
-                ipAddrSessions = theMapIpAddr2Sessions.get(ipAddr);
-            } else {
-                ipAddrSessions = new HashSet<>();
-            }
-            ipAddrSessions.add(sessionId);
-            theMapIpAddr2Sessions.put(ipAddr, ipAddrSessions);
-
-            //
-            final long now = System.currentTimeMillis();
-            if (now - theDictLastPruneTime > DICT_LAST_PRUNE_TIME_PERIOD) {
-                final int pruned = pruneOrphanedAuthIpAddr();
-                if (pruned > 0) {
-                    SpInfo.instance().log(String.format(
-                            "Removed [%s] orphaned HTTP sessions.", pruned));
-                }
-                theDictLastPruneTime = now;
-            }
-
-            //
-            theMapSession2WebAppType.put(sessionId, webAppType);
-
-            if (webAppType.isUserTypeOrVariant()) {
-
-                theMapSession2User4WebApp.put(sessionId, user);
-
-                // Increment user session count.
-                final Map<String, Integer> mapWrk;
-                if (webAppType == WebAppTypeEnum.MAILTICKETS) {
-                    mapWrk = theMapUsers2WebAppMailTicketsCount;
-                } else if (webAppType == WebAppTypeEnum.PAYMENT) {
-                    mapWrk = theMapUsers2WebAppPaymentCount;
-                } else {
-                    mapWrk = theMapUsers2WebAppUserCount;
-                }
-                final int countUpd;
-                if (mapWrk.containsKey(user)) {
-                    countUpd = mapWrk.get(user).intValue() + 1;
-                } else {
-                    countUpd = 1;
-                }
-                mapWrk.put(user, Integer.valueOf(countUpd));
-            }
-        }
+        AUTH_SESSIONS.onAuthenticated(webAppType, sessionId, ipAddr, user);
 
         AdminPublisher.instance().publish(PubTopicEnum.USER, PubLevelEnum.INFO,
                 localize("pub-user-login-success", webAppType.getUiText(),
@@ -725,6 +708,14 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
         return this.pluginManager;
     }
 
+    /**
+     *
+     * @return The IP Print Server (RAW), or {@code null} when disabled.
+     */
+    public RawPrintServer getRawPrintServer() {
+        return this.rawPrintServer;
+    }
+
     /**
      * @return {@code true} if Bitcoin gateway is online.
      */
@@ -773,6 +764,87 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
         ConfigManager.setServerProps(props);
         ConfigManager.setWebAppPaths(MOUNT_PATH_WEBAPP_ADMIN,
                 MOUNT_PATH_WEBAPP_USER, PATH_IPP_PRINTER_ICONS);
+
+        theExportZipLevel = getServerPropInt(props, PROP_KEY_EXPORT_ZIP_LEVEL,
+                Deflater.BEST_SPEED, Deflater.NO_COMPRESSION,
+                Deflater.BEST_COMPRESSION);
+
+        thePagerCountCacheSecs =
+                getServerPropInt(props, PROP_KEY_PAGER_COUNT_CACHE_SECS,
+                        PAGER_COUNT_CACHE_SECS_DEFAULT, 0, Integer.MAX_VALUE);
+
+        thePagerKeysetEnabled = Boolean.parseBoolean(
+                props.getProperty(PROP_KEY_PAGER_KEYSET_ENABLE, "true").trim());
+
+        thePrinterQuickSearchCacheSecs = getServerPropInt(props,
+                PROP_KEY_PRINTER_QUICKSEARCH_CACHE_SECS,
+                PRINTER_QUICKSEARCH_CACHE_SECS_DEFAULT, 0, Integer.MAX_VALUE);
+
+        theUserSearchIndexRefreshMins = getServerPropInt(props,
+                PROP_KEY_USER_SEARCH_INDEX_REFRESH_MINS,
+                USER_SEARCH_INDEX_REFRESH_MINS_DEFAULT, 0, Integer.MAX_VALUE);
+
+        theAuthTokenIdleHours =
+                getServerPropInt(props, PROP_KEY_AUTHTOKEN_IDLE_HOURS,
+                        AUTHTOKEN_IDLE_HOURS_DEFAULT, 0, Integer.MAX_VALUE);
+
+        theAuthTokenMaxAgeHours = getServerPropInt(props,
+                PROP_KEY_AUTHTOKEN_MAX_AGE_HOURS, 0, 0, Integer.MAX_VALUE);
+
+        theAuthTokenMaxEntries =
+                getServerPropInt(props, PROP_KEY_AUTHTOKEN_MAX_ENTRIES,
+                        AUTHTOKEN_MAX_ENTRIES_DEFAULT, 1, Integer.MAX_VALUE);
+
+        theRawPrintThreadsMax =
+                getServerPropInt(props, PROP_KEY_PRINTER_RAW_THREADS_MAX,
+                        RawPrintServer.DEFAULT_WORKER_THREADS_MAX, 1,
+                        Integer.MAX_VALUE);
+
+        theRawPrintQueueCapacity =
+                getServerPropInt(props, PROP_KEY_PRINTER_RAW_QUEUE_CAPACITY,
+                        RawPrintServer.DEFAULT_WORKER_QUEUE_CAPACITY, 1,
+                        Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets an integer server property. When the value is not a number, or
+     * out of range, a warning is logged and the default is returned.
+     *
+     * @param props
+     *            The server properties.
+     * @param key
+     *            The property key.
+     * @param dfault
+     *            The default value.
+     * @param min
+     *            The minimum value.
+     * @param max
+     *            The maximum value.
+     * @return The value.
+     */
+    private static int getServerPropInt(final Properties props,
+            final String key, final int dfault, final int min,
+            final int max) {
+
+        final String value = props.getProperty(key);
+
+        if (StringUtils.isBlank(value)) {
+            return dfault;
+        }
+
+        try {
+            final int parsed = Integer.parseInt(value.trim());
+            if (parsed >= min && parsed <= max) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // noop
+        }
+
+        LOGGER.warn("Server property {} [{}] is invalid (range {}-{}):"
+                + " default [{}] is used.", key, value, min, max, dfault);
+
+        return dfault;
     }
 
     /**
@@ -827,6 +899,93 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
                 ConfigDefaults.SERVER_SSL_PORT);
     }
 
+    /**
+     * @return The compression level (0-9) of ZIP file exports. Default is
+     *         {@link Deflater#BEST_SPEED}.
+     */
+    public static int getExportZipLevel() {
+        return theExportZipLevel;
+    }
+
+    /**
+     * @return Seconds a list pager total count is cached. Zero (0), the
+     *         default, for an exact count on each page.
+     */
+    public static int getPagerCountCacheSecs() {
+        return thePagerCountCacheSecs;
+    }
+
+    /**
+     * @return {@code true} when list pagers select the next page with a
+     *         keyset (seek) predicate instead of an OFFSET.
+     */
+    public static boolean isPagerKeysetEnabled() {
+        return thePagerKeysetEnabled;
+    }
+
+    /**
+     * @return Seconds a printer list of the printer quick search is cached.
+     *         Zero (0) when caching is disabled.
+     */
+    public static int getPrinterQuickSearchCacheSecs() {
+        return thePrinterQuickSearchCacheSecs;
+    }
+
+    /**
+     * @return Minutes after which the user, user group and shared account
+     *         search indexes are reloaded. Zero (0) when the indexes are
+     *         disabled.
+     */
+    public static int getUserSearchIndexRefreshMins() {
+        return theUserSearchIndexRefreshMins;
+    }
+
+    /**
+     * @return Hours a Web App authentication token may be idle before it
+     *         expires. Zero (0) for no idle expiry.
+     */
+    public static int getAuthTokenIdleHours() {
+        return theAuthTokenIdleHours;
+    }
+
+    /**
+     * @return Max hours a Web App authentication token is valid after
+     *         creation. Zero (0) for no max.
+     */
+    public static int getAuthTokenMaxAgeHours() {
+        return theAuthTokenMaxAgeHours;
+    }
+
+    /**
+     * @return Max number of cached authentication tokens per Web App type,
+     *         when tokens are stored.
+     */
+    public static int getAuthTokenMaxEntries() {
+        return theAuthTokenMaxEntries;
+    }
+
+    /**
+     * @return The directory where authentication tokens are stored, or
+     *         {@code null} when tokens are kept in memory only. A relative
+     *         path is relative to the server home.
+     */
+    public static File getAuthTokenStoreDir() {
+
+        final String dir =
+                theServerProps.getProperty(PROP_KEY_AUTHTOKEN_STORE_DIR);
+
+        if (StringUtils.isBlank(dir)) {
+            return null;
+        }
+
+        final File file = new File(dir.trim());
+
+        if (file.isAbsolute()) {
+            return file;
+        }
+        return new File(ConfigManager.getServerHome(), dir.trim());
+    }
+
     /**
      * The location of the Mobi Pick jQuery library files.
      *
@@ -899,8 +1058,6 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
      */
     private void myInitialize() {
 
-        theDictLastPruneTime = System.currentTimeMillis();
-
         java.io.FileInputStream fis = null;
 
         try {
@@ -922,6 +1079,11 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
             mountResource(MOUNT_PATH_UPLOAD_PDF_VERIFY,
                     new PdfPgpDropZoneResourceReference("pdfpgp"));
 
+            /*
+             * The JSON API is a resource: no page is constructed per request.
+             */
+            mountResource(MOUNT_PATH_API, new JsonApiResourceReference("api"));
+
             /*
              * Mount a page class to a given path
              *
@@ -941,9 +1103,10 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
             mountPage(MOUNT_PATH_WEBAPP_OAUTH, OAuthRedirectPage.class);
             mountPage(MOUNT_PATH_WEBAPP_USER_OAUTH, OAuthRedirectPage.class);
 
-            mountPage(MOUNT_PATH_API, JsonApiServer.class);
-
-            mountPage(MOUNT_PATH_PRINTERS, IppPrintServer.class);
+            /*
+             * Note: MOUNT_PATH_PRINTERS is NOT mounted, so IPP requests fall
+             * through to the sessionless IppPrintServlet.
+             */
 
             /*
              * Mount installation of iOS WebClip
@@ -1020,6 +1183,7 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
                     .log(WebServer.ThreadPoolInfo.logIdleTimeoutMsec());
 
             SpInfo.instance().log(WebServer.logSessionScavengeInterval());
+            SpInfo.instance().log(WebServer.logSessionStore());
 
             //
             final SslCertInfo sslCert = ConfigManager.getSslCertInfo();
@@ -1101,7 +1265,8 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
             if (iRawPrintPort == 0) {
                 SpInfo.instance().log("IP Print Server disabled.");
             } else {
-                this.rawPrintServer = new RawPrintServer(iRawPrintPort);
+                this.rawPrintServer = new RawPrintServer(iRawPrintPort,
+                        theRawPrintThreadsMax, theRawPrintQueueCapacity);
                 this.rawPrintServer.start();
             }
 
@@ -1464,7 +1629,7 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
 
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("{} [{}]. Sessions [{}]", debugMsg,
-                        session.getId(), theMapIpAddr2RecentUser.size());
+                        session.getId(), AUTH_SESSIONS.getRecentUserCount());
             }
         }
         return session;
@@ -1477,86 +1642,15 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
 
         sessionCount.decrementAndGet();
 
-        synchronized (MUTEX_DICT) {
-
-            final WebAppTypeEnum webAppType =
-                    theMapSession2WebAppType.remove(sessionId);
+        final AuthSessionRegistry.AuthSession authSession =
+                AUTH_SESSIONS.onUnbound(sessionId);
 
-            if (webAppType != null && webAppType.isUserTypeOrVariant()) {
-
-                final String userId =
-                        theMapSession2User4WebApp.remove(sessionId);
-
-                // Decrement/delete user session count.
-                final Map<String, Integer> mapWrk;
-
-                if (webAppType == WebAppTypeEnum.MAILTICKETS) {
-                    mapWrk = theMapUsers2WebAppMailTicketsCount;
-                } else if (webAppType == WebAppTypeEnum.PAYMENT) {
-                    mapWrk = theMapUsers2WebAppPaymentCount;
-                } else {
-                    mapWrk = theMapUsers2WebAppUserCount;
-                }
-                final int countUpd = mapWrk.get(userId).intValue() - 1;
-                if (countUpd == 0) {
-                    mapWrk.remove(userId);
-                } else {
-                    mapWrk.put(userId, Integer.valueOf(countUpd));
-                }
-            }
-
-            final String ipAddr = theMapSession2IpAddr.remove(sessionId);
-
-            if (ipAddr == null) {
-
-                if (webAppType != null) {
-                    LOGGER.warn(
-                            "IP User Session [?.?.?.?] [{}] unbound. "
-                                    + "Sessions [{}]",
-                            sessionId, theMapIpAddr2RecentUser.size());
-                }
-
-            } else {
-
-                if (theMapIpAddr2Sessions.containsKey(ipAddr)) {
-
-                    final Set<String> sessions =
-                            theMapIpAddr2Sessions.get(ipAddr);
-
-                    final boolean found = sessions.remove(sessionId);
-
-                    if (!found) {
-                        LOGGER.warn(
-                                "{}: Inconsistent IP sessions cache "
-                                        + "[{}]->[{}]",
-                                "sessionUnbound", sessionId, ipAddr);
-                    }
-                    if (sessions.isEmpty()) {
-                        theMapIpAddr2Sessions.remove(ipAddr);
-                    }
-                } else {
-                    LOGGER.error("Inconsistent IP sessions cache: "
-                            + "no sessions found for [{}]", ipAddr);
-                }
-
-                final String user = theMapIpAddr2RecentUser.remove(ipAddr);
-
-                if (user == null) {
-                    LOGGER.error("Inconsistent IP User Session cache: "
-                            + "no user found for [{}]", ipAddr);
-                } else {
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug(
-                                "IP User Session [{}] [{}] [{}] removed."
-                                        + " Sessions [{}]",
-                                ipAddr, user, sessionId,
-                                theMapIpAddr2RecentUser.size());
-                    }
-                    AdminPublisher.instance().publish(PubTopicEnum.USER,
-                            PubLevelEnum.INFO, localize("pub-user-logout",
-                                    webAppType.getUiText(), user, ipAddr));
-                }
-            }
+        if (authSession != null) {
+            AdminPublisher.instance().publish(PubTopicEnum.USER,
+                    PubLevelEnum.INFO,
+                    localize("pub-user-logout",
+                            authSession.getWebAppType().getUiText(),
+                            authSession.getUser(), authSession.getIpAddr()));
         }
     }
 
@@ -1565,6 +1659,8 @@ public final class WebApp extends WebApplication implements ServiceEntryPoint {
         if (this.pluginManager != null) {
             this.pluginManager.stop();
         }
+        PageImageRenderQueue.instance().shutdown();
+        WebAppUserAuthManager.instance().shutdown();
     }
 
 }
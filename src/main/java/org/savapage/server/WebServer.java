@@ -59,6 +59,14 @@ import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.SslConnectionFactory;
 import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.server.handler.SecuredRedirectHandler;
+import org.eclipse.jetty.server.session.AbstractSessionDataStore;
+import org.eclipse.jetty.server.session.DatabaseAdaptor;
+import org.eclipse.jetty.server.session.DefaultSessionCache;
+import org.eclipse.jetty.server.session.DefaultSessionIdManager;
+import org.eclipse.jetty.server.session.FileSessionDataStore;
+import org.eclipse.jetty.server.session.JDBCSessionDataStore;
+import org.eclipse.jetty.server.session.SessionCache;
+import org.eclipse.jetty.server.session.SessionHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.resource.Resource;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
@@ -185,6 +193,56 @@ public final class WebServer {
     private static final String PROP_KEY_SERVER_SESSION_SCAVENGE_INTERVAL_SEC =
             "server.session.scavenge.interval-sec";
 
+    /**
+     * Session data store: {@code memory} (default), {@code file} or
+     * {@code jdbc}. See {@link SessionStoreEnum}.
+     */
+    private static final String PROP_KEY_SERVER_SESSION_STORE =
+            "server.session.store";
+
+    /**
+     * Directory of the {@code file} session store. Default:
+     * {@code <server home>/data/sessions}.
+     */
+    private static final String PROP_KEY_SERVER_SESSION_STORE_FILE_DIR =
+            "server.session.store.file.dir";
+
+    /**
+     * JDBC driver class name of the {@code jdbc} session store.
+     */
+    private static final String PROP_KEY_SERVER_SESSION_STORE_JDBC_DRIVER =
+            "server.session.store.jdbc.driver";
+
+    /**
+     * JDBC connection URL (including user and password) of the {@code jdbc}
+     * session store.
+     */
+    private static final String PROP_KEY_SERVER_SESSION_STORE_JDBC_URL =
+            "server.session.store.jdbc.url";
+
+    /**
+     * Seconds between writes of a session with unchanged attributes to the
+     * session store. Changed attributes are always written when the request
+     * exits.
+     */
+    private static final String PROP_KEY_SERVER_SESSION_SAVE_PERIOD_SEC =
+            "server.session.save-period-sec";
+
+    /**
+     * Seconds an idle session stays in the session cache of this node, before
+     * it is evicted to the session store: {@code -1} never, {@code 0} when the
+     * last request of the session exits.
+     */
+    private static final String PROP_KEY_SERVER_SESSION_CACHE_EVICTION_SEC =
+            "server.session.cache.eviction-sec";
+
+    /**
+     * Unique name of this server node in the session IDs, used by load
+     * balancers for sticky sessions.
+     */
+    private static final String PROP_KEY_SERVER_SESSION_WORKER_NAME =
+            "server.session.worker-name";
+
     /** */
     private static final String SERVER_THREADPOOL_MIN_THREADS_DEFAULT = "20";
 
@@ -203,6 +261,33 @@ public final class WebServer {
     private static final String SERVER_SESSION_SCAVENGE_INTERVAL_SEC_DEFAULT =
             "600";
 
+    /** */
+    private static final String SERVER_SESSION_SAVE_PERIOD_SEC_DEFAULT = "60";
+
+    /** */
+    private static final String SERVER_SESSION_CACHE_EVICTION_SEC_DEFAULT =
+            String.valueOf(SessionCache.NEVER_EVICT);
+
+    /**
+     * Session data stores.
+     */
+    private enum SessionStoreEnum {
+        /**
+         * Sessions are kept in memory only (Jetty default).
+         */
+        MEMORY,
+        /**
+         * Sessions are stored in files, so they survive a restart. A shared
+         * directory makes sessions available to all server nodes.
+         */
+        FILE,
+        /**
+         * Sessions are stored in a database table, so they survive a restart
+         * and are available to all server nodes.
+         */
+        JDBC
+    }
+
     /**
      * SavaPage branded session cookie to avoid session conflict with other
      * Jetty powered Web App instances on same host that use default session
@@ -349,10 +434,47 @@ public final class WebServer {
     /** */
     private static int sessionScavengeInterval;
 
+    /** */
+    private static SessionStoreEnum sessionStore;
+
+    /**
+     * The session cache backed by an external session store, or {@code null}
+     * when sessions are in memory only.
+     */
+    private static SessionCache storedSessionCache;
+
     /** */
     private WebServer() {
     }
 
+    /**
+     * @return {@code true} when sessions are kept in an external session
+     *         store.
+     */
+    public static boolean hasStoredSessions() {
+        return storedSessionCache != null;
+    }
+
+    /**
+     * Checks if a session still exists in the external session store, since
+     * a session that is invalidated or expired on another server node is not
+     * unbound on this node.
+     *
+     * @param sessionId
+     *            The session ID.
+     * @return {@code true} when session exists, or sessions are in memory
+     *         only.
+     * @throws Exception
+     *             When the session store can not be read.
+     */
+    public static boolean isStoredSessionPresent(final String sessionId)
+            throws Exception {
+        if (storedSessionCache == null) {
+            return true;
+        }
+        return storedSessionCache.exists(sessionId);
+    }
+
     /**
      * @return {@code true} when custom Web App i18n is to be applied.
      */
@@ -383,6 +505,114 @@ public final class WebServer {
                 sessionScavengeInterval);
     }
 
+    /**
+     * @return Log message with session store.
+     */
+    public static String logSessionStore() {
+        return String.format("%s [%s]", PROP_KEY_SERVER_SESSION_STORE,
+                sessionStore.toString().toLowerCase());
+    }
+
+    /**
+     * Configures the session data store and the session cache of this node.
+     * <p>
+     * Sessions are lazily loaded from the store into the cache, and written
+     * to the store when the last request of a session exits: with changed
+     * attributes each time, otherwise once per save period.
+     * </p>
+     *
+     * @param server
+     *            The server.
+     * @param webAppContext
+     *            The Web App context.
+     * @param propsServer
+     *            The server properties.
+     * @param serverHome
+     *            The server home directory.
+     * @return {@code null} when configured, or the error message.
+     */
+    private static String initSessionStore(final Server server,
+            final WebAppContext webAppContext, final Properties propsServer,
+            final String serverHome) {
+
+        final String workerName =
+                propsServer.getProperty(PROP_KEY_SERVER_SESSION_WORKER_NAME);
+
+        if (StringUtils.isNotBlank(workerName)) {
+            final DefaultSessionIdManager idManager =
+                    new DefaultSessionIdManager(server);
+            idManager.setWorkerName(workerName.trim());
+            server.setSessionIdManager(idManager);
+        }
+
+        if (sessionStore == SessionStoreEnum.MEMORY) {
+            return null;
+        }
+
+        final AbstractSessionDataStore dataStore;
+
+        if (sessionStore == SessionStoreEnum.FILE) {
+
+            final File storeDir = new File(propsServer.getProperty(
+                    PROP_KEY_SERVER_SESSION_STORE_FILE_DIR,
+                    String.format("%s%cdata%csessions", serverHome,
+                            File.separatorChar, File.separatorChar)));
+
+            if (!storeDir.isDirectory() && !storeDir.mkdirs()) {
+                return String.format("%s [%s] is not a directory.",
+                        PROP_KEY_SERVER_SESSION_STORE_FILE_DIR, storeDir);
+            }
+
+            final FileSessionDataStore fileStore = new FileSessionDataStore();
+            fileStore.setStoreDir(storeDir);
+            fileStore.setDeleteUnrestorableFiles(true);
+            dataStore = fileStore;
+
+        } else {
+
+            final String driver = propsServer
+                    .getProperty(PROP_KEY_SERVER_SESSION_STORE_JDBC_DRIVER);
+            final String url = propsServer
+                    .getProperty(PROP_KEY_SERVER_SESSION_STORE_JDBC_URL);
+
+            if (StringUtils.isBlank(driver) || StringUtils.isBlank(url)) {
+                return String.format("%s and %s are required.",
+                        PROP_KEY_SERVER_SESSION_STORE_JDBC_DRIVER,
+                        PROP_KEY_SERVER_SESSION_STORE_JDBC_URL);
+            }
+
+            final DatabaseAdaptor adaptor = new DatabaseAdaptor();
+            adaptor.setDriverInfo(driver.trim(), url.trim());
+
+            final JDBCSessionDataStore jdbcStore = new JDBCSessionDataStore();
+            jdbcStore.setDatabaseAdaptor(adaptor);
+            dataStore = jdbcStore;
+        }
+
+        dataStore.setSavePeriodSec(Integer.parseInt(propsServer.getProperty(
+                PROP_KEY_SERVER_SESSION_SAVE_PERIOD_SEC,
+                SERVER_SESSION_SAVE_PERIOD_SEC_DEFAULT)));
+
+        final SessionHandler sessionHandler =
+                webAppContext.getSessionHandler();
+
+        final DefaultSessionCache sessionCache =
+                new DefaultSessionCache(sessionHandler);
+
+        sessionCache.setSessionDataStore(dataStore);
+        sessionCache.setEvictionPolicy(Integer.parseInt(propsServer
+                .getProperty(PROP_KEY_SERVER_SESSION_CACHE_EVICTION_SEC,
+                        SERVER_SESSION_CACHE_EVICTION_SEC_DEFAULT)));
+        sessionCache.setSaveOnInactiveEviction(true);
+        sessionCache.setSaveOnCreate(false);
+        sessionCache.setRemoveUnloadableSessions(true);
+
+        sessionHandler.setSessionCache(sessionCache);
+        storedSessionCache = sessionCache;
+
+        return null;
+    }
+
     /**
      * @return Number of server acceptor threads.
      */
@@ -663,6 +893,21 @@ public final class WebServer {
                 PROP_KEY_SERVER_SESSION_SCAVENGE_INTERVAL_SEC,
                 SERVER_SESSION_SCAVENGE_INTERVAL_SEC_DEFAULT));
 
+        try {
+            sessionStore = SessionStoreEnum.valueOf(propsServer
+                    .getProperty(PROP_KEY_SERVER_SESSION_STORE,
+                            SessionStoreEnum.MEMORY.toString())
+                    .trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println(String.format(
+                    "%s not started: %s [%s] is invalid.",
+                    CommunityDictEnum.SAVAPAGE.getWord(),
+                    PROP_KEY_SERVER_SESSION_STORE,
+                    propsServer.getProperty(PROP_KEY_SERVER_SESSION_STORE)));
+            System.exit(-1);
+            return;
+        }
+
         ThreadPoolInfo.queueCapacity = Integer.parseInt(propsServer.getProperty(
                 PROP_KEY_SERVER_THREADPOOL_QUEUE_CAPACITY,
                 SERVER_THREADPOOL_QUEUE_CAPACITY_DEFAULT));
@@ -939,6 +1184,19 @@ public final class WebServer {
         webAppContext.getSessionHandler()
                 .setSessionCookie(SERVER_SESSION_COOKIE);
 
+        /*
+         * External session store.
+         */
+        final String sessionStoreError = initSessionStore(server,
+                webAppContext, propsServer, serverHome);
+
+        if (sessionStoreError != null) {
+            System.err.println(String.format("%s not started: %s",
+                    CommunityDictEnum.SAVAPAGE.getWord(), sessionStoreError));
+            System.exit(-1);
+            return;
+        }
+
         /*
          * Set the handler(s).
          */
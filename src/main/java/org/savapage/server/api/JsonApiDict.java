@@ -24,11 +24,16 @@
  */
 package org.savapage.server.api;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import org.savapage.core.SpException;
 import org.savapage.core.concurrent.ReadLockObtainFailedException;
@@ -38,6 +43,7 @@ import org.savapage.core.config.IConfigProp.Key;
 import org.savapage.core.config.WebAppTypeEnum;
 import org.savapage.core.dao.enums.ACLRoleEnum;
 import org.savapage.server.api.request.ApiRequestHandler;
+import org.savapage.server.api.request.ApiRequestStatelessHandler;
 import org.savapage.server.api.request.ReqConfigPropGet;
 import org.savapage.server.api.request.ReqConfigPropsSet;
 import org.savapage.server.api.request.ReqDbBackup;
@@ -485,7 +491,10 @@ public final class JsonApiDict {
         final AuthReq authReq;
         final DbAccess dbAccess;
         final DbClaim dbClaim;
-        final Class<? extends ApiRequestHandler> handler;
+        /**
+         * Factory of the request handler, created once at startup.
+         */
+        final Supplier<ApiRequestHandler> handler;
         final EnumSet<ACLRoleEnum> aclRolesRequired;
 
         /**
@@ -510,7 +519,7 @@ public final class JsonApiDict {
             this.dbAccess = dbAccess;
             this.dbClaim = dbClaim;
             this.authReq = authReq;
-            this.handler = handler;
+            this.handler = createHandlerFactory(handler);
             this.aclRolesRequired = null;
         }
 
@@ -521,7 +530,7 @@ public final class JsonApiDict {
             this.dbAccess = dbAccess;
             this.dbClaim = dbClaim;
             this.authReq = authReq;
-            this.handler = handler;
+            this.handler = createHandlerFactory(handler);
             this.aclRolesRequired = aclRolesRequired;
         }
 
@@ -532,6 +541,71 @@ public final class JsonApiDict {
      */
     private final Map<String, Req> dict = new HashMap<>();
 
+    /**
+     * Creates a factory of request handlers. The public no-arg constructor of
+     * the handler class is bound to a {@link Supplier} lambda once, so no
+     * reflection is needed per request. A {@link ApiRequestStatelessHandler}
+     * is instantiated once, on first use, and shared by all requests.
+     *
+     * @param handler
+     *            The handler class (can be {@code null}).
+     * @return The factory, or {@code null} when handler class is
+     *         {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    private static Supplier<ApiRequestHandler> createHandlerFactory(
+            final Class<? extends ApiRequestHandler> handler) {
+
+        if (handler == null) {
+            return null;
+        }
+
+        final Supplier<ApiRequestHandler> factory;
+
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+            final MethodHandle constructor = lookup.findConstructor(handler,
+                    MethodType.methodType(void.class));
+
+            final CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+                    MethodType.methodType(Supplier.class),
+                    MethodType.methodType(Object.class), constructor,
+                    MethodType.methodType(handler));
+
+            factory = (Supplier<ApiRequestHandler>) site.getTarget()
+                    .invokeExact();
+
+        } catch (Throwable e) {
+            throw new SpException(String.format("%s: %s",
+                    handler.getSimpleName(), e.getMessage()), e);
+        }
+
+        if (!ApiRequestStatelessHandler.class.isAssignableFrom(handler)) {
+            return factory;
+        }
+
+        return new Supplier<ApiRequestHandler>() {
+
+            /**
+             * Created on first use, so handler classes are not initialized
+             * at startup. Concurrent first requests may create more than
+             * one instance, which is harmless for a stateless handler.
+             */
+            private volatile ApiRequestHandler singleton;
+
+            @Override
+            public ApiRequestHandler get() {
+                ApiRequestHandler instance = this.singleton;
+                if (instance == null) {
+                    instance = factory.get();
+                    this.singleton = instance;
+                }
+                return instance;
+            }
+        };
+    }
+
     /**
      * @deprecated
      * @param key
@@ -1334,12 +1408,6 @@ public final class JsonApiDict {
             return null;
         }
 
-        try {
-            return req.handler.getDeclaredConstructor().newInstance();
-        } catch (InstantiationException | IllegalAccessException
-                | IllegalArgumentException | InvocationTargetException
-                | NoSuchMethodException | SecurityException e) {
-            throw new SpException(e.getMessage(), e);
-        }
+        return req.handler.get();
     }
 }
@@ -0,0 +1,107 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.api;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectWriter;
+
+/**
+ * Shared JSON mapper of the private JSON API.
+ * <p>
+ * An {@link ObjectMapper} is expensive to create, but thread-safe once
+ * configured: one instance is used for all API requests and responses.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class JsonApiMapper {
+
+    /**
+     * The shared mapper.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** */
+    private static final ObjectWriter WRITER = MAPPER.writer();
+
+    /**
+     * Utility class.
+     */
+    private JsonApiMapper() {
+    }
+
+    /**
+     * Parses JSON text to a tree.
+     *
+     * @param json
+     *            The JSON text.
+     * @return The root {@link JsonNode}.
+     * @throws IOException
+     *             When JSON is invalid.
+     */
+    public static JsonNode readTree(final String json) throws IOException {
+        return MAPPER.readTree(json);
+    }
+
+    /**
+     * Writes an object as UTF-8 JSON bytes.
+     * <p>
+     * API responses are serialized to bytes, not streamed to the client: the
+     * response must be complete before the database transaction is
+     * committed and the request context is closed, while a failing
+     * serialization or commit must still be able to replace it by a JSON
+     * API error result.
+     * </p>
+     *
+     * @param value
+     *            The object to write.
+     * @return The JSON bytes.
+     * @throws IOException
+     *             When serialization fails.
+     */
+    public static byte[] writeValueAsBytes(final Object value)
+            throws IOException {
+        return WRITER.writeValueAsBytes(value);
+    }
+
+    /**
+     * Writes an object as JSON string.
+     *
+     * @param value
+     *            The object to write.
+     * @return The JSON string.
+     * @throws IOException
+     *             When serialization fails.
+     */
+    public static String writeValueAsString(final Object value)
+            throws IOException {
+        return WRITER.writeValueAsString(value);
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.api;
+
+import org.apache.wicket.request.resource.IResource;
+import org.apache.wicket.request.resource.ResourceReference;
+
+/**
+ * Mount point of the private JSON interface of the Server.
+ * <p>
+ * The JSON API is mounted as a resource, so a request is dispatched to
+ * {@link JsonApiServer} without constructing, storing and mapping a Wicket
+ * page. The request still runs in the Wicket request cycle, since the
+ * authentication state of the user lives in the Wicket session.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class JsonApiResourceReference extends ResourceReference {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The stateless resource, shared by all requests.
+     */
+    private static final IResource RESOURCE = new IResource() {
+
+        /** */
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void respond(final Attributes attributes) {
+            new JsonApiServer(attributes.getParameters());
+        }
+    };
+
+    /**
+     *
+     * @param name
+     *            Reference name.
+     */
+    public JsonApiResourceReference(final String name) {
+        super(name);
+    }
+
+    @Override
+    public IResource getResource() {
+        return RESOURCE;
+    }
+
+}
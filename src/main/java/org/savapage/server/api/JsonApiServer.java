@@ -28,6 +28,7 @@ import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -45,9 +46,11 @@ import java.util.UUID;
 import javax.mail.MessagingException;
 import javax.persistence.PessimisticLockException;
 import javax.print.attribute.standard.MediaSizeName;
+import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.lang3.EnumUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.lang3.mutable.MutableInt;
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.wicket.request.IRequestHandler;
@@ -59,7 +62,6 @@ import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.request.resource.ContentDisposition;
 import org.apache.wicket.util.time.Duration;
 import org.codehaus.jackson.JsonNode;
-import org.codehaus.jackson.map.ObjectMapper;
 import org.hibernate.exception.LockAcquisitionException;
 import org.savapage.core.LetterheadNotFoundException;
 import org.savapage.core.PerformanceLogger;
@@ -127,7 +129,6 @@ import org.savapage.core.json.JsonPrinterDetail;
 import org.savapage.core.json.PdfProperties;
 import org.savapage.core.json.rpc.AbstractJsonRpcMethodResponse;
 import org.savapage.core.json.rpc.ErrorDataBasic;
-import org.savapage.core.json.rpc.JsonRpcConfig;
 import org.savapage.core.json.rpc.JsonRpcError;
 import org.savapage.core.json.rpc.ResultDataBasic;
 import org.savapage.core.json.rpc.impl.ResultPosDeposit;
@@ -150,6 +151,7 @@ import org.savapage.core.services.InboxService;
 import org.savapage.core.services.JobTicketService;
 import org.savapage.core.services.ProxyPrintService;
 import org.savapage.core.services.ServiceContext;
+import org.savapage.core.services.ServiceEntryPoint;
 import org.savapage.core.services.UserService;
 import org.savapage.core.services.helpers.PageRangeException;
 import org.savapage.core.services.helpers.UserAuth;
@@ -177,6 +179,7 @@ import org.savapage.server.api.request.ApiRequestHandler;
 import org.savapage.server.api.request.ApiRequestHelper;
 import org.savapage.server.api.request.ApiRequestMixin;
 import org.savapage.server.api.request.ApiResultCodeEnum;
+import org.savapage.server.api.request.PrinterQuickSearchCache;
 import org.savapage.server.api.request.export.ReqExportDocStorePdf;
 import org.savapage.server.api.request.export.ReqExportOutboxPdf;
 import org.savapage.server.api.request.export.ReqExportPrinterOpt;
@@ -192,7 +195,8 @@ import org.savapage.server.dto.MoneyTransferDto;
 import org.savapage.server.ext.ServerPluginManager;
 import org.savapage.server.helpers.HtmlButtonEnum;
 import org.savapage.server.helpers.SparklineHtml;
-import org.savapage.server.pages.AbstractPage;
+import org.savapage.server.helpers.UserSearchIndex;
+import org.savapage.server.img.PageImageCache;
 import org.savapage.server.pages.StatsPageTotalPanel;
 import org.savapage.server.session.SpSession;
 import org.savapage.server.webapp.WebAppHelper;
@@ -210,11 +214,17 @@ import net.sf.jasperreports.engine.design.JasperDesign;
 
 /**
  * Implements the private JSON interface of the Server.
+ * <p>
+ * An instance handles a single request, see {@link JsonApiResourceReference}
+ * for the mount point. This class is deliberately <i>not</i> a Wicket page:
+ * there is no page construction, no page store and no page mapping overhead
+ * for each JSON request.
+ * </p>
  *
  * @author Rijk Ravestein
  *
  */
-public final class JsonApiServer extends AbstractPage {
+public final class JsonApiServer implements ServiceEntryPoint {
 
     /**
      * The logger.
@@ -256,12 +266,83 @@ public final class JsonApiServer extends AbstractPage {
     private static final UserService USER_SERVICE =
             ServiceContext.getServiceFactory().getUserService();
 
-    /** */
-    private static final long serialVersionUID = 1L;
-
     /** */
     private static final JsonApiDict API_DICTIONARY = new JsonApiDict();
 
+    /**
+     * @return The {@link RequestCycle} of the current thread.
+     */
+    private static RequestCycle getRequestCycle() {
+        return RequestCycle.get();
+    }
+
+    /**
+     * @return The {@link SpSession} of the current thread.
+     */
+    private static SpSession getSession() {
+        return SpSession.get();
+    }
+
+    /**
+     * @return The {@link Locale} of the session.
+     */
+    private static Locale getLocale() {
+        return getSession().getLocale();
+    }
+
+    /**
+     * Gets the authenticated {@link WebAppTypeEnum} from the session.
+     *
+     * @return The {@link WebAppTypeEnum}.
+     */
+    private static WebAppTypeEnum getSessionWebAppType() {
+
+        final SpSession session = getSession();
+
+        if (session == null) {
+            return WebAppTypeEnum.UNDEFINED;
+        }
+        return session.getWebAppType();
+    }
+
+    /**
+     * Gets the POST-ed parameter value.
+     *
+     * @param parm
+     *            Parameter name.
+     * @return {@code null} when parameter is not present.
+     */
+    private static String getParmValue(final String parm) {
+        return getRequestCycle().getRequest().getPostParameters()
+                .getParameterValue(parm).toString();
+    }
+
+    /**
+     *
+     * @param getParms
+     *            The {@link PageParameters}.
+     * @param isGetAction
+     *            {@code true} when a GET parameter.
+     * @param parm
+     *            The parameter name.
+     * @return {@code null} when parameter is not present.
+     */
+    private static String getParmValue(final PageParameters getParms,
+            final boolean isGetAction, final String parm) {
+        if (isGetAction) {
+            return getParms.get(parm).toString();
+        }
+        return getParmValue(parm);
+    }
+
+    /**
+     * @return The {@link UserAgentHelper} of the current request.
+     */
+    private static UserAgentHelper createUserAgentHelper() {
+        return new UserAgentHelper((HttpServletRequest) getRequestCycle()
+                .getRequest().getContainerRequest());
+    }
+
     /**
      * Applies the requested locale to the session locale. When the request does
      * not match an available language the {@link Locale#US} is applied..
@@ -325,7 +406,7 @@ public final class JsonApiServer extends AbstractPage {
         /*
          *
          */
-        String jsonArray = null;
+        byte[] jsonBytes = null;
         User lockedUser = null;
         boolean commitDbTransaction = false;
 
@@ -503,10 +584,13 @@ public final class JsonApiServer extends AbstractPage {
                 }
             }
 
-            if (returnData == null) {
-                jsonArray = null;
-            } else if (jsonArray == null) {
-                jsonArray = new ObjectMapper().writeValueAsString(returnData);
+            /*
+             * Serialize while the persistence context and application locks
+             * are still in place. The bytes are written after the commit
+             * below, which may replace them by an error result.
+             */
+            if (returnData != null) {
+                jsonBytes = JsonApiMapper.writeValueAsBytes(returnData);
             }
 
         } catch (Exception t) {
@@ -532,7 +616,7 @@ public final class JsonApiServer extends AbstractPage {
                     apiRes = handleException(requestId, requestingUser, t);
                 }
 
-                jsonArray = new ObjectMapper().writeValueAsString(apiRes);
+                jsonBytes = JsonApiMapper.writeValueAsBytes(apiRes);
 
             } catch (Exception e1) {
                 LOGGER.error(e1.getMessage());
@@ -557,7 +641,7 @@ public final class JsonApiServer extends AbstractPage {
 
             } catch (Exception ex) {
                 try {
-                    jsonArray = new ObjectMapper().writeValueAsString(
+                    jsonBytes = JsonApiMapper.writeValueAsBytes(
                             handleException(requestId, requestingUser, ex));
                 } catch (Exception e1) {
                     LOGGER.error(e1.getMessage());
@@ -580,15 +664,14 @@ public final class JsonApiServer extends AbstractPage {
         /*
          *
          */
-        if (jsonArray != null) {
+        if (jsonBytes != null) {
 
             if (LOGGER.isTraceEnabled()) {
-                LOGGER.trace(jsonArray);
+                LOGGER.trace(new String(jsonBytes, StandardCharsets.UTF_8));
             }
 
             requestCycle.scheduleRequestHandlerAfterCurrent(
-                    new TextRequestHandler(JsonRpcConfig.INTERNET_MEDIA_TYPE,
-                            JsonRpcConfig.CHAR_ENCODING, jsonArray));
+                    new JsonRequestHandler(jsonBytes));
         }
 
         PerformanceLogger.log(this.getClass(), "constructor", perfStartTime,
@@ -1445,6 +1528,7 @@ public final class JsonApiServer extends AbstractPage {
                     getParmValue(parameters, isGetAction, "id"),
                     Boolean.parseBoolean(
                             getParmValue(parameters, isGetAction, "pub")));
+            PageImageCache.instance().invalidate(requestingUser);
             return createApiResultOK();
 
         case JsonApiDict.REQ_LETTERHEAD_DELETE:
@@ -1457,6 +1541,7 @@ public final class JsonApiServer extends AbstractPage {
         case JsonApiDict.REQ_LETTERHEAD_DETACH:
 
             INBOX_SERVICE.detachLetterhead(requestingUser);
+            PageImageCache.instance().invalidate(requestingUser);
             return createApiResultOK();
 
         case JsonApiDict.REQ_LETTERHEAD_NEW:
@@ -2002,7 +2087,7 @@ public final class JsonApiServer extends AbstractPage {
                 } else {
                     LOGGER.error(String.format("[%s][%s][%s]: %s", requestId,
                             StringUtils.defaultString(requestingUser, "-"),
-                            this.createUserAgentHelper().getUserAgentHeader(),
+                            createUserAgentHelper().getUserAgentHeader(),
                             exception.getMessage()), exception);
                 }
             }
@@ -2267,9 +2352,9 @@ public final class JsonApiServer extends AbstractPage {
                 setApiResult(userData, ApiResultCodeEnum.WARN,
                         "msg-mail-max-file-size",
                         BigDecimalUtil.localize(fileMb, 2,
-                                this.getSession().getLocale(), true) + " MB",
+                                getSession().getLocale(), true) + " MB",
                         BigDecimalUtil.localize(maxFileMb, 2,
-                                this.getSession().getLocale(), true) + " MB");
+                                getSession().getLocale(), true) + " MB");
 
             } else {
 
@@ -2313,7 +2398,7 @@ public final class JsonApiServer extends AbstractPage {
                 DOC_LOG_SERVICE.logDocOut(lockedUser, docLog.getDocOut());
 
                 ApiRequestHelper.addUserStats(userData, lockedUser,
-                        this.getSession().getLocale(),
+                        getSession().getLocale(),
                         SpSession.getAppCurrencySymbol());
 
                 setApiResult(userData, ApiResultCodeEnum.OK, "msg-mail-sent",
@@ -2519,7 +2604,7 @@ public final class JsonApiServer extends AbstractPage {
 
         final Map<String, Object> userData = new HashMap<String, Object>();
 
-        final JsonNode list = new ObjectMapper().readTree(jsonScope);
+        final JsonNode list = JsonApiMapper.readTree(jsonScope);
 
         final Iterator<JsonNode> iter = list.getElements();
 
@@ -3035,7 +3120,7 @@ public final class JsonApiServer extends AbstractPage {
         final JsonNode list;
 
         try {
-            list = new ObjectMapper().readTree(jsonRename);
+            list = JsonApiMapper.readTree(jsonRename);
         } catch (IOException e) {
             throw new SpException(e.getMessage(), e);
         }
@@ -3103,6 +3188,7 @@ public final class JsonApiServer extends AbstractPage {
          * Re-initialize the CUPS printer cache.
          */
         PROXY_PRINT_SERVICE.initPrinterCache();
+        PrinterQuickSearchCache.instance().invalidate();
 
         /*
          * Feedback message.
@@ -3157,6 +3243,7 @@ public final class JsonApiServer extends AbstractPage {
                 PROXY_PRINT_SERVICE.setProxyPrinterCostMedia(jpaPrinter, dto);
 
         if (rpcResponse.isResult()) {
+            PrinterQuickSearchCache.instance().invalidate();
             setApiResult(userData, ApiResultCodeEnum.OK,
                     "msg-printer-saved-ok");
         } else {
@@ -3186,7 +3273,7 @@ public final class JsonApiServer extends AbstractPage {
                     "msg-user-not-found", userId);
         } else {
             ApiRequestHelper.addUserStats(userData, user,
-                    this.getSession().getLocale(),
+                    getSession().getLocale(),
                     SpSession.getAppCurrencySymbol());
             setApiResultOK(userData);
         }
@@ -3650,7 +3737,14 @@ public final class JsonApiServer extends AbstractPage {
      */
     private Map<String, Object> reqUserDelete(final String id,
             final String userid) throws IOException {
-        return apiResultFromBasicRpcResponse(USER_SERVICE.deleteUser(userid));
+
+        final AbstractJsonRpcMethodResponse rpcResponse =
+                USER_SERVICE.deleteUser(userid);
+
+        if (rpcResponse.isResult() && NumberUtils.isDigits(id)) {
+            UserSearchIndex.instance().onUserDeleted(Long.valueOf(id));
+        }
+        return apiResultFromBasicRpcResponse(rpcResponse);
     }
 
     /**
@@ -3793,6 +3887,7 @@ public final class JsonApiServer extends AbstractPage {
     private Map<String, Object> reqInboxJobDelete(final String user, int iJob) {
 
         INBOX_SERVICE.deleteJob(user, iJob);
+        PageImageCache.instance().invalidate(user);
 
         final Map<String, Object> userData = new HashMap<String, Object>();
 
@@ -3810,7 +3905,7 @@ public final class JsonApiServer extends AbstractPage {
         final JsonNode list;
 
         try {
-            list = new ObjectMapper().readTree(jsonData);
+            list = JsonApiMapper.readTree(jsonData);
         } catch (IOException e) {
             throw new SpException(e.getMessage(), e);
         }
@@ -3821,6 +3916,9 @@ public final class JsonApiServer extends AbstractPage {
                 list.get("pub").getBooleanValue(),
                 list.get("pub-new").getBooleanValue());
 
+        // A (public) letterhead can be attached to the inbox of any user.
+        PageImageCache.instance().invalidateAll();
+
         final Map<String, Object> userData = new HashMap<String, Object>();
 
         return setApiResult(userData, ApiResultCodeEnum.OK,
@@ -3838,6 +3936,7 @@ public final class JsonApiServer extends AbstractPage {
             final String letterheadId, final boolean isPublic) {
 
         INBOX_SERVICE.deleteLetterhead(user, letterheadId, isPublic);
+        PageImageCache.instance().invalidateAll();
         return createApiResultOK();
     }
 
@@ -3851,13 +3950,14 @@ public final class JsonApiServer extends AbstractPage {
         final JsonNode list;
 
         try {
-            list = new ObjectMapper().readTree(jsonData);
+            list = JsonApiMapper.readTree(jsonData);
         } catch (IOException e) {
             throw new SpException(e.getMessage(), e);
         }
 
         INBOX_SERVICE.editJob(user, iJob, list.get("rotate").getBooleanValue(),
                 list.get("undelete").getBooleanValue());
+        PageImageCache.instance().invalidate(user);
 
         final Map<String, Object> userData = new HashMap<String, Object>();
         return setApiResult(userData, ApiResultCodeEnum.OK, "msg-job-edited");
@@ -0,0 +1,76 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.api;
+
+import org.apache.wicket.request.IRequestCycle;
+import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.http.WebResponse;
+import org.savapage.core.json.rpc.JsonRpcConfig;
+
+/**
+ * Wicket handler that writes a JSON API response, serialized by
+ * {@link JsonApiMapper#writeValueAsBytes(Object)}, to the response output
+ * stream without building an intermediate {@link String}.
+ * <p>
+ * Serialization is done by the caller, while the persistence context and
+ * application locks of the request are still in place. The response is
+ * kept as bytes, and not streamed from there, because a serialization error
+ * or a failing commit of the database transaction afterwards must still be
+ * reported as a JSON API error result, instead of a truncated or
+ * premature success response.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class JsonRequestHandler implements IRequestHandler {
+
+    /**
+     * The UTF-8 JSON bytes.
+     */
+    private final byte[] json;
+
+    /**
+     *
+     * @param json
+     *            The UTF-8 JSON bytes.
+     */
+    public JsonRequestHandler(final byte[] json) {
+        this.json = json;
+    }
+
+    @Override
+    public void respond(final IRequestCycle requestCycle) {
+
+        final WebResponse response = (WebResponse) requestCycle.getResponse();
+
+        response.setContentType(JsonRpcConfig.INTERNET_MEDIA_TYPE
+                + "; charset=" + JsonRpcConfig.CHAR_ENCODING);
+        response.setContentLength(this.json.length);
+        response.disableCaching();
+        response.write(this.json);
+    }
+
+}
@@ -75,11 +75,17 @@ import org.savapage.server.session.SpSession;
 import org.savapage.server.webapp.WebAppHelper;
 
 /**
+ * Base class of API request handlers.
+ * <p>
+ * A handler instance is shared by all (concurrent) requests: the state of a
+ * request is kept per thread while the request is processed. Subclasses
+ * must not keep request state in instance fields.
+ * </p>
  *
  * @author Rijk Ravestein
  *
  */
-public abstract class ApiRequestMixin implements ApiRequestHandler {
+public abstract class ApiRequestMixin implements ApiRequestStatelessHandler {
 
     private static final String REQ_KEY_DTO = "dto";
 
@@ -90,14 +96,44 @@ public abstract class ApiRequestMixin implements ApiRequestHandler {
     private static final String RSP_KEY_TXT = "txt";
 
     /**
-     *
+     * The state of a request being processed.
      */
-    private final Map<String, Object> responseMap =
-            new HashMap<String, Object>();
+    private static final class RequestState {
+
+        /** */
+        private final Map<String, Object> responseMap =
+                new HashMap<String, Object>();
+
+        /** */
+        private final RequestCycle requestCycle;
+
+        /** */
+        private final PageParameters pageParameters;
+
+        /** */
+        private final boolean isGetAction;
+
+        /**
+         * @param requestCycle
+         *            The {@link RequestCycle}.
+         * @param parameters
+         *            The {@link PageParameters}.
+         * @param isGetAction
+         *            {@code true} when this is an HTML GET action.
+         */
+        RequestState(final RequestCycle requestCycle,
+                final PageParameters parameters, final boolean isGetAction) {
+            this.requestCycle = requestCycle;
+            this.pageParameters = parameters;
+            this.isGetAction = isGetAction;
+        }
+    }
 
-    private RequestCycle requestCycle;
-    private PageParameters pageParameters;
-    private boolean isGetAction;
+    /**
+     * The state of the request processed by the current thread.
+     */
+    private static final ThreadLocal<RequestState> REQUEST_STATE =
+            new ThreadLocal<>();
 
     /**
      * .
@@ -206,12 +242,22 @@ public abstract class ApiRequestMixin implements ApiRequestHandler {
             final String requestingUser, final User lockedUser)
             throws Exception {
 
-        this.requestCycle = requestCycle;
-        this.pageParameters = parameters;
-        this.isGetAction = isGetAction;
+        final RequestState statePrv = REQUEST_STATE.get();
+        final RequestState state =
+                new RequestState(requestCycle, parameters, isGetAction);
 
-        onRequest(requestingUser, lockedUser);
-        return this.getResponseMap();
+        REQUEST_STATE.set(state);
+
+        try {
+            onRequest(requestingUser, lockedUser);
+        } finally {
+            if (statePrv == null) {
+                REQUEST_STATE.remove();
+            } else {
+                REQUEST_STATE.set(statePrv);
+            }
+        }
+        return state.responseMap;
     }
 
     /**
@@ -247,7 +293,7 @@ public abstract class ApiRequestMixin implements ApiRequestHandler {
      * @return The response {@link Map}.
      */
     private Map<String, Object> getResponseMap() {
-        return responseMap;
+        return REQUEST_STATE.get().responseMap;
     }
 
     /**
@@ -296,7 +342,7 @@ public abstract class ApiRequestMixin implements ApiRequestHandler {
      * @return The response {@link Map}.
      */
     protected final Map<String, Object> getUserData() {
-        return responseMap;
+        return this.getResponseMap();
     }
 
     /**
@@ -497,7 +543,7 @@ public abstract class ApiRequestMixin implements ApiRequestHandler {
     protected boolean isApiResultCode(final EnumSet<ApiResultCodeEnum> set) {
         @SuppressWarnings("unchecked")
         final Map<String, Object> result =
-                (Map<String, Object>) responseMap.get("result");
+                (Map<String, Object>) this.getResponseMap().get("result");
 
         for (final ApiResultCodeEnum code : set) {
             if (result.get("code").equals(code.getValue())) {
@@ -601,13 +647,15 @@ public abstract class ApiRequestMixin implements ApiRequestHandler {
      */
     protected final String getParmValue(final String parm) {
 
-        if (this.isGetAction) {
-            return this.pageParameters.get(parm).toString();
+        final RequestState state = REQUEST_STATE.get();
+
+        if (state.isGetAction) {
+            return state.pageParameters.get(parm).toString();
         }
         /*
          * Get the POST-ed parameter.
          */
-        return this.requestCycle.getRequest().getPostParameters()
+        return state.requestCycle.getRequest().getPostParameters()
                 .getParameterValue(parm).toString();
     }
 
@@ -616,8 +664,8 @@ public abstract class ApiRequestMixin implements ApiRequestHandler {
      */
     protected final UserAgentHelper createUserAgentHelper() {
         final HttpServletRequest request =
-                (HttpServletRequest) this.requestCycle.getRequest()
-                        .getContainerRequest();
+                (HttpServletRequest) REQUEST_STATE.get().requestCycle
+                        .getRequest().getContainerRequest();
         return new UserAgentHelper(request);
     }
 
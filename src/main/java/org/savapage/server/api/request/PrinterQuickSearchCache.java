@@ -0,0 +1,300 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.api.request;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.savapage.core.json.JsonPrinter;
+import org.savapage.core.json.JsonPrinterList;
+import org.savapage.server.WebApp;
+import org.savapage.server.helpers.TrigramIndex;
+
+/**
+ * Bounded LRU cache of the printer lists of the printer quick search, with a
+ * pre-built search index per list.
+ * <p>
+ * A printer list is identified by a key like the requesting user and client
+ * IP address (terminal), since access control of printers depends on both.
+ * Lists are cached for {@link WebApp#getPrinterQuickSearchCacheSecs()}, and
+ * the cache is invalidated when printers, devices, user groups or
+ * configuration change.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class PrinterQuickSearchCache {
+
+    /**
+     * Max number of cached printer lists.
+     */
+    private static final int MAX_ENTRIES = 1000;
+
+    /**
+     * Loads a printer list.
+     */
+    public interface PrinterListLoader {
+        /**
+         * @return The printer list.
+         */
+        JsonPrinterList load();
+    }
+
+    /**
+     * An indexed printer list.
+     */
+    public static final class Entry {
+
+        /** */
+        private final List<JsonPrinter> printers;
+
+        /** Lower-cased printer aliases. */
+        private final String[] aliases;
+
+        /** Lower-cased printer locations. */
+        private final String[] locations;
+
+        /** Lower-cased CUPS printer names. */
+        private final String[] names;
+
+        /** Index of alias, location and CUPS name by list position. */
+        private final TrigramIndex<Integer> index = new TrigramIndex<>();
+
+        /** Is a Job Ticket printer with Fast Proxy Print available? */
+        private final boolean fastJobTicket;
+
+        /** Is a non Job Ticket printer with Fast Proxy Print available? */
+        private final boolean fastNonJobTicket;
+
+        /** Expiry time. */
+        private final long expiry;
+
+        /**
+         * @param printerList
+         *            The printer list.
+         * @param expiry
+         *            Expiry time.
+         */
+        private Entry(final JsonPrinterList printerList, final long expiry) {
+
+            this.printers = printerList.getList();
+            this.expiry = expiry;
+
+            final int size = this.printers.size();
+
+            this.aliases = new String[size];
+            this.locations = new String[size];
+            this.names = new String[size];
+
+            final Map<Integer, String[]> texts = new LinkedHashMap<>();
+
+            boolean fastJt = false;
+            boolean fastNonJt = false;
+
+            for (int i = 0; i < size; i++) {
+
+                final JsonPrinter printer = this.printers.get(i);
+
+                this.aliases[i] = TrigramIndex.normalize(printer.getAlias());
+                if (StringUtils.isBlank(printer.getLocation())) {
+                    this.locations[i] = null;
+                } else {
+                    this.locations[i] =
+                            TrigramIndex.normalize(printer.getLocation());
+                }
+                this.names[i] = TrigramIndex.normalize(printer.getName());
+
+                texts.put(Integer.valueOf(i), new String[] { this.aliases[i],
+                        this.locations[i], this.names[i] });
+
+                if (printer.getAuthMode() != null
+                        && printer.getAuthMode().isFast()) {
+                    if (BooleanUtils.isTrue(printer.getJobTicket())) {
+                        fastJt = true;
+                    } else {
+                        fastNonJt = true;
+                    }
+                }
+            }
+
+            this.index.load(texts);
+            this.fastJobTicket = fastJt;
+            this.fastNonJobTicket = fastNonJt;
+        }
+
+        /**
+         * @return The printers.
+         */
+        public List<JsonPrinter> getPrinters() {
+            return this.printers;
+        }
+
+        /**
+         * @param jobTicket
+         *            {@code null} for all printers, {@link Boolean#TRUE} for
+         *            Job Ticket printers only, {@link Boolean#FALSE} for non
+         *            Job Ticket printers only.
+         * @return {@code true} when a printer with Fast Proxy Print is
+         *         available.
+         */
+        public boolean isFastPrintAvailable(final Boolean jobTicket) {
+            if (jobTicket == null) {
+                return this.fastJobTicket || this.fastNonJobTicket;
+            }
+            if (jobTicket.booleanValue()) {
+                return this.fastJobTicket;
+            }
+            return this.fastNonJobTicket;
+        }
+
+        /**
+         * Searches the printers with alias or location (or CUPS name)
+         * containing a text.
+         *
+         * @param filter
+         *            The lower-cased search text.
+         * @param searchCupsName
+         *            {@code true} when CUPS name is searched as well.
+         * @return The list positions of the printers, in list order.
+         */
+        public List<Integer> search(final String filter,
+                final boolean searchCupsName) {
+
+            final List<Integer> positions = this.index.search(filter);
+
+            if (!filter.isEmpty()) {
+                // The index also matches CUPS names.
+                final Iterator<Integer> iter = positions.iterator();
+                while (iter.hasNext()) {
+                    final int i = iter.next().intValue();
+                    if (!(this.aliases[i].contains(filter)
+                            || (this.locations[i] != null
+                                    && this.locations[i].contains(filter))
+                            || (searchCupsName
+                                    && this.names[i].contains(filter)))) {
+                        iter.remove();
+                    }
+                }
+            }
+
+            Collections.sort(positions);
+            return positions;
+        }
+    }
+
+    /** */
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Incremented on each invalidation, so a list loaded before the
+     * invalidation is not cached.
+     */
+    private long generation;
+
+    /** */
+    private static class SingletonHolder {
+        /** */
+        public static final PrinterQuickSearchCache INSTANCE =
+                new PrinterQuickSearchCache();
+    }
+
+    /**
+     *
+     */
+    private PrinterQuickSearchCache() {
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean
+                    removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return this.size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * @return The singleton instance.
+     */
+    public static PrinterQuickSearchCache instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Gets the (cached) indexed printer list.
+     *
+     * @param key
+     *            The key of the list.
+     * @param loader
+     *            The loader of the list.
+     * @return The indexed printer list.
+     */
+    public Entry get(final String key, final PrinterListLoader loader) {
+
+        final long ttlMsec = WebApp.getPrinterQuickSearchCacheSecs() * 1000L;
+        final long now = System.currentTimeMillis();
+
+        if (ttlMsec <= 0) {
+            return new Entry(loader.load(), now);
+        }
+
+        final long generationLoad;
+
+        synchronized (this.entries) {
+            final Entry entry = this.entries.get(key);
+            if (entry != null && now < entry.expiry) {
+                return entry;
+            }
+            generationLoad = this.generation;
+        }
+
+        // Load outside the lock: concurrent misses just load twice.
+        final Entry entry = new Entry(loader.load(), now + ttlMsec);
+
+        synchronized (this.entries) {
+            if (generationLoad == this.generation) {
+                this.entries.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Invalidates all cached printer lists.
+     */
+    public void invalidate() {
+        synchronized (this.entries) {
+            this.generation++;
+            this.entries.clear();
+        }
+    }
+
+}
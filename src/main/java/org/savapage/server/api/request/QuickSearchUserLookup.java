@@ -0,0 +1,193 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.api.request;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.savapage.core.dao.UserEmailDao;
+import org.savapage.core.jpa.Account;
+import org.savapage.core.jpa.Account.AccountTypeEnum;
+import org.savapage.core.jpa.User;
+import org.savapage.core.jpa.UserAccount;
+import org.savapage.core.jpa.UserEmail;
+
+/**
+ * Batched lookups of {@link User} details for quick search result chunks, so
+ * details are retrieved with one query per chunk instead of one (or more)
+ * per row.
+ *
+ * @author Rijk Ravestein
+ *
+ */
+final class QuickSearchUserLookup {
+
+    /**
+     * Utility class.
+     */
+    private QuickSearchUserLookup() {
+    }
+
+    /**
+     * Gets the primary {@link UserEmail} addresses of users in one query.
+     *
+     * @param em
+     *            The {@link EntityManager}.
+     * @param userIds
+     *            Primary keys of the {@link User} objects.
+     * @return Primary email address by {@link User} primary key. Users
+     *         without a primary email address are absent.
+     */
+    static Map<Long, String> getPrimaryEmails(final EntityManager em,
+            final Collection<Long> userIds) {
+
+        final Map<Long, String> map = new HashMap<>();
+
+        if (userIds.isEmpty()) {
+            return map;
+        }
+
+        final TypedQuery<Object[]> query = em.createQuery(
+                "SELECT E.user.id, E.address FROM UserEmail E"
+                        + " WHERE E.user.id IN :userIds"
+                        + " AND E.indexNumber = :indexNumber",
+                Object[].class);
+
+        query.setParameter("userIds", userIds);
+        query.setParameter("indexNumber",
+                UserEmailDao.INDEX_NUMBER_PRIMARY_EMAIL);
+
+        for (final Object[] row : query.getResultList()) {
+            map.put((Long) row[0], (String) row[1]);
+        }
+        return map;
+    }
+
+    /**
+     * Gets the balances of the active {@link AccountTypeEnum#USER}
+     * {@link Account} of users in one query.
+     *
+     * @param em
+     *            The {@link EntityManager}.
+     * @param userIds
+     *            Primary keys of the {@link User} objects.
+     * @return Balance by {@link User} primary key. Users without an active
+     *         user account are absent.
+     */
+    static Map<Long, BigDecimal> getUserBalances(final EntityManager em,
+            final Collection<Long> userIds) {
+
+        final Map<Long, BigDecimal> map = new HashMap<>();
+
+        if (userIds.isEmpty()) {
+            return map;
+        }
+
+        final TypedQuery<Object[]> query = em.createQuery(
+                "SELECT UA.user.id, A.balance FROM UserAccount UA"
+                        + " JOIN UA.account A"
+                        + " WHERE UA.user.id IN :userIds"
+                        + " AND A.accountType = :accountType"
+                        + " AND A.deleted = false",
+                Object[].class);
+
+        query.setParameter("userIds", userIds);
+        query.setParameter("accountType", AccountTypeEnum.USER.toString());
+
+        for (final Object[] row : query.getResultList()) {
+            map.put((Long) row[0], (BigDecimal) row[1]);
+        }
+        return map;
+    }
+
+    /**
+     * Gets the {@link User} objects of {@link UserAccount} accounts in one
+     * query.
+     *
+     * @param em
+     *            The {@link EntityManager}.
+     * @param accountIds
+     *            Primary keys of the {@link Account} objects.
+     * @return {@link User} by {@link Account} primary key.
+     */
+    static Map<Long, User> getAccountUsers(final EntityManager em,
+            final Collection<Long> accountIds) {
+
+        final Map<Long, User> map = new HashMap<>();
+
+        if (accountIds.isEmpty()) {
+            return map;
+        }
+
+        final TypedQuery<Object[]> query = em.createQuery(
+                "SELECT UA.account.id, U FROM UserAccount UA JOIN UA.user U"
+                        + " WHERE UA.account.id IN :accountIds",
+                Object[].class);
+
+        query.setParameter("accountIds", accountIds);
+
+        for (final Object[] row : query.getResultList()) {
+            map.put((Long) row[0], (User) row[1]);
+        }
+        return map;
+    }
+
+    /**
+     * Gets active (non-deleted) persons by primary key in one query.
+     *
+     * @param em
+     *            The {@link EntityManager}.
+     * @param userIds
+     *            Primary keys of the {@link User} objects.
+     * @param maxResults
+     *            Max number of users.
+     * @return The users, ordered by user ID.
+     */
+    static List<User> getPersons(final EntityManager em,
+            final Collection<Long> userIds, final int maxResults) {
+
+        if (userIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        final TypedQuery<User> query = em.createQuery(
+                "SELECT U FROM User U WHERE U.id IN :userIds"
+                        + " AND U.deleted = false AND U.person = true"
+                        + " ORDER BY U.userId",
+                User.class);
+
+        query.setParameter("userIds", userIds);
+        query.setMaxResults(maxResults);
+
+        return query.getResultList();
+    }
+}
@@ -30,7 +30,6 @@ import java.util.Iterator;
 
 import org.apache.commons.lang3.StringUtils;
 import org.codehaus.jackson.JsonNode;
-import org.codehaus.jackson.map.ObjectMapper;
 import org.savapage.core.SpException;
 import org.savapage.core.cometd.AdminPublisher;
 import org.savapage.core.cometd.PubLevelEnum;
@@ -56,7 +55,9 @@ import org.savapage.core.services.helpers.PosSalesLabelCache;
 import org.savapage.core.services.helpers.SOfficeConfigProps;
 import org.savapage.core.util.BigDecimalUtil;
 import org.savapage.ext.papercut.services.PaperCutService;
+import org.savapage.server.api.JsonApiMapper;
 import org.savapage.server.dropzone.WebPrintHelper;
+import org.savapage.server.ipp.IppQueueCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -99,7 +100,7 @@ public final class ReqConfigPropsSet extends ApiRequestMixin {
         final JsonNode list;
 
         try {
-            list = new ObjectMapper().readTree(this.getParmValueDto());
+            list = JsonApiMapper.readTree(this.getParmValueDto());
         } catch (IOException e) {
             throw new SpException(e.getMessage(), e);
         }
@@ -229,6 +230,7 @@ public final class ReqConfigPropsSet extends ApiRequestMixin {
 
                     IPP_QUEUE_DAO.updateDisabled(ReservedIppQueueEnum.WEBPRINT,
                             !cm.isConfigValue(configKey));
+                    IppQueueCache.instance().invalidate();
 
                 } else if (configKey == Key.PRINT_IMAP_ENABLE) {
 
@@ -236,6 +238,7 @@ public final class ReqConfigPropsSet extends ApiRequestMixin {
 
                     IPP_QUEUE_DAO.updateDisabled(ReservedIppQueueEnum.MAILPRINT,
                             !newValue);
+                    IppQueueCache.instance().invalidate();
 
                     if (preValue && !newValue) {
                         if (SpJobScheduler.interruptMailPrintListener()) {
@@ -306,6 +309,7 @@ public final class ReqConfigPropsSet extends ApiRequestMixin {
                 evaluateSOfficeService(cm, true);
             }
 
+            PrinterQuickSearchCache.instance().invalidate();
             setApiResult(ApiResultCodeEnum.OK, msgKey);
         }
     }
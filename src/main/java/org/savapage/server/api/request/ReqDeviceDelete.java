@@ -95,6 +95,7 @@ public final class ReqDeviceDelete extends ApiRequestMixin {
         }
 
         deviceDao.delete(device);
+        PrinterQuickSearchCache.instance().invalidate();
 
         setApiResult(ApiResultCodeEnum.OK, "msg-device-deleted-ok");
     }
@@ -500,6 +500,7 @@ public final class ReqDeviceSet extends ApiRequestMixin {
             }
         }
 
+        PrinterQuickSearchCache.instance().invalidate();
         setApiResult(ApiResultCodeEnum.OK, resultMsgKey);
     }
 
@@ -36,6 +36,7 @@ import org.savapage.core.jpa.DocLog;
 import org.savapage.core.jpa.User;
 import org.savapage.core.services.DocStoreService;
 import org.savapage.core.services.ServiceContext;
+import org.savapage.server.helpers.DocStorePresenceIndex;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
@@ -101,6 +102,7 @@ public final class ReqDocLogStoreDelete extends ApiRequestMixin {
         }
 
         FileUtils.deleteDirectory(srcPdf.getParentFile());
+        DocStorePresenceIndex.instance().invalidate(docLog.getId());
 
         this.setApiResult(ApiResultCodeEnum.OK, "msg-deleted-ok");
     }
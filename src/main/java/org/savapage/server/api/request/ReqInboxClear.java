@@ -27,6 +27,7 @@ package org.savapage.server.api.request;
 import java.io.IOException;
 
 import org.savapage.core.jpa.User;
+import org.savapage.server.img.PageImageCache;
 
 /**
  *
@@ -40,6 +41,7 @@ public final class ReqInboxClear extends ApiRequestMixin {
             throws IOException {
 
         final int nJobs = INBOX_SERVICE.deleteAllJobs(requestingUser);
+        PageImageCache.instance().invalidate(requestingUser);
 
         final String msgKey;
 
@@ -46,6 +46,7 @@ import org.savapage.core.jpa.User;
 import org.savapage.core.services.DocStoreService;
 import org.savapage.core.services.ServiceContext;
 import org.savapage.core.util.FileSystemHelper;
+import org.savapage.server.img.PageImageCache;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
@@ -124,6 +125,7 @@ public final class ReqInboxRestorePrintIn extends ApiRequestMixin {
         if (isReplaced) {
             INBOX_SERVICE.deleteAllJobs(requestingUser);
         }
+        PageImageCache.instance().invalidate(requestingUser);
 
         // Copy via temp, to user home.
         final Path tmpPdfPath =
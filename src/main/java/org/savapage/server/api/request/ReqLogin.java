@@ -1625,6 +1625,8 @@ public final class ReqLogin extends ApiRequestMixin {
         }
         userData.put("cometdToken", cometdToken);
 
+        session.setAuthOrigin(webAppType, this.getClientIP(), uidAuth);
+
         WebApp.get().onAuthenticatedUser(webAppType, authMode, session.getId(),
                 this.getClientIP(), uidAuth);
 
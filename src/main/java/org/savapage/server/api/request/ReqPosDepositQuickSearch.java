@@ -28,12 +28,17 @@ import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
 
 import org.savapage.core.config.ConfigManager;
 import org.savapage.core.dao.AccountTrxDao;
-import org.savapage.core.dao.UserAccountDao;
 import org.savapage.core.dao.enums.AccountTrxTypeEnum;
+import org.savapage.core.dao.impl.DaoContextImpl;
 import org.savapage.core.dto.AbstractDto;
 import org.savapage.core.dto.QuickSearchFilterDto;
 import org.savapage.core.dto.QuickSearchItemDto;
@@ -85,9 +90,6 @@ public final class ReqPosDepositQuickSearch extends ApiRequestMixin {
         final AccountTrxDao accountTrxDao =
                 ServiceContext.getDaoContext().getAccountTrxDao();
 
-        final UserAccountDao userAccountDao =
-                ServiceContext.getDaoContext().getUserAccountDao();
-
         final AccountTrxDao.ListFilter filter = new AccountTrxDao.ListFilter();
         filter.setAccountType(AccountTypeEnum.USER);
         filter.setTrxType(AccountTrxTypeEnum.DEPOSIT);
@@ -110,14 +112,37 @@ public final class ReqPosDepositQuickSearch extends ApiRequestMixin {
         final String currencySymbol = SpSession.getAppCurrencySymbol();
         final int balanceDecimals = ConfigManager.getUserBalanceDecimals();
 
+        final List<AccountTrx> trxList = accountTrxDao.getListChunk(filter, 0,
+                dto.getMaxResults(), AccountTrxDao.Field.TRX_DATE, false);
+
+        /*
+         * Retrieve users and their email of the chunk in one go.
+         */
+        final EntityManager em = DaoContextImpl.peekEntityManager();
+
+        final Set<Long> accountIds = new HashSet<>();
+        for (final AccountTrx accountTrx : trxList) {
+            accountIds.add(accountTrx.getAccount().getId());
+        }
+
+        final Map<Long, User> accountUsers =
+                QuickSearchUserLookup.getAccountUsers(em, accountIds);
+
+        final Set<Long> userIds = new HashSet<>();
+        for (final User user : accountUsers.values()) {
+            userIds.add(user.getId());
+        }
+
+        final Map<Long, String> emails =
+                QuickSearchUserLookup.getPrimaryEmails(em, userIds);
+
         QuickSearchPosPurchaseItemDto itemWlk;
 
-        for (final AccountTrx accountTrx : accountTrxDao.getListChunk(filter, 0,
-                dto.getMaxResults(), AccountTrxDao.Field.TRX_DATE, false)) {
+        for (final AccountTrx accountTrx : trxList) {
 
             final PosPurchase purchase = accountTrx.getPosPurchase();
-            final User user = userAccountDao
-                    .findByAccountId(accountTrx.getAccount().getId()).getUser();
+            final User user =
+                    accountUsers.get(accountTrx.getAccount().getId());
 
             itemWlk = new QuickSearchPosPurchaseItemDto();
 
@@ -139,7 +164,7 @@ public final class ReqPosDepositQuickSearch extends ApiRequestMixin {
             }
 
             itemWlk.setUserId(user.getUserId());
-            itemWlk.setUserEmail(USER_SERVICE.getPrimaryEmailAddress(user));
+            itemWlk.setUserEmail(emails.get(user.getId()));
 
             list.add(itemWlk);
 
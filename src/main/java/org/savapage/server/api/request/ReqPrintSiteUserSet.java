@@ -32,6 +32,7 @@ import org.savapage.core.jpa.User;
 import org.savapage.core.json.rpc.AbstractJsonRpcMethodResponse;
 import org.savapage.core.json.rpc.ErrorDataBasic;
 import org.savapage.core.services.ServiceContext;
+import org.savapage.server.helpers.UserSearchIndex;
 
 /**
  * Edits or creates a User (a logical delete is not handled).
@@ -78,6 +79,9 @@ public final class ReqPrintSiteUserSet extends ApiRequestMixin {
                 msgKeyOk = "msg-user-created-ok";
             } else {
                 msgKeyOk = "msg-user-saved-ok";
+                UserSearchIndex.instance()
+                        .onUserChanged(ServiceContext.getDaoContext()
+                                .getUserDao().findById(dto.getDatabaseId()));
             }
 
             setApiResult(ApiResultCodeEnum.OK, msgKeyOk);
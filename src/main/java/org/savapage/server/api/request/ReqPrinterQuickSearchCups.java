@@ -48,4 +48,10 @@ public final class ReqPrinterQuickSearchCups
         }
     }
 
+    @Override
+    protected String getPrinterListCacheKey(final String requestingUser) {
+        // requestingUser is irrelevant.
+        return "cups";
+    }
+
 }
@@ -26,11 +26,9 @@ package org.savapage.server.api.request;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 import org.apache.commons.lang3.BooleanUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.savapage.core.dto.AbstractDto;
 import org.savapage.core.dto.QuickSearchFilterPrinterDto;
 import org.savapage.core.dto.QuickSearchItemDto;
@@ -39,6 +37,7 @@ import org.savapage.core.jpa.User;
 import org.savapage.core.json.JsonPrinter;
 import org.savapage.core.json.JsonPrinterList;
 import org.savapage.server.api.request.ReqQuickSearchMixin.DtoQuickSearchRsp;
+import org.savapage.server.helpers.TrigramIndex;
 
 /**
  * Proxy Printers Quick Search.
@@ -87,6 +86,15 @@ public abstract class ReqPrinterQuickSearchMixin extends ApiRequestMixin {
      */
     protected abstract JsonPrinterList getPrinterList(String requestingUser);
 
+    /**
+     * Gets the key of the printers in {@link PrinterQuickSearchCache}.
+     *
+     * @param requestingUser
+     *            Unique ID of requesting user.
+     * @return The cache key.
+     */
+    protected abstract String getPrinterListCacheKey(String requestingUser);
+
     @Override
     protected final void onRequest(final String requestingUser,
             final User lockedUser) throws IOException {
@@ -104,28 +112,27 @@ public abstract class ReqPrinterQuickSearchMixin extends ApiRequestMixin {
         final boolean searchCupsName =
                 BooleanUtils.isTrue(dto.getSearchCupsName());
 
-        final JsonPrinterList jsonPrinterList =
-                this.getPrinterList(requestingUser);
+        final PrinterQuickSearchCache.Entry printerList =
+                PrinterQuickSearchCache.instance().get(
+                        this.getPrinterListCacheKey(requestingUser),
+                        new PrinterQuickSearchCache.PrinterListLoader() {
+                            @Override
+                            public JsonPrinterList load() {
+                                return getPrinterList(requestingUser);
+                            }
+                        });
 
         final int maxItems = dto.getMaxResults().intValue();
-        final String filter = dto.getFilter().toLowerCase();
+        final String filter = TrigramIndex.normalize(dto.getFilter());
 
+        final List<JsonPrinter> printers = printerList.getPrinters();
         final List<QuickSearchItemDto> items = new ArrayList<>();
 
-        /*
-         * First iteration to collect the items, fastPrintAvaliable.
-         */
-        final Iterator<JsonPrinter> iter = jsonPrinterList.getList().iterator();
-
-        // Is printer with Fast Proxy Print available?
-        Boolean fastPrintAvailable = null;
-
         int totalResults = 0;
-        int iPosition = 0;
 
-        while (iter.hasNext()) {
+        for (final Integer i : printerList.search(filter, searchCupsName)) {
 
-            final JsonPrinter printer = iter.next();
+            final JsonPrinter printer = printers.get(i.intValue());
 
             final boolean isJobTicketPrinter =
                     BooleanUtils.isTrue(printer.getJobTicket());
@@ -135,64 +142,32 @@ public abstract class ReqPrinterQuickSearchMixin extends ApiRequestMixin {
                 continue;
             }
 
-            if (printer.getAuthMode() != null
-                    && printer.getAuthMode().isFast()) {
-                fastPrintAvailable = Boolean.TRUE;
-            }
+            totalResults++;
 
-            final String location = printer.getLocation();
+            if (totalResults > startPosition && items.size() < maxItems) {
 
-            if (StringUtils.isEmpty(filter)
-                    || printer.getAlias().toLowerCase().contains(filter)
-                    || (StringUtils.isNotBlank(location)
-                            && location.toLowerCase().contains(filter))
-                    || (searchCupsName && printer.getName().toLowerCase()
-                            .contains(filter))) {
+                final QuickSearchPrinterItemDto itemWlk =
+                        new QuickSearchPrinterItemDto();
 
-                totalResults++;
-                iPosition++;
+                itemWlk.setKey(printer.getDbKey());
+                itemWlk.setText(printer.getAlias());
+                itemWlk.setPrinter(printer);
 
-                if (iPosition > startPosition && items.size() < maxItems) {
-
-                    final QuickSearchPrinterItemDto itemWlk =
-                            new QuickSearchPrinterItemDto();
-
-                    itemWlk.setKey(printer.getDbKey());
-                    itemWlk.setText(printer.getAlias());
-                    itemWlk.setPrinter(printer);
-
-                    items.add(itemWlk);
-                }
+                items.add(itemWlk);
             }
         }
 
         /*
          * We need to know if there are any "Fast Release" printers available
-         * (even if not part of this search list). So, if fastPrintAvaliable was
-         * NOT collected iterate the remainder of the list.
+         * (even if not part of this search list).
          *
          * Reason: the client may want to display a button to extend the Fast
          * Print Closing Time.
          */
-        if (fastPrintAvailable == null) {
-
-            fastPrintAvailable = Boolean.FALSE;
-
-            while (iter.hasNext()) {
-
-                final JsonPrinter printer = iter.next();
-
-                if (printer.getAuthMode() != null
-                        && printer.getAuthMode().isFast()) {
-                    fastPrintAvailable = Boolean.TRUE;
-                    break;
-                }
-            }
-        }
-
         final DtoRsp rsp = new DtoRsp();
         rsp.setItems(items);
-        rsp.setFastPrintAvailable(fastPrintAvailable);
+        rsp.setFastPrintAvailable(Boolean.valueOf(
+                printerList.isFastPrintAvailable(dto.getJobTicket())));
         rsp.calcNavPositions(dto.getMaxResults().intValue(), startPosition,
                 totalResults);
 
@@ -50,4 +50,10 @@ public final class ReqPrinterQuickSearchUser
         }
     }
 
+    @Override
+    protected String getPrinterListCacheKey(final String requestingUser) {
+        // Terminal is derived from the client IP address.
+        return "user\t" + this.getClientIP() + "\t" + requestingUser;
+    }
+
 }
@@ -122,6 +122,7 @@ public final class ReqPrinterSet extends ApiRequestMixin {
         }
 
         PROXY_PRINT_SERVICE.setProxyPrinterProps(jpaPrinter, dto);
+        PrinterQuickSearchCache.instance().invalidate();
 
         setApiResult(ApiResultCodeEnum.OK, "msg-printer-saved-ok");
     }
@@ -69,6 +69,7 @@ public final class ReqPrinterSetMediaSources extends ApiRequestMixin {
                 .setProxyPrinterCostMediaSources(jpaPrinter, dto);
 
         if (rpcResponse.isResult()) {
+            PrinterQuickSearchCache.instance().invalidate();
             setApiResult(ApiResultCodeEnum.OK, "msg-printer-saved-ok");
         } else {
             setApiResultText(rpcResponse);
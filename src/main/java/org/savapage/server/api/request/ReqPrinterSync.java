@@ -43,6 +43,7 @@ public final class ReqPrinterSync extends ApiRequestMixin {
         try {
 
             PROXY_PRINT_SERVICE.initPrinterCache();
+            PrinterQuickSearchCache.instance().invalidate();
 
             setApiResult(ApiResultCodeEnum.OK, "msg-printer-sync-ok");
 
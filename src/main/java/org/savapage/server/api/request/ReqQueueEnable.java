@@ -35,6 +35,7 @@ import org.savapage.core.jpa.IppQueue;
 import org.savapage.core.jpa.User;
 import org.savapage.core.services.ServiceContext;
 import org.savapage.core.util.AppLogHelper;
+import org.savapage.server.ipp.IppQueueCache;
 
 /**
  *
@@ -96,6 +97,8 @@ public final class ReqQueueEnable extends ApiRequestMixin {
             queue.setDisabled(!req.getEnabled());
             dao.update(queue);
 
+            IppQueueCache.instance().invalidate();
+
             final String msgKeyPub;
             final PubLevelEnum pubLevel;
 
@@ -44,6 +44,7 @@ import org.savapage.core.jpa.User;
 import org.savapage.core.services.ServiceContext;
 import org.savapage.core.util.InetUtils;
 import org.savapage.core.util.JsonHelper;
+import org.savapage.server.ipp.IppQueueCache;
 
 /**
  * Edits or creates a Queue.
@@ -233,6 +234,8 @@ public final class ReqQueueSet extends ApiRequestMixin {
             }
         }
 
+        IppQueueCache.instance().invalidate();
+
         setApiResult(ApiResultCodeEnum.OK, keyOK);
     }
 
@@ -26,10 +26,12 @@ package org.savapage.server.api.request;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import org.savapage.core.dao.UserGroupAccountDao;
+import org.savapage.core.dao.impl.DaoContextImpl;
 import org.savapage.core.dto.AbstractDto;
 import org.savapage.core.dto.QuickSearchFilterPreferredDto;
 import org.savapage.core.dto.QuickSearchItemDto;
@@ -37,6 +39,7 @@ import org.savapage.core.dto.QuickSearchItemPreferredDto;
 import org.savapage.core.dto.SharedAccountDto;
 import org.savapage.core.jpa.User;
 import org.savapage.core.services.ServiceContext;
+import org.savapage.server.helpers.SharedAccountSearchIndex;
 
 /**
  * Shared Account Quicksearch.
@@ -94,14 +97,37 @@ public final class ReqSharedAccountQuickSearch extends ReqQuickSearchMixin {
         filter.setContainingNameText(dto.getFilter());
         filter.setDisabled(Boolean.FALSE);
 
-        if (dto.isPreferred()) {
-            filter.setAccountIds(preferredAccounts);
+        /*
+         * Use the index to narrow the accounts by key, if possible.
+         */
+        final List<Long> candidates = SharedAccountSearchIndex.instance()
+                .search(DaoContextImpl.peekEntityManager(), dto.getFilter());
+
+        final Set<Long> accountIds;
+
+        if (candidates == null
+                || (dto.isPreferred() && preferredAccounts == null)) {
+            if (dto.isPreferred()) {
+                accountIds = preferredAccounts;
+            } else {
+                accountIds = null;
+            }
+        } else {
+            accountIds = new HashSet<>(candidates);
+            if (dto.isPreferred()) {
+                accountIds.retainAll(preferredAccounts);
+            }
+        }
+
+        if (accountIds != null) {
+            filter.setAccountIds(accountIds);
         }
 
         final int totalResults;
         final List<SharedAccountDto> accountList;
 
-        if (dto.isPreferred() && preferredAccounts == null) {
+        if ((dto.isPreferred() && preferredAccounts == null)
+                || (candidates != null && accountIds.isEmpty())) {
 
             accountList = new ArrayList<>();
             totalResults = 0;
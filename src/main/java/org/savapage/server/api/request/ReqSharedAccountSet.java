@@ -30,6 +30,7 @@ import org.savapage.core.dto.AbstractDto;
 import org.savapage.core.dto.SharedAccountDisplayInfoDto;
 import org.savapage.core.jpa.User;
 import org.savapage.core.json.rpc.AbstractJsonRpcMethodResponse;
+import org.savapage.server.helpers.SharedAccountSearchIndex;
 
 /**
  *
@@ -48,6 +49,9 @@ public final class ReqSharedAccountSet extends ApiRequestMixin {
         final AbstractJsonRpcMethodResponse rpcResponse =
                 ACCOUNTING_SERVICE.lazyUpdateSharedAccount(dto);
 
+        if (rpcResponse.isResult()) {
+            SharedAccountSearchIndex.instance().invalidate();
+        }
         this.setApiResultText(rpcResponse);
     }
 
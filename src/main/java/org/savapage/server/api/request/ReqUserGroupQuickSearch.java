@@ -26,12 +26,14 @@ package org.savapage.server.api.request;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import org.savapage.core.dao.UserGroupDao;
 import org.savapage.core.dao.UserGroupMemberDao;
 import org.savapage.core.dao.enums.ACLRoleEnum;
+import org.savapage.core.dao.impl.DaoContextImpl;
 import org.savapage.core.dto.AbstractDto;
 import org.savapage.core.dto.QuickSearchFilterUserGroupDto;
 import org.savapage.core.dto.QuickSearchItemDto;
@@ -39,6 +41,7 @@ import org.savapage.core.dto.QuickSearchUserGroupItemDto;
 import org.savapage.core.jpa.User;
 import org.savapage.core.jpa.UserGroup;
 import org.savapage.core.services.ServiceContext;
+import org.savapage.server.helpers.UserGroupSearchIndex;
 
 /**
  * User Group Quicksearch.
@@ -116,14 +119,37 @@ public final class ReqUserGroupQuickSearch extends ReqQuickSearchMixin {
 
         groupFilter.setAclRole(dto.getAclRole());
 
-        if (dto.isPreferred()) {
-            groupFilter.setGroupIds(preferredGroups);
+        /*
+         * Use the index to narrow the groups by key, if possible.
+         */
+        final List<Long> candidates = UserGroupSearchIndex.instance()
+                .search(DaoContextImpl.peekEntityManager(), dto.getFilter());
+
+        final Set<Long> groupIds;
+
+        if (candidates == null
+                || (dto.isPreferred() && preferredGroups == null)) {
+            if (dto.isPreferred()) {
+                groupIds = preferredGroups;
+            } else {
+                groupIds = null;
+            }
+        } else {
+            groupIds = new HashSet<>(candidates);
+            if (dto.isPreferred()) {
+                groupIds.retainAll(preferredGroups);
+            }
+        }
+
+        if (groupIds != null) {
+            groupFilter.setGroupIds(groupIds);
         }
 
         final int totalResults;
         final List<UserGroup> userGroupList;
 
-        if (dto.isPreferred() && preferredGroups == null) {
+        if ((dto.isPreferred() && preferredGroups == null)
+                || (candidates != null && groupIds.isEmpty())) {
 
             userGroupList = new ArrayList<>();
             totalResults = 0;
@@ -47,6 +47,7 @@ import org.savapage.core.jpa.UserGroup;
 import org.savapage.core.jpa.UserGroupAttr;
 import org.savapage.core.services.ServiceContext;
 import org.savapage.core.util.JsonHelper;
+import org.savapage.server.helpers.UserGroupSearchIndex;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
@@ -303,6 +304,8 @@ public final class ReqUserGroupSet extends ApiRequestMixin {
         } else {
             groupName = reservedGroup.getUiName();
         }
+        PrinterQuickSearchCache.instance().invalidate();
+        UserGroupSearchIndex.instance().onGroupChanged(userGroup);
         setApiResult(ApiResultCodeEnum.OK, "msg-usergroup-updated", groupName);
     }
 
@@ -38,6 +38,7 @@ import org.savapage.core.jpa.UserGroup;
 import org.savapage.core.json.rpc.AbstractJsonRpcMethodResponse;
 import org.savapage.core.services.ServiceContext;
 import org.savapage.core.users.conf.InternalGroupList;
+import org.savapage.server.helpers.UserGroupSearchIndex;
 
 /**
  *
@@ -161,6 +162,7 @@ public final class ReqUserGroupsAddRemove extends ApiRequestMixin {
                 }
 
                 daoCtx.commit();
+                UserGroupSearchIndex.instance().onGroupDeleted(groupId);
                 nRemoved++;
             }
         }
@@ -184,6 +186,7 @@ public final class ReqUserGroupsAddRemove extends ApiRequestMixin {
                 msg.append(this.localize("msg-groups-removed",
                         String.valueOf(nRemoved)));
             }
+            PrinterQuickSearchCache.instance().invalidate();
             setApiResultText(ApiResultCodeEnum.OK, msg.toString());
         }
     }
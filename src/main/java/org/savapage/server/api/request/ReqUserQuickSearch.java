@@ -25,17 +25,23 @@
 package org.savapage.server.api.request;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
 
 import org.apache.commons.lang3.BooleanUtils;
 import org.savapage.core.dao.UserDao;
+import org.savapage.core.dao.impl.DaoContextImpl;
 import org.savapage.core.dto.AbstractDto;
 import org.savapage.core.dto.QuickSearchFilterUserDto;
 import org.savapage.core.dto.QuickSearchItemDto;
 import org.savapage.core.dto.QuickSearchUserItemDto;
 import org.savapage.core.jpa.User;
 import org.savapage.core.services.ServiceContext;
+import org.savapage.server.helpers.UserSearchIndex;
 import org.savapage.server.session.SpSession;
 
 /**
@@ -91,25 +97,66 @@ public final class ReqUserQuickSearch extends ApiRequestMixin {
         final boolean skipRequestingUser =
                 BooleanUtils.isTrue(dto.getExcludeRequester());
 
-        QuickSearchUserItemDto itemWlk;
+        final EntityManager em = DaoContextImpl.peekEntityManager();
+
+        /*
+         * Use the index to select candidate users by key, if possible.
+         */
+        final List<Long> candidates;
+        if (dto.getFilterExt() == null) {
+            candidates = UserSearchIndex.instance().search(em,
+                    dto.getFilter(), false);
+        } else {
+            candidates = UserSearchIndex.instance().search(em,
+                    dto.getFilterExt(), true);
+        }
+
+        final List<User> userChunk;
+        if (candidates == null) {
+            userChunk = userDao.getListChunk(filter, 0, dto.getMaxResults(),
+                    UserDao.Field.USERID, true);
+        } else {
+            userChunk = QuickSearchUserLookup.getPersons(em, candidates,
+                    dto.getMaxResults().intValue());
+        }
+
+        final List<User> users = new ArrayList<>();
+        final List<Long> userIds = new ArrayList<>();
 
-        for (final User user : userDao.getListChunk(filter, 0,
-                dto.getMaxResults(), UserDao.Field.USERID, true)) {
+        for (final User user : userChunk) {
 
             if (skipRequestingUser && user.getUserId().equals(requestingUser)) {
                 continue;
             }
+            users.add(user);
+            userIds.add(user.getId());
+        }
+
+        /*
+         * Retrieve email and balance of the chunk in one go.
+         */
+        final Map<Long, String> emails =
+                QuickSearchUserLookup.getPrimaryEmails(em, userIds);
+        final Map<Long, BigDecimal> balances =
+                QuickSearchUserLookup.getUserBalances(em, userIds);
+
+        QuickSearchUserItemDto itemWlk;
+
+        for (final User user : users) {
 
             itemWlk = new QuickSearchUserItemDto();
 
             itemWlk.setKey(user.getId());
             itemWlk.setText(user.getUserId());
             itemWlk.setFullName(user.getFullName());
-            itemWlk.setEmail(USER_SERVICE.getPrimaryEmailAddress(user));
+            itemWlk.setEmail(emails.get(user.getId()));
 
-            itemWlk.setBalance(
-                    ACCOUNTING_SERVICE.getFormattedUserBalance(user.getUserId(),
-                            ServiceContext.getLocale(), currencySymbol));
+            BigDecimal balance = balances.get(user.getId());
+            if (balance == null) {
+                balance = BigDecimal.ZERO;
+            }
+            itemWlk.setBalance(ACCOUNTING_SERVICE.formatUserBalance(balance,
+                    ServiceContext.getLocale(), currencySymbol));
 
             list.add(itemWlk);
         }
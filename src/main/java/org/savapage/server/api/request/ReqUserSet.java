@@ -30,6 +30,8 @@ import org.savapage.core.dto.UserDto;
 import org.savapage.core.jpa.User;
 import org.savapage.core.json.rpc.AbstractJsonRpcMethodResponse;
 import org.savapage.core.json.rpc.ErrorDataBasic;
+import org.savapage.core.services.ServiceContext;
+import org.savapage.server.helpers.UserSearchIndex;
 
 /**
  * Edits or creates a User (a logical delete is not handled).
@@ -59,6 +61,9 @@ public final class ReqUserSet extends ApiRequestMixin {
                 msgKeyOk = "msg-user-created-ok";
             } else {
                 msgKeyOk = "msg-user-saved-ok";
+                UserSearchIndex.instance().onUserChanged(
+                        ServiceContext.getDaoContext().getUserDao()
+                                .findById(userDto.getDatabaseId()));
             }
 
             setApiResult(ApiResultCodeEnum.OK, msgKeyOk);
@@ -25,8 +25,8 @@
 package org.savapage.server.api.request.export;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -36,16 +36,19 @@ import java.util.Locale;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
+import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.wicket.request.IRequestCycle;
 import org.apache.wicket.request.IRequestHandler;
 import org.apache.wicket.request.cycle.RequestCycle;
-import org.apache.wicket.request.handler.resource.ResourceStreamRequestHandler;
+import org.apache.wicket.request.http.WebResponse;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
-import org.apache.wicket.request.resource.ContentDisposition;
-import org.apache.wicket.util.resource.FileResourceStream;
-import org.apache.wicket.util.time.Duration;
+import org.savapage.core.concurrent.ReadLockObtainFailedException;
+import org.savapage.core.concurrent.ReadWriteLockEnum;
 import org.savapage.core.config.ConfigManager;
 import org.savapage.core.config.IConfigProp.Key;
 import org.savapage.core.config.WebAppTypeEnum;
@@ -53,6 +56,7 @@ import org.savapage.core.dao.UserAccountDao;
 import org.savapage.core.dao.UserAttrDao;
 import org.savapage.core.dao.UserNumberDao;
 import org.savapage.core.dao.enums.UserAttrEnum;
+import org.savapage.core.dao.impl.DaoContextImpl;
 import org.savapage.core.ipp.IppJobStateEnum;
 import org.savapage.core.jpa.Account;
 import org.savapage.core.jpa.AccountTrx;
@@ -73,12 +77,16 @@ import org.savapage.core.jpa.UserEmail;
 import org.savapage.core.jpa.UserNumber;
 import org.savapage.core.services.ServiceContext;
 import org.savapage.core.util.NumberUtil;
+import org.savapage.server.WebApp;
 import org.savapage.server.api.JsonApiDict;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import au.com.bytecode.opencsv.CSVWriter;
 
 /**
- * Creates ZIP file with CSV exports of document and transaction log for
+ * Streams a ZIP file with CSV exports of document and transaction log for
  * requesting user.
  *
  * @author Rijk Ravestein
@@ -86,6 +94,45 @@ import au.com.bytecode.opencsv.CSVWriter;
  */
 public class ReqExportUserDataHistory extends ApiRequestExportMixin {
 
+    /** */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(ReqExportUserDataHistory.class);
+
+    /**
+     * Keyset variant of {@code DocLogDao#getExportQuery(User)}: same WHERE
+     * and ORDER BY, with the id as tie breaker. Newest rows first.
+     */
+    private static final String JPQL_DOCLOG_EXPORT =
+            "SELECT D FROM DocLog D WHERE D.user.id = :userId";
+
+    /** */
+    private static final String JPQL_DOCLOG_EXPORT_SEEK =
+            " AND (D.createdDate < :lastDate"
+                    + " OR (D.createdDate = :lastDate AND D.id < :lastId))";
+
+    /** */
+    private static final String JPQL_DOCLOG_EXPORT_ORDER =
+            " ORDER BY D.createdDate DESC, D.id DESC";
+
+    /**
+     * Keyset variant of {@code AccountTrxDao#getExportQuery(User)}: same
+     * WHERE and ORDER BY, with the id as tie breaker. Newest rows first.
+     */
+    private static final String JPQL_ACCOUNTTRX_EXPORT =
+            "SELECT T FROM AccountTrx T WHERE T.account.id IN"
+                    + " (SELECT UA.account.id FROM UserAccount UA"
+                    + " WHERE UA.user.id = :userId)";
+
+    /** */
+    private static final String JPQL_ACCOUNTTRX_EXPORT_SEEK =
+            " AND (T.transactionDate < :lastDate"
+                    + " OR (T.transactionDate = :lastDate"
+                    + " AND T.id < :lastId))";
+
+    /** */
+    private static final String JPQL_ACCOUNTTRX_EXPORT_ORDER =
+            " ORDER BY T.transactionDate DESC, T.id DESC";
+
     /** */
     private static final String FILE_DATE_FORMAT_PATTERN =
             "yyyy-MM-dd'T'HH-mm-ss";
@@ -93,6 +140,9 @@ public class ReqExportUserDataHistory extends ApiRequestExportMixin {
     /** */
     private static final String DATE_FORMAT_PATTERN = "yyyy.MM.dd HH:mm:ss z";
 
+    /** */
+    private static final String CONTENT_TYPE_ZIP = "application/zip";
+
     /** */
     private static final String SECRET_VALUE = "*****";
 
@@ -141,49 +191,135 @@ public class ReqExportUserDataHistory extends ApiRequestExportMixin {
 
         final String fileNameDateTimePart = dateFormatFile.format(new Date());
 
-        final String handlerFileName = String.format("%s-data-export-%s.zip",
-                uid, fileNameDateTimePart);
+        return new ExportRequestHandler(user.getId(), uid,
+                fileNameDateTimePart);
+    }
 
-        final FileOutputStream fout = new FileOutputStream(tempExportFile);
-        final ZipOutputStream zout = new ZipOutputStream(fout);
+    /**
+     * Streams the ZIP export straight to the response output stream, so no
+     * temporary file is needed and the download starts right away.
+     * <p>
+     * Note: the handler responds after the API request and its
+     * {@link ServiceContext} are closed, so it opens its own.
+     * </p>
+     */
+    private final class ExportRequestHandler implements IRequestHandler {
+
+        /** Primary database key of the user. */
+        private final Long userDbKey;
+
+        /** */
+        private final String uid;
+
+        /** */
+        private final String fileNameDateTimePart;
+
+        /**
+         * @param userDbKey
+         *            Primary database key of the user.
+         * @param uid
+         *            The user id.
+         * @param fileNameDateTimePart
+         *            Date/time part of the file names.
+         */
+        ExportRequestHandler(final Long userDbKey, final String uid,
+                final String fileNameDateTimePart) {
+            this.userDbKey = userDbKey;
+            this.uid = uid;
+            this.fileNameDateTimePart = fileNameDateTimePart;
+        }
+
+        @Override
+        public void respond(final IRequestCycle requestCycle) {
+
+            final WebResponse response =
+                    (WebResponse) requestCycle.getResponse();
+
+            try {
+                ReadWriteLockEnum.DATABASE_READONLY.tryReadLock();
+            } catch (ReadLockObtainFailedException e) {
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                        e.getMessage());
+                return;
+            }
 
-        final int level = 9; // highest level
-        zout.setLevel(level);
+            ServiceContext.open();
 
-        final OutputStreamWriter writer = new OutputStreamWriter(zout);
-        final CSVWriter csvWriter = new CSVWriter(writer);
+            try {
+                response.setContentType(CONTENT_TYPE_ZIP);
+                response.setAttachmentHeader(
+                        String.format("%s-data-export-%s.zip", this.uid,
+                                this.fileNameDateTimePart));
+                response.disableCaching();
 
-        try {
-            // #1
-            zout.putNextEntry(new ZipEntry(String.format("%s-%s-user.csv", uid,
-                    fileNameDateTimePart)));
-            this.exportUserDetails(csvWriter, user);
+                this.writeZip(response.getOutputStream());
 
-            // #2
-            zout.putNextEntry(new ZipEntry(String.format("%s-%s-documents.csv",
-                    uid, fileNameDateTimePart)));
-            this.exportDocumentLog(csvWriter, user);
+            } catch (IOException | RuntimeException e) {
+                /*
+                 * The response may already be committed, leaving the client
+                 * with a truncated ZIP file: log the error.
+                 */
+                LOGGER.error("Data export of [{}] failed: {}", this.uid,
+                        e.getMessage(), e);
 
-            // #3
-            zout.putNextEntry(new ZipEntry(String.format(
-                    "%s-%s-transactions.csv", uid, fileNameDateTimePart)));
-            this.exportTransactionLog(csvWriter, user);
+                final HttpServletResponse httpResponse =
+                        (HttpServletResponse) response.getContainerResponse();
 
-        } finally {
-            csvWriter.flush();
-            csvWriter.close();
+                if (!httpResponse.isCommitted()) {
+                    response.sendError(
+                            HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                            e.getMessage());
+                }
+            } finally {
+                ServiceContext.close();
+                ReadWriteLockEnum.DATABASE_READONLY.setReadLock(false);
+            }
         }
 
-        /* */
-        final ResourceStreamRequestHandler handler =
-                new ResourceStreamRequestHandler(
-                        new FileResourceStream(tempExportFile));
-
-        handler.setContentDisposition(ContentDisposition.ATTACHMENT);
-        handler.setFileName(handlerFileName);
-        handler.setCacheDuration(Duration.NONE);
-
-        return handler;
+        /**
+         * Writes the ZIP with the CSV exports.
+         *
+         * @param ostr
+         *            The output stream, which is left open.
+         * @throws IOException
+         *             When IO error.
+         */
+        private void writeZip(final OutputStream ostr) throws IOException {
+
+            final User user = ServiceContext.getDaoContext().getUserDao()
+                    .findById(this.userDbKey);
+
+            final ZipOutputStream zout =
+                    new ZipOutputStream(new CloseShieldOutputStream(ostr));
+
+            zout.setLevel(WebApp.getExportZipLevel());
+
+            final CSVWriter csvWriter =
+                    new CSVWriter(new OutputStreamWriter(zout));
+
+            try {
+                // #1
+                zout.putNextEntry(new ZipEntry(String.format("%s-%s-user.csv",
+                        this.uid, this.fileNameDateTimePart)));
+                exportUserDetails(csvWriter, user);
+
+                // #2
+                zout.putNextEntry(
+                        new ZipEntry(String.format("%s-%s-documents.csv",
+                                this.uid, this.fileNameDateTimePart)));
+                exportDocumentLog(csvWriter, user);
+
+                // #3
+                zout.putNextEntry(
+                        new ZipEntry(String.format("%s-%s-transactions.csv",
+                                this.uid, this.fileNameDateTimePart)));
+                exportTransactionLog(csvWriter, user);
+
+            } finally {
+                csvWriter.flush();
+                csvWriter.close();
+            }
+        }
     }
 
     /**
@@ -340,24 +476,50 @@ public class ReqExportUserDataHistory extends ApiRequestExportMixin {
                 "Signature", "Author", "Subject", "Keywords", "Encrypted",
                 "OwnerPw", "UserPw", "Comment", "Details" });
 
-        final TypedQuery<DocLog> query = ServiceContext.getDaoContext()
-                .getDocLogDao().getExportQuery(user);
-
-        query.setMaxResults(this.maxExportResults);
+        final EntityManager em = DaoContextImpl.peekEntityManager();
 
-        int startPosition = 0;
+        /*
+         * Keyset paging on (createdDate, id): each chunk seeks past the last
+         * row of the previous one, so the cost per chunk does not grow with
+         * the offset.
+         */
+        Date lastDate = null;
+        Long lastId = null;
 
         while (true) {
-            query.setFirstResult(startPosition);
+
+            final StringBuilder jpql = new StringBuilder(256);
+
+            jpql.append(JPQL_DOCLOG_EXPORT);
+            if (lastId != null) {
+                jpql.append(JPQL_DOCLOG_EXPORT_SEEK);
+            }
+            jpql.append(JPQL_DOCLOG_EXPORT_ORDER);
+
+            final TypedQuery<DocLog> query =
+                    em.createQuery(jpql.toString(), DocLog.class);
+
+            query.setParameter("userId", user.getId());
+            if (lastId != null) {
+                query.setParameter("lastDate", lastDate);
+                query.setParameter("lastId", lastId);
+            }
+            query.setMaxResults(this.maxExportResults);
+
             final List<DocLog> list = query.getResultList();
+
             for (final DocLog docLog : list) {
                 writer.writeNext(getRow(docLog));
+                lastDate = docLog.getCreatedDate();
+                lastId = docLog.getId();
             }
             writer.flush();
+
             if (list.size() < this.maxExportResults) {
                 break;
             }
-            startPosition += this.maxExportResults;
+            // Detach the written chunk.
+            em.clear();
         }
     }
 
@@ -548,24 +710,49 @@ public class ReqExportUserDataHistory extends ApiRequestExportMixin {
                 "Sheets", "Receipt", "Method", "Payment", "Reason",
                 "Comment" });
 
-        final TypedQuery<AccountTrx> query = ServiceContext.getDaoContext()
-                .getAccountTrxDao().getExportQuery(user);
-
-        query.setMaxResults(this.maxExportResults);
+        final EntityManager em = DaoContextImpl.peekEntityManager();
 
-        int startPosition = 0;
+        /*
+         * Keyset paging on (transactionDate, id), see
+         * exportDocumentLog(CSVWriter, User).
+         */
+        Date lastDate = null;
+        Long lastId = null;
 
         while (true) {
-            query.setFirstResult(startPosition);
+
+            final StringBuilder jpql = new StringBuilder(256);
+
+            jpql.append(JPQL_ACCOUNTTRX_EXPORT);
+            if (lastId != null) {
+                jpql.append(JPQL_ACCOUNTTRX_EXPORT_SEEK);
+            }
+            jpql.append(JPQL_ACCOUNTTRX_EXPORT_ORDER);
+
+            final TypedQuery<AccountTrx> query =
+                    em.createQuery(jpql.toString(), AccountTrx.class);
+
+            query.setParameter("userId", user.getId());
+            if (lastId != null) {
+                query.setParameter("lastDate", lastDate);
+                query.setParameter("lastId", lastId);
+            }
+            query.setMaxResults(this.maxExportResults);
+
             final List<AccountTrx> list = query.getResultList();
+
             for (final AccountTrx trx : list) {
                 writer.writeNext(getRow(trx));
+                lastDate = trx.getTransactionDate();
+                lastId = trx.getId();
             }
             writer.flush();
+
             if (list.size() < this.maxExportResults) {
                 break;
             }
-            startPosition += this.maxExportResults;
+            // Detach the written chunk.
+            em.clear();
         }
     }
 
@@ -0,0 +1,477 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.auth;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.Set;
+
+import org.savapage.core.SpException;
+import org.savapage.core.config.WebAppTypeEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * File system store of {@link UserAuthToken} objects, so tokens survive a
+ * restart and can be validated by all server nodes that share the store
+ * directory.
+ * <p>
+ * Each Web App type has its own sub directory. The token string itself is
+ * never stored: a token is stored in a file named after the SHA-256 hash of
+ * the token string, and the token of a user is referenced by a file named
+ * after the SHA-256 hash of the user id, holding the token hash. So, a token
+ * can only be validated by a client that presents the token string. The last
+ * modified time of a token file is its last access time. Directories and
+ * files are accessible for the owner only.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+final class AuthTokenFileStore {
+
+    /** */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(AuthTokenFileStore.class);
+
+    /** */
+    private static final String FILE_PFX_TOKEN = "t-";
+
+    /** */
+    private static final String FILE_PFX_USER = "u-";
+
+    /** */
+    private static final String FILE_SFX_TEMP = ".tmp";
+
+    /** */
+    private static final String PROP_USER = "user";
+
+    /** */
+    private static final String PROP_TOKEN_HASH = "token-sha256";
+
+    /** */
+    private static final String PROP_CREATE_TIME = "created";
+
+    /**
+     * Owner-only permissions of a store directory.
+     */
+    private static final Set<PosixFilePermission> DIR_PERMISSIONS =
+            PosixFilePermissions.fromString("rwx------");
+
+    /**
+     * The store directory.
+     */
+    private final File storeDir;
+
+    /**
+     * @param storeDir
+     *            The store directory.
+     */
+    AuthTokenFileStore(final File storeDir) {
+        this.storeDir = storeDir;
+    }
+
+    /**
+     * @param value
+     *            The value to hash.
+     * @return The hex SHA-256 hash.
+     */
+    private static String sha256(final String value) {
+        try {
+            return String.format("%064x",
+                    new BigInteger(1, MessageDigest.getInstance("SHA-256")
+                            .digest(value.getBytes(StandardCharsets.UTF_8))));
+        } catch (NoSuchAlgorithmException e) {
+            throw new SpException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param webAppType
+     *            The {@link WebAppTypeEnum}.
+     * @return The directory of the Web App type.
+     */
+    private File getTypeDir(final WebAppTypeEnum webAppType) {
+        return new File(this.storeDir, webAppType.toString().toLowerCase());
+    }
+
+    /**
+     * @param webAppType
+     *            The {@link WebAppTypeEnum}.
+     * @param tokenHash
+     *            The SHA-256 hash of the token string.
+     * @return The token file.
+     */
+    private File getTokenFile(final WebAppTypeEnum webAppType,
+            final String tokenHash) {
+        return new File(getTypeDir(webAppType),
+                FILE_PFX_TOKEN.concat(tokenHash));
+    }
+
+    /**
+     * @param token
+     *            The token.
+     * @return The token file.
+     */
+    private File getTokenFile(final UserAuthToken token) {
+        return getTokenFile(token.getWebAppType(), sha256(token.getToken()));
+    }
+
+    /**
+     * @param webAppType
+     *            The {@link WebAppTypeEnum}.
+     * @param user
+     *            The user id.
+     * @return The user file.
+     */
+    private File getUserFile(final WebAppTypeEnum webAppType,
+            final String user) {
+        return new File(getTypeDir(webAppType),
+                FILE_PFX_USER.concat(sha256(user)));
+    }
+
+    /**
+     * Creates a directory (and its parents), accessible for the owner only.
+     *
+     * @param dir
+     *            The directory.
+     * @throws IOException
+     *             When IO error.
+     */
+    private static void createPrivateDir(final File dir) throws IOException {
+
+        if (dir.isDirectory()) {
+            return;
+        }
+
+        final File parent = dir.getParentFile();
+
+        if (parent != null) {
+            createPrivateDir(parent);
+        }
+
+        try {
+            Files.createDirectory(dir.toPath(),
+                    PosixFilePermissions.asFileAttribute(DIR_PERMISSIONS));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system.
+            Files.createDirectory(dir.toPath());
+            dir.setReadable(false, false);
+            dir.setWritable(false, false);
+            dir.setExecutable(false, false);
+            dir.setReadable(true, true);
+            dir.setWritable(true, true);
+            dir.setExecutable(true, true);
+        } catch (FileAlreadyExistsException e) {
+            // Created concurrently.
+            if (!dir.isDirectory()) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes properties to a file, readable for the owner only. The file is
+     * replaced atomically.
+     *
+     * @param file
+     *            The file.
+     * @param props
+     *            The properties.
+     * @throws IOException
+     *             When IO error.
+     */
+    private static void writeFile(final File file, final Properties props)
+            throws IOException {
+
+        final File dir = file.getParentFile();
+
+        createPrivateDir(dir);
+
+        final File fileTemp = new File(dir,
+                file.getName().concat(FILE_SFX_TEMP));
+
+        try (OutputStream ostr = Files.newOutputStream(fileTemp.toPath())) {
+            fileTemp.setReadable(false, false);
+            fileTemp.setReadable(true, true);
+            props.store(ostr, null);
+        }
+        Files.move(fileTemp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param file
+     *            The file.
+     * @return {@code null} when file does not exist.
+     * @throws IOException
+     *             When IO error.
+     */
+    private static Properties readFile(final File file) throws IOException {
+
+        final Properties props = new Properties();
+
+        try (InputStream istr = Files.newInputStream(file.toPath())) {
+            props.load(istr);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return props;
+    }
+
+    /**
+     * Stores a token, replacing the token reference of its user.
+     *
+     * @param token
+     *            The token.
+     */
+    void put(final UserAuthToken token) {
+
+        final String tokenHash = sha256(token.getToken());
+
+        final Properties props = new Properties();
+        props.setProperty(PROP_USER, token.getUser());
+        props.setProperty(PROP_TOKEN_HASH, tokenHash);
+        props.setProperty(PROP_CREATE_TIME,
+                String.valueOf(token.getCreateTime()));
+
+        final Properties propsUser = new Properties();
+        propsUser.setProperty(PROP_TOKEN_HASH, tokenHash);
+
+        try {
+            writeFile(getTokenFile(token.getWebAppType(), tokenHash), props);
+            writeFile(getUserFile(token.getWebAppType(), token.getUser()),
+                    propsUser);
+        } catch (IOException e) {
+            LOGGER.error("Auth token of [{}] not stored: {}", token.getUser(),
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Gets a stored token.
+     *
+     * @param webAppType
+     *            The {@link WebAppTypeEnum}.
+     * @param token
+     *            The token string.
+     * @return {@code null} when not found.
+     */
+    UserAuthToken getByToken(final WebAppTypeEnum webAppType,
+            final String token) {
+
+        final String tokenHash = sha256(token);
+
+        final Properties props;
+        try {
+            props = readFile(getTokenFile(webAppType, tokenHash));
+        } catch (IOException e) {
+            LOGGER.error("Auth token not read: {}", e.getMessage());
+            return null;
+        }
+
+        if (props == null
+                || !tokenHash.equals(props.getProperty(PROP_TOKEN_HASH))) {
+            return null;
+        }
+
+        return new UserAuthToken(props.getProperty(PROP_USER), webAppType,
+                token, Long.parseLong(props.getProperty(PROP_CREATE_TIME)));
+    }
+
+    /**
+     * Removes the stored token of a user.
+     *
+     * @param webAppType
+     *            The {@link WebAppTypeEnum}.
+     * @param user
+     *            The user id.
+     * @return {@code true} when a token was removed.
+     */
+    boolean removeByUser(final WebAppTypeEnum webAppType, final String user) {
+
+        final Properties props;
+        try {
+            props = readFile(getUserFile(webAppType, user));
+        } catch (IOException e) {
+            LOGGER.error("Auth token of [{}] not read: {}", user,
+                    e.getMessage());
+            return false;
+        }
+
+        if (props == null) {
+            return false;
+        }
+        return this.remove(webAppType, user,
+                props.getProperty(PROP_TOKEN_HASH));
+    }
+
+    /**
+     * @param token
+     *            The token.
+     * @return {@code true} when token is present in the store.
+     */
+    boolean exists(final UserAuthToken token) {
+        return getTokenFile(token).exists();
+    }
+
+    /**
+     * @param token
+     *            The token.
+     * @return The last access time of the token, or {@code 0} when not
+     *         present.
+     */
+    long getLastAccessTime(final UserAuthToken token) {
+        return getTokenFile(token).lastModified();
+    }
+
+    /**
+     * Sets the last access time of a token.
+     *
+     * @param token
+     *            The token.
+     * @param time
+     *            The access time.
+     */
+    void touch(final UserAuthToken token, final long time) {
+        getTokenFile(token).setLastModified(time);
+    }
+
+    /**
+     * Removes a token and the token reference of its user.
+     *
+     * @param token
+     *            The token.
+     */
+    void remove(final UserAuthToken token) {
+        this.remove(token.getWebAppType(), token.getUser(),
+                sha256(token.getToken()));
+    }
+
+    /**
+     * Removes a token and the token reference of its user.
+     *
+     * @param webAppType
+     *            The {@link WebAppTypeEnum}.
+     * @param user
+     *            The user id.
+     * @param tokenHash
+     *            The SHA-256 hash of the token string.
+     * @return {@code true} when the token file was removed.
+     */
+    private boolean remove(final WebAppTypeEnum webAppType, final String user,
+            final String tokenHash) {
+
+        final File fileUser = getUserFile(webAppType, user);
+
+        try {
+            final Properties propsUser = readFile(fileUser);
+            if (propsUser != null && tokenHash
+                    .equals(propsUser.getProperty(PROP_TOKEN_HASH))) {
+                Files.deleteIfExists(fileUser.toPath());
+            }
+            if (tokenHash == null) {
+                return false;
+            }
+            return Files.deleteIfExists(
+                    getTokenFile(webAppType, tokenHash).toPath());
+        } catch (IOException e) {
+            LOGGER.error("Auth token of [{}] not removed: {}", user,
+                    e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Removes expired tokens of a Web App type.
+     *
+     * @param webAppType
+     *            The {@link WebAppTypeEnum}.
+     * @param manager
+     *            The manager that decides on expiry.
+     * @return The number of removed tokens.
+     */
+    int removeExpired(final WebAppTypeEnum webAppType,
+            final WebAppUserAuthManager manager) {
+
+        final File[] files = getTypeDir(webAppType).listFiles();
+
+        if (files == null) {
+            return 0;
+        }
+
+        int removed = 0;
+
+        for (final File file : files) {
+
+            final Path path = file.toPath();
+
+            if (!file.getName().startsWith(FILE_PFX_TOKEN)
+                    || file.getName().endsWith(FILE_SFX_TEMP)) {
+                continue;
+            }
+
+            final Properties props;
+            try {
+                props = readFile(file);
+            } catch (IOException e) {
+                LOGGER.warn("Auth token [{}] not read: {}", path,
+                        e.getMessage());
+                continue;
+            }
+
+            if (props == null) {
+                continue;
+            }
+
+            final long createTime =
+                    Long.parseLong(props.getProperty(PROP_CREATE_TIME));
+
+            if (manager.isExpired(createTime, file.lastModified())
+                    && this.remove(webAppType, props.getProperty(PROP_USER),
+                            file.getName().substring(
+                                    FILE_PFX_TOKEN.length()))) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+}
@@ -74,6 +74,26 @@ public final class UserAuthToken {
         this.createTime = System.currentTimeMillis();
     }
 
+    /**
+     * Restores an {@link UserAuthToken} from a persistent store.
+     *
+     * @param user
+     *            The user id.
+     * @param webAppType
+     *            The {@link WebAppTypeEnum}.
+     * @param token
+     *            The token string.
+     * @param createTime
+     *            The time of creation as in {@link Date#getTime()}.
+     */
+    UserAuthToken(final String user, final WebAppTypeEnum webAppType,
+            final String token, final long createTime) {
+        this.user = user;
+        this.webAppType = webAppType;
+        this.token = token;
+        this.createTime = createTime;
+    }
+
     public String getToken() {
         return token;
     }
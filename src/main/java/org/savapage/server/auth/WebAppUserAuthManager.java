@@ -25,16 +25,55 @@
 package org.savapage.server.auth;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.savapage.core.config.WebAppTypeEnum;
+import org.savapage.core.util.DateUtil;
+import org.savapage.server.WebApp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Singleton manager of WebApp User Authentications Tokens.
  * <p>
  * A separate cache dictionary for each Web App context is maintained (User,
- * Admin, POS, JobTicket, MailTicket, PrintSite).
+ * Admin, POS, JobTicket, MailTicket, Payment, PrintSite). Token lookups do not
+ * lock, updates lock the dictionary of their Web App context only.
+ * </p>
+ * <p>
+ * Tokens expire when idle or too old, see
+ * {@link WebApp#getAuthTokenIdleHours()} and
+ * {@link WebApp#getAuthTokenMaxAgeHours()}.
+ * </p>
+ * <p>
+ * When {@link WebApp#getAuthTokenStoreDir()} is configured, tokens are also
+ * kept in an {@link AuthTokenFileStore}: the dictionaries then act as cache
+ * of the store, so tokens survive a restart and can be validated by all
+ * server nodes that share the store directory. Since the store does not hold
+ * token strings, the token of a user is only found when cached. The cache is
+ * bounded: when full, the least recently used tokens are evicted, see
+ * {@link WebApp#getAuthTokenMaxEntries()}. Whether a cached token is still
+ * stored (it can be removed by another node) is checked at most once per
+ * {@link #STORE_CHECK_INTERVAL_MSEC}.
+ * </p>
+ * <p>
+ * Without a store, the dictionaries are not bounded: evicting a token would
+ * revoke it, and log out its user.
+ * </p>
+ * <p>
+ * Expired tokens are swept by a background thread, every
+ * {@link #SWEEP_INTERVAL_MSEC}.
  * </p>
  *
  * @author Rijk Ravestein
@@ -42,52 +81,170 @@ import org.savapage.core.config.WebAppTypeEnum;
  */
 public final class WebAppUserAuthManager {
 
+    /** */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(WebAppUserAuthManager.class);
+
     /**
-     * Number of indexes.
+     * Web App types with a token dictionary.
      */
-    private static final int IDX_CONTEXT_COUNT = 7;
+    private static final WebAppTypeEnum[] WEBAPP_TYPES = new WebAppTypeEnum[] {
+            WebAppTypeEnum.USER, WebAppTypeEnum.ADMIN, WebAppTypeEnum.POS,
+            WebAppTypeEnum.JOBTICKETS, WebAppTypeEnum.MAILTICKETS,
+            WebAppTypeEnum.PAYMENT, WebAppTypeEnum.PRINTSITE };
 
-    /** */
-    private static final int IDX_CONTEXT_USER = IDX_CONTEXT_COUNT - 7;
-    /** */
-    private static final int IDX_CONTEXT_ADMIN = IDX_CONTEXT_COUNT - 6;
-    /** */
-    private static final int IDX_CONTEXT_POS = IDX_CONTEXT_COUNT - 5;
-    /** */
-    private static final int IDX_CONTEXT_JOBTICKET = IDX_CONTEXT_COUNT - 4;
-    /** */
-    private static final int IDX_CONTEXT_MAILTICKET = IDX_CONTEXT_COUNT - 3;
-    /** */
-    private static final int IDX_CONTEXT_PAYMENT = IDX_CONTEXT_COUNT - 2;
-    /** */
-    private static final int IDX_CONTEXT_PRINTSITE = IDX_CONTEXT_COUNT - 1;
+    /**
+     * Milliseconds between sweeps of expired tokens.
+     */
+    private static final long SWEEP_INTERVAL_MSEC =
+            10 * DateUtil.DURATION_MSEC_MINUTE;
 
-    /** */
-    private final Object mutexDict = new Object();
+    /**
+     * Milliseconds between updates of the last access time of a stored token.
+     */
+    private static final long TOUCH_INTERVAL_MSEC =
+            10 * DateUtil.DURATION_MSEC_MINUTE;
+
+    /**
+     * Milliseconds between checks if a cached token is still stored.
+     */
+    private static final long STORE_CHECK_INTERVAL_MSEC =
+            DateUtil.DURATION_MSEC_MINUTE;
+
+    /**
+     * Percentage of max entries a full dictionary is evicted to.
+     */
+    private static final int EVICT_TO_PERC = 90;
+
+    /**
+     * A cached {@link UserAuthToken}.
+     */
+    private static final class CachedToken {
+
+        /** */
+        private final UserAuthToken token;
+
+        /** */
+        private volatile long lastAccessTime;
+
+        /** */
+        private volatile long lastTouchTime;
+
+        /** Time of last check if token is still stored. */
+        private volatile long lastStoreCheckTime;
+
+        /**
+         * @param token
+         *            The token.
+         * @param time
+         *            The last access time.
+         */
+        CachedToken(final UserAuthToken token, final long time) {
+            this.token = token;
+            this.lastAccessTime = time;
+            this.lastTouchTime = time;
+            this.lastStoreCheckTime = time;
+        }
+    }
+
+    /**
+     * The token dictionaries of a Web App context.
+     */
+    private static final class Dictionary {
+
+        /**
+         * {@link CachedToken} objects with 'token' key.
+         */
+        private final ConcurrentMap<String, CachedToken> byToken =
+                new ConcurrentHashMap<>();
+
+        /**
+         * {@link CachedToken} objects with 'user' key.
+         */
+        private final ConcurrentMap<String, CachedToken> byUser =
+                new ConcurrentHashMap<>();
+    }
 
     /**
-     * WebApp User/Admin Context Dictionary of {@link UserAuthToken} objects
-     * with 'token' key.
+     * Token dictionary per Web App context. The map itself is not modified
+     * after construction.
      */
-    private final ArrayList<Map<String, UserAuthToken>> dictTokenAuthToken =
-            new ArrayList<Map<String, UserAuthToken>>(IDX_CONTEXT_COUNT);
+    private final Map<WebAppTypeEnum, Dictionary> dictionaries =
+            new EnumMap<>(WebAppTypeEnum.class);
 
     /**
-     * WebApp User Context Dictionary of {@link UserAuthToken} objects with
-     * 'user' key.
+     * Max idle time in milliseconds. Zero (0) for no max.
      */
-    private final ArrayList<Map<String, UserAuthToken>> dictUserAuthToken =
-            new ArrayList<Map<String, UserAuthToken>>(IDX_CONTEXT_COUNT);
+    private final long maxIdleMsec;
+
+    /**
+     * Max token age in milliseconds. Zero (0) for no max.
+     */
+    private final long maxAgeMsec;
+
+    /**
+     * Max number of cached tokens per Web App context, when tokens are
+     * stored.
+     */
+    private final int maxEntries;
+
+    /**
+     * The persistent store, or {@code null} when tokens are kept in memory
+     * only.
+     */
+    private final AuthTokenFileStore fileStore;
+
+    /**
+     * Number of tokens evicted from the dictionaries.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Scheduler of the sweep of expired tokens.
+     */
+    private final ScheduledExecutorService sweepScheduler;
 
     /**
      *
      */
     private WebAppUserAuthManager() {
 
-        for (int i = 0; i < IDX_CONTEXT_COUNT; i++) {
-            dictTokenAuthToken.add(i, new HashMap<String, UserAuthToken>());
-            dictUserAuthToken.add(i, new HashMap<String, UserAuthToken>());
+        for (final WebAppTypeEnum webAppType : WEBAPP_TYPES) {
+            this.dictionaries.put(webAppType, new Dictionary());
         }
+
+        this.maxIdleMsec = WebApp.getAuthTokenIdleHours()
+                * DateUtil.DURATION_MSEC_HOUR;
+        this.maxAgeMsec = WebApp.getAuthTokenMaxAgeHours()
+                * DateUtil.DURATION_MSEC_HOUR;
+        this.maxEntries = WebApp.getAuthTokenMaxEntries();
+
+        if (WebApp.getAuthTokenStoreDir() == null) {
+            this.fileStore = null;
+        } else {
+            this.fileStore =
+                    new AuthTokenFileStore(WebApp.getAuthTokenStoreDir());
+            LOGGER.info("Auth tokens are stored in [{}]",
+                    WebApp.getAuthTokenStoreDir());
+        }
+
+        this.sweepScheduler = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread =
+                                new Thread(r, "auth-token-sweep");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        this.sweepScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sweepExpired();
+            }
+        }, SWEEP_INTERVAL_MSEC, SWEEP_INTERVAL_MSEC, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -117,31 +274,281 @@ public final class WebAppUserAuthManager {
     /**
      * @param webAppType
      *            Web App Type.
-     * @return
+     * @return The token dictionary.
      */
-    private int getDictIndex(final WebAppTypeEnum webAppType) {
-
-        switch (webAppType) {
-        case ADMIN:
-            return IDX_CONTEXT_ADMIN;
-        case PRINTSITE:
-            return IDX_CONTEXT_PRINTSITE;
-        case JOBTICKETS:
-            return IDX_CONTEXT_JOBTICKET;
-        case MAILTICKETS:
-            return IDX_CONTEXT_MAILTICKET;
-        case PAYMENT:
-            return IDX_CONTEXT_PAYMENT;
-        case POS:
-            return IDX_CONTEXT_POS;
-        case USER:
-            return IDX_CONTEXT_USER;
-        default:
+    private Dictionary getDictionary(final WebAppTypeEnum webAppType) {
+
+        final Dictionary dict = this.dictionaries.get(webAppType);
+
+        if (dict == null) {
             throw new IllegalArgumentException(
                     String.format("%s.%s is NOT supported.",
                             WebAppTypeEnum.class.getSimpleName(),
                             webAppType.toString()));
         }
+        return dict;
+    }
+
+    /**
+     * Checks if a token is expired.
+     *
+     * @param token
+     *            The token.
+     * @param lastAccessTime
+     *            The last access time of the token.
+     * @return {@code true} when expired.
+     */
+    private boolean isExpired(final UserAuthToken token,
+            final long lastAccessTime) {
+        return this.isExpired(token.getCreateTime(), lastAccessTime);
+    }
+
+    /**
+     * Checks if a token is expired.
+     *
+     * @param createTime
+     *            The create time of the token.
+     * @param lastAccessTime
+     *            The last access time of the token.
+     * @return {@code true} when expired.
+     */
+    boolean isExpired(final long createTime, final long lastAccessTime) {
+
+        final long now = System.currentTimeMillis();
+
+        return (this.maxAgeMsec > 0 && now - createTime > this.maxAgeMsec)
+                || (this.maxIdleMsec > 0
+                        && now - lastAccessTime > this.maxIdleMsec);
+    }
+
+    /**
+     * Checks if a cached token is expired. When tokens are stored, the last
+     * access time by other server nodes is taken into account.
+     *
+     * @param cached
+     *            The cached token.
+     * @return {@code true} when expired.
+     */
+    private boolean isExpired(final CachedToken cached) {
+
+        if (!this.isExpired(cached.token, cached.lastAccessTime)) {
+            return false;
+        }
+        return this.fileStore == null || this.isExpired(cached.token,
+                this.fileStore.getLastAccessTime(cached.token));
+    }
+
+    /**
+     * Removes a cached token from the dictionary.
+     *
+     * @param dict
+     *            The dictionary.
+     * @param cached
+     *            The cached token.
+     * @return {@code true} when removed.
+     */
+    private static boolean removeCached(final Dictionary dict,
+            final CachedToken cached) {
+
+        synchronized (dict) {
+            if (!dict.byToken.remove(cached.token.getToken(), cached)) {
+                return false;
+            }
+            dict.byUser.remove(cached.token.getUser(), cached);
+            return true;
+        }
+    }
+
+    /**
+     * Evicts an expired token from the dictionary and the store.
+     *
+     * @param dict
+     *            The dictionary.
+     * @param cached
+     *            The cached token.
+     */
+    private void evictExpired(final Dictionary dict,
+            final CachedToken cached) {
+
+        if (removeCached(dict, cached)) {
+            this.evictions.incrementAndGet();
+        }
+        if (this.fileStore != null) {
+            this.fileStore.remove(cached.token);
+        }
+    }
+
+    /**
+     * Adds a token to the dictionary, replacing the token of the same user.
+     *
+     * @param dict
+     *            The dictionary.
+     * @param token
+     *            The token.
+     * @return The cached token.
+     */
+    private CachedToken addCached(final Dictionary dict,
+            final UserAuthToken token) {
+
+        final CachedToken cached =
+                new CachedToken(token, System.currentTimeMillis());
+
+        synchronized (dict) {
+
+            final CachedToken oldCached =
+                    dict.byUser.put(token.getUser(), cached);
+
+            if (oldCached != null) {
+                dict.byToken.remove(oldCached.token.getToken(), oldCached);
+            }
+            dict.byToken.put(token.getToken(), cached);
+
+            if (this.fileStore != null
+                    && dict.byToken.size() > this.maxEntries) {
+                this.evictLeastRecentlyUsed(dict);
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Evicts the least recently used tokens from a full dictionary. Stored
+     * tokens stay valid, they are just no longer cached.
+     * <p>
+     * Note: must only be called when tokens are stored, and the caller must
+     * hold the dictionary lock.
+     * </p>
+     *
+     * @param dict
+     *            The dictionary.
+     */
+    private void evictLeastRecentlyUsed(final Dictionary dict) {
+
+        final List<CachedToken> list = new ArrayList<>(dict.byToken.values());
+
+        Collections.sort(list, new Comparator<CachedToken>() {
+            @Override
+            public int compare(final CachedToken o1, final CachedToken o2) {
+                return Long.compare(o1.lastAccessTime, o2.lastAccessTime);
+            }
+        });
+
+        final int evictCount =
+                list.size() - this.maxEntries * EVICT_TO_PERC / 100;
+
+        for (int i = 0; i < evictCount; i++) {
+            final CachedToken cached = list.get(i);
+            dict.byToken.remove(cached.token.getToken(), cached);
+            dict.byUser.remove(cached.token.getUser(), cached);
+            this.evictions.incrementAndGet();
+        }
+
+        LOGGER.warn("Auth token cache full: [{}] tokens evicted.",
+                evictCount);
+    }
+
+    /**
+     * Validates a cached token and registers its access.
+     *
+     * @param dict
+     *            The dictionary.
+     * @param cached
+     *            The cached token.
+     * @return {@code null} when token is expired or no longer stored.
+     */
+    private UserAuthToken onAccess(final Dictionary dict,
+            final CachedToken cached) {
+
+        if (this.isExpired(cached)) {
+            this.evictExpired(dict, cached);
+            return null;
+        }
+
+        final long now = System.currentTimeMillis();
+
+        if (this.fileStore != null) {
+            if (now - cached.lastStoreCheckTime > STORE_CHECK_INTERVAL_MSEC) {
+                if (!this.fileStore.exists(cached.token)) {
+                    // Removed by another server node.
+                    removeCached(dict, cached);
+                    return null;
+                }
+                cached.lastStoreCheckTime = now;
+            }
+            if (now - cached.lastTouchTime > TOUCH_INTERVAL_MSEC) {
+                cached.lastTouchTime = now;
+                this.fileStore.touch(cached.token, now);
+            }
+        }
+
+        cached.lastAccessTime = now;
+
+        return cached.token;
+    }
+
+    /**
+     * Validates a stored token that is not cached, and caches it.
+     *
+     * @param dict
+     *            The dictionary.
+     * @param stored
+     *            The stored token (can be {@code null}).
+     * @return {@code null} when token is not found or expired.
+     */
+    private UserAuthToken onStoredAccess(final Dictionary dict,
+            final UserAuthToken stored) {
+
+        if (stored == null) {
+            return null;
+        }
+        if (this.isExpired(stored,
+                this.fileStore.getLastAccessTime(stored))) {
+            this.fileStore.remove(stored);
+            this.evictions.incrementAndGet();
+            return null;
+        }
+        return this.onAccess(dict, this.addCached(dict, stored));
+    }
+
+    /**
+     * Removes expired tokens. Runs on the {@link #sweepScheduler} thread.
+     */
+    private void sweepExpired() {
+
+        int removed = 0;
+
+        try {
+            for (final WebAppTypeEnum webAppType : WEBAPP_TYPES) {
+
+                final Dictionary dict = this.dictionaries.get(webAppType);
+
+                for (final CachedToken cached : dict.byToken.values()) {
+                    if (this.isExpired(cached)) {
+                        this.evictExpired(dict, cached);
+                        removed++;
+                    }
+                }
+
+                if (this.fileStore != null) {
+                    removed +=
+                            this.fileStore.removeExpired(webAppType, this);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Do not let the scheduler cancel next sweeps.
+            LOGGER.error("Auth token sweep failed: {}", e.getMessage(), e);
+        }
+
+        if (removed > 0) {
+            LOGGER.debug("[{}] expired auth tokens removed.", removed);
+        }
+    }
+
+    /**
+     * Stops the background sweep of expired tokens.
+     */
+    public void shutdown() {
+        this.sweepScheduler.shutdownNow();
     }
 
     /**
@@ -155,16 +562,28 @@ public final class WebAppUserAuthManager {
      */
     public UserAuthToken getUserAuthToken(final String token,
             final WebAppTypeEnum webAppType) {
+
         if (webAppType == WebAppTypeEnum.UNDEFINED) {
             return null;
         }
-        synchronized (this.mutexDict) {
-            return dictTokenAuthToken.get(getDictIndex(webAppType)).get(token);
+
+        final Dictionary dict = getDictionary(webAppType);
+        final CachedToken cached = dict.byToken.get(token);
+
+        if (cached != null) {
+            return this.onAccess(dict, cached);
+        }
+        if (this.fileStore == null) {
+            return null;
         }
+        return this.onStoredAccess(dict,
+                this.fileStore.getByToken(webAppType, token));
     }
 
     /**
-     * Gets the authentication token object of the user.
+     * Gets the cached authentication token object of the user. A stored token
+     * that is not cached is not found, because the store does not hold token
+     * strings: a new token must be created.
      *
      * @param user
      *            The user id.
@@ -178,9 +597,14 @@ public final class WebAppUserAuthManager {
         if (webAppType == WebAppTypeEnum.UNDEFINED) {
             return null;
         }
-        synchronized (this.mutexDict) {
-            return dictUserAuthToken.get(getDictIndex(webAppType)).get(user);
+
+        final Dictionary dict = getDictionary(webAppType);
+        final CachedToken cached = dict.byUser.get(user);
+
+        if (cached == null) {
+            return null;
         }
+        return this.onAccess(dict, cached);
     }
 
     /**
@@ -191,28 +615,35 @@ public final class WebAppUserAuthManager {
      *            The token to add.
      * @param webAppType
      *            The {@link WebAppTypeEnum}.
-     * @return the old token or {@code null} when no old token was replaced.
+     * @return the old cached token or {@code null} when no cached token was
+     *         replaced.
      */
     public UserAuthToken putUserAuthToken(final UserAuthToken token,
             final WebAppTypeEnum webAppType) {
 
-        final int i = getDictIndex(webAppType);
+        final Dictionary dict = getDictionary(webAppType);
 
-        synchronized (this.mutexDict) {
+        final CachedToken oldCached = dict.byUser.get(token.getUser());
 
-            final UserAuthToken oldToken =
-                    dictUserAuthToken.get(i).get(token.getUser());
+        UserAuthToken oldToken;
+        if (oldCached == null) {
+            oldToken = null;
+        } else {
+            oldToken = oldCached.token;
+        }
 
-            if (oldToken != null) {
-                dictTokenAuthToken.get(i).remove(oldToken.getToken());
-                dictUserAuthToken.get(i).remove(oldToken.getUser());
+        if (this.fileStore != null) {
+            if (oldToken == null) {
+                this.fileStore.removeByUser(webAppType, token.getUser());
+            } else {
+                this.fileStore.remove(oldToken);
             }
+            this.fileStore.put(token);
+        }
 
-            dictTokenAuthToken.get(i).put(token.getToken(), token);
-            dictUserAuthToken.get(i).put(token.getUser(), token);
+        this.addCached(dict, token);
 
-            return oldToken;
-        }
+        return oldToken;
     }
 
     /**
@@ -231,19 +662,56 @@ public final class WebAppUserAuthManager {
             return null;
         }
 
-        synchronized (this.mutexDict) {
-            final int i = getDictIndex(webAppType);
+        final Dictionary dict = getDictionary(webAppType);
+        final CachedToken cached = dict.byToken.get(token);
 
-            final UserAuthToken oldToken =
-                    dictTokenAuthToken.get(i).remove(token);
+        UserAuthToken oldToken = null;
 
+        if (cached != null && removeCached(dict, cached)) {
+            oldToken = cached.token;
+        }
+
+        if (this.fileStore != null) {
+            if (oldToken == null) {
+                oldToken = this.fileStore.getByToken(webAppType, token);
+            }
             if (oldToken != null) {
-                dictTokenAuthToken.get(i).remove(oldToken.getToken());
-                dictUserAuthToken.get(i).remove(oldToken.getUser());
+                this.fileStore.remove(oldToken);
             }
+        }
+        return oldToken;
+    }
 
-            return oldToken;
+    /**
+     * @param webAppType
+     *            The {@link WebAppTypeEnum}.
+     * @return Number of cached tokens of the Web App type.
+     */
+    public int getTokenCount(final WebAppTypeEnum webAppType) {
+        final Dictionary dict = this.dictionaries.get(webAppType);
+        if (dict == null) {
+            return 0;
+        }
+        return dict.byToken.size();
+    }
+
+    /**
+     * @return Number of cached tokens of all Web App types.
+     */
+    public int getTokenCount() {
+        int count = 0;
+        for (final Dictionary dict : this.dictionaries.values()) {
+            count += dict.byToken.size();
         }
+        return count;
+    }
+
+    /**
+     * @return Number of tokens evicted since server start, because they
+     *         expired or the cache was full.
+     */
+    public long getEvictionCount() {
+        return this.evictions.get();
     }
 
 }
@@ -26,9 +26,20 @@ package org.savapage.server.cometd;
 
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
 import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerSession;
 import org.cometd.server.AbstractService;
 import org.savapage.core.services.ServiceContext;
 import org.savapage.core.services.ServiceEntryPoint;
@@ -38,6 +49,24 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Encapsulation of CometD {@link AbstractService}.
+ * <p>
+ * Event services reply in a deferred way: a service method registers the
+ * monitoring of an event and returns, so the CometD request thread is
+ * released. The reply is delivered with
+ * {@link ServerSession#deliver(org.cometd.bayeux.Session, String, Object, org.cometd.bayeux.Promise)}
+ * from the thread that notices the event, or from the small event pool when
+ * the max monitor time has elapsed, see
+ * {@link #scheduleTimeout(Runnable, Runnable, long)}. Event evaluation that
+ * must not block the event source thread is done on the same event pool,
+ * see {@link #executeEvent(Runnable)}. Its tasks are short, and are queued
+ * when all event threads are busy.
+ * </p>
+ * <p>
+ * Event sources that can only be waited for in a blocking way (like a card
+ * reader or a proxy print authentication) are monitored on a separate
+ * monitor pool, see {@link #executeMonitor(Runnable)}, so waiting devices
+ * never delay the replies of other long polls.
+ * </p>
  *
  * @author Rijk Ravestein
  *
@@ -79,6 +108,52 @@ public abstract class AbstractEventService extends AbstractService
     protected static long theMaxMonitorMsec =
             theMaxNetworkDelayMsec - MSECS_MAX_MONITOR_MARGIN;
 
+    /**
+     * Max number of event monitors waiting on a blocking event source.
+     */
+    private static final int MONITOR_THREADS_MAX = 500;
+
+    /**
+     * Keep alive (seconds) of idle monitor threads.
+     */
+    private static final long MONITOR_THREADS_KEEP_ALIVE_SECS = 60;
+
+    /**
+     * Number of threads that evaluate events and deliver timeout replies.
+     */
+    private static final int EVENT_THREADS =
+            Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Executor of event evaluations and timeout replies. These tasks do not
+     * wait on an event source, so a small pool with an (unbounded) queue
+     * serves any number of pending long polls.
+     */
+    private static final ThreadPoolExecutor EVENT_EXECUTOR =
+            new ThreadPoolExecutor(EVENT_THREADS, EVENT_THREADS, 0L,
+                    TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                    createThreadFactory("cometd-event"));
+
+    /**
+     * Executor of monitors that wait on a blocking event source (like a card
+     * reader or a proxy print authentication), so they do not occupy a thread
+     * of the Web Server pool.
+     */
+    private static final ThreadPoolExecutor MONITOR_EXECUTOR =
+            new ThreadPoolExecutor(0, MONITOR_THREADS_MAX,
+                    MONITOR_THREADS_KEEP_ALIVE_SECS, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(),
+                    createThreadFactory("cometd-monitor"));
+
+    /**
+     * Scheduler of the max monitor time of pending deferred replies. It only
+     * hands timeouts to {@link #EVENT_EXECUTOR}, so one slow timeout reply
+     * does not delay the others.
+     */
+    private static final ScheduledExecutorService TIMEOUT_SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(
+                    createThreadFactory("cometd-monitor-timeout"));
+
     /**
      *
      * @param bayeux
@@ -90,6 +165,107 @@ public abstract class AbstractEventService extends AbstractService
         super(bayeux, name);
     }
 
+    /**
+     * Creates a factory of named daemon threads.
+     *
+     * @param prefix
+     *            Thread name prefix.
+     * @return The factory.
+     */
+    private static ThreadFactory createThreadFactory(final String prefix) {
+
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r,
+                        prefix + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Executes a monitor that waits on a blocking event source.
+     *
+     * @param monitor
+     *            The monitor, that delivers its own reply.
+     * @throws RejectedExecutionException
+     *             If {@link #MONITOR_THREADS_MAX} monitors are busy, or when
+     *             shut down.
+     */
+    protected static void executeMonitor(final Runnable monitor) {
+        MONITOR_EXECUTOR.execute(monitor);
+    }
+
+    /**
+     * Executes a short, non-blocking event task, like the evaluation of an
+     * event. The task is queued when all event threads are busy.
+     *
+     * @param task
+     *            The task.
+     * @throws RejectedExecutionException
+     *             When shut down.
+     */
+    protected static void executeEvent(final Runnable task) {
+        EVENT_EXECUTOR.execute(task);
+    }
+
+    /**
+     * Schedules a timeout of a deferred reply. When the delay has elapsed,
+     * the task is executed on the event pool.
+     *
+     * @param task
+     *            The task that delivers the timeout reply.
+     * @param onRejected
+     *            The task that delivers a reply when the event pool rejects
+     *            the timeout task (when shut down). It is executed on the
+     *            scheduler thread, and must not block.
+     * @param msecDelay
+     *            Delay in milliseconds.
+     * @return The future to cancel the timeout with.
+     */
+    protected static ScheduledFuture<?> scheduleTimeout(final Runnable task,
+            final Runnable onRejected, final long msecDelay) {
+
+        return TIMEOUT_SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    EVENT_EXECUTOR.execute(task);
+                } catch (RejectedExecutionException e) {
+                    onRejected.run();
+                }
+            }
+        }, msecDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return Number of monitors waiting on a blocking event source.
+     */
+    public static int getActiveMonitorCount() {
+        return MONITOR_EXECUTOR.getActiveCount();
+    }
+
+    /**
+     * @return Number of event tasks waiting for an event thread.
+     */
+    public static int getQueuedEventCount() {
+        return EVENT_EXECUTOR.getQueue().size();
+    }
+
+    /**
+     * Shuts down the executors and timeout scheduler. Waiting monitors are
+     * interrupted, so they deliver their reply.
+     */
+    public static void shutdownMonitors() {
+        MONITOR_EXECUTOR.shutdownNow();
+        EVENT_EXECUTOR.shutdownNow();
+        TIMEOUT_SCHEDULER.shutdownNow();
+    }
+
     /**
      *
      * @return The max time a CometD service is allowed to take in milliseconds.
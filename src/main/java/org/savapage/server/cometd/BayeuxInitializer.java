@@ -123,6 +123,11 @@ public final class BayeuxInitializer extends GenericServlet {
 
     @Override
     public void destroy() {
+        /*
+         * Release pending user event long polls.
+         */
+        UserHomeWatcher.instance().shutdown();
+        AbstractEventService.shutdownMonitors();
     }
 
     @Override
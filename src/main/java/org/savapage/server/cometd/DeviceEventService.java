@@ -26,6 +26,7 @@ package org.savapage.server.cometd;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.codehaus.jackson.map.ObjectMapper;
@@ -112,6 +113,11 @@ public final class DeviceEventService extends AbstractEventService {
 
     /**
      * Monitors any event that should be notified to a device.
+     * <p>
+     * Since {@link RfidReaderManager#waitForEvent} blocks till the card is
+     * swiped, the monitoring is handed over to the event monitor pool and the
+     * reply is deferred: the CometD request thread is released immediately.
+     * </p>
      *
      * @param remote
      * @param message
@@ -121,6 +127,42 @@ public final class DeviceEventService extends AbstractEventService {
 
         final String clientIpAddress = WebAppHelper.getClientIP(message);
 
+        try {
+            executeMonitor(new Runnable() {
+                @Override
+                public void run() {
+                    runDeviceMonitor(remote, clientIpAddress);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+
+            final Map<String, Object> eventData =
+                    new HashMap<String, Object>();
+
+            if (ConfigManager.isShutdownInProgress()) {
+                eventData.put("event", "");
+            } else {
+                LOGGER.warn("Device [{}] event monitoring rejected: {}",
+                        clientIpAddress, e.getMessage());
+                eventData.put("event", "error");
+                eventData.put("error", "Server busy. Please try again.");
+            }
+
+            this.deliverEvent(remote, clientIpAddress, eventData);
+        }
+    }
+
+    /**
+     * Waits for a device event and delivers it to the remote session.
+     *
+     * @param remote
+     *            The {@link ServerSession}.
+     * @param clientIpAddress
+     *            The client IP address of the device.
+     */
+    private void runDeviceMonitor(final ServerSession remote,
+            final String clientIpAddress) {
+
         Map<String, Object> eventData = null;
 
         ServiceContext.open();
@@ -249,9 +291,22 @@ public final class DeviceEventService extends AbstractEventService {
             ServiceContext.close();
         }
 
-        /*
-         *
-         */
+        this.deliverEvent(remote, clientIpAddress, eventData);
+    }
+
+    /**
+     * Delivers the event to the remote session.
+     *
+     * @param remote
+     *            The {@link ServerSession}.
+     * @param clientIpAddress
+     *            The client IP address of the device.
+     * @param eventData
+     *            The event data.
+     */
+    private void deliverEvent(final ServerSession remote,
+            final String clientIpAddress, final Map<String, Object> eventData) {
+
         try {
             String jsonEvent = new ObjectMapper().writeValueAsString(eventData);
 
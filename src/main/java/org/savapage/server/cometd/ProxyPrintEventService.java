@@ -27,6 +27,7 @@ package org.savapage.server.cometd;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.codehaus.jackson.map.ObjectMapper;
@@ -138,6 +139,11 @@ public final class ProxyPrintEventService extends AbstractEventService {
 
     /**
      * Monitors any event that should be notified to a user.
+     * <p>
+     * Since {@link ProxyPrintAuthManager#waitForAuth} blocks till the card is
+     * swiped, the monitoring is handed over to the event monitor pool and the
+     * reply is deferred: the CometD request thread is released immediately.
+     * </p>
      *
      * @param remote
      * @param message
@@ -154,6 +160,52 @@ public final class ProxyPrintEventService extends AbstractEventService {
 
         final String clientIpAddress = WebAppHelper.getClientIP(message);
 
+        try {
+            executeMonitor(new Runnable() {
+                @Override
+                public void run() {
+                    runProxyPrintMonitor(remote, printerName, readerName,
+                            idUser, locale, clientIpAddress);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+
+            if (!ConfigManager.isShutdownInProgress()) {
+                LOGGER.warn("Proxy Printer [{}] event monitoring for client "
+                        + "[{}] rejected: {}", printerName, clientIpAddress,
+                        e.getMessage());
+            }
+
+            final Map<String, Object> eventData =
+                    new HashMap<String, Object>();
+            eventData.put(KEY_EVENT, EVENT_ERROR);
+            eventData.put(KEY_ERROR, "Server busy. Please try again.");
+
+            this.deliverEvent(remote, clientIpAddress, eventData);
+        }
+    }
+
+    /**
+     * Waits for a Proxy Print event and delivers it to the remote session.
+     *
+     * @param remote
+     *            The {@link ServerSession}.
+     * @param printerName
+     *            The printer name.
+     * @param readerName
+     *            The card reader name.
+     * @param idUser
+     *            The primary key of the user.
+     * @param locale
+     *            The user locale.
+     * @param clientIpAddress
+     *            The client IP address.
+     */
+    private void runProxyPrintMonitor(final ServerSession remote,
+            final String printerName, final String readerName,
+            final Long idUser, final Locale locale,
+            final String clientIpAddress) {
+
         Map<String, Object> eventData = null;
 
         ReadWriteLockEnum.DATABASE_READONLY.setReadLock(true);
@@ -255,9 +307,22 @@ public final class ProxyPrintEventService extends AbstractEventService {
 
         }
 
-        /*
-         *
-         */
+        this.deliverEvent(remote, clientIpAddress, eventData);
+    }
+
+    /**
+     * Delivers the event to the remote session.
+     *
+     * @param remote
+     *            The {@link ServerSession}.
+     * @param clientIpAddress
+     *            The client IP address.
+     * @param eventData
+     *            The event data.
+     */
+    private void deliverEvent(final ServerSession remote,
+            final String clientIpAddress, final Map<String, Object> eventData) {
+
         try {
             String jsonEvent = new ObjectMapper().writeValueAsString(eventData);
 
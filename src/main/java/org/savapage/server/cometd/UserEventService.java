@@ -24,24 +24,14 @@
  */
 package org.savapage.server.cometd;
 
-import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
-import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
-import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
-import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
-
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileSystems;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.BooleanUtils;
@@ -156,11 +146,6 @@ public final class UserEventService extends AbstractEventService {
     private static final String KEY_MSG_TIME = "msgTime";
     private static final String KEY_URL_TEMPLATE = "url_template";
 
-    /**
-     *
-     */
-    private static final long MSECS_WAIT_BETWEEN_POLLS = 3000;
-
     /**
      *
      */
@@ -411,6 +396,12 @@ public final class UserEventService extends AbstractEventService {
      * although a long poll will return immediately on the client side, it will
      * start on the server when its turn has come.
      * </p>
+     * <p>
+     * When there is nothing to notify right away, this method returns after
+     * subscribing a {@link UserEventMonitor} to the {@link UserHomeWatcher}:
+     * the event is delivered asynchronously, so no thread is held during the
+     * long poll.
+     * </p>
      *
      * @param remote
      *            The {@link ServerSession}.
@@ -540,11 +531,12 @@ public final class UserEventService extends AbstractEventService {
         }
 
         Map<String, Object> eventData = null;
+        boolean isException = false;
 
         try {
             /*
              * Note: this picks up jobs that are new/deleted after the last call
-             * to this method and before the WatchService is established.
+             * to this method and before the watch subscription is established.
              *
              * Also, when user deletes a 'page' from a multi-page job and the
              * job was not deleted in the prune, this change will be notified
@@ -575,65 +567,110 @@ public final class UserEventService extends AbstractEventService {
             }
 
             /*
-             *
+             * Nothing to notify yet: subscribe to user home events and return
+             * without holding this thread. The event is delivered from the
+             * watcher dispatch thread, or from the timeout scheduler.
              */
             if (eventData == null) {
 
-                eventData = watchUserFileEvents(clientIpAddress, dateStart,
-                        userInbox, userDocLog, locale, pageOffset,
-                        uniqueUrlValue, base64, isWebAppClient);
-            }
+                if (ConfigManager.isShutdownInProgress()) {
+                    throw new ShutdownException();
+                }
 
-            if (eventData == null) {
-                eventData = checkPrintInJobExpiry(userInbox, dateStart, locale);
+                new UserEventMonitor(remote, clientIpAddress, dateStart,
+                        userInbox, userDocLog, locale, pageOffset,
+                        uniqueUrlValue, base64, isWebAppClient).start();
+                return;
             }
 
-            if (eventData == null) {
-                eventData = createNullMsg(userInbox, isWebAppClient, locale,
-                        dateStart.getTime());
-            }
+        } catch (Exception e) {
+            eventData = createExceptionEvent(e, userInbox, clientIpAddress,
+                    isWebAppClient);
+            isException = true;
+        }
 
-            if (ADMIN_PUB_USER_EVENT) {
+        this.deliverUserEvent(remote, clientIpAddress, userInbox,
+                isWebAppClient, eventData, !isException);
+    }
 
-                final UserEventEnum userEvent = UserEventEnum
-                        .valueOf(eventData.get(KEY_EVENT).toString());
+    /**
+     * Creates the event data for an exception.
+     *
+     * @param e
+     *            The exception.
+     * @param userInbox
+     *            The user id of the inbox.
+     * @param clientIpAddress
+     *            Client IP address.
+     * @param isWebAppClient
+     *            {@code true} is client is User Web App, {@code false} if Java
+     *            Client.
+     * @return The event data.
+     */
+    private Map<String, Object> createExceptionEvent(final Exception e,
+            final String userInbox, final String clientIpAddress,
+            final boolean isWebAppClient) {
 
-                if (userEvent != UserEventEnum.NULL) {
-                    publishAdminEvent(userInbox, clientIpAddress,
-                            isWebAppClient, userEvent);
-                }
-            }
+        final Map<String, Object> eventData = new HashMap<String, Object>();
 
-        } catch (Exception e) {
+        if (ConfigManager.isShutdownInProgress()
+                || e instanceof ShutdownException) {
 
-            eventData = new HashMap<String, Object>();
+            eventData.put(KEY_EVENT, UserEventEnum.SERVER_SHUTDOWN);
 
-            if (ConfigManager.isShutdownInProgress()) {
+        } else {
 
-                eventData.put(KEY_EVENT, UserEventEnum.SERVER_SHUTDOWN);
+            eventData.put(KEY_EVENT, UserEventEnum.ERROR);
+            eventData.put(KEY_ERROR, e.getMessage());
 
+            if (e instanceof UserNotFoundException) {
+                LOGGER.warn(e.getMessage());
             } else {
-
-                eventData.put(KEY_EVENT, UserEventEnum.ERROR);
-                eventData.put(KEY_ERROR, e.getMessage());
-
-                if (e instanceof UserNotFoundException) {
-                    LOGGER.warn(e.getMessage());
-                } else {
-                    LOGGER.error(e.getMessage(), e);
-                }
-
-                publishAdminException(userInbox, clientIpAddress, e,
-                        isWebAppClient);
+                LOGGER.error(e.getMessage(), e);
             }
 
+            publishAdminException(userInbox, clientIpAddress, e,
+                    isWebAppClient);
         }
+        return eventData;
+    }
+
+    /**
+     * Delivers the event to the remote session, and ends the monitoring.
+     *
+     * @param remote
+     *            The {@link ServerSession}.
+     * @param clientIpAddress
+     *            Client IP address.
+     * @param userInbox
+     *            The user id of the inbox.
+     * @param isWebAppClient
+     *            {@code true} is client is User Web App, {@code false} if Java
+     *            Client.
+     * @param eventData
+     *            The event data.
+     * @param pubAdminEvent
+     *            {@code true} if event must be published to Admin.
+     */
+    private void deliverUserEvent(final ServerSession remote,
+            final String clientIpAddress, final String userInbox,
+            final boolean isWebAppClient, final Map<String, Object> eventData,
+            final boolean pubAdminEvent) {
 
-        /*
-         *
-         */
         try {
-            String jsonEvent = new ObjectMapper().writeValueAsString(eventData);
+            if (ADMIN_PUB_USER_EVENT && pubAdminEvent) {
+
+                final UserEventEnum userEvent = UserEventEnum
+                        .valueOf(eventData.get(KEY_EVENT).toString());
+
+                if (userEvent != UserEventEnum.NULL) {
+                    publishAdminEvent(userInbox, clientIpAddress,
+                            isWebAppClient, userEvent);
+                }
+            }
+
+            final String jsonEvent =
+                    new ObjectMapper().writeValueAsString(eventData);
 
             /*
              * The JavaScript client subscribes to CHANNEL_PUBLISH like this:
@@ -670,385 +707,441 @@ public final class UserEventService extends AbstractEventService {
     }
 
     /**
-     * Cast event.
-     *
-     * @param <T>
-     *            Event class.
-     * @param event
-     *            The Event.
-     * @return The casted event.
-     */
-    @SuppressWarnings("unchecked")
-    static <T> WatchEvent<T> cast(final WatchEvent<?> event) {
-        return (WatchEvent<T>) event;
-    }
-
-    /**
-     * Waits for a any change in jobs (created, deleted) or user message.
-     *
-     * @param clientIpAddress
-     * @param dateStart
-     * @param userInbox
-     *            The user (identified with unique user name) to find jobs for.
-     * @param userDocLog
-     *            The user (identified with unique user name) of {@link DocLog}
-     *            instances.
-     * @param locale
-     *            Locale.
-     * @param pageOffset
-     *            The page offset as trigger for the event. Is {@code null} for
-     *            Java Web Client.
-     * @param uniqueUrlValue
-     *            Value to make the output page URL's unique, so the browser
-     *            will not use its cache, but will retrieve the image from the
-     *            server again.
-     * @param base64
-     *            {@code true}: create image URL for inline BASE64 embedding.
-     * @param isWebAppClient
-     *            {@code true} is client is User Web App, {@code false} if Java
-     *            Client.
-     * @return <code>null</code>when the max wait time has elapsed, or a object
-     *         map with information about the change.
-     * @throws IOException
-     * @throws UserNotFoundException
-     * @throws ShutdownException
+     * Monitors a user home directory, on behalf of one long poll, till a
+     * change in jobs (created, deleted) or user message is found, or the max
+     * monitor time has elapsed.
+     * <p>
+     * The monitor is notified by {@link UserHomeWatcher} and by the timeout
+     * scheduler: it does not hold a thread while waiting. Both hand their
+     * work (file and database access) to the monitor pool.
+     * </p>
      */
-    private Map<String, Object> watchUserFileEvents(
-            final String clientIpAddress, final Date dateStart,
-            final String userInbox, final String userDocLog,
-            final Locale locale, final Long pageOffset,
-            final String uniqueUrlValue, final boolean base64,
-            final boolean isWebAppClient)
-            throws IOException, UserNotFoundException, ShutdownException {
-
-        final WatchService watchService =
-                FileSystems.getDefault().newWatchService();
+    private final class UserEventMonitor
+            implements UserHomeWatcher.Listener, Runnable {
+
+        /** */
+        private final ServerSession remote;
+        /** */
+        private final String clientIpAddress;
+        /** */
+        private final Date dateStart;
+        /**
+         * The user (identified with unique user name) to find jobs for.
+         */
+        private final String userInbox;
+        /**
+         * The user (identified with unique user name) of {@link DocLog}
+         * instances.
+         */
+        private final String userDocLog;
+        /** */
+        private final Locale locale;
+        /**
+         * The page offset as trigger for the event. Is {@code null} for Java
+         * Web Client.
+         */
+        private final Long pageOffset;
+        /**
+         * Value to make the output page URL's unique, so the browser will not
+         * use its cache, but will retrieve the image from the server again.
+         */
+        private final String uniqueUrlValue;
+        /**
+         * {@code true}: create image URL for inline BASE64 embedding.
+         */
+        private final boolean base64;
+        /**
+         * {@code true} is client is User Web App, {@code false} if Java
+         * Client.
+         */
+        private final boolean isWebAppClient;
 
-        final String userHomeDir = ConfigManager.getUserHomeDir(userInbox);
+        /**
+         * {@code true} when event is delivered.
+         */
+        private final AtomicBoolean completed = new AtomicBoolean();
 
-        final Path path2WatchJob = Paths.get(userHomeDir);
+        /**
+         * Serializes the evaluation of user home events.
+         */
+        private final Object evaluateMutex = new Object();
+
+        /** */
+        private UserHomeWatcher.Subscription subscription;
+
+        /** */
+        private ScheduledFuture<?> timeout;
+
+        /**
+         * @param remote
+         *            The {@link ServerSession}.
+         * @param clientIpAddress
+         *            Client IP address.
+         * @param dateStart
+         *            Start of monitoring.
+         * @param userInbox
+         *            The user of the inbox.
+         * @param userDocLog
+         *            The user of {@link DocLog} instances.
+         * @param locale
+         *            Locale.
+         * @param pageOffset
+         *            The page offset.
+         * @param uniqueUrlValue
+         *            Value to make the output page URL's unique.
+         * @param base64
+         *            {@code true}: create image URL for inline BASE64
+         *            embedding.
+         * @param isWebAppClient
+         *            {@code true} is client is User Web App.
+         */
+        UserEventMonitor(final ServerSession remote,
+                final String clientIpAddress, final Date dateStart,
+                final String userInbox, final String userDocLog,
+                final Locale locale, final Long pageOffset,
+                final String uniqueUrlValue, final Boolean base64,
+                final boolean isWebAppClient) {
+            this.remote = remote;
+            this.clientIpAddress = clientIpAddress;
+            this.dateStart = dateStart;
+            this.userInbox = userInbox;
+            this.userDocLog = userDocLog;
+            this.locale = locale;
+            this.pageOffset = pageOffset;
+            this.uniqueUrlValue = uniqueUrlValue;
+            this.base64 = BooleanUtils.isTrue(base64);
+            this.isWebAppClient = isWebAppClient;
+        }
 
-        final WatchKey watchKeyJob = path2WatchJob.register(watchService,
-                ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        /**
+         * Subscribes to user home events and schedules the timeout.
+         *
+         * @throws IOException
+         *             If user home directory cannot be watched.
+         */
+        void start() throws IOException {
+
+            final long msecDelay = Math.max(0L, theMaxMonitorMsec
+                    - (System.currentTimeMillis() - dateStart.getTime()));
+
+            synchronized (this) {
+                this.subscription =
+                        UserHomeWatcher.instance().subscribe(userInbox, this);
+                this.timeout = scheduleTimeout(this, new Runnable() {
+                    @Override
+                    public void run() {
+                        onRejected();
+                    }
+                }, msecDelay);
+            }
 
-        final Map<WatchKey, Path> watchKeys = new HashMap<WatchKey, Path>();
+            if (this.completed.get()) {
+                this.release();
+            }
+        }
 
-        watchKeys.put(watchKeyJob, path2WatchJob);
+        /**
+         * Closes the subscription and cancels the timeout.
+         */
+        private synchronized void release() {
+            if (this.subscription != null) {
+                this.subscription.close();
+            }
+            if (this.timeout != null) {
+                this.timeout.cancel(false);
+            }
+        }
 
-        Map<String, Object> returnData = null;
+        /**
+         * Delivers the event (once).
+         *
+         * @param eventData
+         *            The event data.
+         * @param pubAdminEvent
+         *            {@code true} if event must be published to Admin.
+         */
+        private void complete(final Map<String, Object> eventData,
+                final boolean pubAdminEvent) {
+            if (!this.completed.compareAndSet(false, true)) {
+                return;
+            }
+            this.release();
+            deliverUserEvent(remote, clientIpAddress, userInbox,
+                    isWebAppClient, eventData, pubAdminEvent);
+        }
 
-        try {
+        /**
+         * Handles the max monitor time elapsed. Runs on the event pool.
+         */
+        @Override
+        public void run() {
 
-            final long msecStart = dateStart.getTime();
-            int i = 0;
+            if (this.completed.get()) {
+                return;
+            }
 
-            while (true) {
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("File Watch: time elapsed.");
+            }
 
-                if (ConfigManager.isShutdownInProgress()) {
-                    throw new ShutdownException();
-                }
+            Map<String, Object> eventData;
+            boolean isException = false;
 
-                i++;
+            try {
+                eventData = checkPrintInJobExpiry(userInbox, dateStart, locale);
 
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("watch [" + i + "] for user [" + userInbox
-                            + "] [" + clientIpAddress + "]");
+                if (eventData == null) {
+                    eventData = createNullMsg(userInbox, isWebAppClient, locale,
+                            dateStart.getTime());
                 }
-                /*
-                 * WAIT for key to be signaled ...
-                 */
-                WatchKey key = watchService.poll(MSECS_WAIT_BETWEEN_POLLS,
-                        TimeUnit.MILLISECONDS);
-
-                boolean bUserHomeInaccessible = false;
+            } catch (Exception e) {
+                eventData = createExceptionEvent(e, userInbox, clientIpAddress,
+                        isWebAppClient);
+                isException = true;
+            }
 
-                boolean bJobsCreated = false;
-                boolean bJobsDeleted = false;
+            this.complete(eventData, !isException);
+        }
 
-                boolean bMsgDeleted = false;
-                boolean bMsgCreated = false;
+        @Override
+        public void onUserHomeEvent(final UserHomeWatcher.UserHomeEvent event) {
 
-                long fileLastModifiedRecent = 0;
+            if (this.completed.get()) {
+                return;
+            }
 
-                if (key != null) {
+            if (event.isShutdown() || ConfigManager.isShutdownInProgress()) {
+                this.complete(createExceptionEvent(new ShutdownException(),
+                        userInbox, clientIpAddress, isWebAppClient), false);
+                return;
+            }
 
-                    Path dir = watchKeys.get(key);
-                    if (dir == null) {
-                        throw new SpException("WatchKey not recognized!!");
+            /*
+             * Evaluation reads the database and may lock the user: it is done
+             * on the event pool, so the UserHomeWatcher dispatcher is never
+             * blocked by a slow user.
+             */
+            try {
+                executeEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        evaluateEvent(event);
                     }
+                });
+            } catch (RejectedExecutionException e) {
+                this.onRejected();
+            }
+        }
 
-                    for (WatchEvent<?> event : key.pollEvents()) {
-                        @SuppressWarnings("rawtypes")
-                        final WatchEvent.Kind kind = event.kind();
+        /**
+         * Evaluates a user home event, and delivers the changes found (if
+         * any). Events of this monitor are evaluated one at a time.
+         *
+         * @param event
+         *            The user home event.
+         */
+        private void evaluateEvent(final UserHomeWatcher.UserHomeEvent event) {
 
-                        /*
-                         * A special event to indicate that events may have been
-                         * lost or discarded.
-                         */
-                        if (kind == OVERFLOW) {
-                            if (LOGGER.isWarnEnabled()) {
-                                LOGGER.warn(String.format(
-                                        "%s : events may have been lost "
-                                                + "or discarded",
-                                        event.kind().name()));
-                            }
-                            continue;
-                        }
-                        /*
-                         * Context for directory entry event is the file name of
-                         * entry.
-                         */
-                        final WatchEvent<Path> ev = cast(event);
-                        final Path name = ev.context();
-                        final Path child = dir.resolve(name);
-                        final File file = child.toFile();
+            synchronized (this.evaluateMutex) {
 
-                        final long fileLastModifiedWlk = file.lastModified();
+                if (this.completed.get()) {
+                    return;
+                }
 
-                        if (fileLastModifiedRecent < fileLastModifiedWlk) {
-                            fileLastModifiedRecent = fileLastModifiedWlk;
-                        }
+                Map<String, Object> eventData;
+                boolean isException = false;
 
-                        if (LOGGER.isDebugEnabled()) {
-                            LOGGER.debug(
-                                    String.format("EVENT [%s] for file [%s]",
-                                            event.kind().name(),
-                                            file.getAbsolutePath()));
-                        }
+                try {
+                    if (ConfigManager.isShutdownInProgress()) {
+                        throw new ShutdownException();
+                    }
+                    eventData = this.evaluate(event);
 
-                        final boolean isJobEvent =
-                                INBOX_SERVICE.isSupportedJobType(file);
+                } catch (Exception e) {
+                    eventData = createExceptionEvent(e, userInbox,
+                            clientIpAddress, isWebAppClient);
+                    isException = true;
+                }
 
-                        boolean isMsgEvent = false;
+                /*
+                 * If changes found, STOP to notify immediately.
+                 */
+                if (eventData != null) {
+                    if (LOGGER.isTraceEnabled()) {
+                        LOGGER.trace("File Watch: changes found.");
+                    }
+                    this.complete(eventData, !isException);
+                }
+            }
+        }
 
-                        if (!isJobEvent) {
-                            isMsgEvent = UserMsgIndicator
-                                    .isMsgIndicatorFile(userInbox, file);
-                        }
+        /**
+         * Delivers a reply when the event pool rejects a task, because it is
+         * shut down. Does not block.
+         * <p>
+         * Note: outside a server shutdown, the ordinary "no event" reply is
+         * delivered (without user statistics, since these are read from the
+         * database), so the client just polls again.
+         * </p>
+         */
+        private void onRejected() {
 
-                        /*
-                         * Event
-                         */
-                        if (isMsgEvent) {
-
-                            if (kind == ENTRY_CREATE) {
-                                bMsgCreated = true;
-                            } else if (kind == ENTRY_MODIFY) {
-                                bMsgCreated = true;
-                            } else if (kind == ENTRY_DELETE) {
-                                bMsgDeleted = true;
-                            }
-
-                            if (LOGGER.isDebugEnabled()) {
-                                LOGGER.debug(String.format("MSG: %s - [%s]",
-                                        event.kind().name(), child));
-                            }
-
-                        } else if (isJobEvent) {
-
-                            if (kind == ENTRY_CREATE) {
-                                bJobsCreated = true;
-                            } else if (kind == ENTRY_DELETE) {
-                                bJobsDeleted = true;
-                            }
-                            if (LOGGER.isDebugEnabled()) {
-                                LOGGER.debug(String.format("JOB: %s - [%s]",
-                                        event.kind().name(), child));
-                            }
-                        } else {
-
-                            if (LOGGER.isDebugEnabled()) {
-                                LOGGER.debug(String.format("Ignored: %s - [%s]",
-                                        event.kind().name(), child));
-                            }
-                        }
+            final Map<String, Object> eventData;
 
-                    } // end-for (events)
+            if (ConfigManager.isShutdownInProgress()) {
+                eventData = createExceptionEvent(new ShutdownException(),
+                        userInbox, clientIpAddress, isWebAppClient);
+            } else {
+                LOGGER.debug("User [{}] event monitoring at [{}] rejected.",
+                        userInbox, clientIpAddress);
+                eventData = createNullMsg(userInbox, false, locale,
+                        dateStart.getTime());
+            }
+            this.complete(eventData, false);
+        }
 
-                    /*
-                     * Reset key for next iteration.
-                     */
-                    if (!key.reset()) {
-                        /*
-                         * Reset failed, because watch key is no longer valid!
-                         */
+        /**
+         * Finds out about changes.
+         *
+         * @param event
+         *            The user home event.
+         * @return {@code null} when event is not to be notified, or a object
+         *         map with information about the change.
+         * @throws IOException
+         *             If IO error.
+         * @throws UserNotFoundException
+         *             If user not found.
+         */
+        private Map<String, Object> evaluate(
+                final UserHomeWatcher.UserHomeEvent event)
+                throws IOException, UserNotFoundException {
 
-                        // Remove watch key from from the set.
-                        watchKeys.remove(key);
+            final long fileLastModifiedRecent =
+                    event.getFileLastModifiedRecent();
 
-                        // Just one location to watch, so check if set is empty.
-                        bUserHomeInaccessible = watchKeys.isEmpty();
-                    }
-                } // end-if
+            Map<String, Object> returnData = null;
 
+            if (event.isInaccessible()) {
                 /*
-                 * Find out about changes.
+                 * STOP if user home directory is inaccessible.
                  */
-                if (bUserHomeInaccessible) {
-                    /*
-                     * STOP if user home directory is inaccessible.
-                     */
-                    LOGGER.warn(String.format("[%s] is inaccessible.",
-                            userHomeDir));
-                    returnData = createErrorMsg(
-                            this.localize(locale, "user-inbox-inaccessible"));
-                    break;
+                returnData = createErrorMsg(
+                        localize(locale, "user-inbox-inaccessible"));
 
-                } else if (bMsgCreated) {
+            } else if (event.isMsgCreated()) {
 
-                    final UserMsgIndicator msgIndicator =
-                            UserMsgIndicator.read(userInbox);
+                final UserMsgIndicator msgIndicator =
+                        UserMsgIndicator.read(userInbox);
 
-                    final Date messageDate = msgIndicator.getMessageDate();
-                    final String senderId = msgIndicator.getSenderId();
+                final Date messageDate = msgIndicator.getMessageDate();
+                final String senderId = msgIndicator.getSenderId();
 
-                    final UserMsgIndicator.Msg msg = msgIndicator.getMessage();
+                final UserMsgIndicator.Msg msg = msgIndicator.getMessage();
 
-                    if (msg != null) {
+                if (msg != null) {
 
-                        switch (msg) {
+                    switch (msg) {
 
-                        case ACCOUNT_INFO:
-                            returnData = createAccountMsg(userInbox, locale);
-                            break;
+                    case ACCOUNT_INFO:
+                        returnData = createAccountMsg(userInbox, locale);
+                        break;
 
-                        case JOBTICKET_CHANGED:
-                        case JOBTICKET_DENIED:
-                        case JOBTICKET_SETTLED_COPY:
-                        case JOBTICKET_SETTLED_PRINT:
-                            returnData =
-                                    createJobTicketMsg(userInbox, msg, locale);
-                            break;
+                    case JOBTICKET_CHANGED:
+                    case JOBTICKET_DENIED:
+                    case JOBTICKET_SETTLED_COPY:
+                    case JOBTICKET_SETTLED_PRINT:
+                        returnData = createJobTicketMsg(userInbox, msg, locale);
+                        break;
 
-                        case PRINT_IN_DENIED:
-                            // no break intended
-                        case PRINT_OUT_COMPLETED:
-                            returnData = createPrintMsg(userInbox, userDocLog,
-                                    locale, messageDate, messageDate);
-                            break;
+                    case PRINT_IN_DENIED:
+                        // no break intended
+                    case PRINT_OUT_COMPLETED:
+                        returnData = createPrintMsg(userInbox, userDocLog,
+                                locale, messageDate, messageDate);
+                        break;
 
-                        case PRINT_OUT_EXT_COMPLETED:
-                            returnData = createPrintMsgExt(senderId, userInbox,
-                                    locale, messageDate, true);
-                            break;
+                    case PRINT_OUT_EXT_COMPLETED:
+                        returnData = createPrintMsgExt(senderId, userInbox,
+                                locale, messageDate, true);
+                        break;
 
-                        case PRINT_OUT_EXT_FAILED:
-                            returnData = createPrintMsgExt(senderId, userInbox,
-                                    locale, messageDate, false);
-                            break;
-
-                        case PRINT_IN_EXPIRED:
-                            returnData =
-                                    createPrintInExpiredMsg(userInbox, locale);
-                            break;
+                    case PRINT_OUT_EXT_FAILED:
+                        returnData = createPrintMsgExt(senderId, userInbox,
+                                locale, messageDate, false);
+                        break;
 
-                        case PRINT_OUT_HOLD:
-                            returnData =
-                                    createNullMsg(userInbox, isWebAppClient,
-                                            locale, fileLastModifiedRecent);
-                            break;
+                    case PRINT_IN_EXPIRED:
+                        returnData = createPrintInExpiredMsg(userInbox, locale);
+                        break;
 
-                        case STOP_POLL_REQ:
-                            /*
-                             * This messages is meant for WebApp clients only.
-                             * See Mantis #515.
-                             */
-                            if (!isWebAppClient) {
-                                break;
-                            }
-
-                            if (clientIpAddress == null || (senderId != null
-                                    && senderId.equals(clientIpAddress))) {
-
-                                returnData =
-                                        createNullMsg(userInbox, isWebAppClient,
-                                                locale, fileLastModifiedRecent);
-                                break;
-                            }
-
-                            if (LOGGER.isTraceEnabled()) {
-                                LOGGER.trace("Ignored message ["
-                                        + msgIndicator.getMessage() + "] from ["
-                                        + msgIndicator.getSenderId()
-                                        + "] since we are [" + clientIpAddress
-                                        + "]");
-                            }
-                            break;
+                    case PRINT_OUT_HOLD:
+                        returnData = createNullMsg(userInbox, isWebAppClient,
+                                locale, fileLastModifiedRecent);
+                        break;
 
-                        default:
+                    case STOP_POLL_REQ:
+                        /*
+                         * This messages is meant for WebApp clients only. See
+                         * Mantis #515.
+                         */
+                        if (!isWebAppClient) {
                             break;
                         }
-                    }
-
-                } else if (bMsgDeleted) {
-                    // No code intended
 
-                } else if (bJobsDeleted && !isWebAppClient) {
-                    /*
-                     * Jobs get deleted at a Fast or Hold Print action. During
-                     * Fast/Hold print a User is locked. So at this point a User
-                     * will be locked. If we would handle a jobs deleted event
-                     * the User will be locked again: we see that this can lead
-                     * to a lock exception (A lock could not be obtained within
-                     * the time requested).
-                     *
-                     * Therefore, do NOT notify this event when this is Client
-                     * Java App.
-                     */
+                        if (clientIpAddress == null || (senderId != null
+                                && senderId.equals(clientIpAddress))) {
 
-                    // No code intended
+                            returnData = createNullMsg(userInbox,
+                                    isWebAppClient, locale,
+                                    fileLastModifiedRecent);
+                            break;
+                        }
 
-                } else if (bJobsCreated || bJobsDeleted) {
+                        if (LOGGER.isTraceEnabled()) {
+                            LOGGER.trace("Ignored message ["
+                                    + msgIndicator.getMessage() + "] from ["
+                                    + msgIndicator.getSenderId()
+                                    + "] since we are [" + clientIpAddress
+                                    + "]");
+                        }
+                        break;
 
-                    if (isWebAppClient) {
-                        returnData = getChangedJobsEvent(userInbox, userDocLog,
-                                pageOffset, uniqueUrlValue, base64,
-                                isWebAppClient, locale, fileLastModifiedRecent);
-                    } else if (bJobsCreated) {
-                        returnData = createPrintInEvent(fileLastModifiedRecent);
+                    default:
+                        break;
                     }
                 }
 
-                /*
-                 * If changes found, STOP to notify immediately.
-                 */
-                if (returnData != null) {
-                    if (LOGGER.isTraceEnabled()) {
-                        LOGGER.trace("File Watch: changes found.");
-                    }
-                    break;
-                }
-
-                final long msecNow = System.currentTimeMillis();
-                final long timeElapsed =
-                        msecNow + MSECS_WAIT_BETWEEN_POLLS - msecStart;
+            } else if (event.isMsgDeleted()) {
+                // No code intended
 
+            } else if (event.isJobsDeleted() && !isWebAppClient) {
                 /*
-                 * STOP if the max monitor time has elapsed.
+                 * Jobs get deleted at a Fast or Hold Print action. During
+                 * Fast/Hold print a User is locked. So at this point a User
+                 * will be locked. If we would handle a jobs deleted event the
+                 * User will be locked again: we see that this can lead to a
+                 * lock exception (A lock could not be obtained within the time
+                 * requested).
+                 *
+                 * Therefore, do NOT notify this event when this is Client Java
+                 * App.
                  */
-                if (timeElapsed >= theMaxMonitorMsec) {
-                    if (LOGGER.isTraceEnabled()) {
-                        LOGGER.trace("File Watch: time elapsed.");
-                    }
-                    break;
-                }
 
-            } // end-for
+                // No code intended
 
-        } catch (InterruptedException e) {
+            } else if (event.isJobsCreated() || event.isJobsDeleted()) {
 
-            if (LOGGER.isTraceEnabled()) {
-                LOGGER.trace("File Watch: InterruptedException ["
-                        + e.getMessage() + "]");
+                if (isWebAppClient) {
+                    returnData = getChangedJobsEvent(userInbox, userDocLog,
+                            pageOffset, uniqueUrlValue, base64, isWebAppClient,
+                            locale, fileLastModifiedRecent);
+                } else if (event.isJobsCreated()) {
+                    returnData = createPrintInEvent(fileLastModifiedRecent);
+                }
             }
-            throw new ShutdownException();
 
-        } finally {
-            // Closing is CRUCIAL to prevent the "Too Many Open Files" Error
-            watchService.close();
+            return returnData;
         }
-
-        return returnData;
     }
 
     /**
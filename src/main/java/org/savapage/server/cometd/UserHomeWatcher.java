@@ -0,0 +1,681 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.cometd;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.savapage.core.config.ConfigManager;
+import org.savapage.core.msg.UserMsgIndicator;
+import org.savapage.core.services.InboxService;
+import org.savapage.core.services.ServiceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server-wide watcher of User home directories, that multiplexes a single
+ * {@link WatchService} over all {@link UserEventService} long polls.
+ * <p>
+ * A user home directory is registered once, no matter how many User Web App
+ * or User Client sessions are monitoring it. File events are collected by one
+ * watcher thread and handed to the subscribed {@link Listener} objects on a
+ * small dispatch thread pool. As a result, a waiting session costs a
+ * {@link Subscription} object, not a thread or an inotify instance.
+ * </p>
+ * <p>
+ * A directory registration lingers for a while after its last subscription
+ * is closed, since a client re-subscribes immediately after each long poll.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class UserHomeWatcher {
+
+    /**
+     * Receives events of a watched user home directory.
+     */
+    public interface Listener {
+
+        /**
+         * Notifies an event. This method is called from a dispatch thread,
+         * and may be called concurrently for the same listener. It must
+         * return quickly: blocking work, like database access, must be
+         * handed to another executor.
+         *
+         * @param event
+         *            The event.
+         */
+        void onUserHomeEvent(UserHomeEvent event);
+    }
+
+    /**
+     * Aggregated file events of a user home directory, as collected from one
+     * signaled {@link WatchKey}.
+     */
+    public static final class UserHomeEvent {
+
+        /** */
+        private boolean shutdown;
+        /** */
+        private boolean inaccessible;
+        /** */
+        private boolean jobsCreated;
+        /** */
+        private boolean jobsDeleted;
+        /** */
+        private boolean msgCreated;
+        /** */
+        private boolean msgDeleted;
+        /** */
+        private long fileLastModifiedRecent;
+
+        /**
+         * @return {@code true} if watcher is shut down.
+         */
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        /**
+         * @return {@code true} if user home directory is inaccessible.
+         */
+        public boolean isInaccessible() {
+            return inaccessible;
+        }
+
+        /**
+         * @return {@code true} if inbox jobs were created.
+         */
+        public boolean isJobsCreated() {
+            return jobsCreated;
+        }
+
+        /**
+         * @return {@code true} if inbox jobs were deleted.
+         */
+        public boolean isJobsDeleted() {
+            return jobsDeleted;
+        }
+
+        /**
+         * @return {@code true} if {@link UserMsgIndicator} was created or
+         *         modified.
+         */
+        public boolean isMsgCreated() {
+            return msgCreated;
+        }
+
+        /**
+         * @return {@code true} if {@link UserMsgIndicator} was deleted.
+         */
+        public boolean isMsgDeleted() {
+            return msgDeleted;
+        }
+
+        /**
+         * @return Most recent last modified time of the files involved.
+         */
+        public long getFileLastModifiedRecent() {
+            return fileLastModifiedRecent;
+        }
+    }
+
+    /**
+     * A subscription of a {@link Listener} to a user home directory.
+     */
+    public final class Subscription {
+
+        /** */
+        private final DirWatch dirWatch;
+
+        /** */
+        private final Listener listener;
+
+        /**
+         * @param watch
+         *            The directory watch.
+         * @param lsnr
+         *            The listener.
+         */
+        private Subscription(final DirWatch watch, final Listener lsnr) {
+            this.dirWatch = watch;
+            this.listener = lsnr;
+        }
+
+        /**
+         * Closes the subscription: the listener is not notified anymore.
+         */
+        public void close() {
+            unsubscribe(this);
+        }
+    }
+
+    /**
+     * A registered user home directory.
+     */
+    private static final class DirWatch {
+
+        /** */
+        private final String userId;
+
+        /** */
+        private final Path dir;
+
+        /** */
+        private final WatchKey watchKey;
+
+        /** */
+        private final Set<Listener> listeners = new CopyOnWriteArraySet<>();
+
+        /**
+         * Time (millis) the last listener was removed.
+         */
+        private long idleSince;
+
+        /**
+         * @param user
+         *            The user id.
+         * @param path
+         *            The directory.
+         * @param key
+         *            The watch key.
+         */
+        DirWatch(final String user, final Path path, final WatchKey key) {
+            this.userId = user;
+            this.dir = path;
+            this.watchKey = key;
+        }
+    }
+
+    /** */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(UserHomeWatcher.class);
+
+    /** */
+    private static final InboxService INBOX_SERVICE =
+            ServiceContext.getServiceFactory().getInboxService();
+
+    /**
+     * Max time (millis) the watcher thread waits for a signaled key, before
+     * pruning idle directory registrations.
+     */
+    private static final long MSECS_WAIT_BETWEEN_POLLS = 10000;
+
+    /**
+     * Time (millis) a directory registration without subscriptions is kept.
+     */
+    private static final long MSECS_IDLE_LINGER = 120000;
+
+    /**
+     * Number of threads that notify listeners. Listeners do not block, see
+     * {@link Listener#onUserHomeEvent(UserHomeEvent)}.
+     */
+    private static final int DISPATCH_THREADS = 4;
+
+    /** */
+    private final Object mutex = new Object();
+
+    /**
+     * Directory registrations by user home path. Guarded by {@link #mutex}.
+     */
+    private final Map<Path, DirWatch> dirWatches = new HashMap<>();
+
+    /**
+     * Directory registrations by watch key, read lock-free by the watcher
+     * thread.
+     */
+    private final Map<WatchKey, DirWatch> keyWatches =
+            new ConcurrentHashMap<>();
+
+    /** */
+    private WatchService watchService;
+
+    /** */
+    private Thread watcherThread;
+
+    /** */
+    private ExecutorService dispatcher;
+
+    /** */
+    private volatile boolean shutdown;
+
+    /** */
+    private UserHomeWatcher() {
+    }
+
+    /**
+     * The SingletonHolder is loaded on the first execution of
+     * {@link UserHomeWatcher#instance()} or the first access to
+     * {@link SingletonHolder#INSTANCE}, not before.
+     */
+    private static class SingletonHolder {
+        /** */
+        public static final UserHomeWatcher INSTANCE = new UserHomeWatcher();
+    }
+
+    /**
+     * Gets the singleton instance.
+     *
+     * @return The instance.
+     */
+    public static UserHomeWatcher instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Lazy starts the watch service, the watcher thread and the dispatcher.
+     * Must be called while holding {@link #mutex}.
+     *
+     * @throws IOException
+     *             If the watch service cannot be created.
+     */
+    private void lazyStart() throws IOException {
+
+        if (this.watchService != null) {
+            return;
+        }
+
+        this.watchService = FileSystems.getDefault().newWatchService();
+
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        this.dispatcher = Executors.newFixedThreadPool(DISPATCH_THREADS,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r,
+                                "UserHomeWatcher-dispatch-"
+                                        + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        this.watcherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watchLoop();
+            }
+        }, "UserHomeWatcher");
+
+        this.watcherThread.setDaemon(true);
+        this.watcherThread.start();
+    }
+
+    /**
+     * Subscribes a listener to events of a user's home directory.
+     *
+     * @param userId
+     *            The user id.
+     * @param listener
+     *            The listener.
+     * @return The subscription.
+     * @throws IOException
+     *             If the directory cannot be registered.
+     */
+    public Subscription subscribe(final String userId, final Listener listener)
+            throws IOException {
+
+        final Path dir = Paths.get(ConfigManager.getUserHomeDir(userId));
+
+        synchronized (this.mutex) {
+
+            if (this.shutdown) {
+                throw new IllegalStateException(
+                        String.format("%s is shut down.",
+                                UserHomeWatcher.class.getSimpleName()));
+            }
+
+            this.lazyStart();
+
+            DirWatch watch = this.dirWatches.get(dir);
+
+            if (watch == null || !watch.watchKey.isValid()) {
+
+                final WatchKey key = dir.register(this.watchService,
+                        ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+
+                watch = new DirWatch(userId, dir, key);
+
+                this.dirWatches.put(dir, watch);
+                this.keyWatches.put(key, watch);
+
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Registered [{}]. Total [{}]", dir,
+                            this.dirWatches.size());
+                }
+            }
+
+            watch.listeners.add(listener);
+
+            return new Subscription(watch, listener);
+        }
+    }
+
+    /**
+     * Removes a subscription.
+     *
+     * @param subscription
+     *            The subscription.
+     */
+    private void unsubscribe(final Subscription subscription) {
+        synchronized (this.mutex) {
+            final DirWatch watch = subscription.dirWatch;
+            if (watch.listeners.remove(subscription.listener)
+                    && watch.listeners.isEmpty()) {
+                watch.idleSince = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * @return Number of registered user home directories.
+     */
+    public int getDirCount() {
+        synchronized (this.mutex) {
+            return this.dirWatches.size();
+        }
+    }
+
+    /**
+     * Cancels directory registrations that have been without subscriptions
+     * longer than {@link #MSECS_IDLE_LINGER}.
+     */
+    private void pruneIdle() {
+
+        final long now = System.currentTimeMillis();
+
+        synchronized (this.mutex) {
+
+            final Iterator<DirWatch> iter = this.dirWatches.values().iterator();
+
+            while (iter.hasNext()) {
+                final DirWatch watch = iter.next();
+                if (watch.listeners.isEmpty()
+                        && now - watch.idleSince > MSECS_IDLE_LINGER) {
+                    watch.watchKey.cancel();
+                    this.keyWatches.remove(watch.watchKey);
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a directory registration whose key is no longer valid.
+     *
+     * @param watch
+     *            The directory watch.
+     */
+    private void removeInvalid(final DirWatch watch) {
+        synchronized (this.mutex) {
+            this.keyWatches.remove(watch.watchKey);
+            if (this.dirWatches.get(watch.dir) == watch) {
+                this.dirWatches.remove(watch.dir);
+            }
+        }
+    }
+
+    /**
+     * Cast event.
+     *
+     * @param <T>
+     *            Event class.
+     * @param event
+     *            The Event.
+     * @return The casted event.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> WatchEvent<T> cast(final WatchEvent<?> event) {
+        return (WatchEvent<T>) event;
+    }
+
+    /**
+     * Collects the pending events of a signaled key, and resets the key.
+     *
+     * @param watch
+     *            The directory watch of the key.
+     * @return The aggregated event.
+     */
+    private static UserHomeEvent collectEvent(final DirWatch watch) {
+
+        final UserHomeEvent homeEvent = new UserHomeEvent();
+
+        for (final WatchEvent<?> event : watch.watchKey.pollEvents()) {
+
+            @SuppressWarnings("rawtypes")
+            final WatchEvent.Kind kind = event.kind();
+
+            /*
+             * A special event to indicate that events may have been lost or
+             * discarded.
+             */
+            if (kind == OVERFLOW) {
+                if (LOGGER.isWarnEnabled()) {
+                    LOGGER.warn(String.format(
+                            "%s : events may have been lost or discarded",
+                            kind.name()));
+                }
+                continue;
+            }
+
+            /*
+             * Context for directory entry event is the file name of entry.
+             */
+            final WatchEvent<Path> ev = cast(event);
+            final Path child = watch.dir.resolve(ev.context());
+            final File file = child.toFile();
+
+            final long fileLastModifiedWlk = file.lastModified();
+
+            if (homeEvent.fileLastModifiedRecent < fileLastModifiedWlk) {
+                homeEvent.fileLastModifiedRecent = fileLastModifiedWlk;
+            }
+
+            if (INBOX_SERVICE.isSupportedJobType(file)) {
+
+                if (kind == ENTRY_CREATE) {
+                    homeEvent.jobsCreated = true;
+                } else if (kind == ENTRY_DELETE) {
+                    homeEvent.jobsDeleted = true;
+                }
+
+            } else if (UserMsgIndicator.isMsgIndicatorFile(watch.userId,
+                    file)) {
+
+                if (kind == ENTRY_CREATE || kind == ENTRY_MODIFY) {
+                    homeEvent.msgCreated = true;
+                } else if (kind == ENTRY_DELETE) {
+                    homeEvent.msgDeleted = true;
+                }
+            }
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(String.format("EVENT [%s] for file [%s]",
+                        kind.name(), file.getAbsolutePath()));
+            }
+        }
+
+        /*
+         * Reset failed, because watch key is no longer valid!
+         */
+        homeEvent.inaccessible = !watch.watchKey.reset();
+
+        return homeEvent;
+    }
+
+    /**
+     * Notifies the listeners of a directory watch on the dispatcher.
+     *
+     * @param listeners
+     *            The listeners.
+     * @param event
+     *            The event.
+     */
+    private void dispatch(final Iterable<Listener> listeners,
+            final UserHomeEvent event) {
+
+        for (final Listener listener : listeners) {
+            try {
+                this.dispatcher.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            listener.onUserHomeEvent(event);
+                        } catch (Exception e) {
+                            if (!ConfigManager.isShutdownInProgress()) {
+                                LOGGER.error(e.getMessage(), e);
+                            }
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Dispatcher is shut down: listeners got a shutdown event.
+                LOGGER.debug("User home event not dispatched: {}",
+                        e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * The watcher thread loop.
+     */
+    private void watchLoop() {
+
+        long lastPruneTime = System.currentTimeMillis();
+
+        while (!this.shutdown) {
+
+            final WatchKey key;
+
+            try {
+                key = this.watchService.poll(MSECS_WAIT_BETWEEN_POLLS,
+                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            }
+
+            if (key != null) {
+
+                final DirWatch watch = this.keyWatches.get(key);
+
+                if (watch == null) {
+                    // Cancelled by prune, just in the meantime.
+                    key.reset();
+                } else {
+                    final UserHomeEvent event = collectEvent(watch);
+
+                    if (event.inaccessible) {
+                        LOGGER.warn(String.format("[%s] is inaccessible.",
+                                watch.dir));
+                        this.removeInvalid(watch);
+                    }
+                    this.dispatch(watch.listeners, event);
+                }
+            }
+
+            final long now = System.currentTimeMillis();
+
+            if (now - lastPruneTime > MSECS_WAIT_BETWEEN_POLLS) {
+                this.pruneIdle();
+                lastPruneTime = now;
+            }
+        }
+
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("UserHomeWatcher thread stopped.");
+        }
+    }
+
+    /**
+     * Shuts down the watcher: all subscribed listeners are notified with a
+     * {@link UserHomeEvent#isShutdown()} event.
+     */
+    public void shutdown() {
+
+        final List<Listener> listeners = new ArrayList<>();
+
+        synchronized (this.mutex) {
+
+            if (this.shutdown) {
+                return;
+            }
+            this.shutdown = true;
+
+            if (this.watchService == null) {
+                return;
+            }
+
+            for (final DirWatch watch : this.dirWatches.values()) {
+                listeners.addAll(watch.listeners);
+                watch.listeners.clear();
+            }
+            this.dirWatches.clear();
+            this.keyWatches.clear();
+
+            try {
+                // Closing is CRUCIAL to prevent the "Too Many Open Files" Error
+                this.watchService.close();
+            } catch (IOException e) {
+                LOGGER.warn(e.getMessage());
+            }
+        }
+
+        final UserHomeEvent event = new UserHomeEvent();
+        event.shutdown = true;
+
+        this.dispatch(listeners, event);
+
+        this.dispatcher.shutdown();
+    }
+}
@@ -47,8 +47,9 @@ import org.savapage.core.print.server.DocContentPrintReq;
 import org.savapage.core.print.server.DocContentPrintRsp;
 import org.savapage.core.services.QueueService;
 import org.savapage.core.services.ServiceContext;
-import org.savapage.core.util.InetUtils;
 import org.savapage.core.util.NumberUtil;
+import org.savapage.server.helpers.CidrMatcher;
+import org.savapage.server.img.PageImageRenderQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -84,11 +85,12 @@ public final class WebPrintHelper {
      * @return {@code true} when WebPrint is enabled.
      */
     public static boolean isWebPrintEnabled(final String originatorIp) {
-        return ConfigManager.isWebPrintEnabled()
-                && InetUtils.isIpAddrInCidrRanges(
-                        ConfigManager.instance().getConfigValue(
-                                Key.WEB_PRINT_LIMIT_IP_ADDRESSES),
-                        originatorIp);
+        if (!ConfigManager.isWebPrintEnabled()) {
+            return false;
+        }
+        final CidrMatcher ipAllowed =
+                CidrMatcher.forConfig(Key.WEB_PRINT_LIMIT_IP_ADDRESSES);
+        return ipAllowed.isBlank() || ipAllowed.matches(originatorIp);
     }
 
     /**
@@ -254,8 +256,13 @@ public final class WebPrintHelper {
             docContentPrintReq.setProtocol(DocLogProtocolEnum.HTTP);
             docContentPrintReq.setTitle(fileName);
 
-            return QUEUE_SERVICE.printDocContent(ReservedIppQueueEnum.WEBPRINT,
-                    userId, docContentPrintReq, uploadedFile.getInputStream());
+            final DocContentPrintRsp rsp = QUEUE_SERVICE.printDocContent(
+                    ReservedIppQueueEnum.WEBPRINT, userId, docContentPrintReq,
+                    uploadedFile.getInputStream());
+
+            PageImageRenderQueue.instance().warmInbox(userId);
+
+            return rsp;
 
         } finally {
             // Close quietly.
@@ -47,8 +47,8 @@ import org.savapage.core.jpa.UserGroup;
 import org.savapage.core.services.ServiceContext;
 import org.savapage.core.services.UserGroupService;
 import org.savapage.core.services.UserService;
-import org.savapage.core.util.InetUtils;
 import org.savapage.server.BasicAuthServlet;
+import org.savapage.server.helpers.CidrMatcher;
 
 /**
  * PaperCut Custom User Sync Integration as described <a href=
@@ -424,11 +424,10 @@ public final class ExtPaperCutSyncServlet extends BasicAuthServlet {
 
     @Override
     protected boolean isRemoteAddrAllowed(final String remoteAddr) {
-        final String cidrRanges = ConfigManager.instance().getConfigValue(
-                Key.EXT_PAPERCUT_USER_SYNC_IP_ADDRESSES_ALLOWED);
+        final CidrMatcher cidrRanges = CidrMatcher
+                .forConfig(Key.EXT_PAPERCUT_USER_SYNC_IP_ADDRESSES_ALLOWED);
 
-        return !StringUtils.isBlank(cidrRanges)
-                && InetUtils.isIpAddrInCidrRanges(cidrRanges, remoteAddr);
+        return !cidrRanges.isBlank() && cidrRanges.matches(remoteAddr);
     }
 
 }
@@ -0,0 +1,465 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.helpers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.apache.commons.lang3.StringUtils;
+import org.savapage.core.dao.impl.DaoContextImpl;
+import org.savapage.core.services.ServiceContext;
+import org.savapage.core.util.DateUtil;
+import org.savapage.server.WebApp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process {@link TrigramIndex} of the texts of a database entity, used by
+ * quick searches to find candidate entities without a
+ * {@code LIKE '%text%'} scan of the entity table.
+ * <p>
+ * The index is loaded in the background on first use and reloaded when it
+ * is older than {@link WebApp#getUserSearchIndexRefreshMins()}. Entities
+ * that were created since the last (re)load are added incrementally.
+ * Changes applied while a (re)load is busy are recorded and applied again
+ * to the loaded index, so they are not lost.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public abstract class AbstractSearchIndex {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(AbstractSearchIndex.class);
+
+    /**
+     * Max number of candidates the index returns. When more entities match,
+     * searching the database is more efficient than selecting by key.
+     */
+    private static final int MAX_CANDIDATES = 1000;
+
+    /**
+     * Min interval of retrieving entities created since the last (re)load.
+     */
+    private static final long CATCH_UP_MSEC =
+            5 * DateUtil.DURATION_MSEC_SECOND;
+
+    /**
+     * A change of the index.
+     */
+    private static final class Change {
+
+        /** */
+        private final Long key;
+
+        /**
+         * The texts, or {@code null} when key is removed.
+         */
+        private final String[] texts;
+
+        /**
+         * @param key
+         *            The primary key.
+         * @param texts
+         *            The texts, or {@code null} when key is removed.
+         */
+        Change(final Long key, final String[] texts) {
+            this.key = key;
+            this.texts = texts;
+        }
+    }
+
+    /** */
+    private final TrigramIndex<Long> index = new TrigramIndex<>();
+
+    /**
+     * Time of last (re)load. Zero (0) when not loaded or invalidated.
+     */
+    private volatile long loadTime;
+
+    /**
+     * Highest primary key in the index.
+     */
+    private final AtomicLong maxDbKey = new AtomicLong();
+
+    /**
+     * Time of last retrieval of new entities.
+     */
+    private final AtomicLong catchUpTime = new AtomicLong();
+
+    /**
+     * {@code true} when a (re)load is busy.
+     */
+    private final AtomicBoolean loading = new AtomicBoolean();
+
+    /**
+     * Incremented by {@link #invalidate()}, so a (re)load that started
+     * before does not mark the index as loaded.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Lock of {@link #changes}, {@link #loadTime} and the replacement of the
+     * index by a (re)load.
+     */
+    private final Object changeLock = new Object();
+
+    /**
+     * Changes applied while a (re)load is busy, or {@code null} when no
+     * (re)load is busy.
+     */
+    private List<Change> changes;
+
+    /**
+     * @return The name of the indexed entity, like "user".
+     */
+    protected abstract String getEntityName();
+
+    /**
+     * Creates the query of all indexed entities. Each row holds the primary
+     * key, followed by the texts to index.
+     *
+     * @param em
+     *            The {@link EntityManager}.
+     * @return The query.
+     */
+    protected abstract TypedQuery<Object[]> createLoadQuery(EntityManager em);
+
+    /**
+     * Creates the query of indexed entities with a primary key greater than
+     * a key. Rows are like the rows of {@link #createLoadQuery(EntityManager)}.
+     *
+     * @param em
+     *            The {@link EntityManager}.
+     * @param maxKey
+     *            The highest primary key in the index.
+     * @return The query.
+     */
+    protected abstract TypedQuery<Object[]>
+            createCatchUpQuery(EntityManager em, Long maxKey);
+
+    /**
+     * Searches candidate entities with a text containing a search text.
+     *
+     * @param em
+     *            The {@link EntityManager} of the request, used to add
+     *            entities created since the last (re)load.
+     * @param text
+     *            The search text.
+     * @param fields
+     *            Indexes of the texts to search. When none, all texts are
+     *            searched.
+     * @return Primary keys of the candidate entities, or {@code null} when
+     *         the index cannot be used: index is disabled or not loaded,
+     *         search text is blank or shorter than
+     *         {@link TrigramIndex#GRAM_LENGTH}, or too many entities match.
+     */
+    protected final List<Long> search(final EntityManager em,
+            final String text, final int... fields) {
+
+        final long refreshMsec = WebApp.getUserSearchIndexRefreshMins()
+                * DateUtil.DURATION_MSEC_MINUTE;
+
+        if (refreshMsec <= 0 || StringUtils.isBlank(text) || TrigramIndex
+                .normalize(text).length() < TrigramIndex.GRAM_LENGTH) {
+            return null;
+        }
+
+        final long now = System.currentTimeMillis();
+
+        if (this.loadTime == 0 || now - this.loadTime > refreshMsec) {
+            this.reloadInBackground();
+        }
+        if (this.loadTime == 0) {
+            return null;
+        }
+
+        final long catchUpPrv = this.catchUpTime.get();
+        if (now - catchUpPrv > CATCH_UP_MSEC
+                && this.catchUpTime.compareAndSet(catchUpPrv, now)) {
+            this.catchUp(em);
+        }
+
+        final List<Long> candidates =
+                this.index.search(text, MAX_CANDIDATES + 1, fields);
+
+        if (candidates.size() > MAX_CANDIDATES) {
+            return null;
+        }
+        return candidates;
+    }
+
+    /**
+     * Adds or replaces the texts of an entity.
+     *
+     * @param key
+     *            The primary key.
+     * @param texts
+     *            The texts (elements can be {@code null}).
+     */
+    protected final void put(final Long key, final String... texts) {
+        this.apply(new Change(key, texts));
+    }
+
+    /**
+     * Removes an entity.
+     *
+     * @param key
+     *            The primary key.
+     */
+    protected final void remove(final Long key) {
+        this.apply(new Change(key, null));
+    }
+
+    /**
+     * Marks the index as not loaded, so searches return {@code null} until
+     * it is reloaded. Use this when entities were changed in a way that
+     * cannot be applied to the index.
+     */
+    public final void invalidate() {
+        synchronized (this.changeLock) {
+            this.generation.incrementAndGet();
+            this.loadTime = 0;
+        }
+    }
+
+    /**
+     * @return {@code true} when the index is loaded and not invalidated.
+     */
+    boolean isLoaded() {
+        return this.loadTime != 0;
+    }
+
+    /**
+     * @return Number of indexed entities.
+     */
+    public final int size() {
+        return this.index.size();
+    }
+
+    /**
+     * Applies a change to the index, and records it when a (re)load is
+     * busy. A change is ignored when the index is neither loaded nor being
+     * loaded.
+     *
+     * @param change
+     *            The change.
+     */
+    private void apply(final Change change) {
+        synchronized (this.changeLock) {
+            if (this.changes == null) {
+                if (this.loadTime == 0) {
+                    return;
+                }
+            } else {
+                this.changes.add(change);
+            }
+            this.applyToIndex(change);
+        }
+    }
+
+    /**
+     * @param change
+     *            The change.
+     */
+    private void applyToIndex(final Change change) {
+        if (change.texts == null) {
+            this.index.remove(change.key);
+        } else {
+            this.index.put(change.key, change.texts);
+        }
+    }
+
+    /**
+     * @param row
+     *            A query row.
+     * @return The texts of the row.
+     */
+    private static String[] getTexts(final Object[] row) {
+        final String[] texts = new String[row.length - 1];
+        for (int i = 0; i < texts.length; i++) {
+            texts[i] = (String) row[i + 1];
+        }
+        return texts;
+    }
+
+    /**
+     * Adds the entities created since the last (re)load or catch-up.
+     *
+     * @param em
+     *            The {@link EntityManager}.
+     */
+    private void catchUp(final EntityManager em) {
+
+        final TypedQuery<Object[]> query = this.createCatchUpQuery(em,
+                Long.valueOf(this.maxDbKey.get()));
+
+        for (final Object[] row : query.getResultList()) {
+            final Long key = (Long) row[0];
+            this.put(key, getTexts(row));
+            this.setMaxDbKey(key.longValue());
+        }
+    }
+
+    /**
+     * @param key
+     *            A primary key in the index.
+     */
+    private void setMaxDbKey(final long key) {
+        long max = this.maxDbKey.get();
+        while (key > max && !this.maxDbKey.compareAndSet(max, key)) {
+            max = this.maxDbKey.get();
+        }
+    }
+
+    /**
+     * Starts a (re)load of the index in a background thread, unless one is
+     * busy.
+     */
+    private void reloadInBackground() {
+
+        if (!this.loading.compareAndSet(false, true)) {
+            return;
+        }
+
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reload();
+                } catch (Exception e) {
+                    LOGGER.warn("Search index of {} load failed: {}",
+                            getEntityName(), e.getMessage());
+                } finally {
+                    loading.set(false);
+                }
+            }
+        }, getEntityName().replace(' ', '-') + "-search-index");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * (Re)loads the index from the database.
+     */
+    private void reload() {
+
+        final long start = System.currentTimeMillis();
+        final long generationStart = this.beginLoad();
+
+        try {
+            final Map<Long, String[]> entries = new HashMap<>();
+            long maxKey = 0;
+
+            ServiceContext.open();
+
+            try {
+                final TypedQuery<Object[]> query = this
+                        .createLoadQuery(DaoContextImpl.peekEntityManager());
+
+                for (final Object[] row : query.getResultList()) {
+                    final Long key = (Long) row[0];
+                    entries.put(key, getTexts(row));
+                    maxKey = Math.max(maxKey, key.longValue());
+                }
+            } finally {
+                ServiceContext.close();
+            }
+
+            this.load(entries, maxKey, generationStart);
+
+            LOGGER.debug("Search index of {} loaded: {} entries in {} msec.",
+                    this.getEntityName(), entries.size(),
+                    System.currentTimeMillis() - start);
+
+        } finally {
+            this.endLoad();
+        }
+    }
+
+    /**
+     * Starts recording changes for a (re)load.
+     *
+     * @return The {@link #generation} at the start of the (re)load.
+     */
+    long beginLoad() {
+        synchronized (this.changeLock) {
+            this.changes = new ArrayList<>();
+            return this.generation.get();
+        }
+    }
+
+    /**
+     * Stops recording changes for a (re)load.
+     */
+    void endLoad() {
+        synchronized (this.changeLock) {
+            this.changes = null;
+        }
+    }
+
+    /**
+     * Replaces the index, and applies the changes recorded since the
+     * (re)load started.
+     *
+     * @param entries
+     *            The texts by primary key.
+     * @param maxKey
+     *            The highest primary key of the entries.
+     * @param generationStart
+     *            The {@link #generation} when the (re)load started.
+     */
+    void load(final Map<Long, String[]> entries, final long maxKey,
+            final long generationStart) {
+
+        synchronized (this.changeLock) {
+
+            this.index.load(entries);
+
+            if (this.changes != null) {
+                for (final Change change : this.changes) {
+                    this.applyToIndex(change);
+                }
+            }
+            this.setMaxDbKey(maxKey);
+
+            if (this.generation.get() == generationStart) {
+                this.loadTime = System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.helpers;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.savapage.core.config.ConfigManager;
+import org.savapage.core.config.IConfigProp.Key;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pre-compiled, immutable set of IPv4 and IPv6 CIDR ranges, so IP addresses
+ * can be matched without parsing the CIDR set text over and over again.
+ * <p>
+ * A CIDR set is a list of ranges like {@code 192.168.1.0/24} or
+ * {@code fe80::/10}, separated by space, comma or semicolon. A plain address
+ * is a range with a single address. Invalid ranges are skipped, so they never
+ * match.
+ * </p>
+ * <p>
+ * The ranges are stored in a binary prefix trie per address family, so a
+ * match walks at most as many nodes as the longest matching prefix. Literal
+ * IPv4 addresses are matched without any object allocation.
+ * </p>
+ * <p>
+ * Matchers of CIDR sets in configuration properties are cached with
+ * {@link #forConfig(Key)}, and only compiled again when the configuration
+ * value changes.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class CidrMatcher {
+
+    /** */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(CidrMatcher.class);
+
+    /**
+     * Separator characters of the ranges in a CIDR set.
+     */
+    private static final String CIDR_SET_SEPARATORS = " ,;\t\r\n";
+
+    /**
+     * Literal IPv4 address.
+     */
+    private static final Pattern IPV4_LITERAL =
+            Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+    /**
+     * Literal IPv6 address (IPv4 suffix and zone index included).
+     */
+    private static final Pattern IPV6_LITERAL =
+            Pattern.compile("[0-9a-fA-F:.]*:[0-9a-fA-F:.]*(%\\w+)?");
+
+    /**
+     * Number of bits in an IPv4 address.
+     */
+    private static final int IPV4_BITS = 32;
+
+    /**
+     * Compiled matchers of configuration properties.
+     */
+    private static final ConcurrentMap<Key, CidrMatcher> CONFIG_MATCHERS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * A node in the binary prefix trie.
+     */
+    private static final class Node {
+
+        /** Child nodes for bit value 0 and 1. */
+        private Node[] children;
+
+        /** {@code true} when a range ends at this node. */
+        private boolean terminal;
+    }
+
+    /**
+     * The CIDR set this matcher is compiled from.
+     */
+    private final String cidrSet;
+
+    /**
+     * Trie root of the IPv4 ranges.
+     */
+    private final Node rootIPv4 = new Node();
+
+    /**
+     * Trie root of the IPv6 ranges.
+     */
+    private final Node rootIPv6 = new Node();
+
+    /**
+     * @param cidrSet
+     *            The CIDR set.
+     */
+    private CidrMatcher(final String cidrSet) {
+        this.cidrSet = cidrSet;
+    }
+
+    /**
+     * Compiles a CIDR set.
+     *
+     * @param cidrSet
+     *            The CIDR set.
+     * @return The matcher.
+     */
+    public static CidrMatcher compile(final String cidrSet) {
+
+        final CidrMatcher matcher =
+                new CidrMatcher(StringUtils.defaultString(cidrSet));
+
+        for (final String cidr : StringUtils.split(matcher.cidrSet,
+                CIDR_SET_SEPARATORS)) {
+            if (!matcher.addRange(cidr)) {
+                LOGGER.warn("Invalid CIDR [{}] ignored.", cidr);
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * Gets the matcher of a CIDR set configuration property. The matcher is
+     * compiled again only when the configuration value has changed since the
+     * previous call.
+     *
+     * @param key
+     *            The configuration key.
+     * @return The matcher.
+     */
+    public static CidrMatcher forConfig(final Key key) {
+
+        final String cidrSet = StringUtils
+                .defaultString(ConfigManager.instance().getConfigValue(key));
+
+        final CidrMatcher cached = CONFIG_MATCHERS.get(key);
+
+        if (cached != null && cached.cidrSet.equals(cidrSet)) {
+            return cached;
+        }
+
+        final CidrMatcher matcher = compile(cidrSet);
+        CONFIG_MATCHERS.put(key, matcher);
+        return matcher;
+    }
+
+    /**
+     * @return The CIDR set this matcher is compiled from.
+     */
+    public String getCidrSet() {
+        return cidrSet;
+    }
+
+    /**
+     * @return {@code true} when the CIDR set is blank.
+     */
+    public boolean isBlank() {
+        return StringUtils.isBlank(this.cidrSet);
+    }
+
+    /**
+     * Adds a range to the trie.
+     *
+     * @param cidr
+     *            The CIDR range, or a plain IP address.
+     * @return {@code false} when invalid.
+     */
+    private boolean addRange(final String cidr) {
+
+        final int iSlash = cidr.indexOf('/');
+
+        final byte[] network;
+        if (iSlash < 0) {
+            network = toAddressBytes(cidr);
+        } else {
+            network = toAddressBytes(cidr.substring(0, iSlash));
+        }
+
+        if (network == null) {
+            return false;
+        }
+
+        final int prefixLength;
+
+        if (iSlash < 0) {
+            prefixLength = network.length * 8;
+        } else {
+            try {
+                prefixLength = Integer.parseInt(cidr.substring(iSlash + 1));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (prefixLength < 0 || prefixLength > network.length * 8) {
+                return false;
+            }
+        }
+
+        Node node;
+        if (network.length * 8 == IPV4_BITS) {
+            node = this.rootIPv4;
+        } else {
+            node = this.rootIPv6;
+        }
+
+        for (int i = 0; i < prefixLength; i++) {
+
+            if (node.terminal) {
+                // Range is part of a wider range.
+                return true;
+            }
+            if (node.children == null) {
+                node.children = new Node[2];
+            }
+
+            final int bit = (network[i / 8] >> (7 - i % 8)) & 1;
+
+            if (node.children[bit] == null) {
+                node.children[bit] = new Node();
+            }
+            node = node.children[bit];
+        }
+
+        // Narrower ranges are part of this range.
+        node.terminal = true;
+        node.children = null;
+
+        return true;
+    }
+
+    /**
+     * Converts a literal IP address to bytes, without DNS lookup.
+     *
+     * @param ipAddr
+     *            The literal IP address.
+     * @return {@code null} when not a literal IP address.
+     */
+    private static byte[] toAddressBytes(final String ipAddr) {
+
+        if (ipAddr == null) {
+            return null;
+        }
+
+        if (IPV4_LITERAL.matcher(ipAddr).matches()) {
+            // Parse here: InetAddress does a DNS lookup on invalid octets.
+            final long addr = parseIPv4(ipAddr);
+            if (addr < 0) {
+                return null;
+            }
+            return new byte[] { (byte) (addr >> 24), (byte) (addr >> 16),
+                    (byte) (addr >> 8), (byte) addr };
+        }
+
+        if (!IPV6_LITERAL.matcher(ipAddr).matches()) {
+            return null;
+        }
+        try {
+            return InetAddress.getByName(ipAddr).getAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a literal dotted-decimal IPv4 address, without allocating
+     * objects.
+     *
+     * @param ipAddr
+     *            The IP address.
+     * @return The unsigned 32-bit address, or {@code -1} when not a literal
+     *         IPv4 address.
+     */
+    private static long parseIPv4(final String ipAddr) {
+
+        long addr = 0;
+        int octet = -1;
+        int dots = 0;
+
+        for (int i = 0; i < ipAddr.length(); i++) {
+
+            final char ch = ipAddr.charAt(i);
+
+            if (ch >= '0' && ch <= '9') {
+                if (octet < 0) {
+                    octet = 0;
+                }
+                octet = octet * 10 + (ch - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else if (ch == '.' && octet >= 0 && dots < 3) {
+                addr = (addr << 8) | octet;
+                octet = -1;
+                dots++;
+            } else {
+                return -1;
+            }
+        }
+
+        if (octet < 0 || dots != 3) {
+            return -1;
+        }
+        return (addr << 8) | octet;
+    }
+
+    /**
+     * Checks if an IP address is in one of the ranges.
+     *
+     * @param ipAddr
+     *            The literal IP address.
+     * @return {@code true} when IP address is in range.
+     */
+    public boolean matches(final String ipAddr) {
+
+        if (ipAddr == null) {
+            return false;
+        }
+
+        final long addrIPv4 = parseIPv4(ipAddr);
+
+        if (addrIPv4 >= 0) {
+            return matchesIPv4(addrIPv4);
+        }
+
+        final byte[] addr = toAddressBytes(ipAddr);
+
+        if (addr == null) {
+            return false;
+        }
+
+        if (addr.length * 8 == IPV4_BITS) {
+            // IPv4-mapped IPv6 address.
+            long addrMapped = 0;
+            for (final byte b : addr) {
+                addrMapped = (addrMapped << 8) | (b & 0xFF);
+            }
+            return matchesIPv4(addrMapped);
+        }
+
+        Node node = this.rootIPv6;
+
+        for (int i = 0; i < addr.length * 8; i++) {
+            if (node.terminal) {
+                return true;
+            }
+            if (node.children == null) {
+                return false;
+            }
+            node = node.children[(addr[i / 8] >> (7 - i % 8)) & 1];
+            if (node == null) {
+                return false;
+            }
+        }
+        return node.terminal;
+    }
+
+    /**
+     * @param addr
+     *            The unsigned 32-bit IPv4 address.
+     * @return {@code true} when IPv4 address is in range.
+     */
+    private boolean matchesIPv4(final long addr) {
+
+        Node node = this.rootIPv4;
+
+        for (int i = IPV4_BITS - 1; i >= 0; i--) {
+            if (node.terminal) {
+                return true;
+            }
+            if (node.children == null) {
+                return false;
+            }
+            node = node.children[(int) ((addr >> i) & 1)];
+            if (node == null) {
+                return false;
+            }
+        }
+        return node.terminal;
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.helpers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.savapage.core.doc.store.DocStoreBranchEnum;
+import org.savapage.core.doc.store.DocStoreTypeEnum;
+import org.savapage.core.jpa.DocLog;
+import org.savapage.core.services.DocStoreService;
+import org.savapage.core.services.ServiceContext;
+
+/**
+ * Bounded in-memory index of the presence of {@link DocLog} documents in the
+ * document store, so listings and REST lookups do not probe the file system
+ * for each document, store type and branch.
+ * <p>
+ * An entry holds one presence bit per (store type, branch) in an
+ * {@code int}. A bit is set from the outcome of
+ * {@link DocStoreService#isDocPresent(DocStoreTypeEnum, DocStoreBranchEnum, DocLog)}
+ * on first lookup. Documents are stored and purged by the core services
+ * (store cleaning included), which do not notify this index. Therefore each
+ * bit has its own probe time: a known presence expires after
+ * {@link #PRESENT_TTL_MSEC}, and a known absence (a document can be stored
+ * just after its log is created) after {@link #ABSENT_TTL_MSEC}. Documents
+ * deleted from the store by this server must be {@link #invalidate(Long)}-ed.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class DocStorePresenceIndex {
+
+    /**
+     * Max number of indexed documents.
+     */
+    private static final int MAX_ENTRIES = 100000;
+
+    /**
+     * Time-to-live of a known presence.
+     */
+    private static final long PRESENT_TTL_MSEC = 5 * 60 * 1000L;
+
+    /**
+     * Time-to-live of a known absence.
+     */
+    private static final long ABSENT_TTL_MSEC = 60 * 1000L;
+
+    /** */
+    private static final int BRANCH_COUNT = DocStoreBranchEnum.values().length;
+
+    /** */
+    private static final int BIT_COUNT =
+            DocStoreTypeEnum.values().length * BRANCH_COUNT;
+
+    /** */
+    private static final DocStoreService DOCSTORE_SERVICE =
+            ServiceContext.getServiceFactory().getDocStoreService();
+
+    /**
+     * Presence bits of a document.
+     */
+    private static final class Entry {
+
+        /** Bits of the (store, branch) pairs that are known. */
+        private int known;
+
+        /** Bits of the (store, branch) pairs that are present. */
+        private int present;
+
+        /** Time of last probe, by bit index. */
+        private final long[] probed = new long[BIT_COUNT];
+    }
+
+    /** Entries by DocLog primary key. */
+    private final LinkedHashMap<Long, Entry> entries;
+
+    /** */
+    private static class SingletonHolder {
+        /** */
+        public static final DocStorePresenceIndex INSTANCE =
+                new DocStorePresenceIndex();
+    }
+
+    /**
+     *
+     */
+    private DocStorePresenceIndex() {
+        this.entries = new LinkedHashMap<Long, Entry>(1024, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean
+                    removeEldestEntry(final Map.Entry<Long, Entry> eldest) {
+                return this.size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * @return The singleton instance.
+     */
+    public static DocStorePresenceIndex instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * @param store
+     *            The store type.
+     * @param branch
+     *            The store branch.
+     * @return The bit index of the (store, branch) pair.
+     */
+    private static int getBitIndex(final DocStoreTypeEnum store,
+            final DocStoreBranchEnum branch) {
+        return store.ordinal() * BRANCH_COUNT + branch.ordinal();
+    }
+
+    /**
+     * Checks if a document is present in the store. The file system is only
+     * probed when presence is not (or no longer) known.
+     *
+     * @param store
+     *            The store type.
+     * @param branch
+     *            The store branch.
+     * @param docLog
+     *            The document.
+     * @return {@code true} when present.
+     */
+    public boolean isDocPresent(final DocStoreTypeEnum store,
+            final DocStoreBranchEnum branch, final DocLog docLog) {
+
+        final int index = getBitIndex(store, branch);
+        final int bit = 1 << index;
+        final Long key = docLog.getId();
+
+        synchronized (this.entries) {
+            final Entry entry = this.entries.get(key);
+            if (entry != null) {
+                expire(entry, index, System.currentTimeMillis());
+                if ((entry.known & bit) != 0) {
+                    return (entry.present & bit) != 0;
+                }
+            }
+        }
+
+        final boolean present =
+                DOCSTORE_SERVICE.isDocPresent(store, branch, docLog);
+
+        synchronized (this.entries) {
+
+            final long now = System.currentTimeMillis();
+
+            Entry entry = this.entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                this.entries.put(key, entry);
+            }
+
+            entry.known |= bit;
+            if (present) {
+                entry.present |= bit;
+            } else {
+                entry.present &= ~bit;
+            }
+            entry.probed[index] = now;
+        }
+        return present;
+    }
+
+    /**
+     * Forgets the expired knowledge of a bit of an entry.
+     *
+     * @param entry
+     *            The entry.
+     * @param index
+     *            The bit index.
+     * @param now
+     *            Current time.
+     */
+    private static void expire(final Entry entry, final int index,
+            final long now) {
+
+        final int bit = 1 << index;
+
+        if ((entry.known & bit) == 0) {
+            return;
+        }
+
+        final long ttl;
+        if ((entry.present & bit) == 0) {
+            ttl = ABSENT_TTL_MSEC;
+        } else {
+            ttl = PRESENT_TTL_MSEC;
+        }
+
+        if (now - entry.probed[index] >= ttl) {
+            entry.known &= ~bit;
+            entry.present &= ~bit;
+        }
+    }
+
+    /**
+     * Forgets the presence of a document, for instance after it is deleted
+     * from the store.
+     *
+     * @param docLogId
+     *            Primary key of the {@link DocLog}.
+     */
+    public void invalidate(final Long docLogId) {
+        synchronized (this.entries) {
+            this.entries.remove(docLogId);
+        }
+    }
+}
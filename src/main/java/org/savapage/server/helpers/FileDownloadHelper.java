@@ -0,0 +1,464 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jetty.server.HttpOutput;
+
+/**
+ * Sends files to HTTP clients.
+ * <p>
+ * On a Jetty response ({@link HttpOutput}), the file content is not copied
+ * through the Java heap. A complete file, or a range up to the end of the
+ * file, is sent with
+ * {@link HttpOutput#sendContent(java.nio.channels.ReadableByteChannel)},
+ * which reads into Jetty's direct buffers. Other ranges are sent with
+ * {@link HttpOutput#sendContent(java.nio.ByteBuffer)} from a memory-mapped
+ * slice of the file.
+ * </p>
+ * <p>
+ * Any other output stream, like the one of a JAX-RS streaming response,
+ * gets a plain buffered copy: {@link FileChannel#transferTo(long, long,
+ * java.nio.channels.WritableByteChannel)} to a stream channel reads the
+ * file through a temporary buffer.
+ * </p>
+ * <p>
+ * Conditional GET ({@code If-None-Match}, {@code If-Modified-Since}) and
+ * single {@code Range} requests (with {@code If-Range}) are supported, and
+ * the {@code Content-Length} is a {@code long}, so files over 2GB are
+ * served correctly.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class FileDownloadHelper {
+
+    /** */
+    public static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+
+    /** */
+    public static final String HEADER_CONTENT_DISPOSITION =
+            "Content-Disposition";
+
+    /** */
+    public static final String HEADER_CONTENT_RANGE = "Content-Range";
+
+    /** */
+    public static final String HEADER_ETAG = "ETag";
+
+    /** */
+    public static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    /** */
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    /** */
+    private static final String HEADER_IF_MODIFIED_SINCE =
+            "If-Modified-Since";
+
+    /** */
+    private static final String HEADER_IF_RANGE = "If-Range";
+
+    /** */
+    private static final String HEADER_RANGE = "Range";
+
+    /** */
+    public static final String ACCEPT_RANGES_BYTES = "bytes";
+
+    /** */
+    private static final long MSEC_PER_SECOND = 1000L;
+
+    /**
+     * A single byte range: {@code bytes=first-[last]} or
+     * {@code bytes=-suffix}.
+     */
+    private static final Pattern RANGE_PATTERN =
+            Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+    /**
+     * A satisfiable, or unsatisfiable, byte range of a file.
+     */
+    public static final class ByteRange {
+
+        /** First byte position. */
+        private final long first;
+
+        /** Last byte position (inclusive). */
+        private final long last;
+
+        /** Length of the complete file. */
+        private final long total;
+
+        /**
+         * @param first
+         *            First byte position.
+         * @param last
+         *            Last byte position (inclusive). If less than first, the
+         *            range is unsatisfiable.
+         * @param total
+         *            Length of the complete file.
+         */
+        private ByteRange(final long first, final long last,
+                final long total) {
+            this.first = first;
+            this.last = last;
+            this.total = total;
+        }
+
+        /**
+         * @return {@code false} when the range must be answered with
+         *         {@link HttpServletResponse#SC_REQUESTED_RANGE_NOT_SATISFIABLE}.
+         */
+        public boolean isSatisfiable() {
+            return this.last >= this.first;
+        }
+
+        /**
+         * @return First byte position.
+         */
+        public long getFirst() {
+            return first;
+        }
+
+        /**
+         * @return Number of bytes in the range.
+         */
+        public long getLength() {
+            return this.last - this.first + 1;
+        }
+
+        /**
+         * @return The value of the {@code Content-Range} header.
+         */
+        public String getContentRange() {
+            if (this.isSatisfiable()) {
+                return String.format("bytes %d-%d/%d", this.first, this.last,
+                        this.total);
+            }
+            return String.format("bytes */%d", this.total);
+        }
+    }
+
+    /**
+     * Utility class.
+     */
+    private FileDownloadHelper() {
+    }
+
+    /**
+     * Creates a strong ETag of a file from its length and last modification
+     * time.
+     *
+     * @param file
+     *            The file.
+     * @return The (quoted) ETag.
+     */
+    public static String createETag(final File file) {
+        return String.format("\"%x-%x\"", file.length(), file.lastModified());
+    }
+
+    /**
+     * Checks the conditional GET headers of a request.
+     *
+     * @param req
+     *            The request.
+     * @param etag
+     *            The (quoted) ETag of the file.
+     * @param lastModified
+     *            Last modification time (msec) of the file.
+     * @return {@code true} when the client's copy is up-to-date, and
+     *         {@link HttpServletResponse#SC_NOT_MODIFIED} can be answered.
+     */
+    public static boolean isNotModified(final HttpServletRequest req,
+            final String etag, final long lastModified) {
+
+        final String ifNoneMatch = req.getHeader(HEADER_IF_NONE_MATCH);
+
+        if (ifNoneMatch != null) {
+            for (final String tag : StringUtils.split(ifNoneMatch, ',')) {
+                final String tagTrimmed = tag.trim();
+                if (tagTrimmed.equals("*") || tagTrimmed.equals(etag)
+                        || tagTrimmed.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            // If-Modified-Since is ignored when If-None-Match is present.
+            return false;
+        }
+
+        final long ifModifiedSince =
+                getDateHeader(req, HEADER_IF_MODIFIED_SINCE);
+
+        return ifModifiedSince >= 0 && lastModified
+                / MSEC_PER_SECOND <= ifModifiedSince / MSEC_PER_SECOND;
+    }
+
+    /**
+     * Gets the byte range of the {@code Range} header of a request. Multiple
+     * ranges, invalid ranges and ranges with a stale {@code If-Range} are
+     * ignored: the complete file is sent.
+     *
+     * @param req
+     *            The request.
+     * @param etag
+     *            The (quoted) ETag of the file.
+     * @param lastModified
+     *            Last modification time (msec) of the file.
+     * @param length
+     *            Length of the file.
+     * @return The byte range, or {@code null} when the complete file must be
+     *         sent.
+     */
+    public static ByteRange getByteRange(final HttpServletRequest req,
+            final String etag, final long lastModified, final long length) {
+
+        final String range = req.getHeader(HEADER_RANGE);
+
+        if (range == null) {
+            return null;
+        }
+
+        final String ifRange = req.getHeader(HEADER_IF_RANGE);
+
+        if (ifRange != null) {
+            final String ifRangeTrimmed = ifRange.trim();
+            if (ifRangeTrimmed.startsWith("\"")) {
+                if (!ifRangeTrimmed.equals(etag)) {
+                    return null;
+                }
+            } else {
+                final long ifRangeDate = getDateHeader(req, HEADER_IF_RANGE);
+                if (ifRangeDate < 0 || lastModified
+                        / MSEC_PER_SECOND > ifRangeDate / MSEC_PER_SECOND) {
+                    return null;
+                }
+            }
+        }
+
+        final Matcher matcher = RANGE_PATTERN.matcher(range.trim());
+
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        final String firstPos = matcher.group(1);
+        final String lastPos = matcher.group(2);
+
+        try {
+            if (firstPos.isEmpty()) {
+
+                if (lastPos.isEmpty()) {
+                    return null;
+                }
+
+                final long suffix = Long.parseLong(lastPos);
+
+                if (suffix == 0) {
+                    return new ByteRange(0, -1, length);
+                }
+                return new ByteRange(Math.max(0, length - suffix), length - 1,
+                        length);
+            }
+
+            final long first = Long.parseLong(firstPos);
+
+            if (first >= length) {
+                return new ByteRange(0, -1, length);
+            }
+
+            long last = length - 1;
+
+            if (!lastPos.isEmpty()) {
+                last = Math.min(last, Long.parseLong(lastPos));
+                if (last < first) {
+                    return null;
+                }
+            }
+            return new ByteRange(first, last, length);
+
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sends a file as response to a GET or HEAD request.
+     *
+     * @param req
+     *            The request.
+     * @param resp
+     *            The response.
+     * @param file
+     *            The file.
+     * @param contentType
+     *            The content type.
+     * @param attachmentName
+     *            The attachment file name, or {@code null} when the file is
+     *            not sent as attachment.
+     * @throws IOException
+     *             When IO error.
+     */
+    public static void sendFile(final HttpServletRequest req,
+            final HttpServletResponse resp, final File file,
+            final String contentType, final String attachmentName)
+            throws IOException {
+
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        final String etag = createETag(file);
+
+        resp.setHeader(HEADER_ETAG, etag);
+        resp.setDateHeader(HEADER_LAST_MODIFIED, lastModified);
+        resp.setHeader(HEADER_ACCEPT_RANGES, ACCEPT_RANGES_BYTES);
+
+        if (isNotModified(req, etag, lastModified)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        final ByteRange range = getByteRange(req, etag, lastModified, length);
+
+        if (range != null && !range.isSatisfiable()) {
+            resp.setHeader(HEADER_CONTENT_RANGE, range.getContentRange());
+            resp.setStatus(
+                    HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        if (attachmentName != null) {
+            resp.setHeader(HEADER_CONTENT_DISPOSITION, String
+                    .format("attachment; filename=\"%s\"", attachmentName));
+        }
+
+        resp.setContentType(contentType);
+
+        final long position;
+        final long count;
+
+        if (range == null) {
+            position = 0;
+            count = length;
+            resp.setStatus(HttpServletResponse.SC_OK);
+        } else {
+            position = range.getFirst();
+            count = range.getLength();
+            resp.setHeader(HEADER_CONTENT_RANGE, range.getContentRange());
+            resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        }
+
+        resp.setContentLengthLong(count);
+
+        if (!"HEAD".equals(req.getMethod())) {
+            transfer(file, position, count, resp.getOutputStream());
+        }
+    }
+
+    /**
+     * Transfers (part of) a file to an output stream. See the class
+     * description for how the content is sent.
+     *
+     * @param file
+     *            The file.
+     * @param position
+     *            Position of the first byte.
+     * @param count
+     *            Number of bytes.
+     * @param ostr
+     *            The output stream, which is left open.
+     * @throws IOException
+     *             When IO error.
+     */
+    public static void transfer(final File file, final long position,
+            final long count, final OutputStream ostr) throws IOException {
+
+        try (FileChannel channel =
+                FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+            if (ostr instanceof HttpOutput) {
+
+                final HttpOutput output = (HttpOutput) ostr;
+
+                if (position + count == channel.size()) {
+                    channel.position(position);
+                    output.sendContent(channel);
+                    return;
+                }
+                // A mapped buffer holds at most 2GB.
+                if (count <= Integer.MAX_VALUE) {
+                    output.sendContent(channel
+                            .map(FileChannel.MapMode.READ_ONLY, position,
+                                    count));
+                    return;
+                }
+            }
+
+            final WritableByteChannel target = Channels.newChannel(ostr);
+
+            long pos = position;
+            long remaining = count;
+
+            while (remaining > 0) {
+                final long nBytes = channel.transferTo(pos, remaining, target);
+                if (nBytes <= 0) {
+                    // File was truncated.
+                    break;
+                }
+                pos += nBytes;
+                remaining -= nBytes;
+            }
+            ostr.flush();
+        }
+    }
+
+    /**
+     * @param req
+     *            The request.
+     * @param name
+     *            The header name.
+     * @return The date (msec), or -1 when not present or invalid.
+     */
+    private static long getDateHeader(final HttpServletRequest req,
+            final String name) {
+        try {
+            return req.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
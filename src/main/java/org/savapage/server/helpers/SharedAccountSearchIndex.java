@@ -0,0 +1,120 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.helpers;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.savapage.core.jpa.Account.AccountTypeEnum;
+
+/**
+ * In-process {@link TrigramIndex} of name and parent name of all active
+ * shared accounts, used by shared account quick searches to narrow the
+ * accounts the database filters on text and group membership.
+ * <p>
+ * The index is reloaded periodically. It is invalidated when a shared
+ * account is edited in the Web App.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class SharedAccountSearchIndex extends AbstractSearchIndex {
+
+    /** */
+    private static class SingletonHolder {
+        /** */
+        public static final SharedAccountSearchIndex INSTANCE =
+                new SharedAccountSearchIndex();
+    }
+
+    /**
+     *
+     */
+    private SharedAccountSearchIndex() {
+    }
+
+    /**
+     * @return The singleton instance.
+     */
+    public static SharedAccountSearchIndex instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    @Override
+    protected String getEntityName() {
+        return "shared account";
+    }
+
+    @Override
+    protected TypedQuery<Object[]> createLoadQuery(final EntityManager em) {
+
+        final TypedQuery<Object[]> query = em.createQuery(
+                "SELECT A.id, A.name, P.name FROM Account A"
+                        + " LEFT JOIN A.parent P"
+                        + " WHERE A.deleted = false"
+                        + " AND A.accountType = :accountType",
+                Object[].class);
+
+        query.setParameter("accountType", AccountTypeEnum.SHARED.toString());
+        return query;
+    }
+
+    @Override
+    protected TypedQuery<Object[]> createCatchUpQuery(final EntityManager em,
+            final Long maxKey) {
+
+        final TypedQuery<Object[]> query = em.createQuery(
+                "SELECT A.id, A.name, P.name FROM Account A"
+                        + " LEFT JOIN A.parent P"
+                        + " WHERE A.deleted = false"
+                        + " AND A.accountType = :accountType"
+                        + " AND A.id > :maxId ORDER BY A.id",
+                Object[].class);
+
+        query.setParameter("accountType", AccountTypeEnum.SHARED.toString());
+        query.setParameter("maxId", maxKey);
+        return query;
+    }
+
+    /**
+     * Searches candidate shared accounts with name or parent name containing
+     * a text.
+     *
+     * @param em
+     *            The {@link EntityManager} of the request, used to add
+     *            accounts created since the last (re)load.
+     * @param text
+     *            The search text.
+     * @return Primary keys of the candidate accounts, or {@code null} when
+     *         the index cannot be used.
+     */
+    public List<Long> search(final EntityManager em, final String text) {
+        return this.search(em, text, new int[0]);
+    }
+
+}
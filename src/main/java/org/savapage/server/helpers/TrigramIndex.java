@@ -0,0 +1,418 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory trigram index for "contains" text search, like the quick search
+ * of users or printers.
+ * <p>
+ * Each key is indexed with one or more texts (like name and e-mail). Texts
+ * are lower-cased, and every three-character substring (trigram) holds the
+ * list of keys whose texts contain it. A search for text of three or more
+ * characters only verifies the keys of the rarest trigram of the search
+ * text, instead of scanning all texts. Shorter search text is matched by
+ * scanning the pre-lowercased texts.
+ * </p>
+ * <p>
+ * Searches do not lock. Posting lists are copy-on-write arrays, so they are
+ * never changed while being read. Updates are serialized, and
+ * {@link #load(Map)} builds a complete new index before it replaces the
+ * current one.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ * @param <K>
+ *            The key type.
+ */
+public final class TrigramIndex<K> {
+
+    /**
+     * Number of characters in a gram.
+     */
+    public static final int GRAM_LENGTH = 3;
+
+    /** */
+    private static final Object[] EMPTY_POSTING = new Object[0];
+
+    /**
+     * The indexed texts and posting lists.
+     *
+     * @param <K>
+     *            The key type.
+     */
+    private static final class State<K> {
+
+        /**
+         * Lower-cased texts by key.
+         */
+        private final ConcurrentMap<K, String[]> texts;
+
+        /**
+         * Keys (posting list) by trigram.
+         */
+        private final ConcurrentMap<String, Object[]> postings;
+
+        /**
+         * @param texts
+         *            Lower-cased texts by key.
+         * @param postings
+         *            Keys (posting list) by trigram.
+         */
+        State(final ConcurrentMap<K, String[]> texts,
+                final ConcurrentMap<String, Object[]> postings) {
+            this.texts = texts;
+            this.postings = postings;
+        }
+    }
+
+    /** */
+    private volatile State<K> state =
+            new State<>(new ConcurrentHashMap<K, String[]>(),
+                    new ConcurrentHashMap<String, Object[]>());
+
+    /**
+     * Normalizes text for indexing and searching.
+     *
+     * @param text
+     *            The text (can be {@code null}).
+     * @return The lower-cased text, or an empty string when {@code null}.
+     */
+    public static String normalize(final String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.toLowerCase();
+    }
+
+    /**
+     * @param texts
+     *            The texts.
+     * @return The lower-cased texts.
+     */
+    private static String[] normalize(final String[] texts) {
+        final String[] normalized = new String[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            normalized[i] = normalize(texts[i]);
+        }
+        return normalized;
+    }
+
+    /**
+     * @param texts
+     *            Lower-cased texts.
+     * @return The unique trigrams of the texts.
+     */
+    private static Set<String> getGrams(final String[] texts) {
+        final Set<String> grams = new HashSet<>();
+        for (final String text : texts) {
+            for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+                grams.add(text.substring(i, i + GRAM_LENGTH));
+            }
+        }
+        return grams;
+    }
+
+    /**
+     * @param texts
+     *            Lower-cased texts.
+     * @param filter
+     *            Lower-cased search text.
+     * @param fields
+     *            Indexes of the texts to search. When empty, all texts are
+     *            searched.
+     * @return {@code true} when one of the texts contains the search text.
+     */
+    private static boolean contains(final String[] texts, final String filter,
+            final int[] fields) {
+        if (fields.length == 0) {
+            for (final String text : texts) {
+                if (text.contains(filter)) {
+                    return true;
+                }
+            }
+        } else {
+            for (final int i : fields) {
+                if (i < texts.length && texts[i].contains(filter)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the complete index.
+     *
+     * @param entries
+     *            The texts by key.
+     */
+    public synchronized void load(final Map<K, String[]> entries) {
+
+        final ConcurrentMap<K, String[]> texts =
+                new ConcurrentHashMap<>(entries.size());
+        final Map<String, List<Object>> lists = new HashMap<>();
+
+        for (final Map.Entry<K, String[]> entry : entries.entrySet()) {
+
+            final String[] normalized = normalize(entry.getValue());
+            texts.put(entry.getKey(), normalized);
+
+            for (final String gram : getGrams(normalized)) {
+                List<Object> list = lists.get(gram);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    lists.put(gram, list);
+                }
+                list.add(entry.getKey());
+            }
+        }
+
+        final ConcurrentMap<String, Object[]> postings =
+                new ConcurrentHashMap<>(lists.size());
+
+        for (final Map.Entry<String, List<Object>> entry : lists.entrySet()) {
+            postings.put(entry.getKey(), entry.getValue().toArray());
+        }
+
+        this.state = new State<>(texts, postings);
+    }
+
+    /**
+     * Adds or replaces the texts of a key.
+     *
+     * @param key
+     *            The key.
+     * @param texts
+     *            The texts (elements can be {@code null}).
+     */
+    public synchronized void put(final K key, final String... texts) {
+
+        final State<K> current = this.state;
+        final String[] normalized = normalize(texts);
+        final String[] old = current.texts.put(key, normalized);
+
+        final Set<String> gramsNew = getGrams(normalized);
+
+        if (old != null) {
+            final Set<String> gramsOld = getGrams(old);
+            for (final String gram : gramsOld) {
+                if (!gramsNew.contains(gram)) {
+                    removePosting(current, gram, key);
+                }
+            }
+            gramsNew.removeAll(gramsOld);
+        }
+
+        for (final String gram : gramsNew) {
+            final Object[] posting = current.postings.get(gram);
+            if (posting == null) {
+                current.postings.put(gram, new Object[] { key });
+            } else {
+                final Object[] postingNew =
+                        Arrays.copyOf(posting, posting.length + 1);
+                postingNew[posting.length] = key;
+                current.postings.put(gram, postingNew);
+            }
+        }
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @param key
+     *            The key.
+     */
+    public synchronized void remove(final K key) {
+
+        final State<K> current = this.state;
+        final String[] old = current.texts.remove(key);
+
+        if (old != null) {
+            for (final String gram : getGrams(old)) {
+                removePosting(current, gram, key);
+            }
+        }
+    }
+
+    /**
+     * Removes a key from the posting list of a trigram.
+     *
+     * @param current
+     *            The index state.
+     * @param gram
+     *            The trigram.
+     * @param key
+     *            The key.
+     */
+    private static void removePosting(final State<?> current,
+            final String gram, final Object key) {
+
+        final Object[] posting = current.postings.get(gram);
+
+        if (posting == null) {
+            return;
+        }
+
+        final List<Object> list = new ArrayList<>(posting.length);
+        for (final Object obj : posting) {
+            if (!obj.equals(key)) {
+                list.add(obj);
+            }
+        }
+
+        if (list.isEmpty()) {
+            current.postings.remove(gram);
+        } else {
+            current.postings.put(gram, list.toArray());
+        }
+    }
+
+    /**
+     * @return Number of indexed keys.
+     */
+    public int size() {
+        return this.state.texts.size();
+    }
+
+    /**
+     * @param key
+     *            The key.
+     * @return {@code true} when key is indexed.
+     */
+    public boolean containsKey(final K key) {
+        return this.state.texts.containsKey(key);
+    }
+
+    /**
+     * @param key
+     *            The key.
+     * @return A copy of the lower-cased texts of the key, or {@code null}
+     *         when key is not indexed.
+     */
+    public String[] getTexts(final K key) {
+        final String[] texts = this.state.texts.get(key);
+        if (texts == null) {
+            return null;
+        }
+        return texts.clone();
+    }
+
+    /**
+     * Searches the keys with a text that contains the search text.
+     *
+     * @param text
+     *            The search text. When empty, all keys are returned.
+     * @return The keys, in no particular order.
+     */
+    public List<K> search(final String text) {
+        return this.search(text, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Searches the keys with a text that contains the search text, and stops
+     * when the max number of keys is found.
+     *
+     * @param text
+     *            The search text. When empty, all keys are returned.
+     * @param maxKeys
+     *            The max number of keys to return.
+     * @param fields
+     *            Indexes of the texts to search. When none, all texts are
+     *            searched.
+     * @return The keys, in no particular order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<K> search(final String text, final int maxKeys,
+            final int... fields) {
+
+        final State<K> current = this.state;
+        final String filter = normalize(text);
+        final List<K> keys = new ArrayList<>();
+
+        if (filter.length() < GRAM_LENGTH) {
+
+            for (final Map.Entry<K, String[]> entry : current.texts
+                    .entrySet()) {
+
+                if (keys.size() == maxKeys) {
+                    break;
+                }
+                if (filter.isEmpty()
+                        || contains(entry.getValue(), filter, fields)) {
+                    keys.add(entry.getKey());
+                }
+            }
+            return keys;
+        }
+
+        // The rarest trigram of the search text.
+        Object[] candidates = null;
+
+        for (int i = 0; i + GRAM_LENGTH <= filter.length(); i++) {
+
+            final Object[] posting =
+                    current.postings.get(filter.substring(i, i + GRAM_LENGTH));
+
+            if (posting == null) {
+                candidates = EMPTY_POSTING;
+                break;
+            }
+            if (candidates == null || posting.length < candidates.length) {
+                candidates = posting;
+            }
+        }
+
+        // A trigram posting matches all texts of a key.
+        final boolean verify =
+                filter.length() > GRAM_LENGTH || fields.length > 0;
+
+        for (final Object key : candidates) {
+
+            if (keys.size() == maxKeys) {
+                break;
+            }
+            if (verify) {
+                final String[] texts = current.texts.get(key);
+                if (texts == null || !contains(texts, filter, fields)) {
+                    continue;
+                }
+            }
+            keys.add((K) key);
+        }
+        return keys;
+    }
+
+}
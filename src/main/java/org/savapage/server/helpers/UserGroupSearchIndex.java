@@ -0,0 +1,129 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.helpers;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.savapage.core.jpa.UserGroup;
+
+/**
+ * In-process {@link TrigramIndex} of group name and full name of all user
+ * groups, used by user group quick searches to narrow the groups the
+ * database filters on text, ACL role and preference.
+ * <p>
+ * The index is reloaded periodically. Groups edited or removed in the Web
+ * App are updated right away.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class UserGroupSearchIndex extends AbstractSearchIndex {
+
+    /** */
+    private static class SingletonHolder {
+        /** */
+        public static final UserGroupSearchIndex INSTANCE =
+                new UserGroupSearchIndex();
+    }
+
+    /**
+     *
+     */
+    private UserGroupSearchIndex() {
+    }
+
+    /**
+     * @return The singleton instance.
+     */
+    public static UserGroupSearchIndex instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    @Override
+    protected String getEntityName() {
+        return "user group";
+    }
+
+    @Override
+    protected TypedQuery<Object[]> createLoadQuery(final EntityManager em) {
+        return em.createQuery(
+                "SELECT G.id, G.groupName, G.fullName FROM UserGroup G",
+                Object[].class);
+    }
+
+    @Override
+    protected TypedQuery<Object[]> createCatchUpQuery(final EntityManager em,
+            final Long maxKey) {
+
+        final TypedQuery<Object[]> query = em.createQuery(
+                "SELECT G.id, G.groupName, G.fullName FROM UserGroup G"
+                        + " WHERE G.id > :maxId ORDER BY G.id",
+                Object[].class);
+
+        query.setParameter("maxId", maxKey);
+        return query;
+    }
+
+    /**
+     * Searches candidate groups with group name or full name containing a
+     * text.
+     *
+     * @param em
+     *            The {@link EntityManager} of the request, used to add groups
+     *            created since the last (re)load.
+     * @param text
+     *            The search text.
+     * @return Primary keys of the candidate groups, or {@code null} when the
+     *         index cannot be used.
+     */
+    public List<Long> search(final EntityManager em, final String text) {
+        return this.search(em, text, new int[0]);
+    }
+
+    /**
+     * Updates the index after a group was changed.
+     *
+     * @param group
+     *            The group.
+     */
+    public void onGroupChanged(final UserGroup group) {
+        this.put(group.getId(), group.getGroupName(), group.getFullName());
+    }
+
+    /**
+     * Removes a group from the index.
+     *
+     * @param groupDbKey
+     *            The primary key of the group.
+     */
+    public void onGroupDeleted(final Long groupDbKey) {
+        this.remove(groupDbKey);
+    }
+
+}
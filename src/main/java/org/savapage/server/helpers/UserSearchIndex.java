@@ -0,0 +1,151 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.helpers;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.apache.commons.lang3.BooleanUtils;
+import org.savapage.core.jpa.User;
+
+/**
+ * In-process {@link TrigramIndex} of user ID and full name of all active
+ * (non-deleted) users, used by user quick searches to find candidate users
+ * without a {@code LIKE '%text%'} scan of the user table.
+ * <p>
+ * The index is reloaded periodically, so changes by user synchronization
+ * are picked up. Users edited or deleted in the Web App are updated right
+ * away.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class UserSearchIndex extends AbstractSearchIndex {
+
+    /** */
+    private static final int TEXT_IDX_USERID = 0;
+
+    /** */
+    private static final int TEXT_IDX_FULLNAME = 1;
+
+    /** */
+    private static class SingletonHolder {
+        /** */
+        public static final UserSearchIndex INSTANCE = new UserSearchIndex();
+    }
+
+    /**
+     * Package-private for unit tests.
+     */
+    UserSearchIndex() {
+    }
+
+    /**
+     * @return The singleton instance.
+     */
+    public static UserSearchIndex instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    @Override
+    protected String getEntityName() {
+        return "user";
+    }
+
+    @Override
+    protected TypedQuery<Object[]> createLoadQuery(final EntityManager em) {
+        return em.createQuery("SELECT U.id, U.userId, U.fullName FROM User U"
+                + " WHERE U.deleted = false", Object[].class);
+    }
+
+    @Override
+    protected TypedQuery<Object[]> createCatchUpQuery(final EntityManager em,
+            final Long maxKey) {
+
+        final TypedQuery<Object[]> query = em.createQuery(
+                "SELECT U.id, U.userId, U.fullName FROM User U"
+                        + " WHERE U.deleted = false AND U.id > :maxId"
+                        + " ORDER BY U.id",
+                Object[].class);
+
+        query.setParameter("maxId", maxKey);
+        return query;
+    }
+
+    /**
+     * Searches candidate users with user ID (or full name) containing a text.
+     *
+     * @param em
+     *            The {@link EntityManager} of the request, used to add users
+     *            created since the last (re)load.
+     * @param text
+     *            The search text.
+     * @param withFullName
+     *            {@code true} when full name is searched as well.
+     * @return Primary keys of the (non-deleted) candidate users, or
+     *         {@code null} when the index cannot be used: index is disabled
+     *         or not loaded, search text is blank or too short, or too many
+     *         users match.
+     */
+    public List<Long> search(final EntityManager em, final String text,
+            final boolean withFullName) {
+        if (withFullName) {
+            return this.search(em, text, TEXT_IDX_USERID, TEXT_IDX_FULLNAME);
+        }
+        return this.search(em, text, TEXT_IDX_USERID);
+    }
+
+    /**
+     * Updates the index after a user was created, changed or (logically)
+     * deleted.
+     *
+     * @param user
+     *            The user (can be {@code null}).
+     */
+    public void onUserChanged(final User user) {
+        if (user == null) {
+            return;
+        }
+        if (BooleanUtils.isTrue(user.getDeleted())) {
+            this.remove(user.getId());
+        } else {
+            this.put(user.getId(), user.getUserId(), user.getFullName());
+        }
+    }
+
+    /**
+     * Removes a user from the index.
+     *
+     * @param userDbKey
+     *            The primary key of the user.
+     */
+    public void onUserDeleted(final Long userDbKey) {
+        this.remove(userDbKey);
+    }
+
+}
@@ -25,75 +25,108 @@
 package org.savapage.server.img;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.wicket.request.IRequestCycle;
-import org.apache.wicket.request.handler.resource.ResourceStreamRequestHandler;
-import org.apache.wicket.util.resource.FileResourceStream;
+import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.http.WebResponse;
+import org.savapage.core.SpException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Our own handler to service the request for a generated image file.
+ * Our own handler to service the request for a cached image file.
+ * <p>
+ * The image is delivered with a strong ETag, and must be revalidated by the
+ * browser: the same image URL can show another image when the inbox changes.
+ * A revalidation with a matching ETag is answered by
+ * {@link ImageNotModifiedHandler}.
+ * </p>
  *
  * @author Rijk Ravestein
  *
  */
-public final class ImageReqHandler extends ResourceStreamRequestHandler {
+public final class ImageReqHandler implements IRequestHandler {
 
     /** */
     private static final Logger LOGGER =
             LoggerFactory.getLogger(ImageReqHandler.class);
 
+    /**
+     * Cache-Control header value.
+     */
+    public static final String CACHE_CONTROL = "private, no-cache";
+
+    /** The pinned cached image. */
+    private final PageImageCache.Entry image;
+
+    /** {@code true} when {@link #image} is released. */
+    private final AtomicBoolean released = new AtomicBoolean();
+
     /** Image file. */
     private final File file;
 
+    /** Strong ETag (quoted). */
+    private final String etag;
+
     /**
      *
      * @param image
-     *            The image file.
+     *            The pinned cached image: it is released when this handler
+     *            is detached.
      */
-    public ImageReqHandler(final File image) {
+    public ImageReqHandler(final PageImageCache.Entry image) {
 
-        super(new FileResourceStream(image));
-
-        this.file = image;
+        this.image = image;
+        this.file = image.getFile();
+        this.etag = image.getEtag();
 
         if (LOGGER.isTraceEnabled()) {
-            LOGGER.trace("handle image file [{}]", image.getAbsolutePath());
+            LOGGER.trace("handle image file [{}]",
+                    this.file.getAbsolutePath());
         }
     }
 
     /**
-     * The actual release of the file.
+     * Sets the ETag and Cache-Control headers.
      *
-     * @param image
-     *            Image file.
+     * @param response
+     *            The response.
+     * @param etag
+     *            The ETag.
      */
-    protected void releaseFile(final File image) {
-        if (image.exists()) {
-            if (image.delete()) {
-                if (LOGGER.isTraceEnabled()) {
-                    LOGGER.trace("Deleted image file [{}]",
-                            image.getAbsolutePath());
-                }
-            } else {
-                LOGGER.warn("Delete of image file [{}] FAILED.",
-                        image.getAbsolutePath());
-            }
-        } else {
-            LOGGER.warn("Image file to be deleted [{}] does NOT exist.",
-                    image.getAbsolutePath());
+    static void setCacheHeaders(final WebResponse response,
+            final String etag) {
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", CACHE_CONTROL);
+    }
+
+    @Override
+    public void respond(final IRequestCycle requestCycle) {
+
+        final WebResponse response = (WebResponse) requestCycle.getResponse();
+
+        setCacheHeaders(response, this.etag);
+
+        response.setContentType(
+                URLConnection.guessContentTypeFromName(this.file.getName()));
+        response.setContentLength(this.file.length());
+
+        try {
+            Files.copy(this.file.toPath(), response.getOutputStream());
+        } catch (IOException e) {
+            throw new SpException(e.getMessage(), e);
         }
     }
 
     @Override
     public void detach(final IRequestCycle requestCycle) {
-        if (this.file != null) {
-            releaseFile(this.file);
-        } else {
-            LOGGER.warn("No image file to delete");
+        if (this.released.compareAndSet(false, true)) {
+            PageImageCache.instance().release(this.image);
         }
-        super.detach(requestCycle);
     }
 
 }
@@ -26,98 +26,121 @@ package org.savapage.server.img;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.wicket.request.IRequestCycle;
-import org.apache.wicket.request.handler.TextRequestHandler;
+import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.http.WebResponse;
 import org.savapage.core.SpException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import net.iharder.Base64;
-
 /**
- * Our own handler to service the request for a generated image file as BASE64
+ * Our own handler to service the request for a cached image file as BASE64
  * encoded output.
+ * <p>
+ * The image file is encoded while it is streamed to the response, so no
+ * in-memory copy of the image or its BASE64 text is made.
+ * </p>
  *
  * @author Rijk Ravestein
  *
  */
-public class ImageReqHandlerBase64 extends TextRequestHandler {
+public class ImageReqHandlerBase64 implements IRequestHandler {
 
+    /** */
     private static final String CONTENT_TYPE_BASE64 = "text/plain";
 
+    /** */
+    private static final String CHARSET_BASE64 = "UTF-8";
+
+    /** */
     private static final Logger LOGGER =
             LoggerFactory.getLogger(ImageReqHandlerBase64.class);
 
+    /** The pinned cached image. */
+    private final PageImageCache.Entry image;
+
+    /** {@code true} when {@link #image} is released. */
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /** Image file. */
     private final File file;
 
     /**
-     *
-     * @param file
+     * ETag of the BASE64 representation.
      */
-    public ImageReqHandlerBase64(File file) {
+    private final String etag;
 
-        super(CONTENT_TYPE_BASE64, "UTF-8", getBase64(file));
+    /**
+     *
+     * @param image
+     *            The pinned cached image: it is released when this handler
+     *            is detached.
+     */
+    public ImageReqHandlerBase64(final PageImageCache.Entry image) {
 
-        this.file = file;
+        this.image = image;
+        this.file = image.getFile();
+        this.etag = createEtag(image);
 
         if (LOGGER.isTraceEnabled()) {
-            LOGGER.trace("handle image file [" + file.getAbsolutePath() + "]");
+            LOGGER.trace("handle image file [{}]",
+                    this.file.getAbsolutePath());
         }
     }
 
     /**
-     *
-     * @param file
-     * @return
+     * @param image
+     *            The cached image.
+     * @return The ETag of the BASE64 representation of the image.
      */
-    private static String getBase64(File file) {
-
-        byte[] iconBytes;
-        try {
-            iconBytes = FileUtils.readFileToByteArray(file);
-        } catch (IOException e) {
-            throw new SpException(e);
-        }
-
-        return Base64.encodeBytes(iconBytes);
+    public static String createEtag(final PageImageCache.Entry image) {
+        final String etag = image.getEtag();
+        return etag.substring(0, etag.length() - 1) + "-b64\"";
     }
 
     /**
-     * The actual release of the file.
-     *
-     * @param file
+     * @param nBytes
+     *            Number of bytes to encode.
+     * @return Length of the padded BASE64 encoding, without line breaks.
      */
-    protected void releaseFile(File image) {
-        if (image.exists()) {
-            if (image.delete()) {
-                if (LOGGER.isTraceEnabled()) {
-                    LOGGER.trace("deleted image file ["
-                            + image.getAbsolutePath() + "]");
-                }
-            } else {
-                LOGGER.error("delete of image file [" + image.getAbsolutePath()
-                        + "] FAILED");
-            }
-        } else {
-            if (LOGGER.isWarnEnabled()) {
-                LOGGER.warn("image file to be deleted ["
-                        + image.getAbsolutePath() + "] does NOT exist");
-            }
+    private static long getBase64Length(final long nBytes) {
+        return 4 * ((nBytes + 2) / 3);
+    }
+
+    @Override
+    public void respond(final IRequestCycle requestCycle) {
+
+        final WebResponse response = (WebResponse) requestCycle.getResponse();
+
+        ImageReqHandler.setCacheHeaders(response, this.etag);
+
+        response.setContentType(
+                CONTENT_TYPE_BASE64 + "; charset=" + CHARSET_BASE64);
+        response.setContentLength(getBase64Length(this.file.length()));
+
+        /*
+         * Closing the encoder writes the final padding, but must leave the
+         * response stream open.
+         */
+        try (OutputStream ostr = Base64.getEncoder().wrap(
+                new CloseShieldOutputStream(response.getOutputStream()))) {
+            Files.copy(this.file.toPath(), ostr);
+        } catch (IOException e) {
+            throw new SpException(e.getMessage(), e);
         }
     }
 
     @Override
-    public void detach(IRequestCycle requestCycle) {
-        if (file != null) {
-            releaseFile(file);
-        } else {
-            if (LOGGER.isWarnEnabled()) {
-                LOGGER.warn("no image file to delete");
-            }
+    public void detach(final IRequestCycle requestCycle) {
+        if (this.released.compareAndSet(false, true)) {
+            PageImageCache.instance().release(this.image);
         }
-        super.detach(requestCycle);
     }
 
 }
@@ -24,19 +24,19 @@
  */
 package org.savapage.server.img;
 
-import java.io.File;
+import java.io.IOException;
 import java.util.List;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.wicket.markup.html.WebPage;
 import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.http.WebRequest;
 import org.apache.wicket.request.http.handler.ErrorCodeRequestHandler;
 import org.apache.wicket.request.mapper.parameter.INamedParameters.NamedPair;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.savapage.core.imaging.ImageUrl;
 import org.savapage.core.inbox.InboxPageNotFoundException;
-import org.savapage.core.inbox.OutputProducer;
 import org.savapage.core.services.ServiceContext;
 import org.savapage.core.services.ServiceEntryPoint;
 import org.savapage.server.session.SpSession;
@@ -57,6 +57,10 @@ public final class ImageServer extends WebPage implements ServiceEntryPoint {
     private static final Logger LOGGER =
             LoggerFactory.getLogger(ImageServer.class);
 
+    /** */
+    private static final PageImageCache IMAGE_CACHE =
+            PageImageCache.instance();
+
     /**
      * Delivers the a page image.
      * <p>
@@ -70,6 +74,9 @@ public final class ImageServer extends WebPage implements ServiceEntryPoint {
      * When an invariant is violated, an image with an error message is
      * delivered.
      * </p>
+     * <p>
+     * Rendered page images are cached, see {@link PageImageCache}.
+     * </p>
      *
      * @param parameters
      *            The page parameters.
@@ -84,39 +91,98 @@ public final class ImageServer extends WebPage implements ServiceEntryPoint {
             LOGGER.trace(url.composeImageUrl());
         }
 
-        File file = null;
+        final IRequestHandler handler;
 
-        ServiceContext.open();
+        if (session.isAuthenticated() && url.getUser() != null
+                && session.getUserId().equals(url.getUser())) {
 
-        IRequestHandler handler;
+            handler = getImageHandler(url);
+            PageImageRenderQueue.instance().renderAhead(url);
 
-        try {
+        } else {
+            handler = new ErrorCodeRequestHandler(
+                    HttpServletResponse.SC_UNAUTHORIZED);
+        }
 
-            if (session.isAuthenticated() && url.getUser() != null
-                    && session.getUserId().equals(url.getUser())) {
+        getRequestCycle().scheduleRequestHandlerAfterCurrent(handler);
+    }
 
-                file = getImageFile(url);
+    /**
+     * Gets the handler of a page image, that is rendered when not cached.
+     *
+     * @param url
+     *            The {@link ImageUrl}.
+     * @return The request handler.
+     */
+    private IRequestHandler getImageHandler(final ImageUrl url) {
+
+        final String cacheKey = PageImageCache.createKey(url);
+
+        PageImageCache.Entry image = IMAGE_CACHE.acquire(cacheKey);
+
+        if (image == null) {
 
-                if (url.isBase64()) {
-                    handler = new ImageReqHandlerBase64(file);
-                } else {
-                    handler = new ImageReqHandler(file);
-                }
+            ServiceContext.open();
 
-            } else {
-                handler = new ErrorCodeRequestHandler(
-                        HttpServletResponse.SC_UNAUTHORIZED);
+            try {
+                image = IMAGE_CACHE.render(url, getSession().getId());
+            } catch (InboxPageNotFoundException e) {
+                LOGGER.warn(e.getMessage());
+                return new ErrorCodeRequestHandler(
+                        HttpServletResponse.SC_NOT_FOUND);
+            } catch (IOException e) {
+                LOGGER.error(e.getMessage(), e);
+                return new ErrorCodeRequestHandler(
+                        HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            } finally {
+                ServiceContext.close();
             }
+        }
 
-        } catch (InboxPageNotFoundException e) {
-            handler = new ErrorCodeRequestHandler(
-                    HttpServletResponse.SC_NOT_FOUND);
-            LOGGER.warn(e.getMessage());
-        } finally {
-            ServiceContext.close();
+        final String etag;
+
+        if (url.isBase64()) {
+            etag = ImageReqHandlerBase64.createEtag(image);
+        } else {
+            etag = image.getEtag();
         }
 
-        getRequestCycle().scheduleRequestHandlerAfterCurrent(handler);
+        /*
+         * The image handlers release the pinned image when detached.
+         */
+        if (isNotModified(etag)) {
+            IMAGE_CACHE.release(image);
+            return new ImageNotModifiedHandler(etag);
+        }
+        if (url.isBase64()) {
+            return new ImageReqHandlerBase64(image);
+        }
+        return new ImageReqHandler(image);
+    }
+
+    /**
+     * Checks the If-None-Match request header.
+     *
+     * @param etag
+     *            The ETag of the image.
+     * @return {@code true} when the client has the image with this ETag.
+     */
+    private boolean isNotModified(final String etag) {
+
+        final String ifNoneMatch =
+                ((WebRequest) getRequest()).getHeader("If-None-Match");
+
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (final String tag : ifNoneMatch.split(",")) {
+            final String trimmed = tag.trim();
+            if (trimmed.equals(etag) || trimmed.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -136,21 +202,4 @@ public final class ImageServer extends WebPage implements ServiceEntryPoint {
         return url;
     }
 
-    /**
-     *
-     * @param url
-     *            The {@link ImageUrl}.
-     * @return The image file.
-     * @throws InboxPageNotFoundException
-     *             When inbox page is not found.
-     */
-    private File getImageFile(final ImageUrl url)
-            throws InboxPageNotFoundException {
-
-        return OutputProducer.instance().allocatePageImage(url.getUser(),
-                url.getJob(), url.getPage(), url.isThumbnail(),
-                url.isLetterhead(), url.isLetterheadPublic(),
-                getSession().getId());
-    }
-
 }
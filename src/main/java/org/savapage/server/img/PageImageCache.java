@@ -0,0 +1,670 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.img;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.savapage.core.SpException;
+import org.savapage.core.config.ConfigManager;
+import org.savapage.core.imaging.ImageUrl;
+import org.savapage.core.inbox.InboxPageNotFoundException;
+import org.savapage.core.inbox.OutputProducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded LRU cache of rendered inbox page images.
+ * <p>
+ * A page image is cached by (user, job, page, thumbnail, letterhead), so it is
+ * rasterized once, instead of each time a user scrolls the inbox or reopens
+ * the Web App. The index is held in memory, the images are kept on disk in
+ * {@link #CACHE_DIR_NAME} of the application tmp directory. Each entry carries
+ * a strong ETag: the SHA-1 of the image content.
+ * </p>
+ * <p>
+ * Since page rotation, page order and letterhead are part of the user's inbox
+ * state, the cached images of a user must be invalidated with
+ * {@link #invalidate(String)} when the inbox changes.
+ * </p>
+ * <p>
+ * An entry handed out by {@link #acquire(String)} or
+ * {@link #render(ImageUrl, String)} is pinned: its file is not deleted, even
+ * when the entry is evicted or invalidated, until it is {@link #release(Entry)}
+ * -ed. Concurrent renders of the same page image are joined, so only one
+ * render runs per key.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class PageImageCache {
+
+    /** */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(PageImageCache.class);
+
+    /**
+     * Name of the cache directory.
+     */
+    private static final String CACHE_DIR_NAME = "page-image-cache";
+
+    /**
+     * Max number of cached images.
+     */
+    private static final int MAX_ENTRIES = 5000;
+
+    /**
+     * Max total size of cached images.
+     */
+    private static final long MAX_BYTES = 512L * 1024 * 1024;
+
+    /**
+     * Max render attempts, when the cache is invalidated while rendering.
+     */
+    private static final int RENDER_ATTEMPTS_MAX = 2;
+
+    /**
+     * Size of read buffer for ETag calculation.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * A cached page image.
+     */
+    public static final class Entry {
+
+        /** */
+        private final String userId;
+
+        /** Cached image file. */
+        private final File file;
+
+        /** Strong ETag (quoted). */
+        private final String etag;
+
+        /** Size of the file in bytes. */
+        private final long size;
+
+        /**
+         * Number of pins. Guarded by {@link PageImageCache#entries}.
+         */
+        private int pins;
+
+        /**
+         * {@code true} when removed from the index. Guarded by
+         * {@link PageImageCache#entries}.
+         */
+        private boolean removed;
+
+        /**
+         * @param userId
+         *            User ID.
+         * @param file
+         *            Cached image file.
+         * @param etag
+         *            Strong ETag (quoted).
+         */
+        private Entry(final String userId, final File file,
+                final String etag) {
+            this.userId = userId;
+            this.file = file;
+            this.etag = etag;
+            this.size = file.length();
+        }
+
+        /**
+         * @return Cached image file.
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return Strong ETag (quoted).
+         */
+        public String getEtag() {
+            return etag;
+        }
+    }
+
+    /**
+     * Entries in access order: least recently used first.
+     */
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Total size of the cached images. Guarded by {@link #entries}.
+     */
+    private long totalBytes;
+
+    /** */
+    private final Path cacheDir;
+
+    /**
+     * Renders in progress by cache key.
+     */
+    private final ConcurrentHashMap<String, FutureTask<Entry>> renders =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Incremented on each invalidation.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** */
+    private final AtomicLong renderCount = new AtomicLong();
+
+    /** */
+    private final AtomicLong renderMsecTotal = new AtomicLong();
+
+    /** */
+    private static class SingletonHolder {
+        /** */
+        public static final PageImageCache INSTANCE = new PageImageCache();
+    }
+
+    /**
+     * Singleton. Images left over from a previous run are removed, since the
+     * index is not persistent.
+     */
+    private PageImageCache() {
+
+        this.cacheDir = Paths.get(ConfigManager.getAppTmpDir(), CACHE_DIR_NAME);
+
+        try {
+            FileUtils.deleteDirectory(this.cacheDir.toFile());
+            Files.createDirectories(this.cacheDir);
+        } catch (IOException e) {
+            throw new SpException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return The singleton instance.
+     */
+    public static PageImageCache instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Creates the cache key of a page image.
+     *
+     * @param url
+     *            The {@link ImageUrl}.
+     * @return The cache key.
+     */
+    public static String createKey(final ImageUrl url) {
+        return new StringBuilder().append(url.getUser()).append('|')
+                .append(url.getJob()).append('|').append(url.getPage())
+                .append('|').append(url.isThumbnail()).append('|')
+                .append(url.isLetterhead()).append('|')
+                .append(url.isLetterheadPublic()).toString();
+    }
+
+    /**
+     * Gets and pins a cached page image. A {@code null} return is counted as
+     * miss.
+     *
+     * @param key
+     *            The cache key.
+     * @return {@code null} when not cached. The entry must be
+     *         {@link #release(Entry)}-ed after use.
+     */
+    public Entry acquire(final String key) {
+
+        Entry entry;
+
+        synchronized (this.entries) {
+            entry = this.entries.get(key);
+            if (entry != null) {
+                entry.pins++;
+            }
+        }
+
+        if (entry == null) {
+            this.misses.incrementAndGet();
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Pins an entry, when it is still in the index.
+     *
+     * @param entry
+     *            The entry.
+     * @return {@code true} when pinned, {@code false} when entry is removed
+     *         (and its file may be deleted).
+     */
+    private boolean pin(final Entry entry) {
+        synchronized (this.entries) {
+            if (entry.removed) {
+                return false;
+            }
+            entry.pins++;
+            return true;
+        }
+    }
+
+    /**
+     * Releases a pinned entry. The file of a removed entry is deleted when
+     * its last pin is released.
+     *
+     * @param entry
+     *            The entry.
+     */
+    public void release(final Entry entry) {
+        synchronized (this.entries) {
+            entry.pins--;
+            if (entry.removed && entry.pins == 0) {
+                deleteFile(entry);
+            }
+        }
+    }
+
+    /**
+     * Checks if a page image is cached, without counting a hit or miss.
+     *
+     * @param key
+     *            The cache key.
+     * @return {@code true} when cached.
+     */
+    public boolean contains(final String key) {
+        synchronized (this.entries) {
+            return this.entries.containsKey(key);
+        }
+    }
+
+    /**
+     * Renders a page image and puts it in the cache. When the same page image
+     * is already being rendered, that render is waited for.
+     *
+     * @param url
+     *            The {@link ImageUrl}.
+     * @param sessionId
+     *            ID of the session that requests the image.
+     * @return The pinned cache entry, that must be {@link #release(Entry)}
+     *         -ed after use.
+     * @throws InboxPageNotFoundException
+     *             When inbox page is not found.
+     * @throws IOException
+     *             When file move or read fails.
+     */
+    public Entry render(final ImageUrl url, final String sessionId)
+            throws InboxPageNotFoundException, IOException {
+
+        final String key = createKey(url);
+
+        for (int attempt = 1;; attempt++) {
+
+            final FutureTask<Entry> task =
+                    new FutureTask<>(new Callable<Entry>() {
+                        @Override
+                        public Entry call() throws Exception {
+                            return renderPinned(url, key, sessionId);
+                        }
+                    });
+
+            final FutureTask<Entry> running = this.renders.putIfAbsent(key,
+                    task);
+
+            if (running == null) {
+                try {
+                    task.run();
+                } finally {
+                    this.renders.remove(key, task);
+                }
+                return getRendered(task);
+            }
+
+            /*
+             * Joined another render: pin its result, unless it is removed
+             * meanwhile.
+             */
+            final Entry entry = getRendered(running);
+
+            if (this.pin(entry)) {
+                return entry;
+            }
+            if (attempt == RENDER_ATTEMPTS_MAX) {
+                throw new IOException(String.format(
+                        "Page image [%s] removed while rendering.", key));
+            }
+        }
+    }
+
+    /**
+     * Gets the result of a render task.
+     *
+     * @param task
+     *            The task.
+     * @return The cache entry.
+     * @throws InboxPageNotFoundException
+     *             When inbox page is not found.
+     * @throws IOException
+     *             When file move or read fails.
+     */
+    private static Entry getRendered(final FutureTask<Entry> task)
+            throws InboxPageNotFoundException, IOException {
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Page image render interrupted.", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof InboxPageNotFoundException) {
+                throw (InboxPageNotFoundException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SpException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Renders a page image and puts it in the cache.
+     *
+     * @param url
+     *            The {@link ImageUrl}.
+     * @param key
+     *            The cache key.
+     * @param sessionId
+     *            ID of the session that requests the image.
+     * @return The pinned cache entry.
+     * @throws InboxPageNotFoundException
+     *             When inbox page is not found.
+     * @throws IOException
+     *             When file move or read fails.
+     */
+    private Entry renderPinned(final ImageUrl url, final String key,
+            final String sessionId)
+            throws InboxPageNotFoundException, IOException {
+
+        for (int attempt = 1;; attempt++) {
+
+            final long generationStart = this.generation.get();
+            final long start = System.currentTimeMillis();
+
+            final File file = OutputProducer.instance().allocatePageImage(
+                    url.getUser(), url.getJob(), url.getPage(),
+                    url.isThumbnail(), url.isLetterhead(),
+                    url.isLetterheadPublic(), sessionId);
+
+            /*
+             * Render again when the cache was invalidated while rendering,
+             * since the image might reflect the previous inbox state.
+             */
+            if (generationStart == this.generation.get()
+                    || attempt == RENDER_ATTEMPTS_MAX) {
+                return this.put(key, url.getUser(), file,
+                        System.currentTimeMillis() - start);
+            }
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * Puts a freshly rendered page image in the cache. The rendered file is
+     * moved to the cache directory. The new entry is pinned.
+     *
+     * @param key
+     *            The cache key.
+     * @param userId
+     *            User ID.
+     * @param rendered
+     *            The rendered image file.
+     * @param renderMsec
+     *            Time it took to render the image.
+     * @return The cache entry.
+     * @throws IOException
+     *             When file move or read fails.
+     */
+    private Entry put(final String key, final String userId,
+            final File rendered, final long renderMsec) throws IOException {
+
+        this.renderCount.incrementAndGet();
+        this.renderMsecTotal.addAndGet(renderMsec);
+
+        final String etag = createEtag(rendered);
+
+        final Path target = this.cacheDir.resolve(String.format("%s.%s",
+                UUID.randomUUID().toString(),
+                FilenameUtils.getExtension(rendered.getName())));
+
+        Files.move(rendered.toPath(), target,
+                StandardCopyOption.REPLACE_EXISTING);
+
+        final Entry entry = new Entry(userId, target.toFile(), etag);
+        entry.pins = 1;
+
+        synchronized (this.entries) {
+
+            final Entry replaced = this.entries.put(key, entry);
+
+            this.totalBytes += entry.size;
+
+            if (replaced != null) {
+                this.removed(replaced);
+            }
+
+            final Iterator<Entry> iter = this.entries.values().iterator();
+
+            while (iter.hasNext() && (this.entries.size() > MAX_ENTRIES
+                    || this.totalBytes > MAX_BYTES)) {
+
+                final Entry eldest = iter.next();
+
+                if (eldest == entry) {
+                    break;
+                }
+                iter.remove();
+                this.removed(eldest);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Invalidates the cached page images of a user, and cancels their queued
+     * renders. Must be called when the inbox of the user changes.
+     *
+     * @param userId
+     *            User ID.
+     */
+    public void invalidate(final String userId) {
+
+        this.generation.incrementAndGet();
+        PageImageRenderQueue.instance().cancel(userId);
+
+        synchronized (this.entries) {
+
+            final Iterator<Entry> iter = this.entries.values().iterator();
+
+            while (iter.hasNext()) {
+                final Entry entry = iter.next();
+                if (entry.userId.equals(userId)) {
+                    iter.remove();
+                    this.removed(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Invalidates all cached page images, for instance when a public
+     * letterhead changes.
+     */
+    public void invalidateAll() {
+
+        this.generation.incrementAndGet();
+        PageImageRenderQueue.instance().cancelAll();
+
+        synchronized (this.entries) {
+            for (final Entry entry : this.entries.values()) {
+                this.removed(entry);
+            }
+            this.entries.clear();
+        }
+    }
+
+    /**
+     * Accounts for an entry removed from the index, and deletes its file when
+     * it is not pinned. Must be called while holding the {@link #entries}
+     * lock.
+     *
+     * @param entry
+     *            The removed entry.
+     */
+    private void removed(final Entry entry) {
+
+        this.totalBytes -= entry.size;
+        entry.removed = true;
+
+        if (entry.pins == 0) {
+            deleteFile(entry);
+        }
+    }
+
+    /**
+     * Deletes the file of an entry.
+     *
+     * @param entry
+     *            The entry.
+     */
+    private static void deleteFile(final Entry entry) {
+        if (!entry.file.delete() && entry.file.exists()) {
+            LOGGER.warn("Delete of cached image file [{}] FAILED.",
+                    entry.file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Creates a strong ETag from the content of a file.
+     *
+     * @param file
+     *            The file.
+     * @return The quoted ETag.
+     * @throws IOException
+     *             When read error.
+     */
+    private static String createEtag(final File file) throws IOException {
+
+        final MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new SpException(e.getMessage(), e);
+        }
+
+        final byte[] buffer = new byte[BUFFER_SIZE];
+
+        try (InputStream istr = new DigestInputStream(
+                Files.newInputStream(file.toPath()), digest)) {
+            while (istr.read(buffer) >= 0) {
+                // noop
+            }
+        }
+        return String.format("\"%040x\"", new BigInteger(1, digest.digest()));
+    }
+
+    /**
+     * @return Number of requests served from cache.
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return Number of requests that had to render the page image.
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return Average render time in milliseconds.
+     */
+    public long getRenderMsecAverage() {
+        final long count = this.renderCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        return this.renderMsecTotal.get() / count;
+    }
+
+    /**
+     * @return Number of cached images.
+     */
+    public int getSize() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * @return Total size of cached images in bytes.
+     */
+    public long getTotalBytes() {
+        synchronized (this.entries) {
+            return this.totalBytes;
+        }
+    }
+
+}
@@ -0,0 +1,505 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.img;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.savapage.core.imaging.ImageUrl;
+import org.savapage.core.inbox.InboxPageNotFoundException;
+import org.savapage.core.inbox.PageImages;
+import org.savapage.core.inbox.PageImages.PageImage;
+import org.savapage.core.services.InboxService;
+import org.savapage.core.services.ServiceContext;
+import org.savapage.core.services.ServiceEntryPoint;
+import org.savapage.core.services.helpers.InboxContextCommon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded, prioritized background queue that renders page images into the
+ * {@link PageImageCache}, so the User Web App does not stall on the first view
+ * of a large job.
+ * <ul>
+ * <li>{@link #warmInbox(String)} is called when a job arrives, and renders the
+ * thumbnails that are not cached yet, up to {@link #WARM_THUMBNAILS_MAX}.</li>
+ * <li>{@link #renderAhead(ImageUrl)} is called when a detail page is viewed,
+ * and renders the next {@link #RENDER_AHEAD_PAGES} pages at low priority.</li>
+ * </ul>
+ * <p>
+ * The CPU share is capped by the number of render threads: a quarter of the
+ * available processors, with a minimum of one. Queued renders of a user are
+ * cancelled when the user's page image cache is invalidated, for instance when
+ * a job is deleted.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class PageImageRenderQueue implements ServiceEntryPoint {
+
+    /** */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(PageImageRenderQueue.class);
+
+    /**
+     * Max number of thumbnails rendered when a job arrives.
+     */
+    private static final int WARM_THUMBNAILS_MAX = 24;
+
+    /**
+     * Number of detail pages rendered ahead of the viewed page.
+     */
+    private static final int RENDER_AHEAD_PAGES = 3;
+
+    /**
+     * Max number of queued tasks: beyond, new tasks are dropped.
+     */
+    private static final int QUEUE_CAPACITY = 1000;
+
+    /**
+     * Number of render threads.
+     */
+    private static final int RENDER_THREADS =
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+
+    /**
+     * Keep alive (seconds) of idle render threads.
+     */
+    private static final long RENDER_THREADS_KEEP_ALIVE_SECS = 60;
+
+    /**
+     * Pseudo session ID used for rendering.
+     */
+    private static final String RENDER_SESSION_ID = "prerender";
+
+    /** */
+    private static final PageImageCache IMAGE_CACHE =
+            PageImageCache.instance();
+
+    /** */
+    private static final InboxService INBOX_SERVICE =
+            ServiceContext.getServiceFactory().getInboxService();
+
+    /**
+     * Task priority: lower ordinal is executed first.
+     */
+    private enum Priority {
+        /** Print-in. */
+        HIGH,
+        /** Render ahead. */
+        LOW
+    }
+
+    /**
+     * A prioritized task of a user.
+     */
+    private abstract static class Task
+            implements Runnable, Comparable<Task> {
+
+        /** */
+        private final Priority priority;
+
+        /** Sequence number, for FIFO order within the same priority. */
+        private final long sequence;
+
+        /** */
+        private final String userId;
+
+        /**
+         * @param priority
+         *            Task priority.
+         * @param sequence
+         *            Sequence number.
+         * @param userId
+         *            User ID.
+         */
+        Task(final Priority priority, final long sequence,
+                final String userId) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.userId = userId;
+        }
+
+        /**
+         * @return User ID.
+         */
+        String getUserId() {
+            return this.userId;
+        }
+
+        @Override
+        public int compareTo(final Task other) {
+            final int cmp = this.priority.compareTo(other.priority);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return Long.compare(this.sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Renders a page image.
+     */
+    private final class RenderTask extends Task {
+
+        /** */
+        private final ImageUrl url;
+
+        /** Cache key. */
+        private final String key;
+
+        /**
+         * @param priority
+         *            Task priority.
+         * @param url
+         *            Page image to render.
+         * @param key
+         *            Cache key.
+         */
+        RenderTask(final Priority priority, final ImageUrl url,
+                final String key) {
+            super(priority, sequenceNumber.incrementAndGet(), url.getUser());
+            this.url = url;
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+
+            if (IMAGE_CACHE.contains(this.key)) {
+                pendingKeys.remove(this.key);
+                return;
+            }
+
+            ServiceContext.open();
+
+            try {
+                IMAGE_CACHE.release(
+                        IMAGE_CACHE.render(this.url, RENDER_SESSION_ID));
+                renderedCount.incrementAndGet();
+            } catch (InboxPageNotFoundException e) {
+                // Job deleted or page beyond last page: noop.
+                LOGGER.trace(e.getMessage());
+            } catch (Exception e) {
+                LOGGER.warn("Render of [{}] failed: {}", this.key,
+                        e.getMessage());
+            } finally {
+                ServiceContext.close();
+                pendingKeys.remove(this.key);
+            }
+        }
+    }
+
+    /**
+     * Queues the render of uncached inbox thumbnails of a user.
+     */
+    private final class WarmInboxTask extends Task {
+
+        /**
+         * @param userId
+         *            User ID.
+         */
+        WarmInboxTask(final String userId) {
+            super(Priority.HIGH, sequenceNumber.incrementAndGet(), userId);
+        }
+
+        @Override
+        public void run() {
+
+            final String userId = this.getUserId();
+
+            ServiceContext.open();
+
+            try {
+                final PageImages pages = INBOX_SERVICE.getPageChunks(
+                        new InboxContextCommon(userId, userId), null, "",
+                        false);
+
+                int nQueued = 0;
+
+                for (final PageImage image : pages.getPages()) {
+
+                    if (nQueued == WARM_THUMBNAILS_MAX) {
+                        break;
+                    }
+
+                    final ImageUrl url = parseImageUrl(image.getUrl());
+
+                    if (url != null && userId.equals(url.getUser())
+                            && enqueue(Priority.HIGH, url)) {
+                        nQueued++;
+                    }
+                }
+
+            } catch (Exception e) {
+                LOGGER.warn("Warm inbox of [{}] failed: {}", userId,
+                        e.getMessage());
+            } finally {
+                ServiceContext.close();
+            }
+        }
+    }
+
+    /**
+     * The render executor.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Cache keys of queued or running renders.
+     */
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    /** */
+    private final AtomicLong sequenceNumber = new AtomicLong();
+
+    /** */
+    private final AtomicLong renderedCount = new AtomicLong();
+
+    /** */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /** */
+    private static class SingletonHolder {
+        /** */
+        public static final PageImageRenderQueue INSTANCE =
+                new PageImageRenderQueue();
+    }
+
+    /**
+     * Singleton.
+     */
+    private PageImageRenderQueue() {
+
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        this.executor = new ThreadPoolExecutor(RENDER_THREADS, RENDER_THREADS,
+                RENDER_THREADS_KEEP_ALIVE_SECS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "page-image-render-"
+                                + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return The singleton instance.
+     */
+    public static PageImageRenderQueue instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Queues a task, unless the queue is full or shut down.
+     *
+     * @param task
+     *            The task.
+     * @return {@code true} when queued.
+     */
+    private boolean execute(final Task task) {
+
+        if (this.executor.isShutdown()
+                || this.executor.getQueue().size() >= QUEUE_CAPACITY) {
+            this.droppedCount.incrementAndGet();
+            return false;
+        }
+        this.executor.execute(task);
+        return true;
+    }
+
+    /**
+     * Queues the render of a page image, unless cached or pending.
+     *
+     * @param priority
+     *            Task priority.
+     * @param url
+     *            The page image.
+     * @return {@code true} when queued.
+     */
+    private boolean enqueue(final Priority priority, final ImageUrl url) {
+
+        final String key = PageImageCache.createKey(url);
+
+        if (IMAGE_CACHE.contains(key) || !this.pendingKeys.add(key)) {
+            return false;
+        }
+        if (this.execute(new RenderTask(priority, url, key))) {
+            return true;
+        }
+        this.pendingKeys.remove(key);
+        return false;
+    }
+
+    /**
+     * Parses the page image URL as composed by {@link ImageUrl}: the path
+     * segments after {@link ImageUrl#MOUNT_PATH} are name/value pairs.
+     *
+     * @param imageUrl
+     *            The page image URL.
+     * @return {@code null} when not a page image URL.
+     */
+    private static ImageUrl parseImageUrl(final String imageUrl) {
+
+        final int iMount = StringUtils.indexOf(imageUrl, ImageUrl.MOUNT_PATH);
+
+        if (iMount < 0) {
+            return null;
+        }
+
+        final String[] segments = StringUtils.split(imageUrl
+                .substring(iMount + ImageUrl.MOUNT_PATH.length()), '/');
+
+        final ImageUrl url = new ImageUrl();
+
+        for (int i = 0; i + 1 < segments.length; i += 2) {
+            url.setParm(segments[i], segments[i + 1]);
+        }
+        return url;
+    }
+
+    /**
+     * Queues the render of the thumbnails of a user's inbox that are not
+     * cached yet. Called when a job arrives.
+     *
+     * @param userId
+     *            User ID.
+     */
+    public void warmInbox(final String userId) {
+        if (userId != null) {
+            this.execute(new WarmInboxTask(userId));
+        }
+    }
+
+    /**
+     * Queues the render of the detail pages following a viewed detail page.
+     *
+     * @param url
+     *            The viewed detail page.
+     */
+    public void renderAhead(final ImageUrl url) {
+
+        if (url.isThumbnail()) {
+            return;
+        }
+
+        final int page;
+
+        try {
+            page = Integer.parseInt(url.getPage());
+        } catch (NumberFormatException e) {
+            return;
+        }
+
+        for (int i = 1; i <= RENDER_AHEAD_PAGES; i++) {
+
+            final ImageUrl next = new ImageUrl();
+
+            next.setUser(url.getUser());
+            next.setJob(url.getJob());
+            next.setPage(String.valueOf(page + i));
+            next.setThumbnail(false);
+            next.setLetterhead(url.isLetterhead());
+            next.setLetterheadPublic(url.isLetterheadPublic());
+
+            this.enqueue(Priority.LOW, next);
+        }
+    }
+
+    /**
+     * Cancels the queued tasks of a user. A render that is already running is
+     * not interrupted.
+     *
+     * @param userId
+     *            User ID.
+     */
+    public void cancel(final String userId) {
+
+        final Iterator<Runnable> iter = this.executor.getQueue().iterator();
+
+        while (iter.hasNext()) {
+            final Runnable runnable = iter.next();
+            if (runnable instanceof Task
+                    && ((Task) runnable).getUserId().equals(userId)) {
+                iter.remove();
+                if (runnable instanceof RenderTask) {
+                    this.pendingKeys.remove(((RenderTask) runnable).key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels all queued tasks.
+     */
+    public void cancelAll() {
+        this.executor.getQueue().clear();
+        this.pendingKeys.clear();
+    }
+
+    /**
+     * Shuts down the render threads.
+     */
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * @return Number of queued tasks.
+     */
+    public int getQueuedCount() {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * @return Number of images rendered in the background.
+     */
+    public long getRenderedCount() {
+        return this.renderedCount.get();
+    }
+
+    /**
+     * @return Number of tasks dropped because the queue was full.
+     */
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+}
@@ -0,0 +1,396 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.ipp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Penalty box of IPP client requests that keep failing the same way.
+ * <p>
+ * Penalties are kept by remote address, and per address by request (see
+ * {@link #createKey(String, String)}), so other clients behind the same NAT
+ * router or print server are not affected. A request is put in the penalty
+ * box after {@link #REPEATED_FAILURES_MIN} consecutive identical failures,
+ * for a period that doubles with each further identical failure, from
+ * {@link #MSEC_PENALTY_MIN} up to {@link #MSEC_PENALTY_MAX}. A different
+ * failure starts counting all over. Requests in the penalty box are rejected
+ * right away, without occupying a request thread. A successful request
+ * releases the request key.
+ * </p>
+ * <p>
+ * Since request path and user agent are client controlled, memory is
+ * bounded: at most {@link #MAX_REQUESTS_PER_CLIENT} request keys per remote
+ * address, and at most {@link #MAX_CLIENTS} remote addresses. The least
+ * recently used are evicted. Expired penalties are pruned at most once per
+ * {@link #MSEC_PRUNE_INTERVAL}.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class IppClientPenaltyBox {
+
+    /**
+     * Number of consecutive identical failures that triggers a penalty.
+     */
+    private static final int REPEATED_FAILURES_MIN = 3;
+
+    /**
+     * First penalty.
+     */
+    private static final long MSEC_PENALTY_MIN = 5000;
+
+    /**
+     * Max penalty.
+     */
+    private static final long MSEC_PENALTY_MAX = 60000;
+
+    /**
+     * Max number of remote addresses.
+     */
+    private static final int MAX_CLIENTS = 10000;
+
+    /**
+     * Max number of request keys per remote address.
+     */
+    private static final int MAX_REQUESTS_PER_CLIENT = 8;
+
+    /**
+     * Min time between two prunes of expired penalties.
+     */
+    private static final long MSEC_PRUNE_INTERVAL = 60000;
+
+    /**
+     * Penalty of a request key.
+     */
+    private static final class Penalty {
+
+        /** Signature of the last failure. */
+        private String failure;
+
+        /** Consecutive identical failures. */
+        private int failures;
+
+        /** Time of the last failure. */
+        private long lastFailure;
+
+        /** Expiry time of the penalty. */
+        private long expiry;
+
+        /**
+         * @param now
+         *            The current time.
+         * @return {@code true} when penalty expired long ago.
+         */
+        private boolean isStale(final long now) {
+            return Math.max(this.expiry, this.lastFailure)
+                    + MSEC_PENALTY_MAX < now;
+        }
+    }
+
+    /**
+     * Bounded LRU map.
+     *
+     * @param <V>
+     *            Value type.
+     */
+    private static final class LruMap<V> extends LinkedHashMap<String, V> {
+
+        /** */
+        private static final long serialVersionUID = 1L;
+
+        /** */
+        private final int maxEntries;
+
+        /**
+         * @param maxEntries
+         *            Max number of entries.
+         */
+        LruMap(final int maxEntries) {
+            super(Math.min(16, maxEntries * 2), 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+            return this.size() > this.maxEntries;
+        }
+    }
+
+    /**
+     * Penalties by request key, by remote address. All access is
+     * synchronized on this map.
+     */
+    private final LruMap<LruMap<Penalty>> clients = new LruMap<>(MAX_CLIENTS);
+
+    /**
+     * Time of the last prune. Guarded by {@link #clients}.
+     */
+    private long lastPrune;
+
+    /**
+     * Total number of rejected (throttled) requests.
+     */
+    private final AtomicLong throttledRequests = new AtomicLong();
+
+    /**
+     * Total number of failed requests.
+     */
+    private final AtomicLong failedRequests = new AtomicLong();
+
+    /** */
+    private static class SingletonHolder {
+        /** */
+        public static final IppClientPenaltyBox INSTANCE =
+                new IppClientPenaltyBox();
+    }
+
+    /**
+     * Singleton.
+     */
+    private IppClientPenaltyBox() {
+    }
+
+    /**
+     * @return The singleton instance.
+     */
+    public static IppClientPenaltyBox instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Creates the penalty key of a client request.
+     *
+     * @param requestPath
+     *            The request path (printer URI).
+     * @param userAgent
+     *            The user agent of the client. Can be {@code null}.
+     * @return The key.
+     */
+    public static String createKey(final String requestPath,
+            final String userAgent) {
+        return String.format("%s|%s", requestPath,
+                StringUtils.defaultString(userAgent));
+    }
+
+    /**
+     * Checks if a request is in the penalty box. If so, the request is
+     * counted as throttled.
+     *
+     * @param remoteAddr
+     *            The remote address of the client.
+     * @param key
+     *            The request key.
+     * @return The remaining penalty time in milliseconds, or zero when request
+     *         is not penalized.
+     */
+    public long checkPenalty(final String remoteAddr, final String key) {
+
+        final long remaining;
+
+        synchronized (this.clients) {
+
+            if (this.clients.isEmpty()) {
+                return 0;
+            }
+
+            final LruMap<Penalty> requests = this.clients.get(remoteAddr);
+
+            if (requests == null) {
+                return 0;
+            }
+
+            final Penalty penalty = requests.get(key);
+
+            if (penalty == null) {
+                return 0;
+            }
+            remaining = penalty.expiry - System.currentTimeMillis();
+        }
+
+        if (remaining <= 0) {
+            return 0;
+        }
+
+        this.throttledRequests.incrementAndGet();
+        return remaining;
+    }
+
+    /**
+     * Registers a failed request, and puts the request in the penalty box
+     * when it keeps failing the same way.
+     *
+     * @param remoteAddr
+     *            The remote address of the client.
+     * @param key
+     *            The request key.
+     * @param failure
+     *            The failure signature, like processing state and message.
+     */
+    public void onFailure(final String remoteAddr, final String key,
+            final String failure) {
+
+        this.failedRequests.incrementAndGet();
+
+        final long now = System.currentTimeMillis();
+
+        synchronized (this.clients) {
+
+            if (now - this.lastPrune >= MSEC_PRUNE_INTERVAL) {
+                this.prune(now);
+                this.lastPrune = now;
+            }
+
+            LruMap<Penalty> requests = this.clients.get(remoteAddr);
+
+            if (requests == null) {
+                requests = new LruMap<>(MAX_REQUESTS_PER_CLIENT);
+                this.clients.put(remoteAddr, requests);
+            }
+
+            Penalty penalty = requests.get(key);
+
+            if (penalty == null) {
+                penalty = new Penalty();
+                requests.put(key, penalty);
+            }
+
+            // Different failure, or long after previous one: start all over.
+            if (!failure.equals(penalty.failure)
+                    || penalty.lastFailure + MSEC_PENALTY_MAX < now) {
+                penalty.failure = failure;
+                penalty.failures = 0;
+                penalty.expiry = 0;
+            }
+
+            penalty.failures++;
+            penalty.lastFailure = now;
+
+            if (penalty.failures >= REPEATED_FAILURES_MIN) {
+
+                long msecPenalty = MSEC_PENALTY_MIN;
+                for (int i = REPEATED_FAILURES_MIN; i < penalty.failures
+                        && msecPenalty < MSEC_PENALTY_MAX; i++) {
+                    msecPenalty *= 2;
+                }
+                penalty.expiry =
+                        now + Math.min(msecPenalty, MSEC_PENALTY_MAX);
+            }
+        }
+    }
+
+    /**
+     * Releases a request key from the penalty box after a successful request.
+     *
+     * @param remoteAddr
+     *            The remote address of the client.
+     * @param key
+     *            The request key.
+     */
+    public void onSuccess(final String remoteAddr, final String key) {
+
+        synchronized (this.clients) {
+
+            if (this.clients.isEmpty()) {
+                return;
+            }
+
+            final LruMap<Penalty> requests = this.clients.get(remoteAddr);
+
+            if (requests != null && requests.remove(key) != null
+                    && requests.isEmpty()) {
+                this.clients.remove(remoteAddr);
+            }
+        }
+    }
+
+    /**
+     * Removes penalties that expired long ago. Must be called while holding
+     * the {@link #clients} lock.
+     *
+     * @param now
+     *            The current time.
+     */
+    private void prune(final long now) {
+
+        final Iterator<LruMap<Penalty>> iterClients =
+                this.clients.values().iterator();
+
+        while (iterClients.hasNext()) {
+
+            final LruMap<Penalty> requests = iterClients.next();
+            final Iterator<Penalty> iter = requests.values().iterator();
+
+            while (iter.hasNext()) {
+                if (iter.next().isStale(now)) {
+                    iter.remove();
+                }
+            }
+            if (requests.isEmpty()) {
+                iterClients.remove();
+            }
+        }
+    }
+
+    /**
+     * @return The number of request keys currently in the penalty box.
+     */
+    public int getPenalizedClientCount() {
+
+        final long now = System.currentTimeMillis();
+        int count = 0;
+
+        synchronized (this.clients) {
+            for (final LruMap<Penalty> requests : this.clients.values()) {
+                for (final Penalty penalty : requests.values()) {
+                    if (penalty.expiry > now) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The total number of rejected (throttled) requests.
+     */
+    public long getThrottledRequests() {
+        return this.throttledRequests.get();
+    }
+
+    /**
+     * @return The total number of failed requests that count for a penalty.
+     */
+    public long getFailedRequests() {
+        return this.failedRequests.get();
+    }
+
+}
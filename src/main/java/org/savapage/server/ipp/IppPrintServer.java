@@ -29,18 +29,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Enumeration;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.lang3.BooleanUtils;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.wicket.markup.html.WebPage;
-import org.apache.wicket.request.Url;
 import org.apache.wicket.request.cycle.RequestCycle;
 import org.apache.wicket.request.handler.resource.ResourceStreamRequestHandler;
-import org.apache.wicket.request.mapper.parameter.INamedParameters.NamedPair;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.request.resource.ContentDisposition;
 import org.apache.wicket.util.resource.AbstractResourceStream;
@@ -50,36 +45,19 @@ import org.apache.wicket.util.resource.ResourceStreamNotFoundException;
 import org.apache.wicket.util.time.Duration;
 import org.savapage.core.SpException;
 import org.savapage.core.SpInfo;
-import org.savapage.core.cometd.AdminPublisher;
-import org.savapage.core.cometd.PubLevelEnum;
-import org.savapage.core.cometd.PubTopicEnum;
 import org.savapage.core.config.ConfigManager;
-import org.savapage.core.dao.enums.ReservedIppQueueEnum;
-import org.savapage.core.dao.helpers.IppQueueHelper;
-import org.savapage.core.ipp.IppProcessingException;
-import org.savapage.core.ipp.IppProcessingException.StateEnum;
-import org.savapage.core.ipp.operation.AbstractIppOperation;
-import org.savapage.core.ipp.operation.IppOperationContext;
-import org.savapage.core.ipp.operation.IppOperationId;
-import org.savapage.core.jpa.IppQueue;
-import org.savapage.core.jpa.User;
-import org.savapage.core.services.QueueService;
-import org.savapage.core.services.ServiceContext;
 import org.savapage.core.services.ServiceEntryPoint;
-import org.savapage.core.services.UserService;
-import org.savapage.core.util.InetUtils;
 import org.savapage.server.WebApp;
-import org.savapage.server.webapp.WebAppHelper;
 import org.savapage.server.webapp.WebAppUser;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
- * SavaPage IPP Print Server handling all IPP requests.
+ * SavaPage IPP Print Server page handling IPP requests on the default web
+ * context.
  * <p>
- * IMPORTANT: This class is mounted to the {@link WebApp#MOUNT_PATH_PRINTERS}
- * context. in the {@link WebApp} class. Its subclass
- * {@link IppPrintServerHomePage} is the handler of the default web context.
+ * IMPORTANT: IPP requests on the {@link WebApp#MOUNT_PATH_PRINTERS} context are
+ * handled by the sessionless {@link IppPrintServlet}. This page is the base
+ * class of {@link IppPrintServerHomePage}, the handler of the default web
+ * context.
  * </p>
  *
  * @author Rijk Ravestein
@@ -93,23 +71,6 @@ public class IppPrintServer extends WebPage implements ServiceEntryPoint {
     /** */
     private static final String CONTENT_TYPE_PPD = "application/vnd.cups-ppd";
 
-    /** */
-    private static final Logger LOGGER =
-            LoggerFactory.getLogger(IppPrintServer.class);
-
-    /** */
-    private static final QueueService QUEUE_SERVICE =
-            ServiceContext.getServiceFactory().getQueueService();
-
-    /** */
-    private static final UserService USER_SERVICE =
-            ServiceContext.getServiceFactory().getUserService();
-
-    /**
-     * Milliseconds sleep after an exception.
-     */
-    private static final long MSEC_SLEEP_AFTER_EXCEPTION = 5000;
-
     /** */
     public static void init() {
         SpInfo.instance().log("IPP Print Server started.");
@@ -178,21 +139,13 @@ public class IppPrintServer extends WebPage implements ServiceEntryPoint {
         final HttpServletRequest request = (HttpServletRequest) requestCycle
                 .getRequest().getContainerRequest();
 
-        if (LOGGER.isDebugEnabled()) {
-            logDebug(request, parameters);
-        }
-
         final HttpServletResponse response = (HttpServletResponse) requestCycle
                 .getResponse().getContainerResponse();
 
-        final String contentTypeReq = request.getContentType();
-
         /*
          * Request for a PPD file. See Mantis #160, #650.
          */
-        if (contentTypeReq == null
-                && StringUtils.upperCase(request.getRequestURL().toString())
-                        .endsWith(".PPD")) {
+        if (IppRequestProcessor.isPpdRequest(request)) {
             handlePpdRequest(response);
             return;
         }
@@ -200,249 +153,27 @@ public class IppPrintServer extends WebPage implements ServiceEntryPoint {
         /*
          * Redirect to /user page for content types other than IPP_CONTENT_TYPE.
          */
-        if (contentTypeReq == null || !contentTypeReq
-                .equalsIgnoreCase(IppOperationContext.CONTENT_TYPE_IPP)) {
+        if (!IppRequestProcessor.isIppRequest(request)) {
             setResponsePage(WebAppUser.class);
             return;
         }
 
-        /*
-         * OK, we can handle the IPP request.
-         */
-        response.setContentType(IppOperationContext.CONTENT_TYPE_IPP);
-        response.setStatus(HttpServletResponse.SC_OK);
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
 
-        /*
-         * NOTE: There is NO top level database transaction. Specialized methods
-         * have their own database transaction.
-         */
-        ServiceContext.open();
+        final boolean isProcessed;
 
         try {
-            final String remoteAddr = WebAppHelper.getClientIP(request);
-
-            /*
-             * Get the Queue from the URL.
-             */
-            final IppPrintServerUrlParms serverPageParms =
-                    new IppPrintServerUrlParms(
-                            Url.parse(request.getRequestURL().toString()));
-
-            final String requestedQueueUrlPath = serverPageParms.getPrinter();
-
-            /*
-             * Reserved queue?
-             */
-            final ReservedIppQueueEnum reservedQueueEnum =
-                    QUEUE_SERVICE.getReservedQueue(requestedQueueUrlPath);
-
-            /*
-             * Find queue object.
-             */
-            final IppQueue queue = ServiceContext.getDaoContext()
-                    .getIppQueueDao().findByUrlPath(requestedQueueUrlPath);
-
-            /*
-             * Access allowed?
-             */
-            if (reservedQueueEnum != null
-                    && !reservedQueueEnum.isDriverPrint()) {
-
-                throw new IppProcessingException(StateEnum.UNAVAILABLE,
-                        String.format("Queue [%s] is not for driver print.",
-                                reservedQueueEnum.getUiText()));
-
-            } else if (queue == null || queue.getDeleted()) {
-
-                throw new IppProcessingException(StateEnum.UNAVAILABLE,
-                        "Queue does not exist.");
-
-            } else if (reservedQueueEnum != ReservedIppQueueEnum.IPP_PRINT_INTERNET
-                    && StringUtils.isBlank(queue.getIpAllowed())
-                    && InetUtils.isPublicAddress(remoteAddr)) {
-
-                throw new IppProcessingException(StateEnum.UNAVAILABLE,
-                        String.format(
-                                "Queue [%s] is not accessible"
-                                        + " from the Internet.",
-                                IppQueueHelper.uiPath(queue)));
-            } else {
-
-                if (!QUEUE_SERVICE.hasClientIpAccessToQueue(queue,
-                        serverPageParms.getPrinter(), remoteAddr)) {
-                    throw new IppProcessingException(StateEnum.UNAVAILABLE,
-                            String.format(
-                                    "Queue [%s] is not allowed for IP address.",
-                                    IppQueueHelper.uiPath(queue)));
-                }
-            }
-
-            /*
-             * Authenticated User ID associated with Internet Print or remote IP
-             * address.
-             */
-            final String authUser;
-            final boolean isAuthUserIppRequester;
-
-            if (reservedQueueEnum == ReservedIppQueueEnum.IPP_PRINT_INTERNET) {
-
-                final User remoteInternetUser = USER_SERVICE
-                        .findUserByNumberUuid(serverPageParms.getUserNumber(),
-                                serverPageParms.getUserUuid());
-
-                if (remoteInternetUser == null) {
-                    throw new IppProcessingException(StateEnum.UNAVAILABLE,
-                            "Print service not available for user/uuid.");
-                }
-
-                authUser = remoteInternetUser.getUserId();
-                isAuthUserIppRequester = true;
-
-            } else {
-
-                final String authUserByIP =
-                        WebApp.getAuthUserByIpAddr(remoteAddr);
-
-                if (authUserByIP == null) {
-                    authUser = ConfigManager.getTrustedUserByIP(remoteAddr);
-                } else {
-                    authUser = authUserByIP;
-                }
-
-                isAuthUserIppRequester =
-                        BooleanUtils.isNotTrue(queue.getTrusted());
-            }
-
-            /*
-             * Handle the request.
-             */
-            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-
-            final IppOperationContext ippOperationContext =
-                    new IppOperationContext();
-
-            ippOperationContext.setRemoteAddr(remoteAddr);
-            ippOperationContext.setRequestedQueueUrlPath(requestedQueueUrlPath);
-            ippOperationContext
-                    .setIppRoutingListener(WebApp.get().getPluginManager());
-
-            final InputStream istr;
-            if ("chunked".equals(request.getHeader("Transfer-Encoding"))) {
-                // TODO use IppChunkedInputStream like this?
-                // istr = new IppChunkedInputStream(request.getInputStream());
-                istr = request.getInputStream();
-            } else {
-                istr = request.getInputStream();
-            }
-
-            final IppOperationId ippOperationId =
-                    AbstractIppOperation.handle(queue, istr, bos, authUser,
-                            isAuthUserIppRequester, ippOperationContext);
-
-            if (ippOperationId != null
-                    && ippOperationId == IppOperationId.VALIDATE_JOB) {
-
-                final String warnMsg;
-
-                if (reservedQueueEnum != null
-                        && !reservedQueueEnum.isDriverPrint()) {
-
-                    warnMsg = new StringBuilder()
-                            .append("Print to reserved queue [")
-                            .append(requestedQueueUrlPath)
-                            .append("] denied from ").append(remoteAddr)
-                            .toString();
-
-                } else if (queue == null || queue.getDeleted()) {
-
-                    warnMsg = new StringBuilder()
-                            .append("Print to unknown queue [")
-                            .append(requestedQueueUrlPath)
-                            .append("] denied from ").append(remoteAddr)
-                            .toString();
-
-                } else if (queue.getDisabled()) {
-
-                    warnMsg = new StringBuilder()
-                            .append("Print to disabled queue [")
-                            .append(requestedQueueUrlPath)
-                            .append("] denied from ").append(remoteAddr)
-                            .toString();
-
-                } else {
-
-                    warnMsg = null;
-
-                }
-
-                if (warnMsg != null) {
-                    AdminPublisher.instance().publish(PubTopicEnum.IPP,
-                            PubLevelEnum.WARN, warnMsg);
-                }
-
-            }
-
-            if (LOGGER.isTraceEnabled()) {
-                logIppOutputTrace(bos);
-            }
+            isProcessed = IppRequestProcessor.process(request, response, bos);
+        } catch (IOException e) {
+            throw new SpException(e.getMessage(), e);
+        }
 
+        if (isProcessed) {
             // Finishing up.
             scheduleRequestHandlerAfterCurrent(requestCycle, bos.toByteArray());
-
-        } catch (IOException | IppProcessingException e) {
-
-            AdminPublisher.instance().publish(PubTopicEnum.IPP,
-                    PubLevelEnum.ERROR, e.getMessage());
-
-            try {
-                /*
-                 * Prevent continuous messaging when IPP client keeps retrying
-                 * with same result.
-                 */
-                Thread.sleep(MSEC_SLEEP_AFTER_EXCEPTION);
-
-            } catch (InterruptedException e1) {
-                // noop
-            }
-
+        } else {
             // Dummy byte for unavailable service.
             scheduleRequestHandlerAfterCurrent(requestCycle, new byte[1]);
-
-            final int httpStatus;
-
-            if (e instanceof IOException) {
-                httpStatus = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
-            } else {
-                final IppProcessingException procEx =
-                        (IppProcessingException) e;
-
-                switch (procEx.getProcessingState()) {
-                case CONTENT_ERROR:
-                    httpStatus = HttpServletResponse.SC_NOT_ACCEPTABLE;
-                    break;
-                case UNAUTHORIZED:
-                    /*
-                     * Do NOT use HttpServletResponse.SC_UNAUTHORIZED, because
-                     * this will make the IPP client try endlessly. SC_OK
-                     * produces an end-state. Mantis #1181.
-                     */
-                    httpStatus = HttpServletResponse.SC_OK;
-                    break;
-                case UNAVAILABLE:
-                    httpStatus = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
-                    break;
-                case INTERNAL_ERROR:
-                    // no break intended
-                default:
-                    httpStatus = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
-                    break;
-                }
-            }
-            response.setStatus(httpStatus);
-
-        } finally {
-
-            ServiceContext.close();
         }
     }
 
@@ -493,75 +224,4 @@ public class IppPrintServer extends WebPage implements ServiceEntryPoint {
         getRequestCycle().scheduleRequestHandlerAfterCurrent(handler);
     }
 
-    /**
-     * Debug Log the request and parameters.
-     *
-     * @param request
-     *            HTTP request.
-     * @param parameters
-     *            Page parameters.
-     */
-    private static void logDebug(final HttpServletRequest request,
-            final PageParameters parameters) {
-
-        final StringBuilder log = new StringBuilder();
-
-        final String bar = "\n+-------------------------------------"
-                + "-------------------------------------------+";
-
-        log.append(bar);
-        log.append("\n| Request [").append(request.getRequestURL().toString())
-                .append("]\n|    From [")
-                .append(WebAppHelper.getClientIP(request)).append("] Bytes [")
-                .append(request.getContentLength()).append("]");
-        log.append(bar).append("\n");
-
-        final Enumeration<String> headerNames = request.getHeaderNames();
-
-        while (headerNames.hasMoreElements()) {
-
-            final String name = headerNames.nextElement();
-            final Enumeration<String> nameHeader = request.getHeaders(name);
-
-            log.append("Header [").append(name).append("]:");
-
-            while (nameHeader.hasMoreElements()) {
-                log.append(" [").append(nameHeader.nextElement()).append("]");
-            }
-            log.append('\n');
-        }
-
-        for (final NamedPair namedPair : parameters.getAllNamed()) {
-            log.append("Parameter [").append(namedPair.getKey()).append("] = [")
-                    .append(namedPair.getValue()).append("]\n");
-        }
-
-        LOGGER.debug(log.toString());
-    }
-
-    /**
-     * Writes a pretty printed byte trace of the raw output stream to the log
-     * file.
-     *
-     * @param bos
-     *            The output stream.
-     */
-    private static void logIppOutputTrace(final ByteArrayOutputStream bos) {
-
-        final int width = 10;
-
-        final StringBuilder msg = new StringBuilder(1024);
-
-        int i = 0;
-        for (byte b : bos.toByteArray()) {
-
-            if (i % width == 0) {
-                msg.append("\n");
-            }
-            msg.append(String.format("0x%02X ", b));
-            i++;
-        }
-        LOGGER.trace(msg.toString());
-    }
-
 }
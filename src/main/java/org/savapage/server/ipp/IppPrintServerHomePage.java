@@ -36,12 +36,9 @@ import org.savapage.server.WebApp;
  * {@link WebApp#getHomePage()}.
  * </p>
  * <p>
- * NOTE: The {@link IppPrintServer} class is still needed, since a SEPARATE
- * class must to be mounted to the {@link WebApp#MOUNT_PATH_PRINTERS} context.
- * Because, if {@link IppPrintServer} is used as BOTH home page AND
- * {@link WebApp#MOUNT_PATH_PRINTERS} handler, a request for the home page will
- * be redirected to the {@link WebApp#MOUNT_PATH_PRINTERS} context. This will
- * confuse clients sending IPP request to the home page, since they probably
+ * NOTE: The {@link WebApp#MOUNT_PATH_PRINTERS} context is handled by
+ * {@link IppPrintServlet}. A request for the home page must NOT be redirected
+ * to that context, since clients sending IPP request to the home page probably
  * cannot handle HTTP redirection. See Mantis #154.
  * </p>
  *
@@ -0,0 +1,137 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.ipp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.savapage.core.SpException;
+import org.savapage.core.config.ConfigManager;
+import org.savapage.server.WebApp;
+
+/**
+ * SavaPage IPP Print Server handling all IPP requests on the
+ * {@link WebApp#MOUNT_PATH_PRINTERS} context.
+ * <p>
+ * This servlet is sessionless: no Wicket session or page is created, and the
+ * IPP response is streamed directly to the HTTP response.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+@WebServlet(name = "IppPrintServlet",
+        urlPatterns = { WebApp.MOUNT_PATH_PRINTERS,
+                WebApp.MOUNT_PATH_PRINTERS + "/*" })
+public final class IppPrintServlet extends HttpServlet {
+
+    /** */
+    private static final long serialVersionUID = 1L;
+
+    /** */
+    private static final String CONTENT_TYPE_PPD = "application/vnd.cups-ppd";
+
+    @Override
+    protected void doGet(final HttpServletRequest req,
+            final HttpServletResponse resp)
+            throws ServletException, IOException {
+        this.handle(req, resp);
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest req,
+            final HttpServletResponse resp)
+            throws ServletException, IOException {
+        this.handle(req, resp);
+    }
+
+    /**
+     * Handles a request.
+     *
+     * @param req
+     *            HTTP request.
+     * @param resp
+     *            HTTP response.
+     * @throws IOException
+     *             When IO error.
+     */
+    private void handle(final HttpServletRequest req,
+            final HttpServletResponse resp) throws IOException {
+
+        if (IppRequestProcessor.isPpdRequest(req)) {
+            handlePpdRequest(resp);
+            return;
+        }
+
+        /*
+         * Redirect to /user page for content types other than IPP_CONTENT_TYPE.
+         */
+        if (!IppRequestProcessor.isIppRequest(req)) {
+            resp.sendRedirect(WebApp.MOUNT_PATH_WEBAPP_USER);
+            return;
+        }
+
+        if (!IppRequestProcessor.process(req, resp, resp.getOutputStream())) {
+            // Dummy byte for unavailable service.
+            resp.getOutputStream().write(0);
+        }
+    }
+
+    /**
+     * Handles a request for the SAVAPAGE.ppd file: the PPD file is returned
+     * INLINE.
+     *
+     * @param resp
+     *            The response.
+     * @throws IOException
+     *             When IO error.
+     */
+    private static void handlePpdRequest(final HttpServletResponse resp)
+            throws IOException {
+
+        final File file = ConfigManager.getPpdFile();
+
+        if (!file.exists()) {
+            throw new SpException(
+                    "PPD file [" + file.getAbsolutePath() + "] does NOT exist");
+        }
+
+        resp.setContentType(CONTENT_TYPE_PPD);
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setHeader("Content-Disposition", "inline");
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.setContentLengthLong(file.length());
+
+        Files.copy(file.toPath(), resp.getOutputStream());
+    }
+
+}
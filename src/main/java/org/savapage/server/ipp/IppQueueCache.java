@@ -0,0 +1,343 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.ipp;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.savapage.core.dao.enums.ReservedIppQueueEnum;
+import org.savapage.core.dao.helpers.IppQueueHelper;
+import org.savapage.core.jpa.IppQueue;
+import org.savapage.core.services.QueueService;
+import org.savapage.core.services.ServiceContext;
+import org.savapage.core.services.ServiceEntryPoint;
+import org.savapage.server.helpers.CidrMatcher;
+
+/**
+ * Read-mostly cache of IPP queues by URL path, holding the resolved queue
+ * flags and pre-compiled CIDR matcher of allowed client IP addresses.
+ * <p>
+ * An {@link Entry} is an immutable value object: it holds no {@link IppQueue}
+ * entity. Read-only operations can use a transient copy of the queue
+ * properties, see {@link Entry#createQueueSnapshot()}. Code that changes the
+ * queue, or creates a job on it, must load a managed entity with
+ * {@link Entry#getQueueId()}.
+ * </p>
+ * <p>
+ * The cache is invalidated when a queue is changed in the Web App. As safety
+ * net for changes made otherwise, entries expire after
+ * {@link #MSEC_TIME_TO_LIVE}. Unknown or logically deleted URL paths are
+ * cached as absent for the same time, up to {@link #MAX_ABSENT_PATHS} paths,
+ * so random paths cannot grow the cache.
+ * </p>
+ * <p>
+ * A load from the database is only cached when no {@link #invalidate()} was
+ * done meanwhile, so a concurrent {@link #get(String)} cannot put back a
+ * stale entry.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class IppQueueCache implements ServiceEntryPoint {
+
+    /**
+     * Time-to-live of a cache entry.
+     */
+    private static final long MSEC_TIME_TO_LIVE = 10000;
+
+    /**
+     * Max number of cached unknown URL paths.
+     */
+    private static final int MAX_ABSENT_PATHS = 1000;
+
+    /** */
+    private static final QueueService QUEUE_SERVICE =
+            ServiceContext.getServiceFactory().getQueueService();
+
+    /**
+     * A cached queue.
+     */
+    public static final class Entry {
+
+        /** Primary key of the queue. */
+        private final Long queueId;
+
+        /** */
+        private final String urlPath;
+
+        /** Queue path for display. */
+        private final String uiPath;
+
+        /** {@code null} when not a reserved queue. */
+        private final ReservedIppQueueEnum reservedQueue;
+
+        /** {@code null} when all client IP addresses are allowed. */
+        private final CidrMatcher ipAllowed;
+
+        /** */
+        private final boolean disabled;
+
+        /** */
+        private final boolean trusted;
+
+        /** */
+        private final String description;
+
+        /** */
+        private final String location;
+
+        /** {@code null} or blank when all client IP addresses are allowed. */
+        private final String ipAllowedText;
+
+        /** Expiry time of this entry. */
+        private final long expiry;
+
+        /**
+         * @param queue
+         *            The queue.
+         * @param reservedQueue
+         *            {@code null} when not a reserved queue.
+         * @param expiry
+         *            Expiry time of this entry.
+         */
+        private Entry(final IppQueue queue,
+                final ReservedIppQueueEnum reservedQueue, final long expiry) {
+
+            this.queueId = queue.getId();
+            this.urlPath = queue.getUrlPath();
+            this.uiPath = IppQueueHelper.uiPath(queue);
+            this.reservedQueue = reservedQueue;
+            this.disabled = BooleanUtils.isTrue(queue.getDisabled());
+            this.trusted = BooleanUtils.isTrue(queue.getTrusted());
+            this.description = queue.getDescription();
+            this.location = queue.getLocation();
+            this.ipAllowedText = queue.getIpAllowed();
+            this.expiry = expiry;
+
+            if (StringUtils.isBlank(queue.getIpAllowed())) {
+                this.ipAllowed = null;
+            } else {
+                this.ipAllowed = CidrMatcher.compile(queue.getIpAllowed());
+            }
+        }
+
+        /**
+         * @return Primary key of the queue.
+         */
+        public Long getQueueId() {
+            return queueId;
+        }
+
+        /**
+         * @return The URL path of the queue.
+         */
+        public String getUrlPath() {
+            return urlPath;
+        }
+
+        /**
+         * @return The queue path for display.
+         */
+        public String getUiPath() {
+            return uiPath;
+        }
+
+        /**
+         * @return {@code null} when not a reserved queue.
+         */
+        public ReservedIppQueueEnum getReservedQueue() {
+            return reservedQueue;
+        }
+
+        /**
+         * @return {@code true} when queue is disabled.
+         */
+        public boolean isDisabled() {
+            return disabled;
+        }
+
+        /**
+         * @return {@code true} when queue is trusted.
+         */
+        public boolean isTrusted() {
+            return trusted;
+        }
+
+        /**
+         * @return {@code true} when allowed client IP addresses are
+         *         restricted.
+         */
+        public boolean isIpAllowedRestricted() {
+            return ipAllowed != null;
+        }
+
+        /**
+         * @param remoteAddr
+         *            Client IP address.
+         * @return {@code true} when client has access to the queue.
+         */
+        public boolean hasClientIpAccess(final String remoteAddr) {
+            return ipAllowed == null || ipAllowed.matches(remoteAddr);
+        }
+
+        /**
+         * Creates a transient {@link IppQueue} with the cached properties, for
+         * read-only operations like Get-Printer-Attributes. A new object is
+         * created on each call, so it is never shared between threads.
+         *
+         * @return The transient queue, not attached to a persistence context.
+         */
+        public IppQueue createQueueSnapshot() {
+            final IppQueue queue = new IppQueue();
+            queue.setId(this.queueId);
+            queue.setUrlPath(this.urlPath);
+            queue.setDescription(this.description);
+            queue.setLocation(this.location);
+            queue.setIpAllowed(this.ipAllowedText);
+            queue.setDisabled(Boolean.valueOf(this.disabled));
+            queue.setTrusted(Boolean.valueOf(this.trusted));
+            queue.setDeleted(Boolean.FALSE);
+            return queue;
+        }
+    }
+
+    /**
+     * Entries by URL path.
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Expiry time of unknown or logically deleted URL paths.
+     */
+    private final Map<String, Long> absentPaths = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented on each {@link #invalidate()}.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** */
+    private static class SingletonHolder {
+        /** */
+        public static final IppQueueCache INSTANCE = new IppQueueCache();
+    }
+
+    /**
+     * Singleton.
+     */
+    private IppQueueCache() {
+    }
+
+    /**
+     * @return The singleton instance.
+     */
+    public static IppQueueCache instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Gets a queue by URL path. When not cached, the queue is read from the
+     * database, so a {@link ServiceContext} must be open.
+     *
+     * @param urlPath
+     *            The URL path of the queue.
+     * @return {@code null} when queue is not found or logically deleted.
+     */
+    public Entry get(final String urlPath) {
+
+        final String key = StringUtils.defaultString(urlPath);
+        final long now = System.currentTimeMillis();
+
+        final Entry cached = this.entries.get(key);
+
+        if (cached != null && cached.expiry > now) {
+            return cached;
+        }
+
+        final Long absentExpiry = this.absentPaths.get(key);
+
+        if (absentExpiry != null && absentExpiry.longValue() > now) {
+            return null;
+        }
+
+        final long loadGeneration = this.generation.get();
+
+        final IppQueue queue = ServiceContext.getDaoContext().getIppQueueDao()
+                .findByUrlPath(key);
+
+        if (queue == null || BooleanUtils.isTrue(queue.getDeleted())) {
+
+            synchronized (this.generation) {
+                if (loadGeneration == this.generation.get()) {
+                    this.entries.remove(key);
+                    if (this.absentPaths.size() >= MAX_ABSENT_PATHS) {
+                        this.absentPaths.clear();
+                    }
+                    this.absentPaths.put(key,
+                            Long.valueOf(now + MSEC_TIME_TO_LIVE));
+                }
+            }
+            return null;
+        }
+
+        final Entry entry = new Entry(queue,
+                QUEUE_SERVICE.getReservedQueue(key), now + MSEC_TIME_TO_LIVE);
+
+        synchronized (this.generation) {
+            if (loadGeneration == this.generation.get()) {
+                this.absentPaths.remove(key);
+                this.entries.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Gets a reserved queue.
+     *
+     * @param reservedQueue
+     *            The reserved queue.
+     * @return {@code null} when queue is not found.
+     */
+    public Entry get(final ReservedIppQueueEnum reservedQueue) {
+        return this.get(reservedQueue.getUrlPath());
+    }
+
+    /**
+     * Invalidates all cached queues. Must be called when a queue is changed.
+     */
+    public void invalidate() {
+        synchronized (this.generation) {
+            this.generation.incrementAndGet();
+            this.entries.clear();
+            this.absentPaths.clear();
+        }
+    }
+
+}
@@ -0,0 +1,578 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.ipp;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.wicket.request.Url;
+import org.savapage.core.cometd.AdminPublisher;
+import org.savapage.core.cometd.PubLevelEnum;
+import org.savapage.core.cometd.PubTopicEnum;
+import org.savapage.core.config.ConfigManager;
+import org.savapage.core.dao.enums.ReservedIppQueueEnum;
+import org.savapage.core.ipp.IppProcessingException;
+import org.savapage.core.ipp.IppProcessingException.StateEnum;
+import org.savapage.core.ipp.operation.AbstractIppOperation;
+import org.savapage.core.ipp.operation.IppOperationContext;
+import org.savapage.core.ipp.operation.IppOperationId;
+import org.savapage.core.jpa.IppQueue;
+import org.savapage.core.jpa.User;
+import org.savapage.core.services.QueueService;
+import org.savapage.core.services.ServiceContext;
+import org.savapage.core.services.ServiceEntryPoint;
+import org.savapage.core.services.UserService;
+import org.savapage.core.util.InetUtils;
+import org.savapage.server.WebApp;
+import org.savapage.server.img.PageImageRenderQueue;
+import org.savapage.server.webapp.WebAppHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes an IPP request, independent of the way it is received: as
+ * {@link IppPrintServlet} or as Wicket {@link IppPrintServer} page.
+ *
+ * @author Rijk Ravestein
+ *
+ */
+final class IppRequestProcessor implements ServiceEntryPoint {
+
+    /** */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(IppRequestProcessor.class);
+
+    /** */
+    private static final QueueService QUEUE_SERVICE =
+            ServiceContext.getServiceFactory().getQueueService();
+
+    /** */
+    private static final UserService USER_SERVICE =
+            ServiceContext.getServiceFactory().getUserService();
+
+    /**
+     * Length of version-number and operation-id at the start of an IPP
+     * request (RFC 8010).
+     */
+    private static final int IPP_HEADER_OPERATION_END = 4;
+
+    /** RFC 8011: Print-Job. */
+    private static final int OPERATION_ID_PRINT_JOB = 0x0002;
+    /** RFC 8011: Print-URI. */
+    private static final int OPERATION_ID_PRINT_URI = 0x0003;
+    /** RFC 8011: Create-Job. */
+    private static final int OPERATION_ID_CREATE_JOB = 0x0005;
+    /** RFC 8011: Send-Document. */
+    private static final int OPERATION_ID_SEND_DOCUMENT = 0x0006;
+    /** RFC 8011: Send-URI. */
+    private static final int OPERATION_ID_SEND_URI = 0x0007;
+
+    /** */
+    private static final IppQueueCache QUEUE_CACHE = IppQueueCache.instance();
+
+    /** */
+    private static final IppClientPenaltyBox PENALTY_BOX =
+            IppClientPenaltyBox.instance();
+
+    /**
+     * Utility class.
+     */
+    private IppRequestProcessor() {
+    }
+
+    /**
+     * Checks if request has the IPP content type.
+     *
+     * @param request
+     *            HTTP request.
+     * @return {@code true} when IPP request.
+     */
+    static boolean isIppRequest(final HttpServletRequest request) {
+        final String contentTypeReq = request.getContentType();
+        return contentTypeReq != null && contentTypeReq
+                .equalsIgnoreCase(IppOperationContext.CONTENT_TYPE_IPP);
+    }
+
+    /**
+     * Checks if request is for the PPD file. See Mantis #160, #650.
+     *
+     * @param request
+     *            HTTP request.
+     * @return {@code true} when PPD request.
+     */
+    static boolean isPpdRequest(final HttpServletRequest request) {
+        return request.getContentType() == null
+                && StringUtils.upperCase(request.getRequestURL().toString())
+                        .endsWith(".PPD");
+    }
+
+    /**
+     * Processes an IPP request and writes the IPP response.
+     * <p>
+     * Note: input with {@code Transfer-Encoding: chunked} is decoded by the
+     * servlet container, so {@link HttpServletRequest#getInputStream()} can
+     * be read as is.
+     * </p>
+     *
+     * @param request
+     *            HTTP request with IPP content type.
+     * @param response
+     *            HTTP response: content type and status are set.
+     * @param ostr
+     *            The stream to write the IPP response to.
+     * @return {@code true} when IPP response is written. {@code false} when
+     *         request failed or was rejected: HTTP status is set, and caller
+     *         must write a dummy byte for unavailable service.
+     * @throws IOException
+     *             When writing the IPP response to the output stream fails.
+     */
+    static boolean process(final HttpServletRequest request,
+            final HttpServletResponse response, final OutputStream ostr)
+            throws IOException {
+
+        if (LOGGER.isDebugEnabled()) {
+            logDebug(request);
+        }
+
+        response.setContentType(IppOperationContext.CONTENT_TYPE_IPP);
+
+        final String remoteAddr = WebAppHelper.getClientIP(request);
+
+        final String penaltyKey = IppClientPenaltyBox.createKey(
+                request.getRequestURI(), request.getHeader("User-Agent"));
+
+        /*
+         * Reject right away when request is in the penalty box, because of
+         * previous identical failures.
+         */
+        final long msecPenalty =
+                PENALTY_BOX.checkPenalty(remoteAddr, penaltyKey);
+
+        if (msecPenalty > 0) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", String.valueOf(
+                    TimeUnit.MILLISECONDS.toSeconds(msecPenalty) + 1));
+            return false;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+
+        /*
+         * NOTE: There is NO top level database transaction. Specialized methods
+         * have their own database transaction.
+         */
+        ServiceContext.open();
+
+        try {
+            process(request, remoteAddr, ostr);
+            PENALTY_BOX.onSuccess(remoteAddr, penaltyKey);
+            return true;
+
+        } catch (IppProcessingException | IOException e) {
+
+            AdminPublisher.instance().publish(PubTopicEnum.IPP,
+                    PubLevelEnum.ERROR, e.getMessage());
+
+            /*
+             * Prevent continuous messaging when IPP client keeps retrying with
+             * same result. UNAUTHORIZED is an end-state (see getHttpStatus),
+             * and an IOException is mostly a client disconnect: these are
+             * not penalized.
+             */
+            if (e instanceof IppProcessingException) {
+                final StateEnum state =
+                        ((IppProcessingException) e).getProcessingState();
+                if (state != StateEnum.UNAUTHORIZED) {
+                    PENALTY_BOX.onFailure(remoteAddr, penaltyKey,
+                            String.format("%s|%s", state, e.getMessage()));
+                }
+            }
+
+            response.setStatus(getHttpStatus(e));
+            return false;
+
+        } finally {
+            ServiceContext.close();
+        }
+    }
+
+    /**
+     * Gets the HTTP status of an IPP processing exception.
+     *
+     * @param e
+     *            The exception.
+     * @return The HTTP status.
+     */
+    private static int getHttpStatus(final Exception e) {
+
+        if (!(e instanceof IppProcessingException)) {
+            return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        }
+
+        switch (((IppProcessingException) e).getProcessingState()) {
+        case CONTENT_ERROR:
+            return HttpServletResponse.SC_NOT_ACCEPTABLE;
+        case UNAUTHORIZED:
+            /*
+             * Do NOT use HttpServletResponse.SC_UNAUTHORIZED, because this will
+             * make the IPP client try endlessly. SC_OK produces an end-state.
+             * Mantis #1181.
+             */
+            return HttpServletResponse.SC_OK;
+        case UNAVAILABLE:
+            return HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+        case INTERNAL_ERROR:
+            // no break intended
+        default:
+            return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        }
+    }
+
+    /**
+     * Checks queue access and handles the IPP operation.
+     *
+     * @param request
+     *            HTTP request.
+     * @param remoteAddr
+     *            The client IP address.
+     * @param ostr
+     *            The stream to write the IPP response to.
+     * @throws IppProcessingException
+     *             When IPP processing fails.
+     * @throws IOException
+     *             When IO error.
+     */
+    private static void process(final HttpServletRequest request,
+            final String remoteAddr, final OutputStream ostr)
+            throws IppProcessingException, IOException {
+
+        /*
+         * Get the Queue from the URL.
+         */
+        final IppPrintServerUrlParms serverPageParms =
+                new IppPrintServerUrlParms(
+                        Url.parse(request.getRequestURL().toString()));
+
+        final String requestedQueueUrlPath = serverPageParms.getPrinter();
+
+        /*
+         * Find cached queue object.
+         */
+        final IppQueueCache.Entry queueEntry =
+                QUEUE_CACHE.get(requestedQueueUrlPath);
+
+        final ReservedIppQueueEnum reservedQueueEnum;
+
+        if (queueEntry == null) {
+            reservedQueueEnum =
+                    QUEUE_SERVICE.getReservedQueue(requestedQueueUrlPath);
+        } else {
+            reservedQueueEnum = queueEntry.getReservedQueue();
+        }
+
+        /*
+         * Access allowed?
+         */
+        if (reservedQueueEnum != null && !reservedQueueEnum.isDriverPrint()) {
+
+            throw new IppProcessingException(StateEnum.UNAVAILABLE,
+                    String.format("Queue [%s] is not for driver print.",
+                            reservedQueueEnum.getUiText()));
+
+        } else if (queueEntry == null) {
+
+            throw new IppProcessingException(StateEnum.UNAVAILABLE,
+                    "Queue does not exist.");
+
+        } else if (reservedQueueEnum != ReservedIppQueueEnum.IPP_PRINT_INTERNET
+                && !queueEntry.isIpAllowedRestricted()
+                && InetUtils.isPublicAddress(remoteAddr)) {
+
+            throw new IppProcessingException(StateEnum.UNAVAILABLE,
+                    String.format(
+                            "Queue [%s] is not accessible from the Internet.",
+                            queueEntry.getUiPath()));
+
+        } else if (!queueEntry.hasClientIpAccess(remoteAddr)) {
+
+            throw new IppProcessingException(StateEnum.UNAVAILABLE,
+                    String.format("Queue [%s] is not allowed for IP address.",
+                            queueEntry.getUiPath()));
+        }
+
+        /*
+         * Peek at the operation: a print job is created with a managed queue
+         * entity. Read-only operations (printer attribute polling, job
+         * queries, Validate-Job) use a snapshot of the cached queue, and do
+         * not touch the database.
+         */
+        final BufferedInputStream istr =
+                new BufferedInputStream(request.getInputStream());
+
+        final boolean isJobCreating =
+                isJobCreatingOperation(peekOperationId(istr));
+
+        final IppQueue queue;
+
+        if (isJobCreating) {
+
+            queue = ServiceContext.getDaoContext().getIppQueueDao()
+                    .findById(queueEntry.getQueueId());
+
+            if (queue == null || queue.getDeleted()) {
+                throw new IppProcessingException(StateEnum.UNAVAILABLE,
+                        "Queue does not exist.");
+            }
+        } else {
+            queue = queueEntry.createQueueSnapshot();
+        }
+
+        /*
+         * Authenticated User ID associated with Internet Print or remote IP
+         * address.
+         */
+        final String authUser;
+        final boolean isAuthUserIppRequester;
+
+        if (reservedQueueEnum == ReservedIppQueueEnum.IPP_PRINT_INTERNET) {
+
+            final User remoteInternetUser =
+                    USER_SERVICE.findUserByNumberUuid(
+                            serverPageParms.getUserNumber(),
+                            serverPageParms.getUserUuid());
+
+            if (remoteInternetUser == null) {
+                throw new IppProcessingException(StateEnum.UNAVAILABLE,
+                        "Print service not available for user/uuid.");
+            }
+
+            authUser = remoteInternetUser.getUserId();
+            isAuthUserIppRequester = true;
+
+        } else {
+
+            final String authUserByIP = WebApp.getAuthUserByIpAddr(remoteAddr);
+
+            if (authUserByIP == null) {
+                authUser = ConfigManager.getTrustedUserByIP(remoteAddr);
+            } else {
+                authUser = authUserByIP;
+            }
+
+            isAuthUserIppRequester = !queueEntry.isTrusted();
+        }
+
+        /*
+         * Handle the request.
+         */
+        final IppOperationContext ippOperationContext =
+                new IppOperationContext();
+
+        ippOperationContext.setRemoteAddr(remoteAddr);
+        ippOperationContext.setRequestedQueueUrlPath(requestedQueueUrlPath);
+        ippOperationContext
+                .setIppRoutingListener(WebApp.get().getPluginManager());
+
+        /*
+         * The IPP response is written straight to the output stream, unless
+         * it is trace logged.
+         */
+        final OutputStream ostrIpp;
+
+        if (LOGGER.isTraceEnabled()) {
+            ostrIpp = new ByteArrayOutputStream();
+        } else {
+            ostrIpp = ostr;
+        }
+
+        final IppOperationId ippOperationId =
+                AbstractIppOperation.handle(queue, istr,
+                        ostrIpp, authUser, isAuthUserIppRequester,
+                        ippOperationContext);
+
+        if (ippOperationId != null
+                && ippOperationId == IppOperationId.VALIDATE_JOB) {
+
+            final String warnMsg;
+
+            if (queueEntry.isDisabled()) {
+                warnMsg = new StringBuilder()
+                        .append("Print to disabled queue [")
+                        .append(requestedQueueUrlPath).append("] denied from ")
+                        .append(remoteAddr).toString();
+            } else {
+                warnMsg = null;
+            }
+
+            if (warnMsg != null) {
+                AdminPublisher.instance().publish(PubTopicEnum.IPP,
+                        PubLevelEnum.WARN, warnMsg);
+            }
+        }
+
+        if (isJobCreating && authUser != null) {
+            PageImageRenderQueue.instance().warmInbox(authUser);
+        }
+
+        if (ostrIpp != ostr) {
+            final ByteArrayOutputStream bos = (ByteArrayOutputStream) ostrIpp;
+            logIppOutputTrace(bos);
+            bos.writeTo(ostr);
+        }
+    }
+
+    /**
+     * Peeks at the operation-id of an IPP request, without consuming it.
+     *
+     * @param istr
+     *            IPP request stream.
+     * @return The operation-id, or {@code -1} when stream is too short.
+     * @throws IOException
+     *             When IO error.
+     */
+    private static int peekOperationId(final BufferedInputStream istr)
+            throws IOException {
+
+        final byte[] header = new byte[IPP_HEADER_OPERATION_END];
+
+        istr.mark(header.length);
+
+        int nBytes = 0;
+
+        try {
+            while (nBytes < header.length) {
+                final int n = istr.read(header, nBytes, header.length - nBytes);
+                if (n < 0) {
+                    break;
+                }
+                nBytes += n;
+            }
+        } finally {
+            istr.reset();
+        }
+
+        if (nBytes < header.length) {
+            return -1;
+        }
+        return ((header[IPP_HEADER_OPERATION_END - 2] & 0xFF) << 8)
+                | (header[IPP_HEADER_OPERATION_END - 1] & 0xFF);
+    }
+
+    /**
+     * @param operationId
+     *            IPP operation-id.
+     * @return {@code true} when operation creates a print job, or adds a
+     *         document to it.
+     */
+    private static boolean isJobCreatingOperation(final int operationId) {
+        switch (operationId) {
+        case OPERATION_ID_PRINT_JOB:
+        case OPERATION_ID_PRINT_URI:
+        case OPERATION_ID_CREATE_JOB:
+        case OPERATION_ID_SEND_DOCUMENT:
+        case OPERATION_ID_SEND_URI:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Debug Log the request.
+     *
+     * @param request
+     *            HTTP request.
+     */
+    private static void logDebug(final HttpServletRequest request) {
+
+        final StringBuilder log = new StringBuilder();
+
+        final String bar = "\n+-------------------------------------"
+                + "-------------------------------------------+";
+
+        log.append(bar);
+        log.append("\n| Request [").append(request.getRequestURL().toString())
+                .append("]\n|    From [")
+                .append(WebAppHelper.getClientIP(request)).append("] Bytes [")
+                .append(request.getContentLength()).append("]");
+        log.append(bar).append("\n");
+
+        final Enumeration<String> headerNames = request.getHeaderNames();
+
+        while (headerNames.hasMoreElements()) {
+
+            final String name = headerNames.nextElement();
+            final Enumeration<String> nameHeader = request.getHeaders(name);
+
+            log.append("Header [").append(name).append("]:");
+
+            while (nameHeader.hasMoreElements()) {
+                log.append(" [").append(nameHeader.nextElement()).append("]");
+            }
+            log.append('\n');
+        }
+
+        if (request.getQueryString() != null) {
+            log.append("Query [").append(request.getQueryString())
+                    .append("]\n");
+        }
+
+        LOGGER.debug(log.toString());
+    }
+
+    /**
+     * Writes a pretty printed byte trace of the raw output stream to the log
+     * file.
+     *
+     * @param bos
+     *            The output stream.
+     */
+    private static void logIppOutputTrace(final ByteArrayOutputStream bos) {
+
+        final int width = 10;
+
+        final StringBuilder msg = new StringBuilder(1024);
+
+        int i = 0;
+        for (byte b : bos.toByteArray()) {
+
+            if (i % width == 0) {
+                msg.append("\n");
+            }
+            msg.append(String.format("0x%02X ", b));
+            i++;
+        }
+        LOGGER.trace(msg.toString());
+    }
+
+}
@@ -93,6 +93,7 @@ import org.savapage.core.users.IExternalUserAuthenticator;
 import org.savapage.core.util.AppLogHelper;
 import org.savapage.core.util.DateUtil;
 import org.savapage.core.util.InetUtils;
+import org.savapage.server.helpers.CidrMatcher;
 import org.savapage.server.webapp.WebAppHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -376,12 +377,10 @@ public final class JsonRpcServlet extends HttpServlet
          */
         if (!isPrivateApi) {
 
-            final String cidrRanges = ConfigManager.instance()
-                    .getConfigValue(Key.API_JSONRPC_IP_ADDRESSES_ALLOWED);
+            final CidrMatcher cidrRanges = CidrMatcher
+                    .forConfig(Key.API_JSONRPC_IP_ADDRESSES_ALLOWED);
 
-            if (StringUtils.isBlank(cidrRanges)
-                    || !InetUtils.isIpAddrInCidrRanges(cidrRanges,
-                            clientAddress)
+            if (cidrRanges.isBlank() || !cidrRanges.matches(clientAddress)
                     || !secretKey.equals(ConfigManager.instance()
                             .getConfigValue(Key.API_JSONRPC_SECRET_KEY))) {
 
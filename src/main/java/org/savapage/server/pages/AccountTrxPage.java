@@ -761,7 +761,14 @@ public final class AccountTrxPage extends AbstractListPage {
         final AccountTrxDao accountTrxDao =
                 ServiceContext.getDaoContext().getAccountTrxDao();
 
-        final long logCount = accountTrxDao.getListCount(filter);
+        final long logCount = PagerCache.instance().getCount(
+                PagerCache.createKey("accounttrx", userId, req.getSelect()),
+                new PagerCache.CountQuery() {
+                    @Override
+                    public long count() {
+                        return accountTrxDao.getListCount(filter);
+                    }
+                });
 
         /*
          * Display the requested page.
@@ -28,12 +28,14 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
 
 import org.apache.commons.collections4.map.HashedMap;
 import org.apache.commons.lang3.BooleanUtils;
@@ -42,7 +44,6 @@ import org.apache.commons.lang3.math.NumberUtils;
 import org.savapage.core.SpException;
 import org.savapage.core.config.ConfigManager;
 import org.savapage.core.crypto.CryptoUser;
-import org.savapage.core.dao.DocInOutDao;
 import org.savapage.core.dao.DocLogDao;
 import org.savapage.core.dao.PrintOutDao;
 import org.savapage.core.dao.enums.DaoEnumHelper;
@@ -74,6 +75,7 @@ import org.savapage.core.util.DateUtil;
 import org.savapage.core.util.JsonHelper;
 import org.savapage.core.util.NumberUtil;
 import org.savapage.server.WebApp;
+import org.savapage.server.helpers.DocStorePresenceIndex;
 
 /**
  *
@@ -323,6 +325,303 @@ public final class DocLogItem {
         this.totalPages = totalPages;
     }
 
+    /**
+     * Fetch joins of the one-to-one details of a {@link DocLog} row (alias
+     * {@code D}), so they are selected in the page query, instead of a lazy
+     * load (query) per row and relation.
+     */
+    static final String[] DOCLOG_FETCH_JOINS = { //
+            " LEFT JOIN FETCH D.docIn FI", //
+            " LEFT JOIN FETCH FI.printIn FPI", //
+            " LEFT JOIN FETCH FPI.queue", //
+            " LEFT JOIN FETCH D.docOut FO", //
+            " LEFT JOIN FETCH FO.printOut FPO", //
+            " LEFT JOIN FETCH FPO.printer", //
+            " LEFT JOIN FETCH FO.pdfOut" //
+    };
+
+    /**
+     * Creates the SELECT and FROM clause of a {@link DocLog} list query.
+     *
+     * @param count
+     *            {@code true} for a count query.
+     * @param accountTrxRoot
+     *            {@code true} when rows are selected by {@link AccountTrx}.
+     * @return The JPQL.
+     */
+    static String createSelectCommon(final boolean count,
+            final boolean accountTrxRoot) {
+
+        final StringBuilder jpql = new StringBuilder();
+
+        jpql.append("SELECT ");
+
+        if (count) {
+            jpql.append("COUNT(D.id)");
+        } else {
+            jpql.append("D");
+        }
+
+        if (accountTrxRoot) {
+            jpql.append(" FROM AccountTrx TRX JOIN TRX.docLog D");
+            if (!count) {
+                jpql.append(" LEFT JOIN FETCH D.user");
+            }
+        } else if (count) {
+            jpql.append(" FROM DocLog D JOIN D.user U");
+        } else {
+            jpql.append(" FROM DocLog D JOIN FETCH D.user U");
+        }
+
+        if (!count) {
+            for (final String join : DOCLOG_FETCH_JOINS) {
+                jpql.append(join);
+            }
+        }
+
+        return jpql.toString();
+    }
+
+    /**
+     * The one-to-many details of the {@link DocLog} rows of a page, each
+     * fetched in one (batch) query for all rows.
+     */
+    static final class PageDetails {
+
+        /** {@link AccountTrx} list by {@link DocLog} primary key. */
+        final Map<Long, List<AccountTrx>> trxByDocLog;
+
+        /** {@link PrintOut} list by (Mail Print) {@link DocIn} primary key. */
+        final Map<Long, List<PrintOut>> printOutByDocIn;
+
+        /** {@link MailPrintData} by Ticket, by {@link DocOut} primary key. */
+        final Map<Long, Map<String, MailPrintData>> mailPrintInByDocOut;
+
+        /**
+         * @param trxByDocLog
+         *            {@link AccountTrx} list by {@link DocLog} primary key.
+         * @param printOutByDocIn
+         *            {@link PrintOut} list by {@link DocIn} primary key.
+         * @param mailPrintInByDocOut
+         *            {@link MailPrintData} by Ticket, by {@link DocOut}
+         *            primary key.
+         */
+        private PageDetails(final Map<Long, List<AccountTrx>> trxByDocLog,
+                final Map<Long, List<PrintOut>> printOutByDocIn,
+                final Map<Long,
+                        Map<String, MailPrintData>> mailPrintInByDocOut) {
+            this.trxByDocLog = trxByDocLog;
+            this.printOutByDocIn = printOutByDocIn;
+            this.mailPrintInByDocOut = mailPrintInByDocOut;
+        }
+
+        /**
+         * Fetches the details of the rows of a page, with at most three
+         * queries, whatever the number of rows.
+         *
+         * @param em
+         *            The {@link EntityManager}.
+         * @param queueService
+         *            The {@link QueueService}.
+         * @param docLogs
+         *            The rows of the page.
+         * @param isMailPrintInView
+         *            {@code true} when Mail Print tickets of print jobs are
+         *            shown.
+         * @return The details.
+         */
+        static PageDetails fetch(final EntityManager em,
+                final QueueService queueService, final List<DocLog> docLogs,
+                final boolean isMailPrintInView) {
+
+            final List<Long> docLogIds = new ArrayList<>();
+            final List<Long> mailDocInIds = new ArrayList<>();
+            final List<Long> printDocOutIds = new ArrayList<>();
+
+            for (final DocLog docLog : docLogs) {
+
+                docLogIds.add(docLog.getId());
+
+                final DocIn docIn = docLog.getDocIn();
+                final DocOut docOut = docLog.getDocOut();
+
+                if (docIn != null) {
+                    if (docIn.getPrintIn() != null
+                            && StringUtils.isNotBlank(docLog.getExternalId())) {
+                        mailDocInIds.add(docIn.getId());
+                    }
+                } else if (docOut != null && isMailPrintInView
+                        && docOut.getPrintOut() != null) {
+                    printDocOutIds.add(docOut.getId());
+                }
+            }
+
+            return new PageDetails(getTransactions(em, docLogIds),
+                    getPrintOutOfDocIn(em, mailDocInIds),
+                    getMailPrintInData(em, queueService, printDocOutIds));
+        }
+
+        /**
+         * Gets the {@link AccountTrx} objects of {@link DocLog} rows in one
+         * query.
+         *
+         * @param em
+         *            The {@link EntityManager}.
+         * @param docLogIds
+         *            Primary keys of the {@link DocLog} rows.
+         * @return {@link AccountTrx} list by {@link DocLog} primary key.
+         */
+        private static Map<Long, List<AccountTrx>> getTransactions(
+                final EntityManager em, final List<Long> docLogIds) {
+
+            final Map<Long, List<AccountTrx>> map = new HashMap<>();
+
+            if (docLogIds.isEmpty()) {
+                return map;
+            }
+
+            final TypedQuery<Object[]> query = em.createQuery(
+                    "SELECT T.docLog.id, T FROM AccountTrx T"
+                            + " JOIN FETCH T.account"
+                            + " WHERE T.docLog.id IN :docLogIds"
+                            + " ORDER BY T.id",
+                    Object[].class);
+
+            query.setParameter("docLogIds", docLogIds);
+
+            for (final Object[] row : query.getResultList()) {
+                addToListMap(map, (Long) row[0], (AccountTrx) row[1]);
+            }
+            return map;
+        }
+
+        /**
+         * Gets the {@link PrintOut} objects of (Mail Print) {@link DocIn}
+         * objects in one query.
+         *
+         * @param em
+         *            The {@link EntityManager}.
+         * @param docInIds
+         *            Primary keys of the {@link DocIn} objects.
+         * @return {@link PrintOut} list by {@link DocIn} primary key.
+         */
+        private static Map<Long, List<PrintOut>> getPrintOutOfDocIn(
+                final EntityManager em, final List<Long> docInIds) {
+
+            final Map<Long, List<PrintOut>> map = new HashMap<>();
+
+            if (docInIds.isEmpty()) {
+                return map;
+            }
+
+            final TypedQuery<Object[]> query = em.createQuery(
+                    "SELECT IO.docIn.id, P FROM DocInOut IO"
+                            + " JOIN IO.docOut O JOIN O.printOut P"
+                            + " JOIN FETCH P.printer"
+                            + " WHERE IO.docIn.id IN :docInIds"
+                            + " ORDER BY P.id",
+                    Object[].class);
+
+            query.setParameter("docInIds", docInIds);
+
+            for (final Object[] row : query.getResultList()) {
+                addToListMap(map, (Long) row[0], (PrintOut) row[1]);
+            }
+            return map;
+        }
+
+        /**
+         * Gets the {@link MailPrintData} by Ticket (key) related to
+         * {@link DocOut} objects of a {@link PrintOut} in one query.
+         *
+         * @param em
+         *            The {@link EntityManager}.
+         * @param queueService
+         *            The {@link QueueService}.
+         * @param docOutIds
+         *            Primary keys of the {@link DocOut} objects.
+         * @return {@link MailPrintData} map by Ticket key, by {@link DocOut}
+         *         primary key.
+         */
+        private static Map<Long, Map<String, MailPrintData>>
+                getMailPrintInData(final EntityManager em,
+                        final QueueService queueService,
+                        final List<Long> docOutIds) {
+
+            final Map<Long, Map<String, MailPrintData>> map = new HashMap<>();
+
+            if (docOutIds.isEmpty()) {
+                return map;
+            }
+
+            final TypedQuery<Object[]> query = em.createQuery(
+                    "SELECT IO.docOut.id, I FROM DocInOut IO JOIN IO.docIn I"
+                            + " JOIN FETCH I.docLog"
+                            + " LEFT JOIN FETCH I.printIn PI"
+                            + " LEFT JOIN FETCH PI.queue"
+                            + " WHERE IO.docOut.id IN :docOutIds",
+                    Object[].class);
+
+            query.setParameter("docOutIds", docOutIds);
+
+            for (final Object[] row : query.getResultList()) {
+
+                final DocIn docIn = (DocIn) row[1];
+                final DocLog docLog = docIn.getDocLog();
+
+                if (StringUtils.isBlank(docLog.getExternalId())
+                        || StringUtils.isBlank(docLog.getExternalData())
+                        || docIn.getPrintIn() == null) {
+                    continue;
+                }
+
+                if (queueService.getReservedQueue(docIn.getPrintIn().getQueue()
+                        .getUrlPath()) != ReservedIppQueueEnum.MAILPRINT) {
+                    continue;
+                }
+
+                final MailPrintData obj =
+                        MailPrintData.createFromData(docLog.getExternalData());
+
+                if (obj == null) {
+                    continue;
+                }
+
+                final Long docOutId = (Long) row[0];
+
+                Map<String, MailPrintData> mailData = map.get(docOutId);
+                if (mailData == null) {
+                    mailData = new HashedMap<>();
+                    map.put(docOutId, mailData);
+                }
+                mailData.put(docLog.getExternalId(), obj);
+            }
+            return map;
+        }
+
+        /**
+         * Adds a value to the list of a key.
+         *
+         * @param <T>
+         *            Value type.
+         * @param map
+         *            The map.
+         * @param key
+         *            The key.
+         * @param value
+         *            The value.
+         */
+        private static <T> void addToListMap(final Map<Long, List<T>> map,
+                final Long key, final T value) {
+            List<T> list = map.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                map.put(key, list);
+            }
+            list.add(value);
+        }
+    }
+
     /**
      *
      *
@@ -355,6 +654,18 @@ public final class DocLogItem {
 
         protected static final String QPARM_EXTERNAL_ID_TEXT = "externalIdText";
 
+        /** Sort value of the last row of the previous page. */
+        private static final String QPARM_SEEK_VALUE = "seekValue";
+        /** Primary key of the last row of the previous page. */
+        private static final String QPARM_SEEK_ID = "seekId";
+
+        /** */
+        private static final PagerCache PAGER_CACHE = PagerCache.instance();
+
+        /** */
+        private static final DocStorePresenceIndex DOCSTORE_INDEX =
+                DocStorePresenceIndex.instance();
+
         protected abstract String getExtraWhereAnd(DocLogPagerReq req);
 
         protected abstract String getExtraJoin();
@@ -368,10 +679,14 @@ public final class DocLogItem {
          * @param count
          * @param userId
          * @param req
+         * @param seekWhere
+         *            The keyset (seek) predicate, or {@code null} when not
+         *            applicable.
          * @return
          */
         private String getSelectString(final EntityManager em,
-                final boolean count, final Long userId, DocLogPagerReq req) {
+                final boolean count, final Long userId, DocLogPagerReq req,
+                final String seekWhere) {
 
             final StringBuilder jpql = new StringBuilder();
 
@@ -403,10 +718,35 @@ public final class DocLogItem {
                 nWhere++;
             }
 
+            if (seekWhere != null) {
+                if (nWhere == 0) {
+                    jpql.append(" WHERE ");
+                } else {
+                    jpql.append(" AND ");
+                }
+                jpql.append(seekWhere);
+                nWhere++;
+            }
+
             return jpql.toString();
         }
 
         /**
+         * @param userId
+         * @param req
+         * @return The {@link PagerCache} key of the selection, or
+         *         {@code null} when not available.
+         */
+        private String getPagerKey(final Long userId,
+                final DocLogPagerReq req) {
+            return PagerCache.createKey(
+                    "doclog-" + this.getClass().getSimpleName(), userId,
+                    req.getSelect());
+        }
+
+        /**
+         * Gets the filtered count, cached for
+         * {@link WebApp#getPagerCountCacheSecs()}.
          *
          * @param em
          * @param userId
@@ -414,9 +754,28 @@ public final class DocLogItem {
          * @return
          */
         public long filteredCount(final EntityManager em, final Long userId,
-                DocLogPagerReq req) {
+                final DocLogPagerReq req) {
 
-            final String jpql = getSelectString(em, true, userId, req);
+            return PAGER_CACHE.getCount(getPagerKey(userId, req),
+                    new PagerCache.CountQuery() {
+                        @Override
+                        public long count() {
+                            return filteredCountExact(em, userId, req);
+                        }
+                    });
+        }
+
+        /**
+         *
+         * @param em
+         * @param userId
+         * @param req
+         * @return
+         */
+        private long filteredCountExact(final EntityManager em,
+                final Long userId, final DocLogPagerReq req) {
+
+            final String jpql = getSelectString(em, true, userId, req, null);
 
             final Query query = em.createQuery(jpql);
 
@@ -460,13 +819,63 @@ public final class DocLogItem {
             final PrintOutDao printOutDAO =
                     ServiceContext.getDaoContext().getPrintOutDao();
 
-            final StringBuilder jpql = new StringBuilder();
-
-            jpql.append(getSelectString(em, false, userId, req));
-
             final DocLogDao.FieldEnum orderBy = req.getSort().getSortField();
             final boolean sortAscending = req.getSort().getAscending();
 
+            final Integer startPosition = req.calcStartPosition();
+            final Integer maxResults = req.getMaxResults();
+
+            /*
+             * Keyset (seek) paging on (createdDate, id): when the last row of
+             * the previous page is known, the page is selected with a seek
+             * predicate instead of an OFFSET. Other sort fields are nullable,
+             * and are paged by OFFSET.
+             */
+            final String seekListKey;
+            final String seekVariant;
+            final long page;
+
+            if (orderBy == DocLogDao.FieldEnum.CREATE_DATE
+                    && maxResults != null && req.getPage() != null) {
+
+                page = req.getPage().longValue();
+                seekListKey = getPagerKey(userId, req);
+                seekVariant = String.format("%b|%d", sortAscending, maxResults);
+            } else {
+                page = 0;
+                seekListKey = null;
+                seekVariant = null;
+            }
+
+            final PagerCache.SeekKey seekKey;
+            final String seekWhere;
+
+            if (seekListKey != null && page > 1) {
+                seekKey = PAGER_CACHE.getSeekKey(seekListKey, seekVariant,
+                        page - 1);
+            } else {
+                seekKey = null;
+            }
+
+            if (seekKey == null) {
+                seekWhere = null;
+            } else {
+                final String op;
+                if (sortAscending) {
+                    op = ">";
+                } else {
+                    op = "<";
+                }
+                seekWhere = String.format(
+                        "(D.createdDate %s :%s OR (D.createdDate = :%s"
+                                + " AND D.id < :%s))",
+                        op, QPARM_SEEK_VALUE, QPARM_SEEK_VALUE, QPARM_SEEK_ID);
+            }
+
+            final StringBuilder jpql = new StringBuilder();
+
+            jpql.append(getSelectString(em, false, userId, req, seekWhere));
+
             String orderField = null;
 
             switch (orderBy) {
@@ -506,10 +915,10 @@ public final class DocLogItem {
                     ticketNumberMail);
             setExtraParms(query, req);
 
-            Integer startPosition = req.calcStartPosition();
-            Integer maxResults = req.getMaxResults();
-
-            if (startPosition != null) {
+            if (seekKey != null) {
+                query.setParameter(QPARM_SEEK_VALUE, seekKey.getValue());
+                query.setParameter(QPARM_SEEK_ID, seekKey.getId());
+            } else if (startPosition != null) {
                 query.setFirstResult(startPosition);
             }
             if (maxResults != null) {
@@ -522,9 +931,6 @@ public final class DocLogItem {
             final DocStoreService docStoreService =
                     ServiceContext.getServiceFactory().getDocStoreService();
 
-            final DocInOutDao docInOutDao =
-                    ServiceContext.getDaoContext().getDocInOutDao();
-
             final List<DocLogItem> list = new ArrayList<>();
 
             final boolean isPrintOutArchiveEnabled = docStoreService.isEnabled(
@@ -539,7 +945,31 @@ public final class DocLogItem {
             final boolean isPrintInJournalEnabled = docStoreService.isEnabled(
                     DocStoreTypeEnum.JOURNAL, DocStoreBranchEnum.IN_PRINT);
 
-            for (final DocLog docLog : ((List<DocLog>) query.getResultList())) {
+            final List<DocLog> resultList = query.getResultList();
+
+            if (seekListKey != null && !resultList.isEmpty()) {
+                final DocLog lastRow = resultList.get(resultList.size() - 1);
+                PAGER_CACHE.putSeekKey(seekListKey, seekVariant, page,
+                        new PagerCache.SeekKey(lastRow.getCreatedDate(),
+                                lastRow.getId()));
+            }
+
+            final boolean isMailPrintInView =
+                    BooleanUtils.isTrue(req.getTicketNumberMailView());
+
+            final PageDetails details = PageDetails.fetch(em, queueService,
+                    resultList, isMailPrintInView);
+
+            final Map<Long, List<AccountTrx>> trxByDocLog =
+                    details.trxByDocLog;
+
+            final Map<Long, List<PrintOut>> printOutByDocIn =
+                    details.printOutByDocIn;
+
+            final Map<Long, Map<String, MailPrintData>> mailPrintInByDocOut =
+                    details.mailPrintInByDocOut;
+
+            for (final DocLog docLog : resultList) {
 
                 DocLogItem log = new DocLogItem();
 
@@ -568,10 +998,13 @@ public final class DocLogItem {
                     log.setTotalPages(docLog.getNumberOfPages());
                 }
 
-                if (docLog.getTransactions() == null) {
+                final List<AccountTrx> trxList =
+                        trxByDocLog.get(docLog.getId());
+
+                if (trxList == null) {
                     log.setTransactions(new ArrayList<AccountTrx>());
                 } else {
-                    log.setTransactions(docLog.getTransactions());
+                    log.setTransactions(trxList);
                 }
 
                 if (log.getTransactions().isEmpty()) {
@@ -633,13 +1066,13 @@ public final class DocLogItem {
                                 .parseDbValue(printIn.getDeniedReason()));
 
                         log.setPrintArchive(isPrintInArchiveEnabled
-                                && docStoreService.isDocPresent(
+                                && DOCSTORE_INDEX.isDocPresent(
                                         DocStoreTypeEnum.ARCHIVE,
                                         DocStoreBranchEnum.IN_PRINT, docLog));
 
                         if (!log.isPrintArchive()) {
                             log.setPrintJournal(isPrintInJournalEnabled
-                                    && docStoreService.isDocPresent(
+                                    && DOCSTORE_INDEX.isDocPresent(
                                             DocStoreTypeEnum.JOURNAL,
                                             DocStoreBranchEnum.IN_PRINT,
                                             docLog));
@@ -648,8 +1081,14 @@ public final class DocLogItem {
                         if (reservedQueue == ReservedIppQueueEnum.MAILPRINT
                                 && StringUtils
                                         .isNotBlank(docLog.getExternalId())) {
-                            log.setPrintOutOfDocIn(docInOutDao
-                                    .getPrintOutOfDocIn(docIn.getId()));
+                            final List<PrintOut> printOuts =
+                                    printOutByDocIn.get(docIn.getId());
+                            if (printOuts == null) {
+                                log.setPrintOutOfDocIn(
+                                        new ArrayList<PrintOut>());
+                            } else {
+                                log.setPrintOutOfDocIn(printOuts);
+                            }
                         }
 
                     } else {
@@ -731,22 +1170,25 @@ public final class DocLogItem {
                         }
 
                         log.setPrintArchive(isPrintOutArchiveEnabled
-                                && docStoreService.isDocPresent(
+                                && DOCSTORE_INDEX.isDocPresent(
                                         DocStoreTypeEnum.ARCHIVE,
                                         DocStoreBranchEnum.OUT_PRINT, docLog));
 
                         if (!log.isPrintArchive()) {
                             log.setPrintJournal(isPrintOutJournalEnabled
-                                    && docStoreService.isDocPresent(
+                                    && DOCSTORE_INDEX.isDocPresent(
                                             DocStoreTypeEnum.JOURNAL,
                                             DocStoreBranchEnum.OUT_PRINT,
                                             docLog));
                         }
 
-                        if (BooleanUtils
-                                .isTrue(req.getTicketNumberMailView())) {
-                            log.setMailPrintInData(this
-                                    .getMailPrintInData(docInOutDao, printOut));
+                        if (isMailPrintInView) {
+                            Map<String, MailPrintData> mailData =
+                                    mailPrintInByDocOut.get(docOut.getId());
+                            if (mailData == null) {
+                                mailData = new HashedMap<>();
+                            }
+                            log.setMailPrintInData(mailData);
                         }
 
                     } else if (pdfOut != null) {
@@ -776,73 +1218,14 @@ public final class DocLogItem {
             return list;
         }
 
-        /**
-         * {@link MailPrintData} by Ticket (key) related to {@link PrintOut}.
-         *
-         * @param docInOutDao
-         *            DAO.
-         * @param printOut
-         *            {@link PrintOut}.
-         * @return {@link MailPrintData} map by Ticket key.
-         */
-        private Map<String, MailPrintData> getMailPrintInData(
-                final DocInOutDao docInOutDao, final PrintOut printOut) {
-
-            final QueueService svc =
-                    ServiceContext.getServiceFactory().getQueueService();
-
-            final Map<String, MailPrintData> map = new HashedMap<>();
-
-            for (final DocIn docIn : docInOutDao
-                    .getDocInOfDocOut(printOut.getDocOut().getId())) {
-
-                final DocLog docLog = docIn.getDocLog();
-
-                if (StringUtils.isBlank(docLog.getExternalId())
-                        || StringUtils.isBlank(docLog.getExternalData())
-                        || docIn.getPrintIn() == null) {
-                    continue;
-                }
-
-                if (svc.getReservedQueue(docIn.getPrintIn().getQueue()
-                        .getUrlPath()) != ReservedIppQueueEnum.MAILPRINT) {
-                    continue;
-                }
-
-                final MailPrintData obj =
-                        MailPrintData.createFromData(docLog.getExternalData());
-
-                if (obj != null) {
-                    map.put(docLog.getExternalId(), obj);
-                }
-            }
-            return map;
-        }
-
         /**
          *
          */
         protected final String getSelectCommon(final boolean count,
                 final DocLogPagerReq req) {
 
-            final StringBuilder jpql = new StringBuilder();
-
-            jpql.append("SELECT ");
-
-            if (count) {
-                jpql.append("COUNT(D.id)");
-            } else {
-                jpql.append("D");
-            }
-
-            if (req.getSelect().getAccountId() != null) {
-                jpql.append(" FROM AccountTrx TRX JOIN TRX.docLog D");
-
-            } else {
-                jpql.append(" FROM DocLog D JOIN D.user U");
-            }
-
-            return jpql.toString();
+            return createSelectCommon(count,
+                    req.getSelect().getAccountId() != null);
         }
 
         /**
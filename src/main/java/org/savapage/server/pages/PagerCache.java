@@ -0,0 +1,354 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.pages;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.savapage.server.WebApp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded LRU cache of list pager state: the total item count and the seek
+ * keys of visited pages of a list query.
+ * <p>
+ * A list query is identified by a key created with
+ * {@link #createKey(String, Object, Object)} from the pager name, the scope
+ * (like a user) and the JSON of the pager selection.
+ * </p>
+ * <ul>
+ * <li>The total count is cached for {@link WebApp#getPagerCountCacheSecs()}
+ * (opt-in: zero by default), so browsing the pages of a list does not run a
+ * COUNT query on each page. The count is approximate in that it can lag
+ * behind inserts and deletes for this period.</li>
+ * <li>The seek key (sort value and id of the last row) of a visited page is
+ * remembered, so the next page can be selected with a keyset (seek) predicate
+ * instead of an OFFSET, which must read and discard all preceding rows.</li>
+ * </ul>
+ * <p>
+ * Seek keys are only valid as long as the cached count is: they are dropped
+ * when the count expires and is executed again. So, pages selected by OFFSET
+ * and by seek key are based on the same snapshot of rows, within the same
+ * lag as the count. Without count caching, pages are selected by OFFSET.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class PagerCache {
+
+    /** */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(PagerCache.class);
+
+    /**
+     * Max number of cached list queries.
+     */
+    private static final int MAX_ENTRIES = 1000;
+
+    /**
+     * Max number of page seek keys per list query.
+     */
+    private static final int MAX_SEEK_KEYS = 500;
+
+    /** */
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+    /**
+     * Executes the COUNT query of a list.
+     */
+    public interface CountQuery {
+        /**
+         * @return The total number of items.
+         */
+        long count();
+    }
+
+    /**
+     * Seek key of a page: the sort value and id of its last row.
+     */
+    public static final class SeekKey {
+
+        /** */
+        private final Object value;
+
+        /** */
+        private final Long id;
+
+        /**
+         * @param value
+         *            Sort value of the last row.
+         * @param id
+         *            Primary database key of the last row.
+         */
+        public SeekKey(final Object value, final Long id) {
+            this.value = value;
+            this.id = id;
+        }
+
+        /**
+         * @return Sort value of the last row.
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        /**
+         * @return Primary database key of the last row.
+         */
+        public Long getId() {
+            return id;
+        }
+    }
+
+    /**
+     * Cached state of a list query.
+     */
+    private static final class Entry {
+
+        /** */
+        private Long count;
+
+        /** */
+        private long countExpiry;
+
+        /**
+         * Seek keys by sort variant and page ordinal. Valid till
+         * {@link #countExpiry}.
+         */
+        private Map<String, SeekKey> seekKeys;
+    }
+
+    /** */
+    private final LinkedHashMap<String, Entry> entries;
+
+    /** */
+    private static class SingletonHolder {
+        /** */
+        public static final PagerCache INSTANCE = new PagerCache();
+    }
+
+    /**
+     *
+     */
+    private PagerCache() {
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean
+                    removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return this.size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * @return The singleton instance.
+     */
+    public static PagerCache instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Creates the key of a list query.
+     *
+     * @param pager
+     *            Name of the pager.
+     * @param scope
+     *            The scope of the list (like a user database key), can be
+     *            {@code null}.
+     * @param select
+     *            The selection bean of the pager request.
+     * @return The key, or {@code null} when the selection can not be
+     *         serialized.
+     */
+    public static String createKey(final String pager, final Object scope,
+            final Object select) {
+        try {
+            return String.format("%s|%s|%s", pager, scope,
+                    JSON_MAPPER.writeValueAsString(select));
+        } catch (IOException e) {
+            LOGGER.warn("{}: {}", pager, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Gets the (cached) total count of a list query.
+     *
+     * @param key
+     *            The list key, see {@link #createKey(String, Object, Object)}.
+     *            If {@code null} the count query is executed.
+     * @param query
+     *            The count query.
+     * @return The total count.
+     */
+    public long getCount(final String key, final CountQuery query) {
+
+        final long ttlMsec = WebApp.getPagerCountCacheSecs() * 1000L;
+
+        if (key == null || ttlMsec <= 0) {
+            return query.count();
+        }
+
+        final long now = System.currentTimeMillis();
+
+        synchronized (this.entries) {
+            final Entry entry = this.entries.get(key);
+            if (entry != null && entry.count != null
+                    && now < entry.countExpiry) {
+                return entry.count.longValue();
+            }
+        }
+
+        // Count outside the lock: concurrent misses just count twice.
+        final long count = query.count();
+
+        synchronized (this.entries) {
+            final Entry entry = this.getOrCreateEntry(key);
+            entry.count = Long.valueOf(count);
+            entry.countExpiry = now + ttlMsec;
+            // Rows may have changed: seek keys of the old count are invalid.
+            entry.seekKeys = null;
+        }
+        return count;
+    }
+
+    /**
+     * Gets the seek key of a page.
+     *
+     * @param key
+     *            The list key, as used for
+     *            {@link #getCount(String, CountQuery)}. Can be {@code null}.
+     * @param variant
+     *            The sort variant of the list, like sort order and page size.
+     * @param page
+     *            The page ordinal.
+     * @return The seek key of the last row of the page, or {@code null} when
+     *         unknown or when the cached count expired.
+     */
+    public SeekKey getSeekKey(final String key, final String variant,
+            final long page) {
+
+        if (key == null || !WebApp.isPagerKeysetEnabled()) {
+            return null;
+        }
+
+        synchronized (this.entries) {
+            final Entry entry = this.getValidEntry(key);
+            if (entry == null || entry.seekKeys == null) {
+                return null;
+            }
+            return entry.seekKeys.get(createSeekMapKey(variant, page));
+        }
+    }
+
+    /**
+     * Remembers the seek key of a page, as long as the cached count is valid.
+     *
+     * @param key
+     *            The list key, as used for
+     *            {@link #getCount(String, CountQuery)}. Can be {@code null}.
+     * @param variant
+     *            The sort variant of the list, like sort order and page size.
+     * @param page
+     *            The page ordinal.
+     * @param seekKey
+     *            The seek key of the last row of the page.
+     */
+    public void putSeekKey(final String key, final String variant,
+            final long page, final SeekKey seekKey) {
+
+        if (key == null || !WebApp.isPagerKeysetEnabled()) {
+            return;
+        }
+
+        synchronized (this.entries) {
+            final Entry entry = this.getValidEntry(key);
+            if (entry == null) {
+                return;
+            }
+            if (entry.seekKeys == null) {
+                entry.seekKeys = new LinkedHashMap<String, SeekKey>() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(
+                            final Map.Entry<String, SeekKey> eldest) {
+                        return this.size() > MAX_SEEK_KEYS;
+                    }
+                };
+            }
+            entry.seekKeys.put(createSeekMapKey(variant, page), seekKey);
+        }
+    }
+
+    /**
+     * @param variant
+     *            The sort variant.
+     * @param page
+     *            The page ordinal.
+     * @return The key in {@link Entry#seekKeys}.
+     */
+    private static String createSeekMapKey(final String variant,
+            final long page) {
+        return String.format("%s|%d", variant, page);
+    }
+
+    /**
+     * Gets the entry of a list with a valid cached count. Must be called
+     * while holding the lock on {@link #entries}.
+     *
+     * @param key
+     *            The list key.
+     * @return The entry, or {@code null} when not present or count expired.
+     */
+    private Entry getValidEntry(final String key) {
+        final Entry entry = this.entries.get(key);
+        if (entry == null || entry.count == null
+                || System.currentTimeMillis() >= entry.countExpiry) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @param key
+     *            The list key.
+     * @return The entry.
+     */
+    private Entry getOrCreateEntry(final String key) {
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            this.entries.put(key, entry);
+        }
+        return entry;
+    }
+}
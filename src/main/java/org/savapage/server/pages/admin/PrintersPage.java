@@ -81,6 +81,7 @@ import org.savapage.server.helpers.HtmlPrinterImgEnum;
 import org.savapage.server.helpers.SparklineHtml;
 import org.savapage.server.pages.MarkupHelper;
 import org.savapage.server.pages.MessageContent;
+import org.savapage.server.pages.PagerCache;
 import org.savapage.server.session.SpSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -1022,7 +1023,14 @@ public final class PrintersPage extends AbstractAdminListPage {
         filter.setJobTicket(req.getSelect().getTicket());
         filter.setDisabled(req.getSelect().getDisabled());
 
-        final long printerCount = printerDao.getListCount(filter);
+        final long printerCount = PagerCache.instance().getCount(
+                PagerCache.createKey("printers", null, req.getSelect()),
+                new PagerCache.CountQuery() {
+                    @Override
+                    public long count() {
+                        return printerDao.getListCount(filter);
+                    }
+                });
 
         /*
          * Display the requested page.
@@ -90,8 +90,12 @@ import org.savapage.ext.payment.PaymentGatewayException;
 import org.savapage.ext.payment.bitcoin.BitcoinGateway;
 import org.savapage.lib.pgp.PGPPublicKeyInfo;
 import org.savapage.server.WebApp;
+import org.savapage.server.auth.WebAppUserAuthManager;
 import org.savapage.server.cometd.UserEventService;
 import org.savapage.server.ext.ServerPluginManager;
+import org.savapage.server.img.PageImageCache;
+import org.savapage.server.img.PageImageRenderQueue;
+import org.savapage.server.ipp.IppClientPenaltyBox;
 import org.savapage.server.pages.JobTicketQueueInfoPanel;
 import org.savapage.server.pages.MarkupHelper;
 import org.savapage.server.pages.MessageContent;
@@ -100,6 +104,7 @@ import org.savapage.server.pages.StatsFinancialDetailsPanel;
 import org.savapage.server.pages.StatsPageTotalPanel;
 import org.savapage.server.pages.StatsPrintInTotalPanel;
 import org.savapage.server.pages.TooltipPanel;
+import org.savapage.server.raw.RawPrintServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -748,10 +753,15 @@ public final class SystemStatusPanel extends Panel {
             } else {
                 webSessionsExtra = "";
             }
-            webSessions = String.format("%s (%s)%s • id (ip)",
+            final WebAppUserAuthManager authManager =
+                    WebAppUserAuthManager.instance();
+            webSessions = String.format(
+                    "%s (%s)%s • id (ip) • %s token (%s evicted)",
                     helper.localizedNumber(nAuthSessions),
                     helper.localizedNumber(WebApp.getAuthIpAddrCount()),
-                    webSessionsExtra);
+                    webSessionsExtra,
+                    helper.localizedNumber(authManager.getTokenCount()),
+                    helper.localizedNumber(authManager.getEvictionCount()));
         }
         helper.encloseLabel("web-sessions", webSessions, showTechInfo);
 
@@ -804,6 +814,68 @@ public final class SystemStatusPanel extends Panel {
         helper.encloseLabel("threads-info-deadlocks", deadlockedThreads,
                 !deadlockedThreads.isEmpty());
 
+        /*
+         * IP Print (RAW) worker info.
+         */
+        final RawPrintServer rawPrintServer =
+                WebApp.get().getRawPrintServer();
+
+        String rawPrintInfo = "";
+
+        if (showTechInfo && rawPrintServer != null) {
+            helper.addLabel("raw-print-info-prompt", "IP Print");
+            rawPrintInfo = String.format("%s active • %s queued • %s rejected",
+                    helper.localizedNumber(rawPrintServer.getActiveRequests()),
+                    helper.localizedNumber(rawPrintServer.getQueuedRequests()),
+                    helper.localizedNumber(
+                            rawPrintServer.getRejectedRequests()));
+        }
+        helper.encloseLabel("raw-print-info", rawPrintInfo,
+                !rawPrintInfo.isEmpty());
+
+        /*
+         * IPP Print penalty box info.
+         */
+        String ippPrintInfo = "";
+
+        if (showTechInfo) {
+            final IppClientPenaltyBox penaltyBox =
+                    IppClientPenaltyBox.instance();
+            helper.addLabel("ipp-print-info-prompt", "IPP Print");
+            ippPrintInfo = String.format(
+                    "%s failed • %s throttled • %s in penalty box",
+                    helper.localizedNumber(penaltyBox.getFailedRequests()),
+                    helper.localizedNumber(penaltyBox.getThrottledRequests()),
+                    helper.localizedNumber(
+                            penaltyBox.getPenalizedClientCount()));
+        }
+        helper.encloseLabel("ipp-print-info", ippPrintInfo, showTechInfo);
+
+        /*
+         * Page image cache info.
+         */
+        String pageImageInfo = "";
+
+        if (showTechInfo) {
+            final PageImageCache imageCache = PageImageCache.instance();
+            final PageImageRenderQueue renderQueue =
+                    PageImageRenderQueue.instance();
+            helper.addLabel("page-image-info-prompt", "Page Images");
+            pageImageInfo = String.format(
+                    "%s hits • %s misses • %s ms render • %s cached (%s)"
+                            + " • %s pre-rendered • %s queued • %s dropped",
+                    helper.localizedNumber(imageCache.getHits()),
+                    helper.localizedNumber(imageCache.getMisses()),
+                    helper.localizedNumber(imageCache.getRenderMsecAverage()),
+                    helper.localizedNumber(imageCache.getSize()),
+                    NumberUtil.humanReadableByteCountSI(getLocale(),
+                            imageCache.getTotalBytes()),
+                    helper.localizedNumber(renderQueue.getRenderedCount()),
+                    helper.localizedNumber(renderQueue.getQueuedCount()),
+                    helper.localizedNumber(renderQueue.getDroppedCount()));
+        }
+        helper.encloseLabel("page-image-info", pageImageInfo, showTechInfo);
+
         /*
          * Connections info: correct Dao/Service count for this connection.
          */
@@ -71,6 +71,7 @@ import org.savapage.server.pages.ACLOidSummaryPanel;
 import org.savapage.server.pages.ACLOidUserSummaryPanel;
 import org.savapage.server.pages.ACLRoleSummaryPanel;
 import org.savapage.server.pages.MarkupHelper;
+import org.savapage.server.pages.PagerCache;
 import org.savapage.server.session.SpSession;
 
 /**
@@ -799,7 +800,14 @@ public final class UsersPage extends AbstractAdminListPage {
 
         final UserDao userDao = ServiceContext.getDaoContext().getUserDao();
 
-        final long userCount = userDao.getListCount(filter);
+        final long userCount = PagerCache.instance().getCount(
+                PagerCache.createKey("users", null, req.getSelect()),
+                new PagerCache.CountQuery() {
+                    @Override
+                    public long count() {
+                        return userDao.getListCount(filter);
+                    }
+                });
 
         /*
          * Display the requested page.
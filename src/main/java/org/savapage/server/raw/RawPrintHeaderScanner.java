@@ -0,0 +1,236 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.raw;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Scanner of the PJL and PostScript header lines of an IP Print job.
+ * <p>
+ * The input stream is read in chunks into a single growing byte buffer, and
+ * lines are located directly in this buffer. All bytes read, including any
+ * bytes read beyond the last scanned line, are the read-ahead prefix of the
+ * print job, see {@link #getReadAheadBytes()}.
+ * </p>
+ * <p>
+ * A line is delimited by CR, LF or the end-of-print-job byte (0x04). The
+ * delimiter is consumed, but not part of the line. Bytes are decoded as
+ * ISO-8859-1.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+final class RawPrintHeaderScanner {
+
+    /**
+     * The byte marking the end of the print job.
+     */
+    private static final byte BYTE_END_OF_PRINTJOB = 4;
+
+    /**
+     * CR (carriage return) byte.
+     */
+    private static final byte BYTE_CR = 13;
+
+    /**
+     * LF (NL line feed, new line) byte.
+     */
+    private static final byte BYTE_LF = 10;
+
+    /**
+     * Initial buffer size: large enough for a typical PJL and PostScript
+     * comment header.
+     */
+    private static final int BUFFER_SIZE_INITIAL = 16 * 1024;
+
+    /** */
+    private final InputStream istr;
+
+    /**
+     * The read-ahead bytes.
+     */
+    private byte[] buffer = new byte[BUFFER_SIZE_INITIAL];
+
+    /**
+     * Number of valid bytes in {@link #buffer}.
+     */
+    private int count;
+
+    /**
+     * Offset in {@link #buffer} of the next line to scan.
+     */
+    private int position;
+
+    /**
+     * {@code true} when end of stream is reached.
+     */
+    private boolean endOfStream;
+
+    /**
+     * @param input
+     *            The (unbuffered) print job input.
+     */
+    RawPrintHeaderScanner(final InputStream input) {
+        this.istr = input;
+    }
+
+    /**
+     * Reads the next chunk of the input into the buffer.
+     *
+     * @return {@code false} when end of stream.
+     * @throws IOException
+     *             When read error.
+     */
+    private boolean fill() throws IOException {
+
+        if (this.endOfStream) {
+            return false;
+        }
+
+        if (this.count == this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, 2 * this.buffer.length);
+        }
+
+        final int nRead = this.istr.read(this.buffer, this.count,
+                this.buffer.length - this.count);
+
+        if (nRead < 0) {
+            this.endOfStream = true;
+            return false;
+        }
+
+        this.count += nRead;
+        return true;
+    }
+
+    /**
+     * Reads the next header line.
+     *
+     * @return {@code null} when nothing to read.
+     * @throws IOException
+     *             When read error.
+     */
+    public String nextLine() throws IOException {
+
+        int i = this.position;
+
+        while (true) {
+
+            while (i < this.count) {
+                final byte b = this.buffer[i];
+                if (b == BYTE_LF || b == BYTE_CR
+                        || b == BYTE_END_OF_PRINTJOB) {
+                    return this.takeLine(i, i + 1);
+                }
+                i++;
+            }
+
+            if (!this.fill()) {
+                if (i == this.position) {
+                    return null;
+                }
+                return this.takeLine(i, i);
+            }
+        }
+    }
+
+    /**
+     * Takes the line from current position.
+     *
+     * @param end
+     *            The buffer offset of the end of the line (exclusive).
+     * @param next
+     *            The buffer offset of the next line.
+     * @return The line.
+     */
+    private String takeLine(final int end, final int next) {
+        final String line = new String(this.buffer, this.position,
+                end - this.position, StandardCharsets.ISO_8859_1);
+        this.position = next;
+        return line;
+    }
+
+    /**
+     * @return All bytes read from the input so far.
+     */
+    public byte[] getReadAheadBytes() {
+        if (this.count == this.buffer.length) {
+            return this.buffer;
+        }
+        return Arrays.copyOf(this.buffer, this.count);
+    }
+
+    /**
+     * Checks if a line starts with a sequence of whitespace separated tokens,
+     * ignoring case. For example: {@code "@PJL", "SET", "USERNAME"}.
+     *
+     * @param line
+     *            The line.
+     * @param tokens
+     *            The tokens.
+     * @return The offset in the line after the last token, or {@code -1} when
+     *         the tokens do not match.
+     */
+    public static int matchTokens(final String line, final String... tokens) {
+
+        int i = 0;
+
+        for (final String token : tokens) {
+
+            i = skipWhitespace(line, i);
+
+            if (!line.regionMatches(true, i, token, 0, token.length())) {
+                return -1;
+            }
+
+            i += token.length();
+
+            if (i < line.length() && !Character.isWhitespace(line.charAt(i))) {
+                return -1;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * @param line
+     *            The line.
+     * @param offset
+     *            The start offset.
+     * @return The offset of first non-whitespace character.
+     */
+    private static int skipWhitespace(final String line, final int offset) {
+        int i = offset;
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+}
@@ -24,19 +24,27 @@
  */
 package org.savapage.server.raw;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.savapage.common.SystemPropertyEnum;
 import org.savapage.core.PerformanceLogger;
@@ -55,10 +63,8 @@ import org.savapage.core.dao.enums.ExternalSupplierStatusEnum;
 import org.savapage.core.dao.enums.ReservedIppQueueEnum;
 import org.savapage.core.doc.DocContent;
 import org.savapage.core.doc.DocContentTypeEnum;
-import org.savapage.core.jpa.IppQueue;
 import org.savapage.core.print.server.DocContentPrintProcessor;
 import org.savapage.core.print.server.PostScriptFilter;
-import org.savapage.core.services.QueueService;
 import org.savapage.core.services.ServiceContext;
 import org.savapage.core.services.ServiceEntryPoint;
 import org.savapage.core.services.helpers.ExternalSupplierInfo;
@@ -66,6 +72,8 @@ import org.savapage.core.services.helpers.RawPrintInData;
 import org.savapage.core.users.AbstractUserSource;
 import org.savapage.core.util.IOHelper;
 import org.savapage.server.WebApp;
+import org.savapage.server.img.PageImageRenderQueue;
+import org.savapage.server.ipp.IppQueueCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -81,6 +89,11 @@ import org.slf4j.LoggerFactory;
  * A test in a Windows Workgroup environment shows that the originating user is
  * indeed transferred via the shared printer to the PostScript header.
  * </p>
+ * <p>
+ * Connections are accepted by a non-blocking {@link Selector} and handed to a
+ * bounded worker pool. When all workers are busy and the pool queue is full,
+ * the connection is rejected (closed) and logged.
+ * </p>
  */
 public final class RawPrintServer extends Thread implements ServiceEntryPoint {
 
@@ -94,9 +107,30 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
     private static final int DEFAULT_PORT = 9100;
 
     /**
-     * SO_TIMEOUT with the specified timeout.
+     * Default max number of worker threads.
+     */
+    public static final int DEFAULT_WORKER_THREADS_MAX = 32;
+
+    /**
+     * Default max number of accepted connections waiting for a worker thread.
+     */
+    public static final int DEFAULT_WORKER_QUEUE_CAPACITY = 256;
+
+    /**
+     * Keep alive (seconds) of idle worker threads.
      */
-    private static final int SERVER_SOCKET_SO_TIMEOUT_MSEC = 2000;
+    private static final long WORKER_THREADS_KEEP_ALIVE_SECS = 60;
+
+    /**
+     * The max number of pending connections of the server socket.
+     */
+    private static final int SERVER_SOCKET_BACKLOG = 50;
+
+    /**
+     * Max time the selector blocks waiting for a connection, so a shutdown is
+     * noticed in time.
+     */
+    private static final int SELECT_TIMEOUT_MSEC = 2000;
 
     /**
      * Polling period in milliseconds used to monitor active IP Print requests
@@ -105,41 +139,37 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
     private static final int POLL_FOR_ACTIVE_REQUESTS_MSEC = 1000;
 
     /** */
-    private static final QueueService QUEUE_SERVICE =
-            ServiceContext.getServiceFactory().getQueueService();
-
-    /** */
-    private boolean keepAcceptingRequests = true;
+    private volatile boolean keepAcceptingRequests = true;
 
     /**
-     * The total number of print job requests.
+     * The selector of the server socket channel.
      */
-    private final AtomicInteger totalRequests = new AtomicInteger(0);
+    private volatile Selector selector;
 
     /**
-     * The total number of active print job requests.
+     * The bounded pool of worker threads handling the connections.
      */
-    private final AtomicInteger activeRequests = new AtomicInteger(0);
+    private final ThreadPoolExecutor workerPool;
 
     /**
-     * The port initialized with default value.
+     * The total number of print job requests.
      */
-    private int port = DEFAULT_PORT;
+    private final AtomicInteger totalRequests = new AtomicInteger(0);
 
     /**
-     * The byte in the {@link InputStream} marking the end of the print job.
+     * The total number of active print job requests.
      */
-    private static final int BYTE_END_OF_PRINTJOB = 4;
+    private final AtomicInteger activeRequests = new AtomicInteger(0);
 
     /**
-     * CR (carriage return) byte.
+     * The total number of rejected print job requests.
      */
-    private static final int BYTE_CR = 13;
+    private final AtomicLong rejectedRequests = new AtomicLong(0);
 
     /**
-     * LF (NL line feed, new line) byte.
+     * The port initialized with default value.
      */
-    private static final int BYTE_LF = 10;
+    private int port = DEFAULT_PORT;
 
     /**
      * The PJL command prefix (@PJL)
@@ -152,14 +182,9 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
     private static final String PJL_TOKEN_NAME = "NAME";
 
     /**
-     * The initial {@link StringBuilder} capacity for reading a line.
-     */
-    private static final int STRINGBUILDER_LINE_CAPACITY = 128;
-
-    /**
-     *
+     * Task of a worker thread handling the connection of a print job.
      */
-    class SocketServerThread extends Thread {
+    class SocketServerTask implements Runnable {
 
         /**
          * Waiting max. 5 seconds while reading the socket for meaningful data.
@@ -183,11 +208,7 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
          * @param server
          *            The parent {@link RawPrintServer}.
          */
-        public SocketServerThread(final Socket socket,
-                final RawPrintServer server) {
-
-            super("SocketServerThread");
-
+        SocketServerTask(final Socket socket, final RawPrintServer server) {
             mySocket = socket;
             myServer = server;
         }
@@ -251,76 +272,56 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
      *
      * @param iPort
      *            The port to listen to.
+     * @param maxThreads
+     *            The max number of worker threads.
+     * @param queueCapacity
+     *            The max number of accepted connections waiting for a worker
+     *            thread.
      */
-    public RawPrintServer(final int iPort) {
-        this.port = iPort;
-    }
-
-    /**
-     * Reads a line (delimited with CR, LF or {@link #BYTE_END_OF_PRINTJOB}.
-     *
-     * @param istr
-     *            {@link InputStream} to read the line from.
-     * @param ostr
-     *            {@link OutputStream} to write the resulting line to.
-     * @return {@code null} when nothing to read.
-     * @throws IOException
-     *             When read or write error.
-     */
-    private static String readLine(final InputStream istr,
-            final OutputStream ostr) throws IOException {
-
-        StringBuilder line = null;
-
-        int iByte = istr.read();
+    public RawPrintServer(final int iPort, final int maxThreads,
+            final int queueCapacity) {
 
-        while ((-1 < iByte)) {
+        super("RawPrintServer");
 
-            ostr.write(iByte);
-
-            if (line == null) {
-                line = new StringBuilder(STRINGBUILDER_LINE_CAPACITY);
-            }
-
-            if ((iByte == BYTE_LF) || (iByte == BYTE_CR)
-                    || (BYTE_END_OF_PRINTJOB == iByte)) {
-                break;
-            }
+        this.port = iPort;
 
-            line.append((char) iByte);
+        final AtomicInteger threadCount = new AtomicInteger();
 
-            iByte = istr.read();
-        }
+        this.workerPool = new ThreadPoolExecutor(maxThreads, maxThreads,
+                WORKER_THREADS_KEEP_ALIVE_SECS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(r, "SocketServerThread-"
+                                + threadCount.incrementAndGet());
+                    }
+                });
 
-        if (line == null) {
-            return null;
-        }
-        return line.toString();
+        this.workerPool.allowCoreThreadTimeOut(true);
     }
 
     /**
      * Skips any PJL command lines.
      *
-     * @param istr
-     *            {@link InputStream} to read the line from.
-     * @param ostr
-     *            {@link OutputStream} to write the resulting line to.
+     * @param scanner
+     *            The {@link RawPrintHeaderScanner} to read the lines from.
      * @param headerLines
      *            List to append the header lines on.
      * @return The first non-PJL command header line, or {@code null} when
      *         nothing to read.
      * @throws IOException
-     *             When read or write error.
+     *             When read error.
      */
-    private static String skipPJLCommandLines(final InputStream istr,
-            final OutputStream ostr, final List<String> headerLines)
-            throws IOException {
+    private static String skipPJLCommandLines(
+            final RawPrintHeaderScanner scanner,
+            final List<String> headerLines) throws IOException {
 
-        String line = readLine(istr, ostr);
+        String line = scanner.nextLine();
         while (line != null
                 && (line.isEmpty() || line.startsWith(PJL_COMMAND_PFX))) {
             headerLines.add(line);
-            line = readLine(istr, ostr);
+            line = scanner.nextLine();
         }
         return line;
     }
@@ -358,21 +359,49 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
      */
     private static String getPJLJobName(final String pjlLine) {
 
-        final String[] words = StringUtils.split(pjlLine);
+        final String rest = getPJLValue(pjlLine, PJL_TOKEN_JOB, PJL_TOKEN_NAME);
 
-        if (words.length >= 5 && words[0].equalsIgnoreCase(PJL_COMMAND_PFX)
-                && words[1].equalsIgnoreCase(PJL_TOKEN_JOB)
-                && words[2].equalsIgnoreCase(PJL_TOKEN_NAME)) {
+        if (rest == null) {
+            return null;
+        }
+        return StringUtils
+                .substring(rest, 1, StringUtils.indexOf(rest, '\"', 1)).trim();
+    }
 
-            final String rest = StringUtils
-                    .substring(pjlLine, StringUtils.indexOf(pjlLine, "=") + 1)
-                    .trim();
+    /**
+     * Gets the (trimmed) value after the '=' of a PJL command line.
+     *
+     * @param pjlLine
+     *            The PJL line.
+     * @param command
+     *            The PJL command token following {@link #PJL_COMMAND_PFX}.
+     * @param name
+     *            The name token before the '='.
+     * @return {@code null} when the line does not match the tokens, or has no
+     *         value.
+     */
+    private static String getPJLValue(final String pjlLine,
+            final String command, final String name) {
+
+        final int iTokensEnd = RawPrintHeaderScanner.matchTokens(pjlLine,
+                PJL_COMMAND_PFX, command, name);
+
+        if (iTokensEnd < 0) {
+            return null;
+        }
+
+        final int iEquals = pjlLine.indexOf('=', iTokensEnd);
+
+        if (iEquals < 0) {
+            return null;
+        }
+
+        final String rest = pjlLine.substring(iEquals + 1).trim();
 
-            return StringUtils
-                    .substring(rest, 1, StringUtils.indexOf(rest, '\"', 1))
-                    .trim();
+        if (rest.isEmpty()) {
+            return null;
         }
-        return null;
+        return rest;
     }
 
     /**
@@ -387,16 +416,13 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
      */
     private static String getPJLUserName(final String pjlLine) {
 
-        final String[] words = StringUtils.split(pjlLine);
+        final String rest =
+                getPJLValue(pjlLine, PJL_TOKEN_SET, PJL_TOKEN_USERNAME);
 
-        if (words.length >= 5 && words[0].equalsIgnoreCase(PJL_COMMAND_PFX)
-                && words[1].equalsIgnoreCase(PJL_TOKEN_SET)
-                && words[2].equalsIgnoreCase(PJL_TOKEN_USERNAME)) {
-            return StringUtils.strip(StringUtils
-                    .substring(pjlLine, StringUtils.indexOf(pjlLine, "=") + 1)
-                    .trim(), "\"\"").trim();
+        if (rest == null) {
+            return null;
         }
-        return null;
+        return StringUtils.strip(rest, "\"\"").trim();
     }
 
     /**
@@ -433,17 +459,17 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
         /*
          * First line
          */
-        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final RawPrintHeaderScanner scanner = new RawPrintHeaderScanner(istr);
 
         String strline = null;
 
         try {
-            strline = readLine(istr, bos);
+            strline = scanner.nextLine();
         } catch (SocketTimeoutException e) {
             throw new RawPrintException(String.format(
                     "No IP Print data received from "
                             + "[%s] within [%d] msec.",
-                    originatorIp, SocketServerThread.READ_TIMEOUT_MSEC));
+                    originatorIp, SocketServerTask.READ_TIMEOUT_MSEC));
         }
 
         /*
@@ -463,7 +489,7 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
          * Mantis #779: Accept JetDirect PostScript stream with UEL header.
          */
         if (strline.startsWith(DocContent.HEADER_PJL)) {
-            strline = skipPJLCommandLines(istr, bos, headerLines);
+            strline = skipPJLCommandLines(scanner, headerLines);
         }
 
         /*
@@ -515,7 +541,7 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
                 userid = PostScriptFilter.parseUserIdLine(strline);
             }
 
-            strline = readLine(istr, bos);
+            strline = scanner.nextLine();
         }
 
         if (title == null || userid == null) {
@@ -550,7 +576,6 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
         ServiceContext.open();
 
         DocContentPrintProcessor processor = null;
-        IppQueue queue = null;
         boolean isAuthorized = false;
         boolean isDbReadLock = false;
 
@@ -563,19 +588,23 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
             ReadWriteLockEnum.DATABASE_READONLY.tryReadLock();
             isDbReadLock = true;
 
-            final IppQueueDao queueDao =
-                    ServiceContext.getDaoContext().getIppQueueDao();
-
-            queue = queueDao.find(ReservedIppQueueEnum.RAW_PRINT);
+            final IppQueueCache.Entry queueEntry = IppQueueCache.instance()
+                    .get(ReservedIppQueueEnum.RAW_PRINT);
 
             /*
              * Allowed to print?
              */
-            final String uri = String.format("RAW: %d", this.port);
-
             String warn = null;
 
-            if (BooleanUtils.isTrue(queue.getDisabled())) {
+            if (queueEntry == null) {
+
+                warn = String.format(
+                        "IP Print on queue /%s denied: queue not found "
+                                + "(client %s).",
+                        ReservedIppQueueEnum.RAW_PRINT.getUrlPath(),
+                        originatorIp);
+
+            } else if (queueEntry.isDisabled()) {
 
                 warn = String.format(
                         "IP Print on queue /%s is disabled (client %s).",
@@ -586,7 +615,7 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
 
                 final String assignedUser;
 
-                if (BooleanUtils.isTrue(queue.getTrusted())) {
+                if (queueEntry.isTrusted()) {
                     assignedUser = userid;
                 } else {
                     final String authWebAppUser =
@@ -607,15 +636,17 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
                             originatorIp);
                 } else {
 
-                    final boolean clientIpAllowed = QUEUE_SERVICE
-                            .hasClientIpAccessToQueue(queue, uri, originatorIp);
+                    if (queueEntry.hasClientIpAccess(originatorIp)) {
 
-                    if (clientIpAllowed) {
+                        final IppQueueDao queueDao =
+                                ServiceContext.getDaoContext().getIppQueueDao();
 
-                        processor = new DocContentPrintProcessor(queue,
+                        processor = new DocContentPrintProcessor(
+                                queueDao.find(ReservedIppQueueEnum.RAW_PRINT),
                                 originatorIp, title, assignedUser);
 
-                        processor.setReadAheadInputBytes(bos.toByteArray());
+                        processor.setReadAheadInputBytes(
+                                scanner.getReadAheadBytes());
 
                         processor.processAssignedUser(assignedUser, userid);
 
@@ -645,6 +676,9 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
                                     DocLogProtocolEnum.RAW, null,
                                     DocContentTypeEnum.PS, null);
 
+                            PageImageRenderQueue.instance()
+                                    .warmInbox(assignedUser);
+
                             // headerLines
                         } else {
                             warn = String.format(
@@ -729,51 +763,91 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
 
         Runtime.getRuntime().addShutdownHook(new RawPrintShutdownHook(this));
 
-        final ServerSocket serverSocket;
+        final ServerSocketChannel serverChannel;
 
         try {
-            /*
-             * From Javadoc: "The maximum queue length for incoming connection
-             * indications (a request to connect) is set to <code>50</code>. If
-             * a connection indication arrives when the queue is full, the
-             * connection is refused."
-             */
-            serverSocket = new ServerSocket(this.port);
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(this.port),
+                    SERVER_SOCKET_BACKLOG);
+            serverChannel.configureBlocking(false);
 
-            /**
-             * A call to accept() for this ServerSocket will block for only
-             * SERVER_SOCKET_SO_TIMEOUT_MSEC amount of time. If the timeout
-             * expires, a java.net.SocketTimeoutException is raised, though the
-             * ServerSocket is still valid.
-             */
-            serverSocket.setSoTimeout(SERVER_SOCKET_SO_TIMEOUT_MSEC);
+            this.selector = Selector.open();
+            serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
 
         } catch (IOException ex) {
             throw new SpException(ex);
         }
 
-        SpInfo.instance().log(String
-                .format("IP Print Server started on port %d.", this.port));
+        SpInfo.instance().log(String.format(
+                "IP Print Server started on port %d (max %d threads).",
+                this.port, this.workerPool.getMaximumPoolSize()));
 
         while (this.keepAcceptingRequests) {
 
             try {
 
-                final Socket socket = serverSocket.accept();
-                final SocketServerThread st =
-                        new SocketServerThread(socket, this);
+                if (this.selector.select(SELECT_TIMEOUT_MSEC) == 0) {
+                    continue;
+                }
 
-                st.start();
+                final Iterator<SelectionKey> iter =
+                        this.selector.selectedKeys().iterator();
+
+                while (iter.hasNext()) {
+                    iter.next();
+                    iter.remove();
+                    this.acceptConnection(serverChannel);
+                }
 
-            } catch (SocketTimeoutException ex) {
-                continue;
             } catch (IOException e) {
                 LOGGER.error(e.getMessage(), e);
                 break;
             }
         }
 
-        IOHelper.closeQuietly(serverSocket);
+        IOHelper.closeQuietly(this.selector);
+        IOHelper.closeQuietly(serverChannel);
+    }
+
+    /**
+     * Accepts a pending connection and hands it to the worker pool. The
+     * connection is closed when rejected by the pool.
+     *
+     * @param serverChannel
+     *            The server channel.
+     * @throws IOException
+     *             When accept fails.
+     */
+    private void acceptConnection(final ServerSocketChannel serverChannel)
+            throws IOException {
+
+        final SocketChannel channel = serverChannel.accept();
+
+        if (channel == null) {
+            return;
+        }
+
+        // Worker reads in blocking mode, with socket SO_TIMEOUT.
+        channel.configureBlocking(true);
+
+        final Socket socket = channel.socket();
+
+        try {
+            this.workerPool.execute(new SocketServerTask(socket, this));
+        } catch (RejectedExecutionException e) {
+
+            this.rejectedRequests.incrementAndGet();
+
+            final String msg = String.format(
+                    "IP Print from %s rejected: %d active, %d queued.",
+                    socket.getInetAddress().getHostAddress(),
+                    this.activeRequests.get(),
+                    this.workerPool.getQueue().size());
+
+            LOGGER.warn(msg);
+
+            IOHelper.closeQuietly(socket);
+        }
     }
 
     /**
@@ -784,6 +858,28 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
         return port;
     }
 
+    /**
+     * @return The number of print job requests being processed.
+     */
+    public int getActiveRequests() {
+        return this.activeRequests.get();
+    }
+
+    /**
+     * @return The number of accepted print job requests waiting for a worker
+     *         thread.
+     */
+    public int getQueuedRequests() {
+        return this.workerPool.getQueue().size();
+    }
+
+    /**
+     * @return The total number of rejected print job requests.
+     */
+    public long getRejectedRequests() {
+        return this.rejectedRequests.get();
+    }
+
     /**
      * Increments the number of (active) print job requests.
      *
@@ -821,10 +917,16 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
 
         this.keepAcceptingRequests = false;
 
+        final Selector selectorWlk = this.selector;
+        if (selectorWlk != null) {
+            selectorWlk.wakeup();
+        }
+
         /*
-         * Waiting for active requests to finish.
+         * Waiting for active and queued requests to finish.
          */
-        while (this.activeRequests.get() > 0) {
+        while (this.activeRequests.get() > 0
+                || !this.workerPool.getQueue().isEmpty()) {
             try {
                 Thread.sleep(POLL_FOR_ACTIVE_REQUESTS_MSEC);
             } catch (InterruptedException ex) {
@@ -832,6 +934,8 @@ public final class RawPrintServer extends Thread implements ServiceEntryPoint {
                 break;
             }
         }
+
+        this.workerPool.shutdown();
     }
 
 }
@@ -48,7 +48,7 @@ import org.savapage.core.cometd.PubLevelEnum;
 import org.savapage.core.cometd.PubTopicEnum;
 import org.savapage.core.config.ConfigManager;
 import org.savapage.core.config.IConfigProp.Key;
-import org.savapage.core.util.InetUtils;
+import org.savapage.server.helpers.CidrMatcher;
 import org.savapage.server.webapp.WebAppHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -170,15 +170,15 @@ public final class RestAuthFilter
 
         final String clientAddress = WebAppHelper.getClientIP(servletRequest);
 
-        final String cidrRanges = ConfigManager.instance()
-                .getConfigValue(Key.API_RESTFUL_IP_ADDRESSES_ALLOWED);
+        final CidrMatcher cidrRanges = CidrMatcher
+                .forConfig(Key.API_RESTFUL_IP_ADDRESSES_ALLOWED);
 
-        final boolean allowed = StringUtils.isBlank(cidrRanges)
-                || InetUtils.isIpAddrInCidrRanges(cidrRanges, clientAddress);
+        final boolean allowed =
+                cidrRanges.isBlank() || cidrRanges.matches(clientAddress);
 
         if (!allowed) {
             LOGGER.warn("Access denied for {}. Allowed CIDR ranges: {}",
-                    clientAddress, cidrRanges);
+                    clientAddress, cidrRanges.getCidrSet());
 
             AdminPublisher.instance().publish(PubTopicEnum.WEB_SERVICE,
                     PubLevelEnum.WARN,
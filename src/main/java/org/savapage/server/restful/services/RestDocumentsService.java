@@ -25,15 +25,16 @@
 package org.savapage.server.restful.services;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
 import javax.annotation.security.RolesAllowed;
 import javax.persistence.EntityManager;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
@@ -45,6 +46,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
@@ -77,6 +79,9 @@ import org.savapage.core.print.server.DocContentPrintReq;
 import org.savapage.core.services.DocStoreService;
 import org.savapage.core.services.QueueService;
 import org.savapage.core.services.ServiceContext;
+import org.savapage.server.helpers.DocStorePresenceIndex;
+import org.savapage.server.helpers.FileDownloadHelper;
+import org.savapage.server.img.PageImageRenderQueue;
 import org.savapage.server.pages.DocLogItem;
 import org.savapage.server.restful.RestAuthException;
 import org.savapage.server.restful.RestAuthFilter;
@@ -110,11 +115,12 @@ public final class RestDocumentsService extends AbstractRestService {
             ServiceContext.getServiceFactory().getDocStoreService();
 
     /** */
-    private static final DocLogDao DOCLOG_DAO =
-            ServiceContext.getDaoContext().getDocLogDao();
+    private static final DocStorePresenceIndex DOCSTORE_INDEX =
+            DocStorePresenceIndex.instance();
 
     /** */
-    private static final int INPUT_STREAM_BUFFER_SIZE = 1024;
+    private static final DocLogDao DOCLOG_DAO =
+            ServiceContext.getDaoContext().getDocLogDao();
 
     /** */
     public static final String PATH_MAIN = "documents";
@@ -226,9 +232,9 @@ public final class RestDocumentsService extends AbstractRestService {
                     branch = DocStoreBranchEnum.OUT_PRINT;
                 }
 
-                final boolean isStored = branch != null && (DOCSTORE_SERVICE
+                final boolean isStored = branch != null && (DOCSTORE_INDEX
                         .isDocPresent(DocStoreTypeEnum.ARCHIVE, branch, doc)
-                        || DOCSTORE_SERVICE.isDocPresent(
+                        || DOCSTORE_INDEX.isDocPresent(
                                 DocStoreTypeEnum.JOURNAL, branch, doc));
 
                 rsp = Response.ok(RestDocumentDto.createJSON(doc, isStored));
@@ -275,6 +281,44 @@ public final class RestDocumentsService extends AbstractRestService {
         return this.getDocumentPdfRsp(DOCLOG_DAO.findByExtId(externalId));
     }
 
+    /**
+     * @param doc
+     *            {@link DocLog}.
+     * @return The store branch of a print document, or {@code null} when not
+     *         a print.
+     */
+    private static DocStoreBranchEnum getStoreBranch(final DocLog doc) {
+        if (doc.getDocOut() != null && doc.getDocOut().getPrintOut() != null) {
+            return DocStoreBranchEnum.OUT_PRINT;
+        }
+        if (doc.getDocIn() != null && doc.getDocIn().getPrintIn() != null) {
+            return DocStoreBranchEnum.IN_PRINT;
+        }
+        return null;
+    }
+
+    /**
+     * @param branch
+     *            The store branch.
+     * @param doc
+     *            {@link DocLog}.
+     * @return The store holding the PDF of a print document, preferably the
+     *         archive, or {@code null} when the index says neither store
+     *         holds it.
+     */
+    private static DocStoreTypeEnum getPdfStore(
+            final DocStoreBranchEnum branch, final DocLog doc) {
+        if (DOCSTORE_INDEX.isDocPresent(DocStoreTypeEnum.ARCHIVE, branch,
+                doc)) {
+            return DocStoreTypeEnum.ARCHIVE;
+        }
+        if (DOCSTORE_INDEX.isDocPresent(DocStoreTypeEnum.JOURNAL, branch,
+                doc)) {
+            return DocStoreTypeEnum.JOURNAL;
+        }
+        return null;
+    }
+
     /**
      * @param doc
      *            {@link DocLog}, can be {@code null}.
@@ -288,13 +332,36 @@ public final class RestDocumentsService extends AbstractRestService {
             if (doc == null) {
                 rsp = Response.noContent();
             } else {
+                final DocStoreBranchEnum branch = getStoreBranch(doc);
+
                 File file = null;
-                try {
-                    file = DOCSTORE_SERVICE
-                            .retrievePdf(DocStoreTypeEnum.ARCHIVE, doc);
-                } catch (DocStoreException e) {
-                    file = DOCSTORE_SERVICE
-                            .retrievePdf(DocStoreTypeEnum.JOURNAL, doc);
+
+                if (branch == null) {
+                    try {
+                        file = DOCSTORE_SERVICE
+                                .retrievePdf(DocStoreTypeEnum.ARCHIVE, doc);
+                    } catch (DocStoreException e) {
+                        file = DOCSTORE_SERVICE
+                                .retrievePdf(DocStoreTypeEnum.JOURNAL, doc);
+                    }
+                } else {
+                    DocStoreTypeEnum store = getPdfStore(branch, doc);
+                    if (store == null) {
+                        // Absence may be stale: check once more, uncached.
+                        DOCSTORE_INDEX.invalidate(doc.getId());
+                        store = getPdfStore(branch, doc);
+                    }
+                    if (store == null) {
+                        // Let the store report the missing document.
+                        store = DocStoreTypeEnum.JOURNAL;
+                    }
+                    try {
+                        file = DOCSTORE_SERVICE.retrievePdf(store, doc);
+                    } catch (DocStoreException e) {
+                        // Purged since indexed.
+                        DOCSTORE_INDEX.invalidate(doc.getId());
+                        throw e;
+                    }
                 }
                 rsp = downloadPdf(file);
             }
@@ -374,6 +441,8 @@ public final class RestDocumentsService extends AbstractRestService {
             QUEUE_SERVICE.printDocContent(ReservedIppQueueEnum.WEBSERVICE,
                     user.getUserId(), docContentPrintReq, istr);
 
+            PageImageRenderQueue.instance().warmInbox(user.getUserId());
+
         } catch (RestAuthException e) {
             return printDocumentWarn(Response.Status.UNAUTHORIZED,
                     e.getMessage());
@@ -488,31 +557,71 @@ public final class RestDocumentsService extends AbstractRestService {
     }
 
     /**
+     * Creates the response for a PDF download. Conditional GET and single
+     * byte range requests are supported.
      *
      * @param filePdf
-     *            PDF file.
-     * @return {@link ResponseBuilder}.
+     *            The PDF file.
+     * @return The response builder.
      */
     private ResponseBuilder downloadPdf(final File filePdf) {
 
-        final StreamingOutput output = new StreamingOutput() {
+        final long length = filePdf.length();
+        final long lastModified = filePdf.lastModified();
+        final String etag = FileDownloadHelper.createETag(filePdf);
 
-            @Override
-            public void write(final java.io.OutputStream output)
-                    throws IOException, WebApplicationException {
+        final ResponseBuilder rsp;
 
-                try (InputStream istr = new FileInputStream(filePdf)) {
-                    final byte[] buffer = new byte[INPUT_STREAM_BUFFER_SIZE];
-                    int nBytes;
-                    while ((nBytes = istr.read(buffer)) >= 0) {
-                        output.write(buffer, 0, nBytes);
-                    }
-                    output.flush();
-                }
+        if (FileDownloadHelper.isNotModified(this.servletRequest, etag,
+                lastModified)) {
+            rsp = Response.notModified();
+        } else {
+
+            final FileDownloadHelper.ByteRange range = FileDownloadHelper
+                    .getByteRange(this.servletRequest, etag, lastModified,
+                            length);
+
+            if (range != null && !range.isSatisfiable()) {
+                return Response
+                        .status(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(FileDownloadHelper.HEADER_CONTENT_RANGE,
+                                range.getContentRange());
             }
-        };
 
-        return Response.ok(output).header("content-disposition",
-                "attachment; filename = file.pdf");
+            final long position;
+            final long count;
+
+            if (range == null) {
+                position = 0;
+                count = length;
+                rsp = Response.ok();
+            } else {
+                position = range.getFirst();
+                count = range.getLength();
+                rsp = Response.status(HttpServletResponse.SC_PARTIAL_CONTENT)
+                        .header(FileDownloadHelper.HEADER_CONTENT_RANGE,
+                                range.getContentRange());
+            }
+
+            final StreamingOutput output = new StreamingOutput() {
+
+                @Override
+                public void write(final java.io.OutputStream output)
+                        throws IOException, WebApplicationException {
+                    FileDownloadHelper.transfer(filePdf, position, count,
+                            output);
+                }
+            };
+
+            rsp.entity(output).header(HttpHeaders.CONTENT_LENGTH, count)
+                    .header(FileDownloadHelper.HEADER_CONTENT_DISPOSITION,
+                            "attachment; filename = file.pdf");
+        }
+
+        return rsp.header(FileDownloadHelper.HEADER_ETAG, etag)
+                .header(FileDownloadHelper.HEADER_LAST_MODIFIED,
+                        new Date(lastModified))
+                .header(FileDownloadHelper.HEADER_ACCEPT_RANGES,
+                        FileDownloadHelper.ACCEPT_RANGES_BYTES);
     }
 }
@@ -25,7 +25,6 @@
 package org.savapage.server.restful.services;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Locale;
@@ -36,6 +35,7 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
@@ -53,6 +53,7 @@ import org.savapage.core.reports.impl.AccountTrxListReport;
 import org.savapage.core.reports.impl.ReportCreator;
 import org.savapage.core.services.ServiceContext;
 import org.savapage.core.util.JsonHelper;
+import org.savapage.server.helpers.FileDownloadHelper;
 import org.savapage.server.restful.RestAuthFilter;
 import org.savapage.server.restful.dto.AccountTrxReportReqDto;
 import org.savapage.server.restful.dto.RestResponseDto;
@@ -244,12 +245,9 @@ public class RestReportsService extends AbstractRestService {
                 @Override
                 public void write(final OutputStream output)
                         throws IOException, WebApplicationException {
-                    try (FileInputStream in =
-                            new FileInputStream(tempExportFile)) {
-                        int c;
-                        while ((c = in.read()) != -1) {
-                            output.write(c);
-                        }
+                    try {
+                        FileDownloadHelper.transfer(tempExportFile, 0,
+                                tempExportFile.length(), output);
                     } finally {
                         tempExportFile.delete();
                     }
@@ -260,7 +258,10 @@ public class RestReportsService extends AbstractRestService {
             AdminPublisher.instance().publish(PubTopicEnum.WEB_SERVICE,
                     PubLevelEnum.INFO, logMsg.toString());
 
-            return Response.ok(stream).build();
+            return Response.ok(stream)
+                    .header(HttpHeaders.CONTENT_LENGTH,
+                            tempExportFile.length())
+                    .build();
 
         } catch (Exception e) {
             if (tempExportFile != null && tempExportFile.exists()) {
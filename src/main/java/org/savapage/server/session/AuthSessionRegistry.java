@@ -0,0 +1,518 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.session;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.savapage.core.SpInfo;
+import org.savapage.core.config.WebAppTypeEnum;
+import org.savapage.core.util.DateUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of authenticated WebApp sessions, indexed by session ID, IP address
+ * and user.
+ * <p>
+ * All indexes are concurrent maps, so lookups (like the most recent user on an
+ * IP address for each IPP and raw print job) never take a lock. Updates that
+ * span the IP address indexes are serialized on a lock stripe of the IP
+ * address, and user session counts are updated atomically per user, so
+ * logins and logouts from different hosts do not contend.
+ * </p>
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class AuthSessionRegistry {
+
+    /** */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(AuthSessionRegistry.class);
+
+    /**
+     * Number of IP address lock stripes.
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    /** 30 minutes. */
+    private static final long PRUNE_TIME_PERIOD =
+            30 * DateUtil.DURATION_MSEC_MINUTE;
+
+    /**
+     * An authenticated WebApp session.
+     */
+    public static final class AuthSession {
+
+        /** */
+        private final WebAppTypeEnum webAppType;
+
+        /** */
+        private final String ipAddr;
+
+        /** */
+        private final String user;
+
+        /**
+         * @param webAppType
+         *            The {@link WebAppTypeEnum}.
+         * @param ipAddr
+         *            The IP address of the remote host.
+         * @param user
+         *            The authenticated user.
+         */
+        private AuthSession(final WebAppTypeEnum webAppType,
+                final String ipAddr, final String user) {
+            this.webAppType = webAppType;
+            this.ipAddr = ipAddr;
+            this.user = user;
+        }
+
+        /**
+         * @return The {@link WebAppTypeEnum}.
+         */
+        public WebAppTypeEnum getWebAppType() {
+            return webAppType;
+        }
+
+        /**
+         * @return The IP address of the remote host.
+         */
+        public String getIpAddr() {
+            return ipAddr;
+        }
+
+        /**
+         * @return The authenticated user.
+         */
+        public String getUser() {
+            return user;
+        }
+    }
+
+    /**
+     * SessionId (key) with the authenticated session (value).
+     */
+    private final ConcurrentMap<String, AuthSession> mapSessions =
+            new ConcurrentHashMap<>();
+
+    /**
+     * IP-address (key) with the most recent User (value) of an active
+     * authenticated WebApp Session.
+     */
+    private final ConcurrentMap<String, String> mapIpAddr2RecentUser =
+            new ConcurrentHashMap<>();
+
+    /**
+     * IP-address (key) and active authenticated WebApp Sessions (value). A
+     * session set is only accessed while holding the lock stripe of its IP
+     * address.
+     */
+    private final ConcurrentMap<String, Set<String>> mapIpAddr2Sessions =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Active authenticated User (key) Web App session count (value).
+     */
+    private final ConcurrentMap<String, Integer> mapUsers2WebAppUserCount =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Active authenticated User (key) Mail Tickets Web App session count
+     * (value).
+     */
+    private final ConcurrentMap<String,
+            Integer> mapUsers2WebAppMailTicketsCount =
+                    new ConcurrentHashMap<>();
+
+    /**
+     * Active authenticated User (key) Payment Web App session count (value).
+     */
+    private final ConcurrentMap<String, Integer> mapUsers2WebAppPaymentCount =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Lock stripes of IP addresses.
+     */
+    private final Object[] ipAddrLocks = new Object[LOCK_STRIPES];
+
+    /**
+     * Last time the orphaned IP addresses were pruned.
+     */
+    private final AtomicLong lastPruneTime = new AtomicLong();
+
+    /** */
+    private static final class SingletonHolder {
+        /** */
+        public static final AuthSessionRegistry INSTANCE =
+                new AuthSessionRegistry();
+    }
+
+    /**
+     * Singleton.
+     */
+    private AuthSessionRegistry() {
+        this.lastPruneTime.set(System.currentTimeMillis());
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.ipAddrLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return The singleton instance.
+     */
+    public static AuthSessionRegistry instance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * @param ipAddr
+     *            The IP address.
+     * @return The lock stripe of the IP address.
+     */
+    private Object getIpAddrLock(final String ipAddr) {
+        return this.ipAddrLocks[(ipAddr.hashCode() & Integer.MAX_VALUE)
+                % LOCK_STRIPES];
+    }
+
+    /**
+     * @param webAppType
+     *            The {@link WebAppTypeEnum}.
+     * @return The user session count map, or {@code null} when Web App type
+     *         is not a User Web App (variant).
+     */
+    private ConcurrentMap<String, Integer>
+            getUserCountMap(final WebAppTypeEnum webAppType) {
+
+        if (!webAppType.isUserTypeOrVariant()) {
+            return null;
+        }
+        if (webAppType == WebAppTypeEnum.MAILTICKETS) {
+            return this.mapUsers2WebAppMailTicketsCount;
+        }
+        if (webAppType == WebAppTypeEnum.PAYMENT) {
+            return this.mapUsers2WebAppPaymentCount;
+        }
+        return this.mapUsers2WebAppUserCount;
+    }
+
+    /**
+     * Atomically adds a delta to the session count of a user. The user entry
+     * is removed when the count drops to zero.
+     *
+     * @param session
+     *            The authenticated session.
+     * @param delta
+     *            The count delta.
+     */
+    private void addUserCount(final AuthSession session, final int delta) {
+
+        final ConcurrentMap<String, Integer> map =
+                this.getUserCountMap(session.getWebAppType());
+
+        if (map == null) {
+            return;
+        }
+
+        while (true) {
+            final Integer count = map.get(session.getUser());
+            if (count == null) {
+                if (delta <= 0 || map.putIfAbsent(session.getUser(),
+                        Integer.valueOf(delta)) == null) {
+                    return;
+                }
+            } else {
+                final int countUpd = count.intValue() + delta;
+                if (countUpd <= 0) {
+                    if (map.remove(session.getUser(), count)) {
+                        return;
+                    }
+                } else if (map.replace(session.getUser(), count,
+                        Integer.valueOf(countUpd))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the most recent authenticated user on an IP address.
+     *
+     * @param ipAddr
+     *            The IP address of the remote host.
+     * @return {@code null} when user is NOT found.
+     */
+    public String getAuthUserByIpAddr(final String ipAddr) {
+        return this.mapIpAddr2RecentUser.get(ipAddr);
+    }
+
+    /**
+     * @param sessionId
+     *            The session ID.
+     * @return The authenticated session, or {@code null} when not found.
+     */
+    public AuthSession getAuthSession(final String sessionId) {
+        return this.mapSessions.get(sessionId);
+    }
+
+    /**
+     * @param ipAddr
+     *            The IP address of the remote host.
+     * @return A copy of the authenticated session IDs on the IP address.
+     */
+    public Set<String> getSessionIds(final String ipAddr) {
+        synchronized (this.getIpAddrLock(ipAddr)) {
+            final Set<String> sessions = this.mapIpAddr2Sessions.get(ipAddr);
+            if (sessions == null) {
+                return new HashSet<>();
+            }
+            return new HashSet<>(sessions);
+        }
+    }
+
+    /**
+     * @return The number of authenticated WebApp sessions.
+     */
+    public int getAuthSessionCount() {
+        return this.mapSessions.size();
+    }
+
+    /**
+     * @return The number of IP addresses with authenticated WebApp sessions.
+     */
+    public int getAuthIpAddrCount() {
+        return this.mapIpAddr2Sessions.size();
+    }
+
+    /**
+     * @return The number of IP addresses with a recent authenticated user.
+     */
+    public int getRecentUserCount() {
+        return this.mapIpAddr2RecentUser.size();
+    }
+
+    /**
+     * @param userid
+     *            Unique user id.
+     * @return Number of authenticated User Web App sessions.
+     */
+    public int getWebAppUserSessions(final String userid) {
+        final Integer count = this.mapUsers2WebAppUserCount.get(userid);
+        if (count == null) {
+            return 0;
+        }
+        return count.intValue();
+    }
+
+    /**
+     * @param userid
+     *            Unique user id.
+     * @return Number of authenticated Mail Tickets Web App sessions.
+     */
+    public int getWebAppMailTicketsSessions(final String userid) {
+        final Integer count =
+                this.mapUsers2WebAppMailTicketsCount.get(userid);
+        if (count == null) {
+            return 0;
+        }
+        return count.intValue();
+    }
+
+    /**
+     * Registers an authenticated session. When a user is already present on
+     * the IP address it is replaced by the user offered here.
+     *
+     * @param webAppType
+     *            The {@link WebAppTypeEnum}.
+     * @param sessionId
+     *            The session ID.
+     * @param ipAddr
+     *            The IP address of the remote host.
+     * @param user
+     *            The authenticated user.
+     */
+    public void onAuthenticated(final WebAppTypeEnum webAppType,
+            final String sessionId, final String ipAddr, final String user) {
+
+        final AuthSession session = new AuthSession(webAppType, ipAddr, user);
+
+        synchronized (this.getIpAddrLock(ipAddr)) {
+
+            final boolean newIP =
+                    this.mapIpAddr2RecentUser.put(ipAddr, user) == null;
+
+            if (newIP && LOGGER.isDebugEnabled()) {
+                LOGGER.debug(
+                        "IP Recent User [{}] [{}] [{}] added." + " Total [{}]",
+                        ipAddr, user, sessionId,
+                        this.mapIpAddr2RecentUser.size());
+            }
+
+            Set<String> ipAddrSessions = this.mapIpAddr2Sessions.get(ipAddr);
+            if (ipAddrSessions == null) {
+                ipAddrSessions = new HashSet<>();
+                this.mapIpAddr2Sessions.put(ipAddr, ipAddrSessions);
+            }
+            ipAddrSessions.add(sessionId);
+
+            final AuthSession previous =
+                    this.mapSessions.put(sessionId, session);
+
+            if (previous != null) {
+                // Re-authenticated session: a previous IP address is pruned
+                // as orphan.
+                this.addUserCount(previous, -1);
+            }
+            this.addUserCount(session, 1);
+        }
+
+        final long now = System.currentTimeMillis();
+        final long lastPrune = this.lastPruneTime.get();
+
+        if (now - lastPrune > PRUNE_TIME_PERIOD
+                && this.lastPruneTime.compareAndSet(lastPrune, now)) {
+            final int pruned = this.pruneOrphanedAuthIpAddr();
+            if (pruned > 0) {
+                SpInfo.instance().log(String.format(
+                        "Removed [%s] orphaned HTTP sessions.", pruned));
+            }
+        }
+    }
+
+    /**
+     * Removes an unbound session.
+     *
+     * @param sessionId
+     *            The session ID.
+     * @return The removed authenticated session, or {@code null} when the
+     *         session was not authenticated.
+     */
+    public AuthSession onUnbound(final String sessionId) {
+
+        final AuthSession session = this.mapSessions.remove(sessionId);
+
+        if (session == null) {
+            return null;
+        }
+
+        this.addUserCount(session, -1);
+
+        final String ipAddr = session.getIpAddr();
+
+        synchronized (this.getIpAddrLock(ipAddr)) {
+
+            final Set<String> sessions = this.mapIpAddr2Sessions.get(ipAddr);
+
+            if (sessions == null) {
+                LOGGER.error("Inconsistent IP sessions cache: "
+                        + "no sessions found for [{}]", ipAddr);
+            } else {
+                if (!sessions.remove(sessionId)) {
+                    LOGGER.warn(
+                            "{}: Inconsistent IP sessions cache "
+                                    + "[{}]->[{}]",
+                            "sessionUnbound", sessionId, ipAddr);
+                }
+                if (sessions.isEmpty()) {
+                    this.mapIpAddr2Sessions.remove(ipAddr);
+                }
+            }
+
+            final String user = this.mapIpAddr2RecentUser.remove(ipAddr);
+
+            if (user == null) {
+                LOGGER.debug("IP User Session [{}] [{}] already removed.",
+                        ipAddr, sessionId);
+            } else if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(
+                        "IP User Session [{}] [{}] [{}] removed."
+                                + " Sessions [{}]",
+                        ipAddr, user, sessionId,
+                        this.mapIpAddr2RecentUser.size());
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Removes IP addresses from the cache that have no authenticated session.
+     * <p>
+     * When DHCP lease expires <i>before</i> the HTTP session expires, the cache
+     * may contain IP addresses with orphaned Session ID, as exemplified in the
+     * following use-case:
+     * <ul>
+     * <li>User does not explicitly logout of the Web App</li>
+     * <li>After device reboot or wake-up from hibernation, a different IP
+     * address is acquired from the renewed DHCP lease.</li>
+     * <li>User open Web App again, and the client side auth token give him an
+     * automatic login, with the newly acquired IP address.</li>
+     * <li>As a result, the session and user related to the old IP address are
+     * orphaned.</li>
+     * </ul>
+     * </p>
+     *
+     * @return Number of IP addresses removed from cache.
+     */
+    private int pruneOrphanedAuthIpAddr() {
+
+        int removed = 0;
+
+        for (final String ipAddr : this.mapIpAddr2Sessions.keySet()) {
+
+            synchronized (this.getIpAddrLock(ipAddr)) {
+
+                final Set<String> sessions =
+                        this.mapIpAddr2Sessions.get(ipAddr);
+
+                if (sessions == null) {
+                    continue;
+                }
+
+                final Iterator<String> iterSession = sessions.iterator();
+
+                while (iterSession.hasNext()) {
+                    final AuthSession session =
+                            this.mapSessions.get(iterSession.next());
+                    if (session == null
+                            || !session.getIpAddr().equals(ipAddr)) {
+                        iterSession.remove();
+                    }
+                }
+                if (sessions.isEmpty()) {
+                    this.mapIpAddr2Sessions.remove(ipAddr);
+                    this.mapIpAddr2RecentUser.remove(ipAddr);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+}
@@ -24,6 +24,7 @@
  */
 package org.savapage.server.session;
 
+import java.io.Serializable;
 import java.util.Map;
 
 /**
@@ -31,7 +32,10 @@ import java.util.Map;
  * @author Rijk Ravestein
  *
  */
-public class JobTicketSession {
+public class JobTicketSession implements Serializable {
+
+    /** */
+    private static final long serialVersionUID = 1L;
 
     public enum PrinterOpt {
         MEDIA_SOURCE, MEDIA_SOURCE_SHEET, OUTPUT_BIN
@@ -29,6 +29,9 @@ import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
 import java.util.Locale;
 
+import javax.servlet.http.HttpSessionActivationListener;
+import javax.servlet.http.HttpSessionEvent;
+
 import org.apache.wicket.Session;
 import org.apache.wicket.protocol.http.WebSession;
 import org.apache.wicket.request.Request;
@@ -49,11 +52,18 @@ import org.savapage.core.jpa.User;
  * <p>
  * NOTE: synchronized statements are used because sessions aren’t thread-safe.
  * </p>
+ * <p>
+ * A session can be stored in an external session store, and loaded by any
+ * server node (see {@link org.savapage.server.WebServer}). Therefore all
+ * state must be serializable, and the authenticated session is registered
+ * again in the {@link AuthSessionRegistry} of the node that activates it.
+ * </p>
  *
  * @author Rijk Ravestein
  *
  */
-public final class SpSession extends WebSession {
+public final class SpSession extends WebSession
+        implements HttpSessionActivationListener {
 
     /**
      *
@@ -65,8 +75,10 @@ public final class SpSession extends WebSession {
      */
     private static final String SESSION_ATTR_WEBAPP_TYPE = "sp-webapp-type";
 
-    /** */
-    private final Object mutex = new Object();
+    /**
+     * Lock object: an empty array, because it must be serializable.
+     */
+    private final Object mutex = new Object[0];
 
     /** */
     private UserIdDto userIdDto;
@@ -110,6 +122,24 @@ public final class SpSession extends WebSession {
      */
     private boolean humanDetected = false;
 
+    /**
+     * The {@link WebAppTypeEnum} of the authentication registered in the
+     * {@link AuthSessionRegistry}.
+     */
+    private WebAppTypeEnum authWebAppType;
+
+    /**
+     * The client IP address of the authentication registered in the
+     * {@link AuthSessionRegistry}.
+     */
+    private String authIpAddr;
+
+    /**
+     * The user of the authentication registered in the
+     * {@link AuthSessionRegistry}.
+     */
+    private String authUser;
+
     /**
      *
      * @param request
@@ -359,6 +389,10 @@ public final class SpSession extends WebSession {
             setHumanDetected(false);
             oneTimeAuthToken = false;
 
+            this.authWebAppType = null;
+            this.authIpAddr = null;
+            this.authUser = null;
+
             decrementAuthWebAppCount();
 
             this.creationTime = System.currentTimeMillis();
@@ -431,6 +465,54 @@ public final class SpSession extends WebSession {
         }
     }
 
+    /**
+     * Sets the origin of the authentication, as registered in the
+     * {@link AuthSessionRegistry}.
+     *
+     * @param webAppType
+     *            The {@link WebAppTypeEnum}.
+     * @param ipAddr
+     *            The client IP address.
+     * @param user
+     *            The authenticated user.
+     */
+    public void setAuthOrigin(final WebAppTypeEnum webAppType,
+            final String ipAddr, final String user) {
+        synchronized (this.mutex) {
+            this.authWebAppType = webAppType;
+            this.authIpAddr = ipAddr;
+            this.authUser = user;
+            dirty();
+        }
+    }
+
+    /**
+     * Does nothing: the session is still valid when passivated, so its
+     * authentication stays registered. Logins that are invalidated on another
+     * server node are removed on lookup, see
+     * {@link org.savapage.server.WebApp#getAuthUserByIpAddr(String)}.
+     */
+    @Override
+    public void sessionWillPassivate(final HttpSessionEvent se) {
+        // noop
+    }
+
+    /**
+     * Registers the authentication of a session that is loaded from an
+     * external session store, so IP address and user lookups work on this
+     * server node.
+     */
+    @Override
+    public void sessionDidActivate(final HttpSessionEvent se) {
+        synchronized (this.mutex) {
+            if (this.authWebAppType != null && this.userIdDto != null) {
+                AuthSessionRegistry.instance().onAuthenticated(
+                        this.authWebAppType, se.getSession().getId(),
+                        this.authIpAddr, this.authUser);
+            }
+        }
+    }
+
     public JobTicketSession getJobTicketSession() {
         return this.jobTicketSession;
     }
@@ -34,7 +34,7 @@ import org.savapage.core.cometd.PubLevelEnum;
 import org.savapage.core.cometd.PubTopicEnum;
 import org.savapage.core.config.ConfigManager;
 import org.savapage.core.config.IConfigProp.Key;
-import org.savapage.core.util.InetUtils;
+import org.savapage.server.helpers.CidrMatcher;
 
 /**
  *
@@ -91,20 +91,19 @@ public final class WebAppHelper {
         // X-Forwarded-For: <client>, <proxy1>, <proxy2>
         final String[] xffArray = xffHeader.split(",");
 
-        final String cidrRangesProxy = ConfigManager.instance()
-                .getConfigValue(Key.WEBSERVER_HTTP_HEADER_XFF_PROXIES_ALLOWED);
+        final CidrMatcher cidrRangesProxy = CidrMatcher
+                .forConfig(Key.WEBSERVER_HTTP_HEADER_XFF_PROXIES_ALLOWED);
 
-        if (StringUtils.isNotBlank(cidrRangesProxy)) {
+        if (!cidrRangesProxy.isBlank()) {
 
             if (xffArray.length < 2) {
-                warnProxyXFF(xffHeader, cidrRangesProxy);
+                warnProxyXFF(xffHeader, cidrRangesProxy.getCidrSet());
                 return null;
             }
 
             for (int i = 1; i < xffArray.length; i++) {
-                if (!InetUtils.isIpAddrInCidrRanges(cidrRangesProxy,
-                        xffArray[i].trim())) {
-                    warnProxyXFF(xffHeader, cidrRangesProxy);
+                if (!cidrRangesProxy.matches(xffArray[i].trim())) {
+                    warnProxyXFF(xffHeader, cidrRangesProxy.getCidrSet());
                     return null;
                 }
             }
@@ -46,7 +46,6 @@ import org.savapage.core.services.ServiceContext;
 import org.savapage.core.users.IExternalUserAuthenticator;
 import org.savapage.core.users.InternalUserAuthenticator;
 import org.savapage.core.users.conf.UserAliasList;
-import org.savapage.core.util.InetUtils;
 import org.savapage.core.util.Messages;
 import org.savapage.server.WebApp;
 import org.savapage.server.WebAppParmEnum;
@@ -54,6 +53,7 @@ import org.savapage.server.auth.ClientAppUserAuthManager;
 import org.savapage.server.auth.UserAuthToken;
 import org.savapage.server.cometd.AbstractEventService;
 import org.savapage.server.cometd.UserEventService;
+import org.savapage.server.helpers.CidrMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -378,8 +378,8 @@ public final class ClientAppHandler {
         final ConfigManager cm = ConfigManager.instance();
         final String clientIpAddress = SpXmlRpcServlet.getClientIpAddress();
 
-        final String ipAllowed = StringUtils.defaultString(
-                cm.getConfigValue(Key.CLIAPP_IP_ADDRESSES_ALLOWED));
+        final CidrMatcher ipAllowed =
+                CidrMatcher.forConfig(Key.CLIAPP_IP_ADDRESSES_ALLOWED);
 
         try {
 
@@ -393,8 +393,8 @@ public final class ClientAppHandler {
                 dto.setStatus(ClientAppConnectDto.Status.ERROR_FATAL);
                 dto.setStatusMessage("Invalid API Key.");
 
-            } else if (!InetUtils.isIpAddrInCidrRanges(ipAllowed,
-                    clientIpAddress)) {
+            } else if (!ipAllowed.isBlank()
+                    && !ipAllowed.matches(clientIpAddress)) {
 
                 if (cm.isConfigValue(
                         Key.CLIAPP_AUTH_IP_ADDRESSES_DENIED_ENABLE)) {
@@ -0,0 +1,207 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.helpers;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class CidrMatcherTest {
+
+    @Test
+    public void testIPv4Range() {
+
+        final CidrMatcher matcher = CidrMatcher.compile("192.168.1.0/24");
+
+        Assert.assertTrue(matcher.matches("192.168.1.0"));
+        Assert.assertTrue(matcher.matches("192.168.1.1"));
+        Assert.assertTrue(matcher.matches("192.168.1.255"));
+        Assert.assertFalse(matcher.matches("192.168.0.255"));
+        Assert.assertFalse(matcher.matches("192.168.2.0"));
+        Assert.assertFalse(matcher.matches("10.0.0.1"));
+    }
+
+    @Test
+    public void testIPv4Host() {
+
+        final CidrMatcher matcherPlain = CidrMatcher.compile("10.1.2.3");
+        final CidrMatcher matcher32 = CidrMatcher.compile("10.1.2.3/32");
+
+        for (final CidrMatcher matcher : new CidrMatcher[] { matcherPlain,
+                matcher32 }) {
+            Assert.assertTrue(matcher.matches("10.1.2.3"));
+            Assert.assertFalse(matcher.matches("10.1.2.2"));
+            Assert.assertFalse(matcher.matches("10.1.2.4"));
+        }
+    }
+
+    @Test
+    public void testIPv4All() {
+
+        final CidrMatcher matcher = CidrMatcher.compile("0.0.0.0/0");
+
+        Assert.assertTrue(matcher.matches("0.0.0.0"));
+        Assert.assertTrue(matcher.matches("127.0.0.1"));
+        Assert.assertTrue(matcher.matches("255.255.255.255"));
+        Assert.assertFalse("IPv6 is other family", matcher.matches("::1"));
+    }
+
+    @Test
+    public void testIPv6Range() {
+
+        final CidrMatcher matcher = CidrMatcher.compile("fe80::/10");
+
+        Assert.assertTrue(matcher.matches("fe80::1"));
+        Assert.assertTrue(matcher.matches("FEBF:FFFF::1"));
+        Assert.assertFalse(matcher.matches("fec0::1"));
+        Assert.assertFalse(matcher.matches("2001:db8::1"));
+        Assert.assertFalse("IPv4 is other family",
+                matcher.matches("192.168.1.1"));
+    }
+
+    @Test
+    public void testIPv6Host() {
+
+        final CidrMatcher matcherPlain = CidrMatcher.compile("2001:db8::1");
+        final CidrMatcher matcher128 =
+                CidrMatcher.compile("2001:db8::1/128");
+
+        for (final CidrMatcher matcher : new CidrMatcher[] { matcherPlain,
+                matcher128 }) {
+            Assert.assertTrue(matcher.matches("2001:db8::1"));
+            Assert.assertTrue(matcher.matches("2001:0db8:0:0:0:0:0:1"));
+            Assert.assertFalse(matcher.matches("2001:db8::2"));
+            Assert.assertFalse(matcher.matches("2001:db8::"));
+        }
+    }
+
+    @Test
+    public void testIPv6All() {
+
+        final CidrMatcher matcher = CidrMatcher.compile("::/0");
+
+        Assert.assertTrue(matcher.matches("::1"));
+        Assert.assertTrue(matcher.matches("ffff:ffff::ffff"));
+        Assert.assertFalse("IPv4 is other family",
+                matcher.matches("10.0.0.1"));
+    }
+
+    @Test
+    public void testIPv4MappedIPv6() {
+
+        final CidrMatcher matcher = CidrMatcher.compile("10.0.0.0/8");
+
+        Assert.assertTrue(matcher.matches("::ffff:10.1.2.3"));
+        Assert.assertFalse(matcher.matches("::ffff:11.1.2.3"));
+    }
+
+    @Test
+    public void testCidrSet() {
+
+        final CidrMatcher matcher = CidrMatcher
+                .compile(" 10.0.0.0/8, 172.16.0.0/12;192.168.1.5\tfd00::/8 ");
+
+        Assert.assertTrue(matcher.matches("10.255.0.1"));
+        Assert.assertTrue(matcher.matches("172.31.255.255"));
+        Assert.assertFalse(matcher.matches("172.32.0.0"));
+        Assert.assertTrue(matcher.matches("192.168.1.5"));
+        Assert.assertFalse(matcher.matches("192.168.1.6"));
+        Assert.assertTrue(matcher.matches("fdab::1"));
+        Assert.assertFalse(matcher.matches("fe00::1"));
+    }
+
+    @Test
+    public void testNestedRanges() {
+
+        // Narrower range after wider range, and the other way around.
+        final CidrMatcher matcher1 =
+                CidrMatcher.compile("10.0.0.0/8 10.1.0.0/16");
+        final CidrMatcher matcher2 =
+                CidrMatcher.compile("10.1.0.0/16 10.0.0.0/8");
+
+        for (final CidrMatcher matcher : new CidrMatcher[] { matcher1,
+                matcher2 }) {
+            Assert.assertTrue(matcher.matches("10.1.2.3"));
+            Assert.assertTrue(matcher.matches("10.2.3.4"));
+            Assert.assertFalse(matcher.matches("11.0.0.0"));
+        }
+    }
+
+    @Test
+    public void testMalformedRanges() {
+
+        final CidrMatcher matcher = CidrMatcher.compile(
+                "10.0.0.0/33 ::/129 10.0.0.0/-1 10.0.0.0/x 256.0.0.1 "
+                        + "1.2.3 host.example.com 10.0.0.0/ /8 "
+                        + "192.168.1.1");
+
+        Assert.assertTrue("valid range is kept",
+                matcher.matches("192.168.1.1"));
+        Assert.assertFalse(matcher.matches("10.0.0.1"));
+        Assert.assertFalse(matcher.matches("0.0.0.0"));
+        Assert.assertFalse(matcher.matches("::1"));
+    }
+
+    @Test
+    public void testMalformedAddress() {
+
+        final CidrMatcher matcher =
+                CidrMatcher.compile("0.0.0.0/0 ::/0");
+
+        Assert.assertFalse(matcher.matches(null));
+        Assert.assertFalse(matcher.matches(""));
+        Assert.assertFalse(matcher.matches("1.2.3"));
+        Assert.assertFalse(matcher.matches("1.2.3.4.5"));
+        Assert.assertFalse(matcher.matches("1.2.3.256"));
+        Assert.assertFalse(matcher.matches("1..2.3"));
+        Assert.assertFalse(matcher.matches("localhost"));
+        Assert.assertFalse(matcher.matches("host.example.com"));
+    }
+
+    @Test
+    public void testBlank() {
+
+        for (final String cidrSet : new String[] { null, "", "  ", " ,; " }) {
+
+            final CidrMatcher matcher = CidrMatcher.compile(cidrSet);
+
+            Assert.assertFalse(matcher.matches("127.0.0.1"));
+            Assert.assertFalse(matcher.matches("::1"));
+        }
+
+        Assert.assertTrue(CidrMatcher.compile(null).isBlank());
+        Assert.assertTrue(CidrMatcher.compile("").isBlank());
+        Assert.assertTrue(CidrMatcher.compile(" ").isBlank());
+        Assert.assertFalse(CidrMatcher.compile("10.0.0.0/8").isBlank());
+
+        Assert.assertFalse("invalid range is not blank",
+                CidrMatcher.compile("x").isBlank());
+        Assert.assertEquals("", CidrMatcher.compile(null).getCidrSet());
+    }
+}
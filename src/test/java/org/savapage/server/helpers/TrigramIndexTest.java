@@ -0,0 +1,234 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class TrigramIndexTest {
+
+    /**
+     * @param index
+     *            The index.
+     * @param text
+     *            The search text.
+     * @return The sorted keys found.
+     */
+    private static List<Integer> search(final TrigramIndex<Integer> index,
+            final String text) {
+        final List<Integer> keys = new ArrayList<>(index.search(text));
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * @param keys
+     *            The keys.
+     * @return The list of keys.
+     */
+    private static List<Integer> keys(final Integer... keys) {
+        final List<Integer> list = new ArrayList<>();
+        Collections.addAll(list, keys);
+        return list;
+    }
+
+    /**
+     * @return An index of three users.
+     */
+    private static TrigramIndex<Integer> createIndex() {
+
+        final Map<Integer, String[]> entries = new HashMap<>();
+
+        entries.put(1, new String[] { "jdoe", "John Doe" });
+        entries.put(2, new String[] { "asmith", "Alice Smith" });
+        entries.put(3, new String[] { "jsmith", null });
+
+        final TrigramIndex<Integer> index = new TrigramIndex<>();
+        index.load(entries);
+        return index;
+    }
+
+    @Test
+    public void testLoadAndSearch() {
+
+        final TrigramIndex<Integer> index = createIndex();
+
+        Assert.assertEquals(3, index.size());
+
+        Assert.assertEquals(keys(2, 3), search(index, "smith"));
+        Assert.assertEquals("ignore case", keys(2, 3),
+                search(index, "SMITH"));
+        Assert.assertEquals("second text", keys(1), search(index, "n do"));
+        Assert.assertEquals("trigram only", keys(1), search(index, "doe"));
+        Assert.assertEquals(keys(), search(index, "xyz"));
+        Assert.assertEquals("all trigrams present, no substring", keys(),
+                search(index, "jdoesmith"));
+    }
+
+    @Test
+    public void testShortSearchText() {
+
+        final TrigramIndex<Integer> index = createIndex();
+
+        Assert.assertEquals("empty returns all", keys(1, 2, 3),
+                search(index, ""));
+        Assert.assertEquals("null returns all", keys(1, 2, 3),
+                search(index, null));
+        Assert.assertEquals(keys(1, 3), search(index, "J"));
+        Assert.assertEquals(keys(2, 3), search(index, "sm"));
+    }
+
+    @Test
+    public void testPutAndRemove() {
+
+        final TrigramIndex<Integer> index = createIndex();
+
+        index.put(4, "bsmith", "Bob Smith");
+        Assert.assertEquals(keys(2, 3, 4), search(index, "smith"));
+
+        // Replace: old trigrams are no longer found.
+        index.put(4, "bjones", "Bob Jones");
+        Assert.assertEquals(keys(2, 3), search(index, "smith"));
+        Assert.assertEquals(keys(4), search(index, "jones"));
+        Assert.assertEquals(keys(4), search(index, "bob"));
+
+        index.remove(4);
+        Assert.assertEquals(keys(), search(index, "jones"));
+        Assert.assertFalse(index.containsKey(4));
+        Assert.assertEquals(3, index.size());
+
+        // Remove of unknown key is ignored.
+        index.remove(99);
+        Assert.assertEquals(3, index.size());
+    }
+
+    @Test
+    public void testGetTexts() {
+
+        final TrigramIndex<Integer> index = createIndex();
+
+        final String[] texts = index.getTexts(1);
+
+        Assert.assertEquals("jdoe", texts[0]);
+        Assert.assertEquals("john doe", texts[1]);
+
+        // A copy is returned.
+        texts[0] = "changed";
+        Assert.assertEquals("jdoe", index.getTexts(1)[0]);
+
+        Assert.assertEquals("", index.getTexts(3)[1]);
+        Assert.assertNull(index.getTexts(99));
+    }
+
+    @Test
+    public void testLoadReplacesIndex() {
+
+        final TrigramIndex<Integer> index = createIndex();
+
+        final Map<Integer, String[]> entries = new HashMap<>();
+        entries.put(10, new String[] { "new user" });
+
+        index.load(entries);
+
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals(keys(), search(index, "smith"));
+        Assert.assertEquals(keys(10), search(index, "user"));
+    }
+
+    @Test
+    public void testSearchMatchesScan() {
+
+        final TrigramIndex<Integer> index = new TrigramIndex<>();
+        final Map<Integer, String> texts = new HashMap<>();
+
+        final String alphabet = "abcab ";
+
+        for (int i = 0; i < 500; i++) {
+            final StringBuilder text = new StringBuilder();
+            int n = i;
+            for (int j = 0; j < 6; j++) {
+                text.append(alphabet.charAt(n % alphabet.length()));
+                n = n / alphabet.length() + j;
+            }
+            texts.put(i, text.toString());
+            index.put(i, text.toString());
+        }
+
+        for (final String filter : new String[] { "a", "ab", "abc", "cab",
+                "bca", "abca", "ab c", "cc", "aaaa" }) {
+
+            final List<Integer> expected = new ArrayList<>();
+            for (final Map.Entry<Integer, String> entry : texts.entrySet()) {
+                if (entry.getValue().contains(filter)) {
+                    expected.add(entry.getKey());
+                }
+            }
+            Collections.sort(expected);
+
+            Assert.assertEquals(filter, expected, search(index, filter));
+        }
+    }
+
+    @Test
+    public void testSearchFields() {
+
+        final TrigramIndex<Integer> index = createIndex();
+
+        final List<Integer> keys = new ArrayList<>(index.search("smith",
+                Integer.MAX_VALUE, 0));
+        Collections.sort(keys);
+        Assert.assertEquals(keys(2, 3), keys);
+
+        Assert.assertEquals(keys(2), index.search("smith", 10, 1));
+
+        Assert.assertEquals(keys(1), index.search("doe", 10, 1));
+        Assert.assertEquals(keys(), index.search("jdo", 10, 1));
+        Assert.assertEquals(keys(), index.search("js", 10, 1));
+        Assert.assertEquals(keys(), index.search("doe", 10, 5));
+    }
+
+    @Test
+    public void testSearchMaxKeys() {
+
+        final TrigramIndex<Integer> index = createIndex();
+
+        Assert.assertEquals(2, index.search("smith", 2).size());
+        Assert.assertEquals(1, index.search("smith", 1).size());
+        Assert.assertEquals(1, index.search("smi", 1).size());
+        Assert.assertEquals(2, index.search("s", 2).size());
+        Assert.assertEquals(0, index.search("", 0).size());
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.helpers;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.savapage.core.jpa.User;
+
+/**
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class UserSearchIndexTest {
+
+    /**
+     * An {@link EntityManager} whose queries return no rows, so no users are
+     * added by catch-up.
+     */
+    private static final EntityManager EM = createEntityManager();
+
+    /**
+     * @return The {@link EntityManager}.
+     */
+    private static EntityManager createEntityManager() {
+
+        final InvocationHandler queryHandler = new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method,
+                    final Object[] args) {
+                if (method.getName().equals("getResultList")) {
+                    return Collections.emptyList();
+                }
+                if (method.getReturnType().isInstance(proxy)) {
+                    return proxy;
+                }
+                return null;
+            }
+        };
+
+        final TypedQuery<?> query = (TypedQuery<?>) Proxy.newProxyInstance(
+                TypedQuery.class.getClassLoader(),
+                new Class<?>[] { TypedQuery.class }, queryHandler);
+
+        return (EntityManager) Proxy.newProxyInstance(
+                EntityManager.class.getClassLoader(),
+                new Class<?>[] { EntityManager.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy,
+                            final Method method, final Object[] args) {
+                        if (method.getName().equals("createQuery")) {
+                            return query;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * @param key
+     *            The primary key.
+     * @param userId
+     *            The user ID.
+     * @param fullName
+     *            The full name.
+     * @return The user.
+     */
+    private static User createUser(final long key, final String userId,
+            final String fullName) {
+        final User user = new User();
+        user.setId(Long.valueOf(key));
+        user.setUserId(userId);
+        user.setFullName(fullName);
+        user.setDeleted(Boolean.FALSE);
+        return user;
+    }
+
+    /**
+     * @return The texts of three users.
+     */
+    private static Map<Long, String[]> createEntries() {
+        final Map<Long, String[]> entries = new HashMap<>();
+        entries.put(1L, new String[] { "jdoe", "John Doe" });
+        entries.put(2L, new String[] { "asmith", "Alice Smith" });
+        entries.put(3L, new String[] { "bob", "Bob Smithson" });
+        return entries;
+    }
+
+    /**
+     * @return A loaded index of three users.
+     */
+    private static UserSearchIndex createIndex() {
+        final UserSearchIndex index = new UserSearchIndex();
+        final long generation = index.beginLoad();
+        index.load(createEntries(), 3L, generation);
+        index.endLoad();
+        return index;
+    }
+
+    /**
+     * @param index
+     *            The index.
+     * @param text
+     *            The search text.
+     * @param withFullName
+     *            {@code true} when full name is searched as well.
+     * @return The sorted keys found, or {@code null}.
+     */
+    private static List<Long> search(final UserSearchIndex index,
+            final String text, final boolean withFullName) {
+        final List<Long> keys = index.search(EM, text, withFullName);
+        if (keys == null) {
+            return null;
+        }
+        final List<Long> sorted = new ArrayList<>(keys);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @param keys
+     *            The keys.
+     * @return The list of keys.
+     */
+    private static List<Long> keys(final Long... keys) {
+        final List<Long> list = new ArrayList<>();
+        Collections.addAll(list, keys);
+        return list;
+    }
+
+    @Test
+    public void testSearchFields() {
+
+        final UserSearchIndex index = createIndex();
+
+        Assert.assertTrue(index.isLoaded());
+        Assert.assertEquals(keys(2L), search(index, "smith", false));
+        Assert.assertEquals(keys(2L, 3L), search(index, "SMITH", true));
+        Assert.assertEquals(keys(), search(index, "john", false));
+        Assert.assertEquals(keys(1L), search(index, "john", true));
+    }
+
+    @Test
+    public void testShortSearchText() {
+
+        final UserSearchIndex index = createIndex();
+
+        Assert.assertNull(search(index, null, true));
+        Assert.assertNull(search(index, "", true));
+        Assert.assertNull(search(index, "   ", true));
+        Assert.assertNull(search(index, "j", true));
+        Assert.assertNull(search(index, "jd", true));
+        Assert.assertEquals(keys(1L), search(index, "jdo", true));
+    }
+
+    @Test
+    public void testTooManyCandidates() {
+
+        final UserSearchIndex index = new UserSearchIndex();
+        final Map<Long, String[]> entries = new HashMap<>();
+
+        for (long i = 1; i <= 1001; i++) {
+            entries.put(i, new String[] { "user" + i, null });
+        }
+
+        final long generation = index.beginLoad();
+        index.load(entries, 1001L, generation);
+        index.endLoad();
+
+        Assert.assertNull(search(index, "user", false));
+        Assert.assertEquals(keys(1001L), search(index, "user1001", false));
+    }
+
+    @Test
+    public void testChanges() {
+
+        final UserSearchIndex index = createIndex();
+
+        index.onUserChanged(createUser(4L, "csmith", null));
+        index.onUserDeleted(2L);
+
+        final User renamed = createUser(3L, "bob", "Bob Jones");
+        index.onUserChanged(renamed);
+
+        Assert.assertEquals(keys(4L), search(index, "smith", true));
+
+        renamed.setDeleted(Boolean.TRUE);
+        index.onUserChanged(renamed);
+
+        Assert.assertEquals(keys(), search(index, "jones", true));
+        Assert.assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testChangesIgnoredWhenNotLoaded() {
+
+        final UserSearchIndex index = new UserSearchIndex();
+
+        index.onUserChanged(createUser(1L, "jdoe", null));
+
+        Assert.assertFalse(index.isLoaded());
+        Assert.assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testChangesDuringReloadAreKept() {
+
+        final UserSearchIndex index = createIndex();
+
+        final long generation = index.beginLoad();
+
+        // Changed after the reload read the users.
+        index.onUserChanged(createUser(4L, "csmith", null));
+        index.onUserDeleted(1L);
+
+        index.load(createEntries(), 3L, generation);
+        index.endLoad();
+
+        Assert.assertTrue(index.isLoaded());
+        Assert.assertEquals(keys(2L, 4L), search(index, "smith", false));
+        Assert.assertEquals(keys(), search(index, "jdoe", false));
+
+        // Changes are no longer recorded.
+        index.onUserDeleted(4L);
+        index.load(createEntries(), 3L, index.beginLoad());
+        index.endLoad();
+
+        Assert.assertEquals(keys(2L), search(index, "smith", false));
+    }
+
+    @Test
+    public void testInvalidateDuringReload() {
+
+        final UserSearchIndex index = createIndex();
+
+        final long generation = index.beginLoad();
+        index.invalidate();
+        index.load(createEntries(), 3L, generation);
+        index.endLoad();
+
+        Assert.assertFalse(index.isLoaded());
+
+        index.load(createEntries(), 3L, index.beginLoad());
+        index.endLoad();
+
+        Assert.assertTrue(index.isLoaded());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.ipp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class IppClientPenaltyBoxTest {
+
+    /** */
+    private static final IppClientPenaltyBox BOX =
+            IppClientPenaltyBox.instance();
+
+    /** */
+    private static final String FAILURE = "UNAVAILABLE|Queue does not exist.";
+
+    @Test
+    public void testRepeatedFailures() {
+
+        final String addr = "192.168.1.10";
+        final String key = IppClientPenaltyBox.createKey("/printers/x", "ua");
+
+        BOX.onFailure(addr, key, FAILURE);
+        BOX.onFailure(addr, key, FAILURE);
+        Assert.assertEquals(0, BOX.checkPenalty(addr, key));
+
+        BOX.onFailure(addr, key, FAILURE);
+        Assert.assertTrue(BOX.checkPenalty(addr, key) > 0);
+
+        // Other client and other request are not affected.
+        Assert.assertEquals(0, BOX.checkPenalty("192.168.1.11", key));
+        Assert.assertEquals(0, BOX.checkPenalty(addr,
+                IppClientPenaltyBox.createKey("/printers/y", "ua")));
+
+        BOX.onSuccess(addr, key);
+        Assert.assertEquals(0, BOX.checkPenalty(addr, key));
+    }
+
+    @Test
+    public void testDifferentFailure() {
+
+        final String addr = "192.168.2.10";
+        final String key = IppClientPenaltyBox.createKey("/printers/x", null);
+
+        BOX.onFailure(addr, key, FAILURE);
+        BOX.onFailure(addr, key, FAILURE);
+        BOX.onFailure(addr, key, "INTERNAL_ERROR|other");
+        Assert.assertEquals(0, BOX.checkPenalty(addr, key));
+    }
+
+    @Test
+    public void testRotatingKeysAreBounded() {
+
+        final String addr = "192.168.3.10";
+        final int before = BOX.getPenalizedClientCount();
+
+        for (int i = 0; i < 100; i++) {
+            final String key = IppClientPenaltyBox
+                    .createKey("/printers/x", String.format("ua-%d", i));
+            for (int j = 0; j < 3; j++) {
+                BOX.onFailure(addr, key, FAILURE);
+            }
+        }
+
+        final int added = BOX.getPenalizedClientCount() - before;
+
+        Assert.assertTrue(String.valueOf(added), added > 0 && added <= 8);
+    }
+}
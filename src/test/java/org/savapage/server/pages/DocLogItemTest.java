@@ -0,0 +1,268 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.pages;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.savapage.core.jpa.DocIn;
+import org.savapage.core.jpa.DocLog;
+import org.savapage.core.jpa.DocOut;
+import org.savapage.core.jpa.PrintIn;
+import org.savapage.core.jpa.PrintOut;
+import org.savapage.core.services.QueueService;
+
+/**
+ * Checks that the details of a {@link DocLog} page are fetched with a
+ * constant number of queries: the page query plus at most three batch
+ * queries, whatever the number of rows.
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class DocLogItemTest {
+
+    /**
+     * Mock {@link EntityManager} that records the queries created, and the
+     * size of their collection parameters.
+     */
+    private static final class QueryRecorder implements InvocationHandler {
+
+        /** */
+        private final List<String> queries = new ArrayList<>();
+
+        /** */
+        private final List<Integer> parameterSizes = new ArrayList<>();
+
+        /** */
+        private final TypedQuery<?> query = (TypedQuery<?>) Proxy
+                .newProxyInstance(TypedQuery.class.getClassLoader(),
+                        new Class<?>[] { TypedQuery.class },
+                        new InvocationHandler() {
+                            @Override
+                            public Object invoke(final Object proxy,
+                                    final Method method,
+                                    final Object[] args) {
+                                return onQuery(proxy, method, args);
+                            }
+                        });
+
+        /**
+         * @return The mock {@link EntityManager}.
+         */
+        EntityManager createEntityManager() {
+            return (EntityManager) Proxy.newProxyInstance(
+                    EntityManager.class.getClassLoader(),
+                    new Class<?>[] { EntityManager.class }, this);
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method,
+                final Object[] args) {
+            if (method.getName().equals("createQuery")) {
+                this.queries.add((String) args[0]);
+                return this.query;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+
+        /**
+         * Handles a {@link TypedQuery} call.
+         *
+         * @param proxy
+         *            The query proxy.
+         * @param method
+         *            The method.
+         * @param args
+         *            The arguments.
+         * @return The result.
+         */
+        private Object onQuery(final Object proxy, final Method method,
+                final Object[] args) {
+            if (method.getName().equals("setParameter")) {
+                if (args[1] instanceof Collection) {
+                    this.parameterSizes
+                            .add(Integer.valueOf(((Collection<?>) args[1])
+                                    .size()));
+                }
+                return proxy;
+            }
+            if (method.getName().equals("getResultList")) {
+                return Collections.emptyList();
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    /**
+     * @return A {@link QueueService} that must not be called.
+     */
+    private static QueueService createQueueService() {
+        return (QueueService) Proxy.newProxyInstance(
+                QueueService.class.getClassLoader(),
+                new Class<?>[] { QueueService.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy,
+                            final Method method, final Object[] args) {
+                        throw new UnsupportedOperationException(
+                                method.getName());
+                    }
+                });
+    }
+
+    /**
+     * Creates page rows: a third Mail Print jobs, a third print jobs, and a
+     * third other documents.
+     *
+     * @param rows
+     *            Number of rows.
+     * @return The rows.
+     */
+    private static List<DocLog> createPage(final int rows) {
+
+        final List<DocLog> page = new ArrayList<>();
+
+        for (int i = 0; i < rows; i++) {
+
+            final DocLog docLog = new DocLog();
+            docLog.setId(Long.valueOf(i));
+
+            if (i % 3 == 0) {
+                final DocIn docIn = new DocIn();
+                docIn.setId(Long.valueOf(i));
+                docIn.setPrintIn(new PrintIn());
+                docLog.setDocIn(docIn);
+                docLog.setExternalId(String.format("ticket-%d", i));
+            } else if (i % 3 == 1) {
+                final DocOut docOut = new DocOut();
+                docOut.setId(Long.valueOf(i));
+                docOut.setPrintOut(new PrintOut());
+                docLog.setDocOut(docOut);
+            }
+            page.add(docLog);
+        }
+        return page;
+    }
+
+    @Test
+    public void testQueryCountPerPage() {
+
+        for (final int rows : new int[] { 3, 30, 300 }) {
+
+            final QueryRecorder recorder = new QueryRecorder();
+
+            final DocLogItem.PageDetails details = DocLogItem.PageDetails.fetch(
+                    recorder.createEntityManager(), createQueueService(),
+                    createPage(rows), true);
+
+            Assert.assertEquals("batch queries", 3, recorder.queries.size());
+
+            for (final String jpql : recorder.queries) {
+                Assert.assertTrue(jpql, jpql.contains(" IN :"));
+            }
+
+            // All rows, Mail Print jobs, print jobs.
+            Assert.assertEquals(Integer.valueOf(rows),
+                    recorder.parameterSizes.get(0));
+            Assert.assertEquals(Integer.valueOf((rows + 2) / 3),
+                    recorder.parameterSizes.get(1));
+            Assert.assertEquals(Integer.valueOf((rows + 1) / 3),
+                    recorder.parameterSizes.get(2));
+
+            Assert.assertTrue(details.trxByDocLog.isEmpty());
+            Assert.assertTrue(details.printOutByDocIn.isEmpty());
+            Assert.assertTrue(details.mailPrintInByDocOut.isEmpty());
+        }
+    }
+
+    @Test
+    public void testQueryCountNoMailPrintView() {
+
+        final QueryRecorder recorder = new QueryRecorder();
+
+        DocLogItem.PageDetails.fetch(recorder.createEntityManager(),
+                createQueueService(), createPage(30), false);
+
+        Assert.assertEquals(2, recorder.queries.size());
+    }
+
+    @Test
+    public void testQueryCountEmptyPage() {
+
+        final QueryRecorder recorder = new QueryRecorder();
+
+        DocLogItem.PageDetails.fetch(recorder.createEntityManager(),
+                createQueueService(), new ArrayList<DocLog>(), true);
+
+        Assert.assertEquals(0, recorder.queries.size());
+    }
+
+    @Test
+    public void testFetchJoins() {
+
+        for (final boolean accountTrxRoot : new boolean[] { false, true }) {
+
+            final String jpql =
+                    DocLogItem.createSelectCommon(false, accountTrxRoot);
+
+            for (final String join : DocLogItem.DOCLOG_FETCH_JOINS) {
+                Assert.assertTrue(join, jpql.contains(join));
+            }
+
+            // The user of a row is fetched as well.
+            Assert.assertTrue(jpql, jpql.contains("JOIN FETCH D.user"));
+
+            // One join per relation.
+            Assert.assertEquals(jpql, 1 + DocLogItem.DOCLOG_FETCH_JOINS.length,
+                    jpql.split(" JOIN FETCH ").length - 1);
+        }
+
+        Assert.assertTrue(DocLogItem.createSelectCommon(false, false)
+                .startsWith("SELECT D FROM DocLog D JOIN FETCH D.user U"));
+        Assert.assertTrue(DocLogItem.createSelectCommon(false, true)
+                .startsWith("SELECT D FROM AccountTrx TRX JOIN TRX.docLog D"));
+    }
+
+    @Test
+    public void testCountQueryWithoutFetchJoins() {
+
+        Assert.assertEquals("SELECT COUNT(D.id) FROM DocLog D JOIN D.user U",
+                DocLogItem.createSelectCommon(true, false));
+        Assert.assertEquals(
+                "SELECT COUNT(D.id) FROM AccountTrx TRX JOIN TRX.docLog D",
+                DocLogItem.createSelectCommon(true, true));
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.raw;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class RawPrintHeaderScannerTest {
+
+    /**
+     * Input stream that returns at most one byte per read, like a slow
+     * socket.
+     */
+    private static final class TrickleInputStream extends InputStream {
+
+        /** */
+        private final InputStream istr;
+
+        /**
+         * @param bytes
+         *            The input.
+         */
+        TrickleInputStream(final byte[] bytes) {
+            this.istr = new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return this.istr.read();
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len)
+                throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            return this.istr.read(b, off, 1);
+        }
+    }
+
+    /**
+     * @param text
+     *            The text.
+     * @return The ISO-8859-1 bytes.
+     */
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Asserts the lines and read-ahead bytes of the input.
+     *
+     * @param scanner
+     *            The scanner.
+     * @param input
+     *            The complete input.
+     * @param lines
+     *            The expected lines.
+     * @throws IOException
+     *             When read error.
+     */
+    private static void assertLines(final RawPrintHeaderScanner scanner,
+            final byte[] input, final String... lines) throws IOException {
+
+        for (final String line : lines) {
+            Assert.assertEquals(line, scanner.nextLine());
+        }
+        Assert.assertNull(scanner.nextLine());
+        Assert.assertNull("end of stream is sticky", scanner.nextLine());
+        Assert.assertArrayEquals(input, scanner.getReadAheadBytes());
+    }
+
+    @Test
+    public void testLineDelimiters() throws IOException {
+
+        final byte[] input = bytes("a\nb\rc\r\nd\u0004e");
+
+        // CR LF yields an empty line.
+        final String[] lines = { "a", "b", "c", "", "d", "e" };
+
+        assertLines(new RawPrintHeaderScanner(new ByteArrayInputStream(input)),
+                input, lines);
+        assertLines(new RawPrintHeaderScanner(new TrickleInputStream(input)),
+                input, lines);
+    }
+
+    @Test
+    public void testEmptyInput() throws IOException {
+        final byte[] input = new byte[0];
+        assertLines(new RawPrintHeaderScanner(new ByteArrayInputStream(input)),
+                input);
+    }
+
+    @Test
+    public void testLastLineWithoutDelimiter() throws IOException {
+        final byte[] input = bytes("%!PS-Adobe-3.0\n%%Title: test");
+        assertLines(new RawPrintHeaderScanner(new TrickleInputStream(input)),
+                input, "%!PS-Adobe-3.0", "%%Title: test");
+    }
+
+    @Test
+    public void testBufferGrowth() throws IOException {
+
+        // Line longer than the initial buffer.
+        final StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            longLine.append((char) ('a' + i % 26));
+        }
+
+        final byte[] input = bytes(String.format("@PJL\n%s\nrest", longLine));
+
+        assertLines(new RawPrintHeaderScanner(new ByteArrayInputStream(input)),
+                input, "@PJL", longLine.toString(), "rest");
+    }
+
+    @Test
+    public void testReadAhead() throws IOException {
+
+        final byte[] input = bytes("line 1\nline 2\nbinary ÿ data");
+
+        final RawPrintHeaderScanner scanner =
+                new RawPrintHeaderScanner(new ByteArrayInputStream(input));
+
+        Assert.assertEquals("line 1", scanner.nextLine());
+
+        // All bytes read so far, including the ones after the line.
+        Assert.assertArrayEquals(input, scanner.getReadAheadBytes());
+
+        Assert.assertEquals("line 2", scanner.nextLine());
+        Assert.assertEquals("binary ÿ data", scanner.nextLine());
+    }
+
+    @Test
+    public void testMatchTokens() {
+
+        final String line = "@PJL SET USERNAME = \"john doe\"";
+
+        Assert.assertEquals(17, RawPrintHeaderScanner.matchTokens(line,
+                "@PJL", "SET", "USERNAME"));
+        Assert.assertEquals(17, RawPrintHeaderScanner.matchTokens(
+                "@pjl set username = x", "@PJL", "SET", "USERNAME"));
+        Assert.assertEquals(20, RawPrintHeaderScanner.matchTokens(
+                "  @PJL  SET\tUSERNAME =x", "@PJL", "SET", "USERNAME"));
+        Assert.assertEquals(4,
+                RawPrintHeaderScanner.matchTokens("@PJL", "@PJL"));
+
+        Assert.assertEquals("tokens are whitespace separated", -1,
+                RawPrintHeaderScanner.matchTokens("@PJL SET USERNAME=x",
+                        "@PJL", "SET", "USERNAME"));
+        Assert.assertEquals("token prefix only", -1, RawPrintHeaderScanner
+                .matchTokens("@PJL SET USERNAMEX = x", "@PJL", "SET",
+                        "USERNAME"));
+        Assert.assertEquals("other token", -1, RawPrintHeaderScanner
+                .matchTokens("@PJL JOB NAME = x", "@PJL", "SET", "NAME"));
+        Assert.assertEquals("line too short", -1,
+                RawPrintHeaderScanner.matchTokens("@PJL SET", "@PJL", "SET",
+                        "USERNAME"));
+    }
+}
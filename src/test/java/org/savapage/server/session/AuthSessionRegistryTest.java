@@ -0,0 +1,210 @@
+/*
+ * This file is part of the SavaPage project <https://www.savapage.org>.
+ * Copyright (c) 2020 Datraverse B.V.
+ * Author: Rijk Ravestein.
+ *
+ * SPDX-FileCopyrightText: © 2020 Datraverse B.V. <info@datraverse.com>
+ * SPDX-License-Identifier: AGPL-3.0-or-later
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * For more information, please contact Datraverse B.V. at this
+ * address: info@datraverse.com
+ */
+package org.savapage.server.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.savapage.core.config.WebAppTypeEnum;
+
+/**
+ * Multi-threaded login, lookup and logout churn on the
+ * {@link AuthSessionRegistry}.
+ *
+ * @author Rijk Ravestein
+ *
+ */
+public final class AuthSessionRegistryTest {
+
+    /** */
+    private static final int THREADS = 16;
+
+    /** */
+    private static final int ITERATIONS = 2000;
+
+    /**
+     * Number of shared IP addresses: less than the number of threads, so
+     * threads contend on the same IP addresses and lock stripes.
+     */
+    private static final int IP_ADDRESSES = 8;
+
+    /** */
+    private static final AuthSessionRegistry REGISTRY =
+            AuthSessionRegistry.instance();
+
+    @Test
+    public void testLoginLogout() {
+
+        final int sessionCount = REGISTRY.getAuthSessionCount();
+        final String user = "test-single";
+        final String ipAddr = "10.99.0.1";
+
+        REGISTRY.onAuthenticated(WebAppTypeEnum.USER, "single-1", ipAddr,
+                user);
+
+        Assert.assertEquals(user, REGISTRY.getAuthUserByIpAddr(ipAddr));
+        Assert.assertEquals(1, REGISTRY.getWebAppUserSessions(user));
+        Assert.assertEquals(sessionCount + 1,
+                REGISTRY.getAuthSessionCount());
+
+        REGISTRY.onAuthenticated(WebAppTypeEnum.MAILTICKETS, "single-2",
+                ipAddr, user);
+
+        Assert.assertEquals(1, REGISTRY.getWebAppUserSessions(user));
+        Assert.assertEquals(1, REGISTRY.getWebAppMailTicketsSessions(user));
+
+        Assert.assertNotNull(REGISTRY.onUnbound("single-1"));
+        Assert.assertNotNull(REGISTRY.onUnbound("single-2"));
+        Assert.assertNull("unbound twice", REGISTRY.onUnbound("single-2"));
+
+        Assert.assertEquals(0, REGISTRY.getWebAppUserSessions(user));
+        Assert.assertEquals(0, REGISTRY.getWebAppMailTicketsSessions(user));
+        Assert.assertNull(REGISTRY.getAuthUserByIpAddr(ipAddr));
+        Assert.assertEquals(sessionCount, REGISTRY.getAuthSessionCount());
+    }
+
+    @Test
+    public void testChurn() throws Exception {
+
+        final int sessionCount = REGISTRY.getAuthSessionCount();
+        final int ipAddrCount = REGISTRY.getAuthIpAddrCount();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Void>> futures = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+
+            final int thread = t;
+
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    churn(thread);
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+
+        for (final Future<Void> future : futures) {
+            // Rethrows assertion errors of the churn threads.
+            future.get(60, TimeUnit.SECONDS);
+        }
+
+        executor.shutdown();
+
+        Assert.assertEquals("sessions", sessionCount,
+                REGISTRY.getAuthSessionCount());
+        Assert.assertEquals("IP addresses", ipAddrCount,
+                REGISTRY.getAuthIpAddrCount());
+
+        for (int i = 0; i < IP_ADDRESSES; i++) {
+            Assert.assertNull(REGISTRY.getAuthUserByIpAddr(getIpAddr(i)));
+        }
+        for (int t = 0; t < THREADS; t++) {
+            Assert.assertEquals(0,
+                    REGISTRY.getWebAppUserSessions(getUser(t)));
+            Assert.assertEquals(0,
+                    REGISTRY.getWebAppMailTicketsSessions(getUser(t)));
+        }
+    }
+
+    /**
+     * Logs in and out the user of a thread. Since no other thread touches
+     * this user, its session counts are exact at every step.
+     *
+     * @param thread
+     *            The thread ordinal.
+     */
+    private static void churn(final int thread) {
+
+        final String user = getUser(thread);
+
+        for (int i = 0; i < ITERATIONS; i++) {
+
+            final String ipAddr1 = getIpAddr(i + thread);
+            final String ipAddr2 = getIpAddr(i + thread + 1);
+
+            final String session1 = String.format("churn-%d-%d-a", thread, i);
+            final String session2 = String.format("churn-%d-%d-b", thread, i);
+            final String session3 = String.format("churn-%d-%d-c", thread, i);
+
+            REGISTRY.onAuthenticated(WebAppTypeEnum.USER, session1, ipAddr1,
+                    user);
+            REGISTRY.onAuthenticated(WebAppTypeEnum.USER, session2, ipAddr2,
+                    user);
+            REGISTRY.onAuthenticated(WebAppTypeEnum.MAILTICKETS, session3,
+                    ipAddr1, user);
+
+            Assert.assertEquals(2, REGISTRY.getWebAppUserSessions(user));
+            Assert.assertEquals(1,
+                    REGISTRY.getWebAppMailTicketsSessions(user));
+
+            // Lookup while other threads update the same IP address.
+            REGISTRY.getAuthUserByIpAddr(ipAddr1);
+
+            Assert.assertNotNull(REGISTRY.onUnbound(session1));
+            Assert.assertEquals(1, REGISTRY.getWebAppUserSessions(user));
+
+            Assert.assertNotNull(REGISTRY.onUnbound(session3));
+            Assert.assertEquals(0,
+                    REGISTRY.getWebAppMailTicketsSessions(user));
+
+            Assert.assertNotNull(REGISTRY.onUnbound(session2));
+            Assert.assertEquals(0, REGISTRY.getWebAppUserSessions(user));
+
+            Assert.assertNull(REGISTRY.onUnbound(session2));
+        }
+    }
+
+    /**
+     * @param thread
+     *            The thread ordinal.
+     * @return The user of the thread.
+     */
+    private static String getUser(final int thread) {
+        return String.format("churn-user-%d", thread);
+    }
+
+    /**
+     * @param i
+     *            The ordinal.
+     * @return A shared IP address.
+     */
+    private static String getIpAddr(final int i) {
+        return String.format("10.98.0.%d", i % IP_ADDRESSES);
+    }
+}